@@ -7,10 +7,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import com.github.davidmoten.rx.internal.operators.OnSubscribeInputStream;
+import com.github.davidmoten.rx.internal.operators.TransformerBytesSplit;
 import com.github.davidmoten.rx.util.ZippedEntry;
 
 import rx.Observable;
@@ -172,6 +174,59 @@ public final class Bytes {
         };
     }
 
+    /**
+     * Splits a stream of byte arrays by the {@code delimiter} byte. The arrays
+     * are scanned in place and each part is copied once into its own array.
+     * As for {@link Transformers#split(String)} every part is emitted
+     * including empty parts and the part after the last delimiter.
+     * 
+     * @param delimiter
+     *            byte that separates parts
+     * @return transformer that emits the parts between delimiters
+     */
+    public static Transformer<byte[], byte[]> split(byte delimiter) {
+        return TransformerBytesSplit.split(delimiter);
+    }
+
+    /**
+     * Splits a stream of byte arrays into lines of text encoded in UTF-8. See
+     * {@link #splitLines(Charset)}.
+     * 
+     * @return transformer that emits the lines of text
+     */
+    public static Transformer<byte[], String> splitLines() {
+        return splitLines(Utf8Holder.INSTANCE);
+    }
+
+    /**
+     * Splits a stream of byte arrays into lines of text. Line endings are
+     * found by scanning the bytes before decoding and only the bytes of each
+     * line are decoded (directly from the source array unless the line spans
+     * arrays). This avoids decoding the whole stream to strings and then
+     * copying them again to split them.
+     * 
+     * <p>
+     * Lines are terminated by {@code '\n'} with an optional preceding
+     * {@code '\r'} which is not included in the line. Unlike
+     * {@link Transformers#split(String)} a final empty line (after a
+     * terminating newline) is not emitted.
+     * 
+     * @param charset
+     *            UTF-8 or a single byte charset that is a superset of ASCII
+     *            (for example ISO-8859-1)
+     * @return transformer that emits the lines of text
+     * @throws IllegalArgumentException
+     *             if newlines cannot be found before decoding in the
+     *             {@code charset} (UTF-16 for example)
+     */
+    public static Transformer<byte[], String> splitLines(Charset charset) {
+        return TransformerBytesSplit.splitLines(charset);
+    }
+
+    private static final class Utf8Holder {
+        static final Charset INSTANCE = Charset.forName("UTF-8");
+    }
+
     private static final class BosCreatorHolder {
 
         static final Func0<ByteArrayOutputStream> INSTANCE = new Func0<ByteArrayOutputStream>() {
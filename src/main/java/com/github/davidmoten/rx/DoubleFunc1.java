@@ -0,0 +1,14 @@
+package com.github.davidmoten.rx;
+
+/**
+ * A function returning a primitive {@code double} so that callers can avoid
+ * boxing (for example to extract a numeric key from an item).
+ * 
+ * @param <T>
+ *            item type
+ */
+public interface DoubleFunc1<T> {
+
+    double call(T t);
+
+}
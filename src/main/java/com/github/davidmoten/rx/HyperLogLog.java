@@ -0,0 +1,168 @@
+package com.github.davidmoten.rx;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * A mutable HyperLogLog sketch that estimates the number of distinct items
+ * added to it using {@code 2^precision} bytes regardless of the number of
+ * items. The relative standard error of the estimate is about
+ * {@code 1.04 / sqrt(2^precision)} (0.8% for the default precision of 14
+ * which uses 16KB).
+ *
+ * <p>
+ * Items are hashed by spreading {@link Object#hashCode()} to 64 bits so items
+ * with equal hash codes are counted once. For very high cardinalities (in the
+ * order of billions) supply a better 64 bit hash to {@link #addHash(long)}.
+ * Sketches with the same precision can be merged with
+ * {@link #combine(HyperLogLog)}.
+ *
+ * <p>
+ * Not thread-safe.
+ */
+public final class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final byte[] registers;
+
+    private HyperLogLog(int precision) {
+        checkPrecision(precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    static void checkPrecision(int precision) {
+        Preconditions.checkArgument(precision >= 4 && precision <= 18,
+                "precision must be between 4 and 18");
+    }
+
+    public static HyperLogLog create() {
+        return create(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Returns a new empty sketch with {@code 2^precision} registers.
+     *
+     * @param precision
+     *            between 4 and 18
+     * @return new sketch
+     */
+    public static HyperLogLog create(int precision) {
+        return new HyperLogLog(precision);
+    }
+
+    /**
+     * Adds an item (null is allowed).
+     *
+     * @param item
+     *            item
+     * @return this
+     */
+    public HyperLogLog add(Object item) {
+        return addHash(hash(item, 0));
+    }
+
+    /**
+     * Adds an item by its 64 bit hash. The bits of the hash should be
+     * uniformly distributed.
+     *
+     * @param hash
+     *            hash of the item
+     * @return this
+     */
+    public HyperLogLog addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the remaining bits with a stop bit so the count is bounded
+        long w = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+        return this;
+    }
+
+    /**
+     * Merges the items added to {@code other} into this sketch. {@code other}
+     * is not changed.
+     *
+     * @param other
+     *            sketch with the same precision
+     * @return this
+     */
+    public HyperLogLog combine(HyperLogLog other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        Preconditions.checkArgument(other.precision == precision,
+                "sketches must have the same precision");
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the estimated number of distinct items.
+     *
+     * @return estimated number of distinct items
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    private static double alpha(int m) {
+        if (m == 16) {
+            return 0.673;
+        } else if (m == 32) {
+            return 0.697;
+        } else if (m == 64) {
+            return 0.709;
+        } else {
+            return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Returns a 64 bit hash of the hash code of {@code item}. Each seed gives a
+     * different hash function.
+     */
+    static long hash(Object item, int seed) {
+        long h = item == null ? 0 : item.hashCode();
+        return mix(h + (seed + 1) * 0x9e3779b97f4a7c15L);
+    }
+
+    // the finalizer of MurmurHash3
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + precision + ", estimate=" + estimate() + "]";
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.davidmoten.rx;
+
+/**
+ * Which items of the two sources of a join are emitted when they have no
+ * match in the other source.
+ */
+public enum JoinType {
+
+    /**
+     * Only matched pairs are emitted.
+     */
+    INNER,
+
+    /**
+     * Matched pairs are emitted as well as each item of the first source that
+     * has no match (paired with null).
+     */
+    LEFT,
+
+    /**
+     * Matched pairs are emitted as well as each item of either source that
+     * has no match (paired with null).
+     */
+    FULL_OUTER;
+
+}
@@ -0,0 +1,14 @@
+package com.github.davidmoten.rx;
+
+/**
+ * A function returning a primitive {@code long} so that callers can avoid
+ * boxing (for example to extract a timestamp key from an item).
+ * 
+ * @param <T>
+ *            item type
+ */
+public interface LongFunc1<T> {
+
+    long call(T t);
+
+}
@@ -1,5 +1,6 @@
 package com.github.davidmoten.rx;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
@@ -9,21 +10,26 @@ import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
 import com.github.davidmoten.rx.internal.operators.ObservableReverse;
 import com.github.davidmoten.rx.internal.operators.OnSubscribeFromQueue;
 import com.github.davidmoten.rx.internal.operators.OnSubscribeMatch;
+import com.github.davidmoten.rx.internal.operators.OnSubscribeMergeJoin;
 import com.github.davidmoten.rx.internal.operators.OnSubscribeRepeating;
 import com.github.davidmoten.rx.internal.operators.OrderedMerge;
 import com.github.davidmoten.rx.internal.operators.Permutations;
 import com.github.davidmoten.rx.internal.operators.Permutations.Swap;
 import com.github.davidmoten.rx.observables.CachedObservable;
+import com.github.davidmoten.rx.util.MatchMetrics;
 import com.github.davidmoten.rx.util.RxRingBuffer;
 import com.github.davidmoten.util.Optional;
+import com.github.davidmoten.util.Preconditions;
 
 import rx.Observable;
 import rx.Scheduler;
 import rx.Scheduler.Worker;
 import rx.functions.Action0;
+import rx.functions.Action1;
 import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
@@ -203,6 +209,89 @@ public final class Obs {
         return OrderedMerge.create(sources, comparator, delayErrors, RxRingBuffer.SIZE);
     }
 
+    /**
+     * Returns the ordered merge of already ordered {@code sources}, emitting
+     * runs of up to {@code maxRunLength} items from the source with the
+     * smallest head while its items are not after the heads of the other
+     * sources. See
+     * {@link OrderedMerge#create(Collection, Comparator, boolean, int, int)}.
+     * 
+     * @param sources
+     *            already ordered observables to merge
+     * @param comparator
+     *            the ordering to use
+     * @param delayErrors
+     *            whether errors are reported immediately or are reported
+     *            after buffered items are emitted
+     * @param bufferSize
+     *            the number of items that are requested from each source at
+     *            the start (and held)
+     * @param maxRunLength
+     *            maximum number of items emitted from one source before the
+     *            sources are checked again (1 disables runs)
+     * @param <T>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <T> Observable<T> orderedMerge(Collection<Observable<T>> sources,
+            Comparator<? super T> comparator, boolean delayErrors, int bufferSize,
+            int maxRunLength) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        return OrderedMerge.create(sources, comparator, delayErrors, bufferSize, maxRunLength);
+    }
+
+    /**
+     * Returns the ordered merge of {@code sources} which are already in
+     * ascending order of the {@code long} returned by {@code key}. The key of
+     * the head of each source is extracted once and compared as a primitive
+     * (useful for merging timestamped events from many sources).
+     * 
+     * @param sources
+     *            observables already ordered by key to merge
+     * @param key
+     *            extracts the key of an item
+     * @param <T>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <T> Observable<T> orderedMergeLongKey(Collection<Observable<T>> sources,
+            LongFunc1<? super T> key) {
+        return orderedMergeLongKey(sources, key, false, RxRingBuffer.SIZE, 1);
+    }
+
+    public static <T> Observable<T> orderedMergeLongKey(Collection<Observable<T>> sources,
+            LongFunc1<? super T> key, boolean delayErrors, int bufferSize, int maxRunLength) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        return OrderedMerge.createWithLongKey(sources, key, delayErrors, bufferSize,
+                maxRunLength);
+    }
+
+    /**
+     * Returns the ordered merge of {@code sources} which are already in
+     * ascending order of the {@code double} returned by {@code key} (as
+     * defined by {@link Double#compare(double, double)}). The key of the head
+     * of each source is extracted once and compared as a primitive.
+     * 
+     * @param sources
+     *            observables already ordered by key to merge
+     * @param key
+     *            extracts the key of an item
+     * @param <T>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <T> Observable<T> orderedMergeDoubleKey(Collection<Observable<T>> sources,
+            DoubleFunc1<? super T> key) {
+        return orderedMergeDoubleKey(sources, key, false, RxRingBuffer.SIZE, 1);
+    }
+
+    public static <T> Observable<T> orderedMergeDoubleKey(Collection<Observable<T>> sources,
+            DoubleFunc1<? super T> key, boolean delayErrors, int bufferSize, int maxRunLength) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        return OrderedMerge.createWithDoubleKey(sources, key, delayErrors, bufferSize,
+                maxRunLength);
+    }
+
     public static <T> Observable<T> fromQueue(Queue<T> queue) {
         return Observable.create(new OnSubscribeFromQueue<T>(queue));
     }
@@ -274,6 +363,364 @@ public final class Obs {
                 .unsafeCreate(new OnSubscribeMatch<A, B, K, C>(a, b, aKey, bKey, combiner, requestSize));
     }
 
+    /**
+     * As for {@link #match(Observable, Observable, Func1, Func1, Func2, long)}
+     * but holds at most {@code maxItemsInMemory} unmatched items in memory.
+     * Beyond that unmatched items are written to temporary files using the
+     * given serializers, partitioned by key hash (like a grace hash join).
+     * Matches between spilled items are emitted once both sources have
+     * completed.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param requestSize
+     *            number of items requested from a source at a time
+     * @param aSerializer
+     *            serializes spilled items from a
+     * @param bSerializer
+     *            serializes spilled items from b
+     * @param maxItemsInMemory
+     *            maximum number of unmatched items held in memory
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> match(final Observable<A> a, final Observable<B> b,
+            final Func1<? super A, ? extends K> aKey, final Func1<? super B, ? extends K> bKey,
+            final Func2<? super A, ? super B, C> combiner, long requestSize,
+            DataSerializer<A> aSerializer, DataSerializer<B> bSerializer, long maxItemsInMemory) {
+        return match(a, b, aKey, bKey, combiner, requestSize, aSerializer, bSerializer,
+                maxItemsInMemory, OnSubscribeMatch.DEFAULT_SPILL_FILE_FACTORY,
+                OnSubscribeMatch.DEFAULT_SPILL_PARTITIONS);
+    }
+
+    /**
+     * As for
+     * {@link #match(Observable, Observable, Func1, Func1, Func2, long, DataSerializer, DataSerializer, long)}
+     * with spill files created by {@code fileFactory} (two for each of the
+     * {@code partitions} partitions that are spilled). When matching the
+     * spilled items the smaller side of one partition at a time is loaded
+     * into memory.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param requestSize
+     *            number of items requested from a source at a time
+     * @param aSerializer
+     *            serializes spilled items from a
+     * @param bSerializer
+     *            serializes spilled items from b
+     * @param maxItemsInMemory
+     *            maximum number of unmatched items held in memory
+     * @param fileFactory
+     *            creates spill files
+     * @param partitions
+     *            number of partitions keys are hashed into
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> match(final Observable<A> a, final Observable<B> b,
+            final Func1<? super A, ? extends K> aKey, final Func1<? super B, ? extends K> bKey,
+            final Func2<? super A, ? super B, C> combiner, long requestSize,
+            DataSerializer<A> aSerializer, DataSerializer<B> bSerializer, long maxItemsInMemory,
+            Func0<File> fileFactory, int partitions) {
+        Preconditions.checkNotNull(aSerializer, "aSerializer cannot be null");
+        return Observable.unsafeCreate(new OnSubscribeMatch<A, B, K, C>(a, b, aKey, bKey,
+                combiner, requestSize, aSerializer, bSerializer, maxItemsInMemory, fileFactory,
+                partitions));
+    }
+
+    /**
+     * As for {@link #match(Observable, Observable, Func1, Func1, Func2)} but
+     * items that have been unmatched for {@code maxAge} are evicted and passed
+     * to {@code onEvictedA} or {@code onEvictedB} so that unbounded streams
+     * can be matched in bounded memory (correlating requests with responses
+     * for example). Expiry is checked on ticks of the computation scheduler
+     * every {@code maxAge / 8} so an item is evicted between {@code maxAge}
+     * and {@code 9 * maxAge / 8} after it arrives.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param maxAge
+     *            how long an item can wait for a match, at least one
+     *            millisecond
+     * @param unit
+     *            unit of maxAge
+     * @param onEvictedA
+     *            called with evicted items from a, null to discard them
+     * @param onEvictedB
+     *            called with evicted items from b, null to discard them
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> match(final Observable<A> a, final Observable<B> b,
+            final Func1<? super A, ? extends K> aKey, final Func1<? super B, ? extends K> bKey,
+            final Func2<? super A, ? super B, C> combiner, long maxAge, TimeUnit unit,
+            Action1<? super A> onEvictedA, Action1<? super B> onEvictedB) {
+        return match(a, b, aKey, bKey, combiner, 128, Long.MAX_VALUE, maxAge, unit,
+                Schedulers.computation(), onEvictedA, onEvictedB);
+    }
+
+    /**
+     * As for {@link #match(Observable, Observable, Func1, Func1, Func2, long)}
+     * but unmatched items are evicted (oldest first) once more than
+     * {@code maxUnmatched} are held and also when they have been unmatched
+     * for {@code maxAge}. Evicted items are passed to {@code onEvictedA} or
+     * {@code onEvictedB}. Expiry is checked on ticks of {@code scheduler}
+     * every {@code maxAge / 8} so an item is evicted between {@code maxAge}
+     * and {@code 9 * maxAge / 8} after it arrives.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param requestSize
+     *            number of items requested from a source at a time
+     * @param maxUnmatched
+     *            maximum number of unmatched items held, use
+     *            {@code Long.MAX_VALUE} for no limit
+     * @param maxAge
+     *            how long an item can wait for a match, at least one
+     *            millisecond or 0 for no limit
+     * @param unit
+     *            unit of maxAge
+     * @param scheduler
+     *            scheduler for expiry checks
+     * @param onEvictedA
+     *            called with evicted items from a, null to discard them
+     * @param onEvictedB
+     *            called with evicted items from b, null to discard them
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> match(final Observable<A> a, final Observable<B> b,
+            final Func1<? super A, ? extends K> aKey, final Func1<? super B, ? extends K> bKey,
+            final Func2<? super A, ? super B, C> combiner, long requestSize, long maxUnmatched,
+            long maxAge, TimeUnit unit, Scheduler scheduler, Action1<? super A> onEvictedA,
+            Action1<? super B> onEvictedB) {
+        return Observable.unsafeCreate(new OnSubscribeMatch<A, B, K, C>(a, b, aKey, bKey,
+                combiner, requestSize, maxUnmatched, maxAge, unit, scheduler, onEvictedA,
+                onEvictedB));
+    }
+
+    /**
+     * As for {@link #match(Observable, Observable, Func1, Func1, Func2)} but
+     * requests are sized by the backlog of unmatched items of each source.
+     * See {@link #matchAdaptive(Observable, Observable, Func1, Func1, Func2, long, MatchMetrics)}.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> matchAdaptive(final Observable<A> a,
+            final Observable<B> b, final Func1<? super A, ? extends K> aKey,
+            final Func1<? super B, ? extends K> bKey,
+            final Func2<? super A, ? super B, C> combiner) {
+        return matchAdaptive(a, b, aKey, bKey, combiner, 128, null);
+    }
+
+    /**
+     * As for {@link #match(Observable, Observable, Func1, Func1, Func2, long)}
+     * but requests are sized by the backlog of unmatched items of each
+     * source. While one source holds at least {@code requestSize} more
+     * unmatched items than the other it is not requested from (unless the
+     * other source has completed). The source that is behind is requested
+     * from as soon as its last request has been delivered and with up to
+     * {@code 4 * requestSize} so it catches up sooner. When the sources are
+     * skewed this keeps the backlog bounded without waiting for both sources
+     * to deliver a batch before requesting again.
+     * 
+     * @param a
+     *            first observable
+     * @param b
+     *            second observable
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param combiner
+     *            combines a match
+     * @param requestSize
+     *            minimum number of items requested from a source at a time
+     * @param metrics
+     *            if not null the backlog and requested counts of each
+     *            source are published to it
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return matches
+     */
+    public static <A, B, K, C> Observable<C> matchAdaptive(final Observable<A> a,
+            final Observable<B> b, final Func1<? super A, ? extends K> aKey,
+            final Func1<? super B, ? extends K> bKey, final Func2<? super A, ? super B, C> combiner,
+            long requestSize, MatchMetrics metrics) {
+        return Observable.unsafeCreate(new OnSubscribeMatch<A, B, K, C>(a, b, aKey, bKey,
+                combiner, requestSize, metrics));
+    }
+
+    /**
+     * As for
+     * {@link #mergeJoin(Observable, Observable, Func1, Func1, Comparator, JoinType, Func2)}
+     * using the natural ordering of the keys.
+     * 
+     * @param a
+     *            first observable, sorted by key
+     * @param b
+     *            second observable, sorted by key
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param joinType
+     *            which unmatched items are emitted
+     * @param combiner
+     *            combines a match (one argument is null for an unmatched
+     *            item)
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return joined items
+     */
+    public static <A, B, K extends Comparable<? super K>, C> Observable<C> mergeJoin(
+            Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
+            Func1<? super B, ? extends K> bKey, JoinType joinType,
+            Func2<? super A, ? super B, ? extends C> combiner) {
+        return mergeJoin(a, b, aKey, bKey, new Comparator<K>() {
+            @Override
+            public int compare(K x, K y) {
+                return x.compareTo(y);
+            }
+        }, joinType, combiner);
+    }
+
+    /**
+     * Joins two observables that are sorted by key (ascending according to
+     * {@code comparator}) by walking them in step. For each key every item of
+     * {@code a} with that key is combined with every item of {@code b} with
+     * that key, in order. If {@code joinType} is {@link JoinType#LEFT} each
+     * item of {@code a} without a match is combined with null and if it is
+     * {@link JoinType#FULL_OUTER} items of either source without a match are
+     * combined with null. Unlike {@link #match} no hash maps are built. Only
+     * the items of {@code b} with the current key are held in memory so
+     * memory use does not grow with the length of the sources. Emits an
+     * {@link IllegalArgumentException} if either source is not sorted by key.
+     * 
+     * @param a
+     *            first observable, sorted by key
+     * @param b
+     *            second observable, sorted by key
+     * @param aKey
+     *            key of items from a
+     * @param bKey
+     *            key of items from b
+     * @param comparator
+     *            ordering of the keys
+     * @param joinType
+     *            which unmatched items are emitted
+     * @param combiner
+     *            combines a match (one argument is null for an unmatched
+     *            item)
+     * @param <A>
+     *            type of items from a
+     * @param <B>
+     *            type of items from b
+     * @param <K>
+     *            type of the key
+     * @param <C>
+     *            type of the combined items
+     * @return joined items
+     */
+    public static <A, B, K, C> Observable<C> mergeJoin(Observable<A> a, Observable<B> b,
+            Func1<? super A, ? extends K> aKey, Func1<? super B, ? extends K> bKey,
+            Comparator<? super K> comparator, JoinType joinType,
+            Func2<? super A, ? super B, ? extends C> combiner) {
+        return Observable.unsafeCreate(new OnSubscribeMergeJoin<A, B, K, C>(a, b, aKey, bKey,
+                comparator, joinType, combiner, RxRingBuffer.SIZE));
+    }
+
     public static <T> Observable<T> reverse(Observable<T> source) {
         return ObservableReverse.reverse(source);
     }
@@ -0,0 +1,298 @@
+package com.github.davidmoten.rx;
+
+import java.util.Arrays;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * A mutable streaming sketch of the distribution of {@code double} values
+ * from which quantiles (percentiles) can be estimated in bounded memory. It
+ * is a merging t-digest: values are buffered and periodically merged into a
+ * sorted list of centroids (a mean and a weight) whose weights are limited so
+ * that centroids near the extremes are small. Estimates of extreme quantiles
+ * like p99 and p999 are therefore much more accurate than those of the
+ * median.
+ *
+ * <p>
+ * The number of centroids is at most about {@code compression} (100 by
+ * default) so memory use does not depend on the number of values. Adding a
+ * value does not allocate. Sketches of different parts of a stream (computed
+ * in parallel for example) can be merged with {@link #combine(QuantileSketch)}.
+ *
+ * <p>
+ * Not thread-safe.
+ */
+public final class QuantileSketch {
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+
+    // centroids sorted by mean
+    private final double[] means;
+    private final double[] weights;
+    private int centroids;
+
+    // values not yet merged into the centroids
+    private final double[] buffer;
+    private int buffered;
+
+    // holds the sorted union of centroids and buffer before compression
+    private final double[] tempMeans;
+    private final double[] tempWeights;
+
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    private QuantileSketch(double compression) {
+        Preconditions.checkArgument(compression >= 10 && compression <= 10000,
+                "compression must be between 10 and 10000");
+        this.compression = compression;
+        int maxCentroids = 2 * (int) Math.ceil(compression) + 10;
+        this.means = new double[maxCentroids];
+        this.weights = new double[maxCentroids];
+        this.buffer = new double[5 * (int) Math.ceil(compression)];
+        this.tempMeans = new double[maxCentroids + buffer.length];
+        this.tempWeights = new double[tempMeans.length];
+    }
+
+    public static QuantileSketch create() {
+        return create(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns a new empty sketch. Higher compression gives more accurate
+     * estimates using more memory (the number of centroids is at most about
+     * {@code compression}).
+     *
+     * @param compression
+     *            between 10 and 10000
+     * @return new sketch
+     */
+    public static QuantileSketch create(double compression) {
+        return new QuantileSketch(compression);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param x
+     *            value
+     * @return this
+     */
+    public QuantileSketch add(double x) {
+        if (count == 0) {
+            min = x;
+            max = x;
+        } else {
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        count++;
+        buffer[buffered++] = x;
+        if (buffered == buffer.length) {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * Merges the values summarized by {@code other} into this sketch.
+     * {@code other} is not changed.
+     *
+     * @param other
+     *            sketch to merge into this one
+     * @return this
+     */
+    public QuantileSketch combine(QuantileSketch other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        if (other.count == 0) {
+            return this;
+        }
+        flush();
+        // the centroids of other merged with its sorted buffer
+        double[] otherBuffer = Arrays.copyOf(other.buffer, other.buffered);
+        Arrays.sort(otherBuffer);
+        int n = other.centroids + otherBuffer.length;
+        double[] otherMeans = new double[n];
+        double[] otherWeights = new double[n];
+        mergeSorted(other.means, other.weights, other.centroids, otherBuffer, null,
+                otherBuffer.length, otherMeans, otherWeights);
+        // merged with the centroids of this
+        double[] allMeans = new double[centroids + n];
+        double[] allWeights = new double[allMeans.length];
+        mergeSorted(means, weights, centroids, otherMeans, otherWeights, n, allMeans,
+                allWeights);
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        compress(allMeans, allWeights, allMeans.length);
+        return this;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value or NaN if there are no values.
+     *
+     * @return smallest value
+     */
+    public double min() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value or NaN if there are no values.
+     *
+     * @return largest value
+     */
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Returns an estimate of the value below which the fraction {@code q} of
+     * the values fall (for example {@code quantile(0.99)} estimates p99).
+     * Returns NaN if there are no values.
+     *
+     * @param q
+     *            fraction between 0 and 1
+     * @return estimate of the quantile
+     */
+    public double quantile(double q) {
+        Preconditions.checkArgument(q >= 0 && q <= 1, "q must be between 0 and 1");
+        flush();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // interpolate linearly between min at cumulative weight 0, the mean of
+        // each centroid at its centre and max at the total weight
+        double t = q * count;
+        double previousPosition = 0;
+        double previousValue = min;
+        double position = 0;
+        for (int i = 0; i < centroids; i++) {
+            double centre = position + weights[i] / 2;
+            if (t < centre) {
+                return interpolate(t, previousPosition, previousValue, centre, means[i]);
+            }
+            previousPosition = centre;
+            previousValue = means[i];
+            position += weights[i];
+        }
+        return interpolate(t, previousPosition, previousValue, count, max);
+    }
+
+    /**
+     * Returns the number of centroids. Exposed for testing memory bounds.
+     *
+     * @return number of centroids after merging buffered values
+     */
+    int centroids() {
+        flush();
+        return centroids;
+    }
+
+    private static double interpolate(double t, double x1, double y1, double x2, double y2) {
+        if (x2 <= x1) {
+            return y2;
+        }
+        return y1 + (y2 - y1) * (t - x1) / (x2 - x1);
+    }
+
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+        int n = centroids + buffered;
+        mergeSorted(means, weights, centroids, buffer, null, buffered, tempMeans, tempWeights);
+        buffered = 0;
+        compress(tempMeans, tempWeights, n);
+    }
+
+    // merges two lists sorted by mean, bWeights null means all weights are 1
+    private static void mergeSorted(double[] aMeans, double[] aWeights, int aSize,
+            double[] bMeans, double[] bWeights, int bSize, double[] outMeans,
+            double[] outWeights) {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < aSize || j < bSize) {
+            if (j == bSize || (i < aSize && aMeans[i] <= bMeans[j])) {
+                outMeans[k] = aMeans[i];
+                outWeights[k] = aWeights[i];
+                i++;
+            } else {
+                outMeans[k] = bMeans[j];
+                outWeights[k] = bWeights == null ? 1 : bWeights[j];
+                j++;
+            }
+            k++;
+        }
+    }
+
+    // replaces the centroids with the sorted points in the given arrays
+    // merging adjacent points while the merged centroid spans no more than 1
+    // in the scale function k
+    private void compress(double[] inMeans, double[] inWeights, int n) {
+        double total = count;
+        int out = 0;
+        double mean = inMeans[0];
+        double weight = inWeights[0];
+        double weightSoFar = 0;
+        double kLeft = k(0);
+        for (int i = 1; i < n; i++) {
+            double w = inWeights[i];
+            if (k((weightSoFar + weight + w) / total) - kLeft <= 1) {
+                weight += w;
+                mean += (inMeans[i] - mean) * w / weight;
+            } else {
+                means[out] = mean;
+                weights[out] = weight;
+                out++;
+                weightSoFar += weight;
+                kLeft = k(weightSoFar / total);
+                mean = inMeans[i];
+                weight = w;
+            }
+        }
+        means[out] = mean;
+        weights[out] = weight;
+        centroids = out + 1;
+    }
+
+    private double k(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("QuantileSketch [count=");
+        builder.append(count);
+        builder.append(", min=");
+        builder.append(min);
+        builder.append(", p50=");
+        builder.append(quantile(0.5));
+        builder.append(", p90=");
+        builder.append(quantile(0.9));
+        builder.append(", p99=");
+        builder.append(quantile(0.99));
+        builder.append(", p999=");
+        builder.append(quantile(0.999));
+        builder.append(", max=");
+        builder.append(max);
+        builder.append("]");
+        return builder.toString();
+    }
+}
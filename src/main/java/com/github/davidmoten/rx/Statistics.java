@@ -5,20 +5,30 @@ public final class Statistics {
     private final long count;
     private final double sumX;
     private final double sumX2;
+    // mean and sum of squared differences from the mean (Welford's method)
+    // which unlike sumX2 / count - mean^2 do not lose precision when the
+    // values are large compared to their spread
+    private final double mean;
+    private final double m2;
 
-    private Statistics(long count, double sumX, double sumX2) {
+    private Statistics(long count, double sumX, double sumX2, double mean, double m2) {
         this.count = count;
         this.sumX = sumX;
         this.sumX2 = sumX2;
+        this.mean = mean;
+        this.m2 = m2;
     }
 
     public static Statistics create() {
-        return new Statistics(0, 0, 0);
+        return new Statistics(0, 0, 0, 0, 0);
     }
 
     public Statistics add(Number number) {
         double x = number.doubleValue();
-        return new Statistics(count + 1, sumX + x, sumX2 + x * x);
+        long n = count + 1;
+        double d = x - mean;
+        double newMean = mean + d / n;
+        return new Statistics(n, sumX + x, sumX2 + x * x, newMean, m2 + d * (x - newMean));
     }
 
     public long count() {
@@ -34,12 +44,11 @@ public final class Statistics {
     }
 
     public double mean() {
-        return sumX / count;
+        return count == 0 ? Double.NaN : mean;
     }
 
     public double sd() {
-        double m = mean();
-        return Math.sqrt(sumX2 / count - m * m);
+        return Math.sqrt(m2 / count);
     }
 
     @Override
@@ -0,0 +1,205 @@
+package com.github.davidmoten.rx;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * A mutable accumulator of statistics of {@code double} values: count, min,
+ * max, mean, variance, skewness and kurtosis. Unlike {@link Statistics} adding
+ * a value does not allocate and values are not boxed.
+ *
+ * <p>
+ * The mean and the second, third and fourth central moments are updated using
+ * Welford's method (as extended to higher moments by Terriberry) which stays
+ * accurate when the values are large compared to their spread. Accumulators
+ * of different parts of a stream (computed in parallel for example) can be
+ * merged with {@link #combine(StatisticsAccumulator)} and give the same
+ * result (up to rounding) as accumulating the whole stream.
+ *
+ * <p>
+ * Not thread-safe.
+ */
+public final class StatisticsAccumulator {
+
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double mean;
+    // sums of the powers of the differences from the mean
+    private double m2;
+    private double m3;
+    private double m4;
+
+    private StatisticsAccumulator() {
+    }
+
+    public static StatisticsAccumulator create() {
+        return new StatisticsAccumulator();
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param x
+     *            value
+     * @return this
+     */
+    public StatisticsAccumulator add(double x) {
+        if (count == 0) {
+            min = x;
+            max = x;
+        } else {
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        double n1 = count;
+        count++;
+        double n = count;
+        double delta = x - mean;
+        double deltaN = delta / n;
+        double deltaN2 = deltaN * deltaN;
+        double term1 = delta * deltaN * n1;
+        mean += deltaN;
+        m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+        m2 += term1;
+        return this;
+    }
+
+    /**
+     * Merges the values accumulated by {@code other} into this accumulator.
+     * {@code other} is not changed.
+     *
+     * @param other
+     *            accumulator to merge into this one
+     * @return this
+     */
+    public StatisticsAccumulator combine(StatisticsAccumulator other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        if (other.count == 0) {
+            return this;
+        } else if (count == 0) {
+            count = other.count;
+            min = other.min;
+            max = other.max;
+            mean = other.mean;
+            m2 = other.m2;
+            m3 = other.m3;
+            m4 = other.m4;
+            return this;
+        }
+        double na = count;
+        double nb = other.count;
+        double n = na + nb;
+        double delta = other.mean - mean;
+        double delta2 = delta * delta;
+        double delta3 = delta2 * delta;
+        double delta4 = delta2 * delta2;
+        double newM4 = m4 + other.m4 + delta4 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n)
+                + 6 * delta2 * (na * na * other.m2 + nb * nb * m2) / (n * n)
+                + 4 * delta * (na * other.m3 - nb * m3) / n;
+        double newM3 = m3 + other.m3 + delta3 * na * nb * (na - nb) / (n * n)
+                + 3 * delta * (na * other.m2 - nb * m2) / n;
+        m2 = m2 + other.m2 + delta2 * na * nb / n;
+        m3 = newM3;
+        m4 = newM4;
+        mean += delta * nb / n;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value or NaN if there are no values.
+     *
+     * @return smallest value
+     */
+    public double min() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value or NaN if there are no values.
+     *
+     * @return largest value
+     */
+    public double max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Returns the population variance (divides by n).
+     *
+     * @return population variance
+     */
+    public double variance() {
+        return m2 / count;
+    }
+
+    /**
+     * Returns the sample variance (divides by n - 1).
+     *
+     * @return sample variance
+     */
+    public double sampleVariance() {
+        return m2 / (count - 1);
+    }
+
+    /**
+     * Returns the population standard deviation.
+     *
+     * @return population standard deviation
+     */
+    public double sd() {
+        return Math.sqrt(variance());
+    }
+
+    /**
+     * Returns the population skewness (NaN if all values are equal).
+     *
+     * @return population skewness
+     */
+    public double skewness() {
+        return Math.sqrt(count) * m3 / Math.pow(m2, 1.5);
+    }
+
+    /**
+     * Returns the population excess kurtosis, which is zero for a normal
+     * distribution (NaN if all values are equal).
+     *
+     * @return population excess kurtosis
+     */
+    public double kurtosis() {
+        return count * m4 / (m2 * m2) - 3;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("StatisticsAccumulator [count=");
+        builder.append(count);
+        builder.append(", min=");
+        builder.append(min);
+        builder.append(", max=");
+        builder.append(max);
+        builder.append(", mean=");
+        builder.append(mean());
+        builder.append(", sd=");
+        builder.append(sd());
+        builder.append(", skewness=");
+        builder.append(skewness());
+        builder.append(", kurtosis=");
+        builder.append(kurtosis());
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.davidmoten.rx.internal.operators.OnSubscribeReader;
+import com.github.davidmoten.rx.internal.operators.TransformerBytesSplit;
 import com.github.davidmoten.util.Preconditions;
 
 import rx.Observable;
@@ -208,7 +209,14 @@ public final class Strings {
 
     public static Observable<List<String>> splitLines(InputStream is, Charset charset,
             final String delimiter, final String commentPrefix) {
-        return from(is, charset).compose(Transformers.split("\n")) //
+        final Observable<String> lines;
+        if (TransformerBytesSplit.isLineSplittable(charset)) {
+            // find the newlines before decoding so the text is only copied once
+            lines = Bytes.from(is).compose(Bytes.splitLines(charset));
+        } else {
+            lines = from(is, charset).compose(Transformers.split("\n"));
+        }
+        return lines //
                 .filter(new Func1<String, Boolean>() {
                     @Override
                     public Boolean call(String line) {
@@ -0,0 +1,280 @@
+package com.github.davidmoten.rx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.davidmoten.rx.util.Pair;
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * A mutable sketch of the {@code k} most frequent items (heavy hitters) of a
+ * stream in fixed memory. Counts are estimated with a Count-Min sketch of
+ * {@code depth} rows of {@code width} counters and the {@code k} items with
+ * the largest estimates seen so far are kept in a min heap.
+ *
+ * <p>
+ * Estimates never undercount. An estimate exceeds the true count by at most
+ * {@code 2N / width} (where N is the number of items added) with probability
+ * at least {@code 1 - 2^-depth}. Items are hashed using
+ * {@link Object#hashCode()}. Sketches with the same {@code k}, {@code width}
+ * and {@code depth} can be merged with {@link #combine(TopK)}.
+ *
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <T>
+ *            type of the items
+ */
+public final class TopK<T> {
+
+    public static final int DEFAULT_WIDTH = 2048;
+    public static final int DEFAULT_DEPTH = 5;
+
+    private final int k;
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long count;
+
+    // min heap by estimate of the candidate items
+    private final Object[] items;
+    private final long[] estimates;
+    private int size;
+    // heap entry of each candidate item. The entry records its own position
+    // so that swaps don't update the map (or box the position)
+    private final Map<T, Candidate<T>> index;
+
+    private TopK(int k, int width, int depth) {
+        checkDimensions(k, width, depth);
+        this.k = k;
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[width * depth];
+        this.items = new Object[k];
+        this.estimates = new long[k];
+        this.index = new HashMap<T, Candidate<T>>();
+    }
+
+    static void checkDimensions(int k, int width, int depth) {
+        Preconditions.checkArgument(k > 0, "k must be greater than zero");
+        Preconditions.checkArgument(width > 0, "width must be greater than zero");
+        Preconditions.checkArgument(depth > 0, "depth must be greater than zero");
+    }
+
+    public static <T> TopK<T> create(int k) {
+        return create(k, DEFAULT_WIDTH, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Returns a new empty sketch.
+     *
+     * @param k
+     *            number of most frequent items to keep
+     * @param width
+     *            number of counters in each row of the Count-Min sketch
+     * @param depth
+     *            number of rows (hash functions) of the Count-Min sketch
+     * @param <T>
+     *            type of the items
+     * @return new sketch
+     */
+    public static <T> TopK<T> create(int k, int width, int depth) {
+        return new TopK<T>(k, width, depth);
+    }
+
+    /**
+     * Adds an item (null is allowed).
+     *
+     * @param item
+     *            item
+     * @return this
+     */
+    public TopK<T> add(T item) {
+        count++;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int i = counter(item, row);
+            counters[i]++;
+            estimate = Math.min(estimate, counters[i]);
+        }
+        offer(item, estimate);
+        return this;
+    }
+
+    /**
+     * Merges the items added to {@code other} into this sketch. {@code other}
+     * is not changed.
+     *
+     * @param other
+     *            sketch with the same dimensions
+     * @return this
+     */
+    public TopK<T> combine(TopK<T> other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        Preconditions.checkArgument(other.k == k && other.width == width && other.depth == depth,
+                "sketches must have the same k, width and depth");
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        count += other.count;
+        // re-estimate the candidates of both sketches
+        Set<T> candidates = new LinkedHashSet<T>();
+        for (int i = 0; i < size; i++) {
+            candidates.add(candidate(i).item);
+        }
+        for (int i = 0; i < other.size; i++) {
+            candidates.add(other.candidate(i).item);
+        }
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+        index.clear();
+        for (T item : candidates) {
+            offer(item, estimate(item));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the estimated number of times {@code item} was added. Never less
+     * than the true number.
+     *
+     * @param item
+     *            item
+     * @return estimated count
+     */
+    public long estimate(T item) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[counter(item, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the number of items added.
+     *
+     * @return number of items added
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns up to {@code k} items with their estimated counts, most frequent
+     * first.
+     *
+     * @return most frequent items and their estimated counts
+     */
+    public List<Pair<T, Long>> topK() {
+        List<Pair<T, Long>> list = new ArrayList<Pair<T, Long>>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(Pair.create(candidate(i).item, estimates[i]));
+        }
+        Collections.sort(list, new Comparator<Pair<T, Long>>() {
+            @Override
+            public int compare(Pair<T, Long> x, Pair<T, Long> y) {
+                return y.b().compareTo(x.b());
+            }
+        });
+        return list;
+    }
+
+    private int counter(T item, int row) {
+        long h = HyperLogLog.hash(item, row);
+        return row * width + (int) ((h >>> 1) % width);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Candidate<T> candidate(int i) {
+        return (Candidate<T>) items[i];
+    }
+
+    private void offer(T item, long estimate) {
+        Candidate<T> c = index.get(item);
+        if (c != null) {
+            // estimates only increase
+            estimates[c.position] = estimate;
+            siftDown(c.position);
+        } else if (size < k) {
+            c = new Candidate<T>(item, size);
+            items[size] = c;
+            estimates[size] = estimate;
+            index.put(item, c);
+            size++;
+            siftUp(size - 1);
+        } else if (estimate > estimates[0]) {
+            index.remove(candidate(0).item);
+            c = new Candidate<T>(item, 0);
+            items[0] = c;
+            estimates[0] = estimate;
+            index.put(item, c);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (estimates[i] < estimates[parent]) {
+                swap(i, parent);
+                i = parent;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && estimates[child + 1] < estimates[child]) {
+                child++;
+            }
+            if (estimates[child] < estimates[i]) {
+                swap(i, child);
+                i = child;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        long estimate = estimates[i];
+        estimates[i] = estimates[j];
+        estimates[j] = estimate;
+        candidate(i).position = i;
+        candidate(j).position = j;
+    }
+
+    private static final class Candidate<T> {
+        final T item;
+        // position in the heap
+        int position;
+
+        Candidate(T item, int position) {
+            this.item = item;
+            this.position = position;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TopK [count=" + count + ", topK=" + topK() + "]";
+    }
+}
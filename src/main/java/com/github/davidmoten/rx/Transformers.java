@@ -1,5 +1,6 @@
 package com.github.davidmoten.rx;
 
+import java.io.File;
 import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,6 +26,8 @@ import com.github.davidmoten.rx.internal.operators.OperatorBufferToFile;
 import com.github.davidmoten.rx.internal.operators.OperatorDoOnNth;
 import com.github.davidmoten.rx.internal.operators.OperatorFromTransformer;
 import com.github.davidmoten.rx.internal.operators.OperatorSampleFirst;
+import com.github.davidmoten.rx.internal.operators.OperatorWindowAggregate;
+import com.github.davidmoten.rx.internal.operators.OperatorWindowAggregate.Aggregate;
 import com.github.davidmoten.rx.internal.operators.OperatorWindowMinMax;
 import com.github.davidmoten.rx.internal.operators.OperatorWindowMinMax.Metric;
 import com.github.davidmoten.rx.internal.operators.OrderedMerge;
@@ -33,11 +36,13 @@ import com.github.davidmoten.rx.internal.operators.TransformerDelayFinalUnsubscr
 import com.github.davidmoten.rx.internal.operators.TransformerLimitSubscribers;
 import com.github.davidmoten.rx.internal.operators.TransformerOnBackpressureBufferRequestLimiting;
 import com.github.davidmoten.rx.internal.operators.TransformerOnTerminateResume;
+import com.github.davidmoten.rx.internal.operators.TransformerSortExternal;
 import com.github.davidmoten.rx.internal.operators.TransformerStateMachine;
 import com.github.davidmoten.rx.internal.operators.TransformerStringSplit;
 import com.github.davidmoten.rx.util.BackpressureStrategy;
 import com.github.davidmoten.rx.util.MapWithIndex;
 import com.github.davidmoten.rx.util.MapWithIndex.Indexed;
+import com.github.davidmoten.rx.util.MatchMetrics;
 import com.github.davidmoten.rx.util.Pair;
 import com.github.davidmoten.util.Optional;
 import com.github.davidmoten.util.Preconditions;
@@ -97,6 +102,354 @@ public final class Transformers {
         };
     }
 
+    /**
+     * Emits a single {@link StatisticsAccumulator} of the values of the
+     * source when it completes. Accumulators of different streams can be
+     * merged using {@link StatisticsAccumulator#combine(StatisticsAccumulator)}.
+     * 
+     * @param <T>
+     *            type of the source values
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, StatisticsAccumulator> statistics() {
+        return statistics(Transformers.<T> toDouble());
+    }
+
+    /**
+     * Emits a single {@link StatisticsAccumulator} of the values extracted
+     * from the items of the source when it completes.
+     * 
+     * @param function
+     *            extracts the value from an item
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, StatisticsAccumulator> statistics(
+            final DoubleFunc1<? super T> function) {
+        Preconditions.checkNotNull(function, "function cannot be null");
+        return new Transformer<T, StatisticsAccumulator>() {
+
+            @Override
+            public Observable<StatisticsAccumulator> call(Observable<T> source) {
+                return source.collect(new Func0<StatisticsAccumulator>() {
+                    @Override
+                    public StatisticsAccumulator call() {
+                        return StatisticsAccumulator.create();
+                    }
+                }, new Action2<StatisticsAccumulator, T>() {
+                    @Override
+                    public void call(StatisticsAccumulator stats, T t) {
+                        stats.add(function.call(t));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Emits a single {@link QuantileSketch} (with default compression) of the
+     * values of the source when it completes.
+     * 
+     * @param <T>
+     *            type of the source values
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, QuantileSketch> collectQuantiles() {
+        return collectQuantiles(Transformers.<T> toDouble(), QuantileSketch.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Emits a single {@link QuantileSketch} of the values extracted from the
+     * items of the source when it completes. Memory use is bounded by
+     * {@code compression} rather than the number of items.
+     * 
+     * @param function
+     *            extracts the value from an item
+     * @param compression
+     *            accuracy of the sketch (see {@link QuantileSketch#create(double)})
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, QuantileSketch> collectQuantiles(
+            final DoubleFunc1<? super T> function, final double compression) {
+        Preconditions.checkNotNull(function, "function cannot be null");
+        // fail fast on bad compression
+        QuantileSketch.create(compression);
+        return new Transformer<T, QuantileSketch>() {
+
+            @Override
+            public Observable<QuantileSketch> call(Observable<T> source) {
+                return source.collect(new Func0<QuantileSketch>() {
+                    @Override
+                    public QuantileSketch call() {
+                        return QuantileSketch.create(compression);
+                    }
+                }, new Action2<QuantileSketch, T>() {
+                    @Override
+                    public void call(QuantileSketch sketch, T t) {
+                        sketch.add(function.call(t));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Emits a {@link QuantileSketch} (with default compression) of the values
+     * that arrived in each {@code period} on the computation scheduler and a
+     * sketch of the values of the last partial period when the source
+     * completes.
+     * 
+     * @param period
+     *            length of each period, greater than zero
+     * @param unit
+     *            unit of {@code period}
+     * @param <T>
+     *            type of the source values
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, QuantileSketch> collectQuantiles(
+            final long period, final TimeUnit unit) {
+        return collectQuantiles(Transformers.<T> toDouble(), QuantileSketch.DEFAULT_COMPRESSION,
+                period, unit, Schedulers.computation());
+    }
+
+    /**
+     * Emits a {@link QuantileSketch} of the values extracted from the items
+     * that arrived in each {@code period} (an empty sketch if none arrived)
+     * and a sketch of the items of the last partial period when the source
+     * completes. Sketches can be merged with
+     * {@link QuantileSketch#combine(QuantileSketch)} to get quantiles over
+     * longer periods.
+     * 
+     * @param function
+     *            extracts the value from an item
+     * @param compression
+     *            accuracy of the sketch (see {@link QuantileSketch#create(double)})
+     * @param period
+     *            length of each period, greater than zero
+     * @param unit
+     *            unit of {@code period}
+     * @param scheduler
+     *            scheduler that ends each period
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, QuantileSketch> collectQuantiles(
+            final DoubleFunc1<? super T> function, final double compression, final long period,
+            final TimeUnit unit, final Scheduler scheduler) {
+        return periodically(collectQuantiles(function, compression), period, unit, scheduler);
+    }
+
+    private static <T extends Number> DoubleFunc1<T> toDouble() {
+        return new DoubleFunc1<T>() {
+            @Override
+            public double call(T t) {
+                return t.doubleValue();
+            }
+        };
+    }
+
+    public static <T> Transformer<T, HyperLogLog> countDistinctApprox() {
+        return countDistinctApprox(HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Emits a single {@link HyperLogLog} sketch of the items of the source
+     * when it completes. Unlike {@link #toSet()} memory use is fixed at
+     * {@code 2^precision} bytes no matter how many distinct items there are.
+     * Call {@link HyperLogLog#estimate()} for the approximate number of
+     * distinct items.
+     * 
+     * @param precision
+     *            between 4 and 18
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, HyperLogLog> countDistinctApprox(final int precision) {
+        HyperLogLog.checkPrecision(precision);
+        return new Transformer<T, HyperLogLog>() {
+
+            @Override
+            public Observable<HyperLogLog> call(Observable<T> source) {
+                return source.collect(new Func0<HyperLogLog>() {
+                    @Override
+                    public HyperLogLog call() {
+                        return HyperLogLog.create(precision);
+                    }
+                }, new Action2<HyperLogLog, T>() {
+                    @Override
+                    public void call(HyperLogLog sketch, T t) {
+                        sketch.add(t);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Emits a {@link HyperLogLog} sketch (with default precision) of the items
+     * that arrived in each {@code period} on the computation scheduler and a
+     * sketch of the items of the last partial period when the source
+     * completes.
+     * 
+     * @param period
+     *            length of each period
+     * @param unit
+     *            unit of {@code period}
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, HyperLogLog> countDistinctApprox(long period,
+            TimeUnit unit) {
+        return countDistinctApprox(HyperLogLog.DEFAULT_PRECISION, period, unit,
+                Schedulers.computation());
+    }
+
+    /**
+     * Emits a {@link HyperLogLog} sketch of the items that arrived in each
+     * {@code period} (an empty sketch if none arrived) and a sketch of the
+     * items of the last partial period when the source completes. Sketches
+     * can be merged with {@link HyperLogLog#combine(HyperLogLog)} to count
+     * distinct items over longer periods.
+     * 
+     * @param precision
+     *            between 4 and 18
+     * @param period
+     *            length of each period
+     * @param unit
+     *            unit of {@code period}
+     * @param scheduler
+     *            scheduler that ends each period
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, HyperLogLog> countDistinctApprox(int precision,
+            long period, TimeUnit unit, Scheduler scheduler) {
+        return periodically(Transformers.<T> countDistinctApprox(precision), period, unit,
+                scheduler);
+    }
+
+    public static <T> Transformer<T, TopK<T>> topKApprox(int k) {
+        return topKApprox(k, TopK.DEFAULT_WIDTH, TopK.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Emits a single {@link TopK} sketch of the {@code k} most frequent items
+     * of the source when it completes. Memory use is fixed by {@code k},
+     * {@code width} and {@code depth}.
+     * 
+     * @param k
+     *            number of most frequent items to keep
+     * @param width
+     *            number of counters in each row of the Count-Min sketch
+     * @param depth
+     *            number of rows of the Count-Min sketch
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, TopK<T>> topKApprox(final int k, final int width,
+            final int depth) {
+        TopK.checkDimensions(k, width, depth);
+        return new Transformer<T, TopK<T>>() {
+
+            @Override
+            public Observable<TopK<T>> call(Observable<T> source) {
+                return source.collect(new Func0<TopK<T>>() {
+                    @Override
+                    public TopK<T> call() {
+                        return TopK.create(k, width, depth);
+                    }
+                }, new Action2<TopK<T>, T>() {
+                    @Override
+                    public void call(TopK<T> sketch, T t) {
+                        sketch.add(t);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Emits a {@link TopK} sketch (with default width and depth) of the
+     * {@code k} most frequent items that arrived in each {@code period} on the
+     * computation scheduler and a sketch of the items of the last partial
+     * period when the source completes.
+     * 
+     * @param k
+     *            number of most frequent items to keep
+     * @param period
+     *            length of each period
+     * @param unit
+     *            unit of {@code period}
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, TopK<T>> topKApprox(int k, long period, TimeUnit unit) {
+        return topKApprox(k, TopK.DEFAULT_WIDTH, TopK.DEFAULT_DEPTH, period, unit,
+                Schedulers.computation());
+    }
+
+    /**
+     * Emits a {@link TopK} sketch of the {@code k} most frequent items that
+     * arrived in each {@code period} (an empty sketch if none arrived) and a
+     * sketch of the items of the last partial period when the source
+     * completes. Sketches can be merged with {@link TopK#combine(TopK)} to
+     * find the most frequent items over longer periods.
+     * 
+     * @param k
+     *            number of most frequent items to keep
+     * @param width
+     *            number of counters in each row of the Count-Min sketch
+     * @param depth
+     *            number of rows of the Count-Min sketch
+     * @param period
+     *            length of each period
+     * @param unit
+     *            unit of {@code period}
+     * @param scheduler
+     *            scheduler that ends each period
+     * @param <T>
+     *            type of the source items
+     * @return transformer
+     */
+    public static <T> Transformer<T, TopK<T>> topKApprox(int k, int width, int depth,
+            long period, TimeUnit unit, Scheduler scheduler) {
+        return periodically(Transformers.<T> topKApprox(k, width, depth), period, unit,
+                scheduler);
+    }
+
+    /**
+     * Applies {@code collect} to the items that arrive in each period.
+     */
+    private static <T, R> Transformer<T, R> periodically(final Transformer<T, R> collect,
+            final long period, final TimeUnit unit, final Scheduler scheduler) {
+        Preconditions.checkArgument(period > 0, "period must be greater than zero");
+        Preconditions.checkNotNull(unit, "unit cannot be null");
+        Preconditions.checkNotNull(scheduler, "scheduler cannot be null");
+        return new Transformer<T, R>() {
+
+            @Override
+            public Observable<R> call(Observable<T> source) {
+                return source.window(Observable.interval(period, period, unit, scheduler))
+                        .concatMap(new Func1<Observable<T>, Observable<R>>() {
+                            @Override
+                            public Observable<R> call(Observable<T> window) {
+                                return window.compose(collect);
+                            }
+                        });
+            }
+        };
+    }
+
     public static <T extends Comparable<? super T>> Transformer<T, T> sort() {
         return new Transformer<T, T>() {
 
@@ -118,6 +471,75 @@ public final class Transformers {
         };
     }
 
+    /**
+     * Returns a transformer that sorts the stream using at most about
+     * {@code maxItemsPerRun * (availableProcessors + 1)} items of memory, so
+     * streams larger than the heap can be sorted. Sorted runs of
+     * {@code maxItemsPerRun} items are written to temporary files using
+     * {@code serializer} and merged at the end. See
+     * {@link #sortExternal(DataSerializer, Comparator, int, Func0, Scheduler, int)}.
+     * 
+     * @param serializer
+     *            serializes items to the run files
+     * @param maxItemsPerRun
+     *            number of items sorted in memory at a time
+     * @param <T>
+     *            the type of the items
+     * @return sorting transformer
+     */
+    public static <T extends Comparable<? super T>> Transformer<T, T> sortExternal(
+            DataSerializer<T> serializer, int maxItemsPerRun) {
+        return sortExternal(serializer, new Comparator<T>() {
+            @Override
+            public int compare(T a, T b) {
+                return a.compareTo(b);
+            }
+        }, maxItemsPerRun);
+    }
+
+    public static <T> Transformer<T, T> sortExternal(DataSerializer<T> serializer,
+            Comparator<? super T> comparator, int maxItemsPerRun) {
+        return sortExternal(serializer, comparator, maxItemsPerRun,
+                TransformerSortExternal.DEFAULT_FILE_FACTORY, Schedulers.computation(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a transformer that sorts the stream without holding all of it in
+     * memory (unlike {@link #sort(Comparator)}). The stream is split into runs
+     * of {@code maxItemsPerRun} items that are sorted in parallel on
+     * {@code scheduler} (at most {@code maxConcurrentSorts} at once) and
+     * written to files created by {@code fileFactory} using
+     * {@code serializer}. When the source completes the runs are merged with
+     * {@link Obs#orderedMerge(Collection, Comparator)}. At most about
+     * {@code maxItemsPerRun * (maxConcurrentSorts + 1)} items are held in
+     * memory while sorting and one file is open per run while merging. The
+     * sort is stable and the files are deleted on completion, error or
+     * unsubscription.
+     * 
+     * @param serializer
+     *            serializes items to the run files
+     * @param comparator
+     *            the ordering to use
+     * @param maxItemsPerRun
+     *            number of items sorted in memory at a time
+     * @param fileFactory
+     *            creates the file for each run
+     * @param scheduler
+     *            scheduler that runs are sorted and written on
+     * @param maxConcurrentSorts
+     *            maximum number of runs sorted at the same time
+     * @param <T>
+     *            the type of the items
+     * @return sorting transformer
+     */
+    public static <T> Transformer<T, T> sortExternal(DataSerializer<T> serializer,
+            Comparator<? super T> comparator, int maxItemsPerRun, Func0<File> fileFactory,
+            Scheduler scheduler, int maxConcurrentSorts) {
+        return TransformerSortExternal.create(serializer, comparator, maxItemsPerRun, fileFactory,
+                scheduler, maxConcurrentSorts);
+    }
+
     public static <T> Transformer<T, Set<T>> toSet() {
         return new Transformer<T, Set<T>>() {
 
@@ -443,6 +865,137 @@ public final class Transformers {
         };
     }
 
+    /**
+     * <p>
+     * Returns the source {@link Observable} merged with all of the other
+     * observables using the given {@link Comparator} for order. A precondition
+     * is that the source and other are already ordered. This transformer
+     * supports backpressure and its inputs must also support backpressure.
+     * Items from the source with the smallest head are emitted in runs of up
+     * to {@code maxRunLength} while they are not after the smallest head of
+     * the other sources which is cheaper for long sorted runs.
+     * 
+     * <p>
+     * <img src=
+     * "https://github.com/davidmoten/rxjava-extras/blob/master/src/docs/orderedMerge.png?raw=true"
+     * alt="marble diagram">
+     * 
+     * @param others
+     *            a collection of already ordered observables to merge with
+     * @param comparator
+     *            the ordering to use
+     * @param delayErrors
+     *            whether errors are reported immediately or are reported after buffered items are emitted
+     * @param bufferSize
+     *            the number of items that are requested from each source at the start (and held)
+     * @param maxRunLength
+     *            maximum number of items emitted from one source before the
+     *            sources are checked again (1 disables runs)
+     * @param <T>
+     *            the generic type of the objects being compared
+     * @return merged and ordered observable
+     */
+    public static final <T> Transformer<T, T> orderedMergeWith(
+            final Collection<Observable<T>> others, final Comparator<? super T> comparator,
+            final boolean delayErrors, final int bufferSize, final int maxRunLength) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return new Transformer<T, T>() {
+
+            @Override
+            public Observable<T> call(Observable<T> source) {
+                List<Observable<T>> collection = new ArrayList<Observable<T>>();
+                collection.add(source);
+                collection.addAll(others);
+                return OrderedMerge.<T> create(collection, comparator, delayErrors, bufferSize,
+                        maxRunLength);
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Returns the source {@link Observable} merged with all of the other
+     * observables in ascending order of the {@code long} returned by
+     * {@code key}. A precondition is that the source and others are already
+     * ordered by key. The key of the head of each source is extracted once
+     * and compared as a primitive so there is no boxing per comparison.
+     * 
+     * @param others
+     *            a collection of observables already ordered by key to merge
+     *            with
+     * @param key
+     *            extracts the key of an item
+     * @param <T>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static final <T> Transformer<T, T> orderedMergeWithLongKey(
+            final Collection<Observable<T>> others, final LongFunc1<? super T> key) {
+        return orderedMergeWithLongKey(others, key, false, RxRingBuffer.SIZE, 1);
+    }
+
+    public static final <T> Transformer<T, T> orderedMergeWithLongKey(
+            final Collection<Observable<T>> others, final LongFunc1<? super T> key,
+            final boolean delayErrors, final int bufferSize, final int maxRunLength) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return new Transformer<T, T>() {
+
+            @Override
+            public Observable<T> call(Observable<T> source) {
+                List<Observable<T>> collection = new ArrayList<Observable<T>>();
+                collection.add(source);
+                collection.addAll(others);
+                return OrderedMerge.<T> createWithLongKey(collection, key, delayErrors,
+                        bufferSize, maxRunLength);
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Returns the source {@link Observable} merged with all of the other
+     * observables in ascending order of the {@code double} returned by
+     * {@code key} (as defined by {@link Double#compare(double, double)}). A
+     * precondition is that the source and others are already ordered by key.
+     * The key of the head of each source is extracted once and compared as a
+     * primitive so there is no boxing per comparison.
+     * 
+     * @param others
+     *            a collection of observables already ordered by key to merge
+     *            with
+     * @param key
+     *            extracts the key of an item
+     * @param <T>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static final <T> Transformer<T, T> orderedMergeWithDoubleKey(
+            final Collection<Observable<T>> others, final DoubleFunc1<? super T> key) {
+        return orderedMergeWithDoubleKey(others, key, false, RxRingBuffer.SIZE, 1);
+    }
+
+    public static final <T> Transformer<T, T> orderedMergeWithDoubleKey(
+            final Collection<Observable<T>> others, final DoubleFunc1<? super T> key,
+            final boolean delayErrors, final int bufferSize, final int maxRunLength) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return new Transformer<T, T>() {
+
+            @Override
+            public Observable<T> call(Observable<T> source) {
+                List<Observable<T>> collection = new ArrayList<Observable<T>>();
+                collection.add(source);
+                collection.addAll(others);
+                return OrderedMerge.<T> createWithDoubleKey(collection, key, delayErrors,
+                        bufferSize, maxRunLength);
+            }
+        };
+    }
+
     /**
      * Returns a {@link Transformer} that returns an {@link Observable} that is
      * a buffering of the source Observable into lists of sequential items that
@@ -821,6 +1374,55 @@ public final class Transformers {
         };
     }
 
+    public static <T> Transformer<T, T> onBackpressureBufferHybrid(
+            final DataSerializer<T> serializer, final int memoryBufferSize) {
+        return onBackpressureBufferHybrid(serializer, Schedulers.computation(), memoryBufferSize,
+                Options.defaultInstance());
+    }
+
+    public static <T> Transformer<T, T> onBackpressureBufferHybrid(
+            final DataSerializer<T> serializer, final Scheduler scheduler,
+            final int memoryBufferSize) {
+        return onBackpressureBufferHybrid(serializer, scheduler, memoryBufferSize,
+                Options.defaultInstance());
+    }
+
+    /**
+     * Buffers items in a bounded in-memory queue and only serializes them to
+     * a file based queue (configured by {@code options} as for
+     * {@link #onBackpressureBufferToFile(DataSerializer, Scheduler, Options)})
+     * when more than {@code memoryBufferSize} items are waiting. Once the
+     * file based queue has been drained its files are deleted and buffering
+     * goes back to memory. Short consumer stalls thus cost no serialization
+     * at all.
+     * 
+     * @param serializer
+     *            serializes items when they overflow to file
+     * @param scheduler
+     *            scheduler that items are emitted on
+     * @param memoryBufferSize
+     *            maximum number of items held in memory (rounded up to a
+     *            power of 2)
+     * @param options
+     *            options for the file based queue
+     * @param <T>
+     *            the type of the items
+     * @return transformer that buffers in memory then on file
+     */
+    public static <T> Transformer<T, T> onBackpressureBufferHybrid(
+            final DataSerializer<T> serializer, final Scheduler scheduler,
+            final int memoryBufferSize, final Options options) {
+        Preconditions.checkArgument(memoryBufferSize > 0,
+                "memoryBufferSize must be greater than zero");
+        return new Transformer<T, T>() {
+            @Override
+            public Observable<T> call(Observable<T> o) {
+                return o.lift(new OperatorBufferToFile<T>(serializer, scheduler, options,
+                        memoryBufferSize));
+            }
+        };
+    }
+
     public static <T> Transformer<T, T> windowMin(final int windowSize,
             final Comparator<? super T> comparator) {
         return new Transformer<T, T>() {
@@ -849,6 +1451,184 @@ public final class Transformers {
         return windowMin(windowSize, Transformers.<T> naturalComparator());
     }
 
+    /**
+     * Emits the sum of the last {@code windowSize} values for each value
+     * once {@code windowSize} values have arrived. Updated in O(1) per value.
+     * 
+     * @param windowSize
+     *            number of values in the window
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowSum(final int windowSize) {
+        return windowAggregate(
+                OperatorWindowAggregate.<T> count(windowSize, Aggregate.SUM, 0));
+    }
+
+    public static <T extends Number> Transformer<T, Double> windowSum(final long duration,
+            final TimeUnit unit) {
+        return windowSum(duration, unit, Schedulers.computation());
+    }
+
+    /**
+     * Emits the sum of the values that arrived in the last {@code duration}
+     * (including the arriving value) for each value. Updated in O(1) per value.
+     * 
+     * @param duration
+     *            length of the window, at least one millisecond
+     * @param unit
+     *            unit of {@code duration}
+     * @param scheduler
+     *            clock used for the arrival time of values
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowSum(final long duration,
+            final TimeUnit unit, final Scheduler scheduler) {
+        return windowAggregate(OperatorWindowAggregate.<T> time(duration, unit, scheduler,
+                Aggregate.SUM, 0));
+    }
+
+    /**
+     * Emits the mean of the last {@code windowSize} values for each value
+     * once {@code windowSize} values have arrived. Updated in O(1) per value.
+     * 
+     * @param windowSize
+     *            number of values in the window
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowMean(final int windowSize) {
+        return windowAggregate(
+                OperatorWindowAggregate.<T> count(windowSize, Aggregate.MEAN, 0));
+    }
+
+    public static <T extends Number> Transformer<T, Double> windowMean(final long duration,
+            final TimeUnit unit) {
+        return windowMean(duration, unit, Schedulers.computation());
+    }
+
+    /**
+     * Emits the mean of the values that arrived in the last {@code duration}
+     * (including the arriving value) for each value. Updated in O(1) per value.
+     * 
+     * @param duration
+     *            length of the window, at least one millisecond
+     * @param unit
+     *            unit of {@code duration}
+     * @param scheduler
+     *            clock used for the arrival time of values
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowMean(final long duration,
+            final TimeUnit unit, final Scheduler scheduler) {
+        return windowAggregate(OperatorWindowAggregate.<T> time(duration, unit, scheduler,
+                Aggregate.MEAN, 0));
+    }
+
+    /**
+     * Emits the population variance of the last {@code windowSize} values for each value
+     * once {@code windowSize} values have arrived. Updated in O(1) per value.
+     * 
+     * @param windowSize
+     *            number of values in the window
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowVariance(final int windowSize) {
+        return windowAggregate(
+                OperatorWindowAggregate.<T> count(windowSize, Aggregate.VARIANCE, 0));
+    }
+
+    public static <T extends Number> Transformer<T, Double> windowVariance(final long duration,
+            final TimeUnit unit) {
+        return windowVariance(duration, unit, Schedulers.computation());
+    }
+
+    /**
+     * Emits the population variance of the values that arrived in the last {@code duration}
+     * (including the arriving value) for each value. Updated in O(1) per value.
+     * 
+     * @param duration
+     *            length of the window, at least one millisecond
+     * @param unit
+     *            unit of {@code duration}
+     * @param scheduler
+     *            clock used for the arrival time of values
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowVariance(final long duration,
+            final TimeUnit unit, final Scheduler scheduler) {
+        return windowAggregate(OperatorWindowAggregate.<T> time(duration, unit, scheduler,
+                Aggregate.VARIANCE, 0));
+    }
+
+    /**
+     * Emits the given percentile (nearest rank) of the last {@code windowSize}
+     * values for each value once {@code windowSize} values have arrived.
+     * Updated in O(log(windowSize)) per value.
+     * 
+     * @param windowSize
+     *            number of values in the window
+     * @param percentile
+     *            percentile between 0 and 100 (50 for the median)
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowPercentile(
+            final int windowSize, final double percentile) {
+        return windowAggregate(
+                OperatorWindowAggregate.<T> count(windowSize, Aggregate.PERCENTILE, percentile));
+    }
+
+    public static <T extends Number> Transformer<T, Double> windowPercentile(final long duration,
+            final TimeUnit unit, final double percentile) {
+        return windowPercentile(duration, unit, percentile, Schedulers.computation());
+    }
+
+    /**
+     * Emits the given percentile (nearest rank) of the values that arrived in
+     * the last {@code duration} (including the arriving value) for each value.
+     * Updated in O(log n) per value where n is the number of values in the
+     * window.
+     * 
+     * @param duration
+     *            length of the window, at least one millisecond
+     * @param unit
+     *            unit of {@code duration}
+     * @param percentile
+     *            percentile between 0 and 100 (50 for the median)
+     * @param scheduler
+     *            clock used for the arrival time of values
+     * @param <T>
+     *            generic type of stream emissions
+     * @return transformer
+     */
+    public static <T extends Number> Transformer<T, Double> windowPercentile(final long duration,
+            final TimeUnit unit, final double percentile, final Scheduler scheduler) {
+        return windowAggregate(OperatorWindowAggregate.<T> time(duration, unit, scheduler,
+                Aggregate.PERCENTILE, percentile));
+    }
+
+    private static <T extends Number> Transformer<T, Double> windowAggregate(
+            final OperatorWindowAggregate<T> operator) {
+        return new Transformer<T, Double>() {
+            @Override
+            public Observable<Double> call(Observable<T> o) {
+                return o.lift(operator);
+            }
+        };
+    }
+
     private static class NaturalComparatorHolder {
         static final Comparator<Comparable<Object>> INSTANCE = new Comparator<Comparable<Object>>() {
 
@@ -1457,6 +2237,117 @@ public final class Transformers {
 
     }
     
+    public static <A, B, K, C> Transformer<A, C> matchWith(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner, final long requestSize,
+            final DataSerializer<A> serializer1, final DataSerializer<B> serializer2,
+            final long maxItemsInMemory) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.match(source, obs, key1, key2, combiner, requestSize, serializer1,
+                        serializer2, maxItemsInMemory);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> matchWith(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner, final long requestSize,
+            final DataSerializer<A> serializer1, final DataSerializer<B> serializer2,
+            final long maxItemsInMemory, final Func0<File> fileFactory, final int partitions) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.match(source, obs, key1, key2, combiner, requestSize, serializer1,
+                        serializer2, maxItemsInMemory, fileFactory, partitions);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> matchWith(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner, final long maxAge, final TimeUnit unit,
+            final Action1<? super A> onEvicted1, final Action1<? super B> onEvicted2) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.match(source, obs, key1, key2, combiner, maxAge, unit, onEvicted1,
+                        onEvicted2);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> matchWith(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner, final long requestSize,
+            final long maxUnmatched, final long maxAge, final TimeUnit unit,
+            final Scheduler scheduler, final Action1<? super A> onEvicted1,
+            final Action1<? super B> onEvicted2) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.match(source, obs, key1, key2, combiner, requestSize, maxUnmatched,
+                        maxAge, unit, scheduler, onEvicted1, onEvicted2);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> matchWithAdaptive(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.matchAdaptive(source, obs, key1, key2, combiner);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> matchWithAdaptive(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Func2<? super A, ? super B, C> combiner, final long requestSize,
+            final MatchMetrics metrics) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.matchAdaptive(source, obs, key1, key2, combiner, requestSize, metrics);
+            }
+        };
+    }
+
+    public static <A, B, K extends Comparable<? super K>, C> Transformer<A, C> mergeJoinWith(
+            final Observable<B> obs, final Func1<? super A, ? extends K> key1,
+            final Func1<? super B, ? extends K> key2, final JoinType joinType,
+            final Func2<? super A, ? super B, ? extends C> combiner) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.mergeJoin(source, obs, key1, key2, joinType, combiner);
+            }
+        };
+    }
+
+    public static <A, B, K, C> Transformer<A, C> mergeJoinWith(final Observable<B> obs,
+            final Func1<? super A, ? extends K> key1, final Func1<? super B, ? extends K> key2,
+            final Comparator<? super K> comparator, final JoinType joinType,
+            final Func2<? super A, ? super B, ? extends C> combiner) {
+        return new Transformer<A, C>() {
+
+            @Override
+            public Observable<C> call(Observable<A> source) {
+                return Obs.mergeJoin(source, obs, key1, key2, comparator, joinType, combiner);
+            }
+        };
+    }
+
     public static <T> Transformer<T,T> reverse() {
         return new Transformer<T,T>() {
 
@@ -0,0 +1,47 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A {@link DataSerializer} that can also serialize and deserialize many items
+ * in one call. Used by {@code onBackpressureBufferToFile} when
+ * {@link Options#batchSize()} is greater than one. Serializers that don't
+ * implement this interface are called once per item.
+ *
+ * @param <T>
+ *            type of item being serialized
+ */
+public interface BatchDataSerializer<T> extends DataSerializer<T> {
+
+    /**
+     * Serializes a list of objects to a data stream. The number of items is
+     * recorded separately so need not be written.
+     *
+     * @param output
+     *            the data stream
+     * @param list
+     *            the objects to serialize
+     * @throws IOException
+     *             exception
+     */
+    void serialize(DataOutput output, List<T> list) throws IOException;
+
+    /**
+     * Deserializes {@code count} objects from {@code input} and adds them in
+     * order to {@code list}.
+     *
+     * @param input
+     *            input data to read from
+     * @param count
+     *            the number of objects to read
+     * @param list
+     *            the list to add the deserialized objects to
+     * @throws IOException
+     *             exception
+     */
+    void deserialize(DataInput input, int count, List<T> list) throws IOException;
+
+}
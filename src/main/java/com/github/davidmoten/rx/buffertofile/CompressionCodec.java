@@ -0,0 +1,73 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.io.IOException;
+
+/**
+ * Compresses blocks of bytes written to file by
+ * {@code onBackpressureBufferToFile}. Each block is compressed independently.
+ * An instance is only used by one thread at a time so it may hold reusable
+ * state (see {@link Options.Builder#compression(rx.functions.Func0)}).
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the maximum number of bytes that {@link #compress} can write for
+     * an input of {@code length} bytes.
+     *
+     * @param length
+     *            number of bytes to compress
+     * @return maximum compressed length
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses {@code length} bytes of {@code input} starting at
+     * {@code offset} into {@code output} starting at {@code outputOffset}.
+     * {@code output} has at least {@code maxCompressedLength(length)} bytes
+     * available.
+     *
+     * @param input
+     *            bytes to compress
+     * @param offset
+     *            start of the bytes to compress in {@code input}
+     * @param length
+     *            number of bytes to compress
+     * @param output
+     *            destination of the compressed bytes
+     * @param outputOffset
+     *            start of the compressed bytes in {@code output}
+     * @return number of compressed bytes written
+     */
+    int compress(byte[] input, int offset, int length, byte[] output, int outputOffset);
+
+    /**
+     * Decompresses {@code length} bytes of {@code input} starting at
+     * {@code offset} into exactly {@code decompressedLength} bytes of
+     * {@code output} starting at {@code outputOffset}.
+     *
+     * @param input
+     *            compressed bytes
+     * @param offset
+     *            start of the compressed bytes in {@code input}
+     * @param length
+     *            number of compressed bytes
+     * @param output
+     *            destination of the decompressed bytes
+     * @param outputOffset
+     *            start of the decompressed bytes in {@code output}
+     * @param decompressedLength
+     *            number of bytes the block decompresses to
+     * @throws IOException
+     *             if the compressed bytes are corrupt
+     */
+    void decompress(byte[] input, int offset, int length, byte[] output, int outputOffset,
+            int decompressedLength) throws IOException;
+
+    /**
+     * Releases any resources held by the codec (for example the native
+     * memory of a {@link java.util.zip.Deflater}). Called once when the queue
+     * using the codec is closed. The codec is not used afterwards.
+     */
+    void close();
+
+}
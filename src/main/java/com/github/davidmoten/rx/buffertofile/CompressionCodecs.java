@@ -0,0 +1,289 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.davidmoten.util.Preconditions;
+
+import rx.functions.Func0;
+
+public final class CompressionCodecs {
+
+    private CompressionCodecs() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns a factory for codecs using {@link Deflater} with the default
+     * compression level.
+     *
+     * @return codec factory
+     */
+    public static Func0<CompressionCodec> deflate() {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns a factory for codecs using {@link Deflater} with the given
+     * compression level.
+     *
+     * @param level
+     *            compression level from 0 to 9 or
+     *            {@code Deflater.DEFAULT_COMPRESSION}
+     * @return codec factory
+     */
+    public static Func0<CompressionCodec> deflate(final int level) {
+        Preconditions.checkArgument(
+                level == Deflater.DEFAULT_COMPRESSION || (level >= 0 && level <= 9),
+                "level must be between 0 and 9 or Deflater.DEFAULT_COMPRESSION");
+        return new Func0<CompressionCodec>() {
+            @Override
+            public CompressionCodec call() {
+                return new DeflateCodec(level);
+            }
+        };
+    }
+
+    /**
+     * Returns a factory for codecs using a fast LZ77 style algorithm (similar
+     * to LZ4) written in java. Compresses less than {@link #deflate()} but
+     * uses much less CPU.
+     *
+     * @return codec factory
+     */
+    public static Func0<CompressionCodec> lz() {
+        return LzHolder.INSTANCE;
+    }
+
+    private static final class LzHolder {
+        final static Func0<CompressionCodec> INSTANCE = new Func0<CompressionCodec>() {
+            @Override
+            public CompressionCodec call() {
+                return new LzCodec();
+            }
+        };
+    }
+
+    private static final class DeflateCodec implements CompressionCodec {
+
+        private final Deflater deflater;
+        private final Inflater inflater;
+
+        DeflateCodec(int level) {
+            this.deflater = new Deflater(level);
+            this.inflater = new Inflater();
+        }
+
+        @Override
+        public int maxCompressedLength(int length) {
+            // same as deflateBound() in zlib plus the zlib header and trailer
+            return length + ((length + 7) >> 3) + ((length + 63) >> 6) + 11;
+        }
+
+        @Override
+        public int compress(byte[] input, int offset, int length, byte[] output,
+                int outputOffset) {
+            deflater.reset();
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            int max = maxCompressedLength(length);
+            int n = 0;
+            while (!deflater.finished() && n < max) {
+                n += deflater.deflate(output, outputOffset + n, max - n);
+            }
+            return n;
+        }
+
+        @Override
+        public void decompress(byte[] input, int offset, int length, byte[] output,
+                int outputOffset, int decompressedLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(input, offset, length);
+            int n = 0;
+            try {
+                while (n < decompressedLength && !inflater.finished()) {
+                    int count = inflater.inflate(output, outputOffset + n, decompressedLength - n);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+            if (n != decompressedLength) {
+                throw new IOException("corrupt block, decompressed " + n + " bytes but expected "
+                        + decompressedLength);
+            }
+        }
+
+        @Override
+        public void close() {
+            // free the native zlib memory now rather than on finalization
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Block format is a sequence of (token, literals, match) where the high
+     * nibble of the token is the literal length and the low nibble is the
+     * match length minus {@code MIN_MATCH}. A nibble of 15 is followed by
+     * bytes that are added to it until a byte less than 255. The match is a 2
+     * byte little-endian offset back from the current position followed by
+     * any extra match length bytes. The last sequence has literals only.
+     */
+    private static final class LzCodec implements CompressionCodec {
+
+        private static final int MIN_MATCH = 4;
+        private static final int MAX_OFFSET = 65535;
+        private static final int HASH_BITS = 12;
+
+        // positions of the last occurrence of each hashed 4 byte sequence
+        private final int[] table = new int[1 << HASH_BITS];
+
+        @Override
+        public int maxCompressedLength(int length) {
+            return length + length / 255 + 16;
+        }
+
+        @Override
+        public int compress(byte[] input, int offset, int length, byte[] output,
+                int outputOffset) {
+            Arrays.fill(table, -1);
+            int end = offset + length;
+            int anchor = offset;
+            int i = offset;
+            int o = outputOffset;
+            while (i + MIN_MATCH <= end) {
+                int sequence = readInt(input, i);
+                int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int ref = table[h];
+                table[h] = i;
+                if (ref >= 0 && i - ref <= MAX_OFFSET && readInt(input, ref) == sequence) {
+                    int matchLength = MIN_MATCH;
+                    while (i + matchLength < end
+                            && input[ref + matchLength] == input[i + matchLength]) {
+                        matchLength++;
+                    }
+                    o = writeLiterals(input, anchor, i - anchor, matchLength - MIN_MATCH, output,
+                            o);
+                    int distance = i - ref;
+                    output[o++] = (byte) distance;
+                    output[o++] = (byte) (distance >>> 8);
+                    if (matchLength - MIN_MATCH >= 15) {
+                        o = writeLength(matchLength - MIN_MATCH - 15, output, o);
+                    }
+                    i += matchLength;
+                    anchor = i;
+                } else {
+                    i++;
+                }
+            }
+            return writeLiterals(input, anchor, end - anchor, 0, output, o) - outputOffset;
+        }
+
+        // writes the token and literals of a sequence
+        private static int writeLiterals(byte[] input, int start, int count, int matchNibble,
+                byte[] output, int o) {
+            int token = (Math.min(count, 15) << 4) | Math.min(matchNibble, 15);
+            output[o++] = (byte) token;
+            if (count >= 15) {
+                o = writeLength(count - 15, output, o);
+            }
+            System.arraycopy(input, start, output, o, count);
+            return o + count;
+        }
+
+        private static int writeLength(int length, byte[] output, int o) {
+            while (length >= 255) {
+                output[o++] = (byte) 255;
+                length -= 255;
+            }
+            output[o++] = (byte) length;
+            return o;
+        }
+
+        private static int readInt(byte[] b, int i) {
+            return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16)
+                    | ((b[i + 3] & 0xFF) << 24);
+        }
+
+        @Override
+        public void decompress(byte[] input, int offset, int length, byte[] output,
+                int outputOffset, int decompressedLength) throws IOException {
+            int i = offset;
+            int end = offset + length;
+            int o = outputOffset;
+            int outputEnd = outputOffset + decompressedLength;
+            while (true) {
+                if (i >= end) {
+                    throw corrupt();
+                }
+                int token = input[i++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        if (i >= end) {
+                            throw corrupt();
+                        }
+                        b = input[i++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (literals > end - i || literals > outputEnd - o) {
+                    throw corrupt();
+                }
+                System.arraycopy(input, i, output, o, literals);
+                i += literals;
+                o += literals;
+                if (i == end) {
+                    // last sequence has no match
+                    break;
+                }
+                if (end - i < 2) {
+                    throw corrupt();
+                }
+                int distance = (input[i] & 0xFF) | ((input[i + 1] & 0xFF) << 8);
+                i += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        if (i >= end) {
+                            throw corrupt();
+                        }
+                        b = input[i++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (distance == 0 || distance > o - outputOffset || matchLength > outputEnd - o) {
+                    throw corrupt();
+                }
+                // byte by byte because the match may overlap the output
+                int ref = o - distance;
+                for (int k = 0; k < matchLength; k++) {
+                    output[o++] = output[ref + k];
+                }
+            }
+            if (o != outputEnd) {
+                throw corrupt();
+            }
+        }
+
+        private static IOException corrupt() {
+            return new IOException("corrupt block");
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.List;
 
 public final class DataSerializers {
 
@@ -43,7 +44,7 @@ public final class DataSerializers {
     }
 
     private static final class IntegerHolder {
-        final static DataSerializer<Integer> INSTANCE = new DataSerializer<Integer>() {
+        final static BatchDataSerializer<Integer> INSTANCE = new BatchDataSerializer<Integer>() {
 
             @Override
             public void serialize(DataOutput output, Integer t) throws IOException {
@@ -59,6 +60,32 @@ public final class DataSerializers {
             public int size() {
                 return 4;
             }
+
+            @Override
+            public void serialize(DataOutput output, List<Integer> list) throws IOException {
+                // one write call for the whole list
+                byte[] bytes = new byte[list.size() * 4];
+                int i = 0;
+                for (Integer t : list) {
+                    int v = t;
+                    bytes[i++] = (byte) (v >>> 24);
+                    bytes[i++] = (byte) (v >>> 16);
+                    bytes[i++] = (byte) (v >>> 8);
+                    bytes[i++] = (byte) v;
+                }
+                output.write(bytes);
+            }
+
+            @Override
+            public void deserialize(DataInput input, int count, List<Integer> list)
+                    throws IOException {
+                byte[] bytes = new byte[count * 4];
+                input.readFully(bytes);
+                for (int i = 0; i < bytes.length; i += 4) {
+                    list.add(((bytes[i] & 0xFF) << 24) | ((bytes[i + 1] & 0xFF) << 16)
+                            | ((bytes[i + 2] & 0xFF) << 8) | (bytes[i + 3] & 0xFF));
+                }
+            }
         };
     }
 
@@ -0,0 +1,125 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.io.File;
+
+import com.github.davidmoten.rx.internal.operators.FileBasedMPSCQueue;
+import com.github.davidmoten.rx.internal.operators.QueueWithSubscription;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Subscription;
+import rx.functions.Func0;
+
+/**
+ * <p>
+ * A file based queue that many threads can offer to concurrently while one
+ * thread polls. Use it to hand items from several producer threads (for
+ * example the callbacks of a multithreaded library) to a single consumer
+ * without holding them in memory. Sources that honour the Observable contract
+ * never call {@code onNext} concurrently so
+ * {@code onBackpressureBufferToFile} doesn't need this queue.
+ *
+ * <p>
+ * Segment files are deleted once read and all files are deleted on
+ * {@link #unsubscribe()}, which may be called from any thread at any time.
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+public final class MultiProducerFileQueue<T> implements Subscription {
+
+    private static final int DEFAULT_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE_BYTES = 1024;
+
+    private final QueueWithSubscription<T> queue;
+
+    private MultiProducerFileQueue(QueueWithSubscription<T> queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Returns a new queue with 64MB segment files created in the temporary
+     * directory.
+     *
+     * @param serializer
+     *            serializes and deserializes items
+     * @param <T>
+     *            type of item on queue
+     * @return a new queue
+     */
+    public static <T> MultiProducerFileQueue<T> create(DataSerializer<T> serializer) {
+        return create(serializer, Options.defaultInstance().fileFactory(),
+                DEFAULT_SEGMENT_SIZE_BYTES, DEFAULT_BUFFER_SIZE_BYTES);
+    }
+
+    /**
+     * Returns a new queue.
+     *
+     * @param serializer
+     *            serializes and deserializes items
+     * @param fileFactory
+     *            creates the segment files
+     * @param segmentSizeBytes
+     *            size of each segment file. A serialized item must fit in one
+     *            segment.
+     * @param bufferSizeBytes
+     *            size of the buffer used to read segment files
+     * @param <T>
+     *            type of item on queue
+     * @return a new queue
+     */
+    public static <T> MultiProducerFileQueue<T> create(DataSerializer<T> serializer,
+            Func0<File> fileFactory, int segmentSizeBytes, int bufferSizeBytes) {
+        return new MultiProducerFileQueue<T>(FileBasedMPSCQueue.create(fileFactory,
+                segmentSizeBytes, bufferSizeBytes, serializer));
+    }
+
+    /**
+     * Adds an item to the end of the queue. May be called concurrently.
+     *
+     * @param t
+     *            item to add, not null
+     * @return false if the queue has been unsubscribed (the item is discarded)
+     */
+    public boolean offer(T t) {
+        Preconditions.checkNotNull(t, "item cannot be null");
+        if (queue.isUnsubscribed()) {
+            return false;
+        }
+        return queue.offer(t);
+    }
+
+    /**
+     * Removes and returns the item at the front of the queue or returns null
+     * if there is none. May return null while an item is still being written
+     * by another thread. Must not be called concurrently.
+     *
+     * @return the next item or null
+     */
+    public T poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Returns true if no items have been offered that haven't been polled.
+     * Must not be called concurrently with {@link #poll()}.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Closes the queue and deletes its files.
+     */
+    @Override
+    public void unsubscribe() {
+        queue.unsubscribe();
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return queue.isUnsubscribed();
+    }
+
+}
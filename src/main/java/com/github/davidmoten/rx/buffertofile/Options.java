@@ -17,18 +17,65 @@ public final class Options {
 	private final long rolloverEvery;
 	private final long rolloverSizeBytes;
 	private final int bufferSizeBytes;
+	private final boolean memoryMapped;
+	private final int batchSize;
+	private final File durableDirectory;
+	private final SyncPolicy syncPolicy;
+	private final Func0<CompressionCodec> compression;
+	private final long storageSizeLimitBytes;
+	private final StorageOverflowPolicy storageOverflowPolicy;
+	private final StorageCounters storageCounters;
+	private final CacheType cacheType;
+	private final int cacheSizeItems;
+	private final long cacheSizeBytes;
 
 	private Options(Func0<File> filefactory, boolean delayError, long rolloverEvery, int bufferSizeBytes,
-			long rolloverSizeBytes) {
+			long rolloverSizeBytes, boolean memoryMapped, int batchSize, File durableDirectory,
+			SyncPolicy syncPolicy, Func0<CompressionCodec> compression,
+			long storageSizeLimitBytes, StorageOverflowPolicy storageOverflowPolicy,
+			StorageCounters storageCounters, CacheType cacheType, int cacheSizeItems, long cacheSizeBytes) {
 		Preconditions.checkNotNull(filefactory);
 		Preconditions.checkArgument(rolloverSizeBytes > 0, "rolloverSizeBytes must be greater than zero");
 		Preconditions.checkArgument(rolloverEvery > 1, "rolloverEvery must be greater than one");
 		Preconditions.checkArgument(bufferSizeBytes > 0, "bufferSizeBytes must be greater than 0");
+		Preconditions.checkArgument(
+				!memoryMapped || rolloverSizeBytes == Long.MAX_VALUE || rolloverSizeBytes <= Integer.MAX_VALUE,
+				"rolloverSizeBytes must be less than or equal to Integer.MAX_VALUE when memoryMapped is true");
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than 0");
+		Preconditions.checkArgument(durableDirectory == null || !memoryMapped,
+				"durable queues cannot be memoryMapped");
+		Preconditions.checkArgument(durableDirectory == null || batchSize == 1,
+				"durable queues cannot have batchSize greater than 1");
+		Preconditions.checkNotNull(syncPolicy);
+		Preconditions.checkArgument(
+				compression == null || (!memoryMapped && durableDirectory == null),
+				"compressed queues cannot be memoryMapped or durable");
+		Preconditions.checkArgument(storageSizeLimitBytes > 0, "storageSizeLimitBytes must be greater than zero");
+		Preconditions.checkArgument(storageSizeLimitBytes == Long.MAX_VALUE
+				|| (!memoryMapped && durableDirectory == null),
+				"storageSizeLimitBytes cannot be set for memoryMapped or durable queues");
+		Preconditions.checkNotNull(storageOverflowPolicy);
+		Preconditions.checkNotNull(cacheType);
+		Preconditions.checkArgument(cacheSizeItems > 0, "cacheSizeItems must be greater than zero");
+		Preconditions.checkArgument(cacheSizeBytes > 0, "cacheSizeBytes must be greater than zero");
+		Preconditions.checkArgument(cacheType == CacheType.NO_CACHE || durableDirectory == null,
+				"durable queues cannot have a cache");
 		this.fileFactory = filefactory;
 		this.delayError = delayError;
 		this.rolloverEvery = rolloverEvery;
 		this.rolloverSizeBytes = rolloverSizeBytes;
 		this.bufferSizeBytes = bufferSizeBytes;
+		this.memoryMapped = memoryMapped;
+		this.batchSize = batchSize;
+		this.durableDirectory = durableDirectory;
+		this.syncPolicy = syncPolicy;
+		this.compression = compression;
+		this.storageSizeLimitBytes = storageSizeLimitBytes;
+		this.storageOverflowPolicy = storageOverflowPolicy;
+		this.storageCounters = storageCounters;
+		this.cacheType = cacheType;
+		this.cacheSizeItems = cacheSizeItems;
+		this.cacheSizeBytes = cacheSizeBytes;
 	}
 
 	public Func0<File> fileFactory() {
@@ -51,14 +98,83 @@ public final class Options {
 		return bufferSizeBytes;
 	}
 
+	public boolean memoryMapped() {
+		return memoryMapped;
+	}
+
+	public int batchSize() {
+		return batchSize;
+	}
+
+	public boolean durable() {
+		return durableDirectory != null;
+	}
+
+	/**
+	 * Returns the directory holding the durable queue or null if the queue is
+	 * not durable.
+	 * 
+	 * @return durable queue directory or null
+	 */
+	public File durableDirectory() {
+		return durableDirectory;
+	}
+
+	public SyncPolicy syncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * Returns the factory for the codecs that compress blocks written to file
+	 * or null if blocks are not compressed.
+	 * 
+	 * @return compression codec factory or null
+	 */
+	public Func0<CompressionCodec> compression() {
+		return compression;
+	}
+
+	public long storageSizeLimitBytes() {
+		return storageSizeLimitBytes;
+	}
+
+	public boolean storageSizeLimited() {
+		return storageSizeLimitBytes != Long.MAX_VALUE;
+	}
+
+	public StorageOverflowPolicy storageOverflowPolicy() {
+		return storageOverflowPolicy;
+	}
+
+	/**
+	 * Returns the counters updated with storage use or null if not set.
+	 * 
+	 * @return storage counters or null
+	 */
+	public StorageCounters storageCounters() {
+		return storageCounters;
+	}
+
+	public CacheType cacheType() {
+		return cacheType;
+	}
+
+	public int cacheSizeItems() {
+		return cacheSizeItems;
+	}
+
+	public long cacheSizeBytes() {
+		return cacheSizeBytes;
+	}
+
 	public boolean rolloverEnabled() {
 		return rolloverSizeBytes != Long.MAX_VALUE || rolloverEvery != Long.MAX_VALUE;
 	}
 
 	/**
-	 * Defaults are {@code cacheType=CacheType.SOFT_REF},
-	 * {@code cacheSizeItems=absent (UNLIMITED)},
-	 * {@code storageSizeLimitBytes=absent (UNLIMITED)}.
+	 * Defaults are {@code cacheType=CacheType.NO_CACHE},
+	 * {@code cacheSizeItems=1000},
+	 * {@code storageSizeLimitBytes=Long.MAX_VALUE (UNLIMITED)}.
 	 * 
 	 * @return a builder object for Options
 	 */
@@ -94,6 +210,38 @@ public final class Options {
 		return builder().bufferSizeBytes(bufferSizeBytes);
 	}
 
+	public static Builder memoryMapped(boolean memoryMapped) {
+		return builder().memoryMapped(memoryMapped);
+	}
+
+	public static Builder batchSize(int batchSize) {
+		return builder().batchSize(batchSize);
+	}
+
+	public static Builder durable(File directory) {
+		return builder().durable(directory);
+	}
+
+	public static Builder compression(Func0<CompressionCodec> compression) {
+		return builder().compression(compression);
+	}
+
+	public static Builder storageSizeLimitBytes(long storageSizeLimitBytes) {
+		return builder().storageSizeLimitBytes(storageSizeLimitBytes);
+	}
+
+	public static Builder storageSizeLimitMB(double storageSizeLimitMB) {
+		return builder().storageSizeLimitMB(storageSizeLimitMB);
+	}
+
+	public static Builder storageCounters(StorageCounters storageCounters) {
+		return builder().storageCounters(storageCounters);
+	}
+
+	public static Builder cacheType(CacheType cacheType) {
+		return builder().cacheType(cacheType);
+	}
+
 	public static Options defaultInstance() {
 		return builder().build();
 	}
@@ -105,6 +253,17 @@ public final class Options {
 		private long rolloverSizeBytes = Long.MAX_VALUE;
 		private long rolloverEvery = 1000000;
 		private int bufferSizeBytes = 1024;
+		private boolean memoryMapped = false;
+		private int batchSize = 1;
+		private File durableDirectory = null;
+		private SyncPolicy syncPolicy = SyncPolicy.everyItem();
+		private Func0<CompressionCodec> compression = null;
+		private long storageSizeLimitBytes = Long.MAX_VALUE;
+		private StorageOverflowPolicy storageOverflowPolicy = StorageOverflowPolicy.ERROR;
+		private StorageCounters storageCounters = null;
+		private CacheType cacheType = CacheType.NO_CACHE;
+		private int cacheSizeItems = 1000;
+		private long cacheSizeBytes = Long.MAX_VALUE;
 
 		private Builder() {
 		}
@@ -160,8 +319,232 @@ public final class Options {
 			return this;
 		}
 
+		/**
+		 * Sets if the queue is stored in memory-mapped files. Defaults to
+		 * {@code false} if this method not called.
+		 * 
+		 * <p>
+		 * Memory-mapped files are fixed size so the queue is always stored in a
+		 * sequence of files (segments) of at most {@code rolloverSizeBytes}
+		 * bytes (20MB if {@code rolloverSizeBytes} is not set). The writer
+		 * moves to a new segment when the current one is full or has
+		 * {@code rolloverEvery} items in it. When {@code rolloverEvery} is set
+		 * segments are sized for that many items (estimated from the items
+		 * written so far if the serializer size is not constant).
+		 * {@code bufferSizeBytes} is not used because reads and writes go
+		 * straight to the mapped memory.
+		 * 
+		 * @param memoryMapped
+		 *            if true the queue uses memory-mapped files
+		 * @return the current builder
+		 */
+		public Builder memoryMapped(boolean memoryMapped) {
+			this.memoryMapped = memoryMapped;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of items serialized to the file based queue
+		 * in one call. Defaults to 1 (no batching) if this method not called.
+		 * 
+		 * <p>
+		 * Items are held in memory until a batch is full except when the
+		 * reader has caught up in which case the partial batch is written
+		 * straight away (so items are never held back waiting for more
+		 * items). If the {@code DataSerializer} is a
+		 * {@link BatchDataSerializer} then its bulk methods are used. When
+		 * batching {@code rolloverEvery} is converted to a number of batches.
+		 * 
+		 * @param batchSize
+		 *            maximum number of items per batch
+		 * @return the current builder
+		 */
+		public Builder batchSize(int batchSize) {
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * Makes the queue durable. Buffered items are kept in {@code directory}
+		 * (which is created if it does not exist) instead of in temporary files
+		 * and are not deleted when the subscription ends unless every item has
+		 * been emitted. A later subscription using the same directory (for
+		 * example after a restart) emits the remaining items first.
+		 * 
+		 * <p>
+		 * Delivery is at-least-once: the item being emitted when the JVM stops
+		 * is emitted again after a restart. The {@code fileFactory},
+		 * {@code rolloverEvery} and {@code rolloverSizeBytes} options are not
+		 * used and only one subscription at a time may use a directory. Cannot
+		 * be combined with {@link #memoryMapped(boolean)} or with a
+		 * {@link #batchSize(int)} greater than one (use a {@link SyncPolicy}
+		 * to limit the cost of syncing instead).
+		 * 
+		 * @param directory
+		 *            directory to hold the queue files
+		 * @return the current builder
+		 */
+		public Builder durable(File directory) {
+			Preconditions.checkNotNull(directory);
+			this.durableDirectory = directory;
+			return this;
+		}
+
+		/**
+		 * Sets when a durable queue forces written items to the storage
+		 * device. Defaults to {@link SyncPolicy#everyItem()} if this method not
+		 * called.
+		 * 
+		 * @param syncPolicy
+		 *            the sync policy
+		 * @return the current builder
+		 */
+		public Builder syncPolicy(SyncPolicy syncPolicy) {
+			this.syncPolicy = syncPolicy;
+			return this;
+		}
+
+		/**
+		 * Sets the factory for the codecs used to compress data written to
+		 * file (see {@link CompressionCodecs}). Defaults to no compression if
+		 * this method not called.
+		 * 
+		 * <p>
+		 * Each flush of the write buffer ({@code bufferSizeBytes}) is
+		 * compressed independently so a larger {@code bufferSizeBytes} (say
+		 * 64KB) compresses better. {@code rolloverSizeBytes} applies to the
+		 * compressed size. Cannot be combined with
+		 * {@link #memoryMapped(boolean)} or {@link #durable(File)}.
+		 * 
+		 * @param compression
+		 *            factory for codecs, each codec is used by one thread
+		 * @return the current builder
+		 */
+		public Builder compression(Func0<CompressionCodec> compression) {
+			Preconditions.checkNotNull(compression);
+			this.compression = compression;
+			return this;
+		}
+
+		public Builder storageSizeLimitMB(double storageSizeLimitMB) {
+			return storageSizeLimitBytes(Math.round(storageSizeLimitMB * 1024 * 1024));
+		}
+
+		/**
+		 * Sets the limit on the total size of the files holding the queue.
+		 * Defaults to {@code Long.MAX_VALUE} (no limit) if this method not
+		 * called.
+		 * 
+		 * <p>
+		 * The limit is checked before each item is written so can be exceeded
+		 * by up to {@code bufferSizeBytes} plus the size of an item. Files
+		 * are deleted only once they have been read and are no longer being
+		 * written to so set {@code rolloverSizeBytes} (or
+		 * {@code rolloverEvery}) well below the limit. Cannot be set for
+		 * {@link #memoryMapped(boolean)} or {@link #durable(File)} queues.
+		 * 
+		 * @param storageSizeLimitBytes
+		 *            maximum total size of the queue files in bytes
+		 * @return the current builder
+		 */
+		public Builder storageSizeLimitBytes(long storageSizeLimitBytes) {
+			this.storageSizeLimitBytes = storageSizeLimitBytes;
+			return this;
+		}
+
+		/**
+		 * Sets what happens to an arriving item when
+		 * {@code storageSizeLimitBytes} has been reached. Defaults to
+		 * {@link StorageOverflowPolicy#ERROR} if this method not called.
+		 * {@link StorageOverflowPolicy#BLOCK} cannot be used with
+		 * {@code Schedulers.immediate()} or {@code Schedulers.trampoline()}.
+		 * 
+		 * @param storageOverflowPolicy
+		 *            the overflow policy
+		 * @return the current builder
+		 */
+		public Builder storageOverflowPolicy(StorageOverflowPolicy storageOverflowPolicy) {
+			this.storageOverflowPolicy = storageOverflowPolicy;
+			return this;
+		}
+
+		/**
+		 * Sets the counters to be updated with the bytes and files used by the
+		 * queue and the items and files dropped by the
+		 * {@code storageOverflowPolicy}. Only updated for queues that use
+		 * rollover or {@code storageSizeLimitBytes}.
+		 * 
+		 * @param storageCounters
+		 *            the counters
+		 * @return the current builder
+		 */
+		public Builder storageCounters(StorageCounters storageCounters) {
+			Preconditions.checkNotNull(storageCounters);
+			this.storageCounters = storageCounters;
+			return this;
+		}
+
+		/**
+		 * Sets how the in-memory tier in front of the file queue reclaims
+		 * memory. Defaults to {@link CacheType#NO_CACHE} (every item is
+		 * written to file) if this method not called.
+		 * 
+		 * <p>
+		 * With a cache the most recent {@code cacheSizeItems} items are held
+		 * in memory and only the oldest are serialized to file, so items read
+		 * while the consumer is only slightly behind are never serialized.
+		 * With {@code HARD_REF} or {@code LEAST_RECENTLY_USED} (the same for a
+		 * queue because the least recently used item is the oldest) items
+		 * leave memory only when the cache is full. With {@code SOFT_REF} or
+		 * {@code WEAK_REF} all items in memory are also written to file after
+		 * a garbage collection leaves the tenured heap at least 80%
+		 * ({@code SOFT_REF}) or 50% ({@code WEAK_REF}) full. This sets a
+		 * collection usage threshold on the tenured heap pools (unless one is
+		 * already set) and listens to the platform {@code MemoryMXBean}.
+		 * Cannot be used with {@link #durable(File)}.
+		 * 
+		 * @param cacheType
+		 *            the cache type
+		 * @return the current builder
+		 */
+		public Builder cacheType(CacheType cacheType) {
+			this.cacheType = cacheType;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of items held in memory by the cache.
+		 * Defaults to 1000 if this method not called.
+		 * 
+		 * @param cacheSizeItems
+		 *            maximum number of items in the cache
+		 * @return the current builder
+		 */
+		public Builder cacheSizeItems(int cacheSizeItems) {
+			this.cacheSizeItems = cacheSizeItems;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of bytes held in memory by the cache
+		 * measured by {@link DataSerializer#size()} (which must be constant)
+		 * per item. The cache holds at most {@code cacheSizeItems} items as
+		 * well. Not limited by bytes if this method not called.
+		 * 
+		 * @param cacheSizeBytes
+		 *            maximum serialized size of items in the cache
+		 * @return the current builder
+		 */
+		public Builder cacheSizeBytes(long cacheSizeBytes) {
+			this.cacheSizeBytes = cacheSizeBytes;
+			return this;
+		}
+
 		public Options build() {
-			return new Options(fileFactory, delayError, rolloverEvery, bufferSizeBytes, rolloverSizeBytes);
+			return new Options(fileFactory, delayError, rolloverEvery, bufferSizeBytes, rolloverSizeBytes,
+					memoryMapped, batchSize, durableDirectory, syncPolicy, compression,
+					storageSizeLimitBytes, storageOverflowPolicy, storageCounters, cacheType, cacheSizeItems,
+					cacheSizeBytes);
 		}
 	}
 
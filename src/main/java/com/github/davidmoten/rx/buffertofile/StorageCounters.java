@@ -0,0 +1,79 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counts of the file storage used by {@code onBackpressureBufferToFile}
+ * (see {@link Options.Builder#storageCounters(StorageCounters)}). If the same
+ * {@link Options} are used by several subscriptions the counts are totals
+ * across them. The {@code add} methods are called by the operator.
+ */
+public final class StorageCounters {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong droppedItems = new AtomicLong();
+    private final AtomicLong droppedSegments = new AtomicLong();
+
+    /**
+     * Returns the number of bytes in files currently holding queued items.
+     * Excludes items still in memory write buffers.
+     * 
+     * @return bytes in use
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns the number of files (segments) currently in use.
+     * 
+     * @return segments in use
+     */
+    public long segments() {
+        return segments.get();
+    }
+
+    /**
+     * Returns the number of arriving items discarded by
+     * {@link StorageOverflowPolicy#DROP_LATEST}.
+     * 
+     * @return dropped items count
+     */
+    public long droppedItems() {
+        return droppedItems.get();
+    }
+
+    /**
+     * Returns the number of segments deleted before being fully read by
+     * {@link StorageOverflowPolicy#DROP_OLDEST}.
+     * 
+     * @return dropped segments count
+     */
+    public long droppedSegments() {
+        return droppedSegments.get();
+    }
+
+    public void addBytes(long n) {
+        bytes.addAndGet(n);
+    }
+
+    public void addSegments(long n) {
+        segments.addAndGet(n);
+    }
+
+    public void addDroppedItems(long n) {
+        droppedItems.addAndGet(n);
+    }
+
+    public void addDroppedSegments(long n) {
+        droppedSegments.addAndGet(n);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageCounters [bytes=" + bytes() + ", segments=" + segments() + ", droppedItems="
+                + droppedItems() + ", droppedSegments=" + droppedSegments() + "]";
+    }
+
+}
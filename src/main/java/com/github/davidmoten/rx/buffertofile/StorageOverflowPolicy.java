@@ -0,0 +1,37 @@
+package com.github.davidmoten.rx.buffertofile;
+
+/**
+ * What {@code onBackpressureBufferToFile} does with an arriving item when the
+ * files holding the queue have reached
+ * {@link Options.Builder#storageSizeLimitBytes(long)}.
+ */
+public enum StorageOverflowPolicy {
+
+    /**
+     * Emits a
+     * {@link com.github.davidmoten.rx.exceptions.StorageSizeLimitExceededException}
+     * (after the queued items if {@code delayError} is true).
+     */
+    ERROR,
+
+    /**
+     * Deletes the oldest file (segment) and the unread items in it.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discards the arriving item.
+     */
+    DROP_LATEST,
+
+    /**
+     * Blocks the thread calling {@code onNext} until the consumer has read
+     * enough items for a file to be deleted. The consumer must run on another
+     * thread so this policy is rejected with {@code Schedulers.immediate()} and
+     * {@code Schedulers.trampoline()}. It also deadlocks if the source emits on
+     * the thread of a scheduler whose workers share one thread with the
+     * consumer (for example a single threaded {@code Schedulers.from(executor)}
+     * used for both).
+     */
+    BLOCK;
+}
@@ -0,0 +1,134 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * When a durable queue (see {@link Options.Builder#durable(java.io.File)})
+ * forces written items to the storage device (fsync) and records them in its
+ * offset index. Items written but not yet synced survive a JVM crash (they are
+ * in the operating system page cache) but not an operating system crash or
+ * power loss.
+ */
+public final class SyncPolicy {
+
+    private static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+    private final long everyItems;
+    private final long intervalMs;
+    private final long maxDelayMs;
+
+    private SyncPolicy(long everyItems, long intervalMs, long maxDelayMs) {
+        this.everyItems = everyItems;
+        this.intervalMs = intervalMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Syncs after every item is written. Safest but slowest (each sync is
+     * typically a few milliseconds on a spinning disk).
+     *
+     * @return policy
+     */
+    public static SyncPolicy everyItem() {
+        return EveryItemHolder.INSTANCE;
+    }
+
+    /**
+     * Syncs after every {@code n} items are written. Items written less than
+     * {@code n} items ago are synced within one second if no more items are
+     * written.
+     *
+     * @param n
+     *            number of items written between syncs
+     * @return policy
+     */
+    public static SyncPolicy everyItems(long n) {
+        return everyItems(n, DEFAULT_MAX_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Syncs after every {@code n} items are written. Items written less than
+     * {@code n} items ago are synced within {@code maxDelay} if no more items
+     * are written.
+     *
+     * @param n
+     *            number of items written between syncs
+     * @param maxDelay
+     *            maximum time an item stays unsynced while no more items are
+     *            written
+     * @param unit
+     *            unit of {@code maxDelay}
+     * @return policy
+     */
+    public static SyncPolicy everyItems(long n, long maxDelay, TimeUnit unit) {
+        Preconditions.checkArgument(n > 0, "n must be greater than zero");
+        Preconditions.checkArgument(maxDelay > 0, "maxDelay must be greater than zero");
+        Preconditions.checkNotNull(unit);
+        return new SyncPolicy(n, 0, Math.max(1, unit.toMillis(maxDelay)));
+    }
+
+    /**
+     * Syncs on the first write after {@code duration} has elapsed since the
+     * last sync. Items are also synced within {@code duration} of being
+     * written if no more items are written.
+     *
+     * @param duration
+     *            minimum time between syncs
+     * @param unit
+     *            unit of {@code duration}
+     * @return policy
+     */
+    public static SyncPolicy interval(long duration, TimeUnit unit) {
+        Preconditions.checkArgument(duration >= 0, "duration cannot be negative");
+        Preconditions.checkNotNull(unit);
+        long intervalMs = unit.toMillis(duration);
+        return new SyncPolicy(0, intervalMs, intervalMs);
+    }
+
+    /**
+     * Returns the number of items between syncs or zero if syncs are
+     * time-based.
+     *
+     * @return number of items between syncs or zero
+     */
+    public long everyItems() {
+        return everyItems;
+    }
+
+    /**
+     * Returns the minimum time between syncs in milliseconds. Only applies if
+     * {@link #everyItems()} is zero.
+     *
+     * @return minimum time between syncs in milliseconds
+     */
+    public long intervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds that written items stay
+     * unsynced while no more items are written, or zero if every item is
+     * synced when written.
+     *
+     * @return maximum time in milliseconds between a write and its sync
+     */
+    public long maxDelayMs() {
+        return maxDelayMs;
+    }
+
+    @Override
+    public String toString() {
+        if (everyItems > 0) {
+            return "SyncPolicy[everyItems=" + everyItems + ", maxDelayMs=" + maxDelayMs + "]";
+        } else {
+            return "SyncPolicy[intervalMs=" + intervalMs + "]";
+        }
+    }
+
+    private static final class EveryItemHolder {
+        static final SyncPolicy INSTANCE = new SyncPolicy(1, 0, 0);
+    }
+
+}
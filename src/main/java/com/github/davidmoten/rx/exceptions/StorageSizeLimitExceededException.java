@@ -0,0 +1,11 @@
+package com.github.davidmoten.rx.exceptions;
+
+public final class StorageSizeLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = -4328735271871425718L;
+
+    public StorageSizeLimitExceededException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.rx.buffertofile.BatchDataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * Serializes a batch of items as the item count followed by the items. Uses
+ * the bulk methods of the item serializer if it is a
+ * {@link BatchDataSerializer} otherwise serializes item by item.
+ *
+ * @param <T>
+ *            type of item in the batch
+ */
+final class BatchSerializer<T> implements DataSerializer<List<T>> {
+
+    private final DataSerializer<T> serializer;
+
+    BatchSerializer(DataSerializer<T> serializer) {
+        Preconditions.checkNotNull(serializer);
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void serialize(DataOutput output, List<T> list) throws IOException {
+        output.writeInt(list.size());
+        if (serializer instanceof BatchDataSerializer) {
+            ((BatchDataSerializer<T>) serializer).serialize(output, list);
+        } else {
+            for (T t : list) {
+                serializer.serialize(output, t);
+            }
+        }
+    }
+
+    @Override
+    public List<T> deserialize(DataInput input) throws IOException {
+        int count = input.readInt();
+        List<T> list = new ArrayList<T>(count);
+        if (serializer instanceof BatchDataSerializer) {
+            ((BatchDataSerializer<T>) serializer).deserialize(input, count, list);
+        } else {
+            for (int i = 0; i < count; i++) {
+                list.add(serializer.deserialize(input));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public int size() {
+        // variable length because the batch size varies
+        return 0;
+    }
+
+}
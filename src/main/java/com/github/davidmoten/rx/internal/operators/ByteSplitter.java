@@ -0,0 +1,107 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.Arrays;
+
+import rx.Subscriber;
+
+/**
+ * <p>
+ * Splits a stream of byte arrays by a single delimiter byte without decoding
+ * or concatenating the arrays. Each incoming array is scanned in place and a
+ * part that lies wholly within it is passed to {@link #part} as an offset and
+ * length of that array. Only the unterminated tail of an array is copied (to
+ * a reusable buffer) so that it can be joined with the start of the next
+ * array.
+ *
+ * <p>
+ * Not thread-safe. One instance is used per subscription.
+ *
+ * @param <T>
+ *            type of the emitted parts
+ */
+abstract class ByteSplitter<T> {
+
+    private final byte delimiter;
+
+    // if false an empty part after the last delimiter is not emitted
+    private final boolean emitEmptyLast;
+
+    // the unterminated part of earlier arrays
+    private byte[] buffer = new byte[0];
+    private int buffered;
+
+    private boolean received;
+
+    ByteSplitter(byte delimiter, boolean emitEmptyLast) {
+        this.delimiter = delimiter;
+        this.emitEmptyLast = emitEmptyLast;
+    }
+
+    /**
+     * Returns the part at {@code bytes[offset, offset + length)}. The bytes
+     * may be overwritten after this method returns so must be copied or
+     * decoded.
+     */
+    abstract T part(byte[] bytes, int offset, int length);
+
+    /**
+     * Scans {@code bytes} and emits the parts it terminates. Returns false if
+     * the observer unsubscribed while emitting.
+     */
+    final boolean onNext(byte[] bytes, Subscriber<T> observer) {
+        received = true;
+        int start = 0;
+        int i;
+        while ((i = indexOf(bytes, start)) >= 0) {
+            if (observer.isUnsubscribed()) {
+                return false;
+            }
+            if (buffered == 0) {
+                observer.onNext(part(bytes, start, i - start));
+            } else {
+                // the part started in an earlier array
+                append(bytes, start, i);
+                int length = buffered;
+                buffered = 0;
+                observer.onNext(part(buffer, 0, length));
+            }
+            start = i + 1;
+        }
+        append(bytes, start, bytes.length);
+        return true;
+    }
+
+    /**
+     * Emits the last part if any array was received and, for line splitting,
+     * the part is not empty.
+     */
+    final void onCompleted(Subscriber<T> observer) {
+        if (received && (emitEmptyLast || buffered > 0) && !observer.isUnsubscribed()) {
+            observer.onNext(part(buffer, 0, buffered));
+        }
+        buffered = 0;
+    }
+
+    private int indexOf(byte[] bytes, int from) {
+        byte d = delimiter;
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == d) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (length == 0) {
+            return;
+        }
+        if (buffered + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffered + length, 2 * buffer.length));
+        }
+        System.arraycopy(bytes, from, buffer, buffered, length);
+        buffered += length;
+    }
+
+}
@@ -0,0 +1,494 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.functions.Func0;
+
+/**
+ * <p>
+ * A file based queue that supports concurrent calls to {@code offer()} with a
+ * single consumer. Each producer serializes its item into its own buffer then
+ * reserves space for it by a compare-and-set on the tail position, so
+ * producers never wait on each other to serialize or write.
+ *
+ * <p>
+ * Positions address a sequence of segment files each {@code segmentSizeBytes}
+ * long. A record is {@code [length + 1][serialized item]} and never spans
+ * segments. The producer writes the item before its header so a non-zero
+ * header tells the consumer the record is complete (unwritten parts of a file
+ * read as zero). If a record doesn't fit in the rest of a segment the producer
+ * moves the tail to the next segment and writes a padding header. Segments are
+ * deleted once read.
+ *
+ * <p>
+ * Calls to {@code poll()} and {@code isEmpty()} must be sequential.
+ * {@code poll()} may return null while an item is being written by another
+ * thread even though {@code isEmpty()} returns false. {@code unsubscribe()}
+ * must not be called concurrently with the other methods (wrap with
+ * {@link QueueWithResourcesNonBlockingUnsubscribe}).
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+public final class FileBasedMPSCQueue<T> implements QueueWithResources<T> {
+
+    private static final int HEADER_BYTES = 4;
+    private static final int PADDING = -1;
+    private static final byte[] EMPTY_HEADER = new byte[HEADER_BYTES];
+
+    private final Func0<File> fileFactory;
+    private final int segmentSizeBytes;
+    private final DataSerializer<T> serializer;
+    private final AtomicLong tail = new AtomicLong();
+
+    // the serialization buffer of each producer thread
+    private final ThreadLocal<RecordOutputStream> buffers = new ThreadLocal<RecordOutputStream>() {
+        @Override
+        protected RecordOutputStream initialValue() {
+            return new RecordOutputStream();
+        }
+    };
+
+    // guarded by segmentsLock
+    private final Map<Long, Segment> segments = new HashMap<Long, Segment>();
+    private final Object segmentsLock = new Object();
+    // most recently used segment by producers, avoids taking segmentsLock
+    private volatile Segment latest;
+
+    // accessed only by the thread calling poll()
+    private long readPosition;
+    private Segment readSegment;
+    private byte[] readBuffer;
+    private long readBufferStart;
+    private int readBufferLength;
+    private final RecordInputStream record = new RecordInputStream();
+    private final DataInputStream input = new DataInputStream(record);
+
+    private volatile boolean unsubscribed;
+
+    FileBasedMPSCQueue(Func0<File> fileFactory, int segmentSizeBytes, int bufferSizeBytes,
+            DataSerializer<T> serializer) {
+        Preconditions.checkNotNull(fileFactory);
+        Preconditions.checkArgument(segmentSizeBytes > HEADER_BYTES,
+                "segmentSizeBytes must be greater than " + HEADER_BYTES);
+        Preconditions.checkArgument(bufferSizeBytes > 0,
+                "bufferSizeBytes must be greater than zero");
+        Preconditions.checkNotNull(serializer);
+        this.fileFactory = fileFactory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.serializer = serializer;
+        this.readBuffer = new byte[bufferSizeBytes];
+    }
+
+    /**
+     * Returns a queue that accepts concurrent calls to {@code offer()} and
+     * whose {@code unsubscribe()} (which deletes the files) may be called at
+     * any time. Calls to {@code poll()} and {@code isEmpty()} must still be
+     * sequential.
+     * 
+     * @param fileFactory
+     *            creates the segment files
+     * @param segmentSizeBytes
+     *            size of each segment file
+     * @param bufferSizeBytes
+     *            size of the read buffer
+     * @param serializer
+     *            serializes and deserializes items
+     * @param <T>
+     *            type of item on queue
+     * @return a new queue
+     */
+    public static <T> QueueWithSubscription<T> create(Func0<File> fileFactory,
+            int segmentSizeBytes, int bufferSizeBytes, DataSerializer<T> serializer) {
+        return new QueueWithResourcesNonBlockingUnsubscribe<T>(new FileBasedMPSCQueue<T>(
+                fileFactory, segmentSizeBytes, bufferSizeBytes, serializer));
+    }
+
+    @Override
+    public boolean offer(T t) {
+        try {
+            RecordOutputStream bytes = buffers.get();
+            bytes.reset();
+            bytes.write(EMPTY_HEADER);
+            serializer.serialize(bytes.output, t);
+            int count = bytes.size();
+            if (count > segmentSizeBytes) {
+                throw new IllegalArgumentException(
+                        "serialized item is too large for a segment: " + count + " bytes");
+            }
+            long position = reserve(count);
+            Segment segment = segment(position / segmentSizeBytes);
+            int offset = (int) (position % segmentSizeBytes);
+            byte[] b = bytes.buffer();
+            // write the item then publish it by writing its header
+            segment.write(ByteBuffer.wrap(b, HEADER_BYTES, count - HEADER_BYTES),
+                    offset + HEADER_BYTES);
+            putInt(b, 0, count - HEADER_BYTES + 1);
+            segment.write(ByteBuffer.wrap(b, 0, HEADER_BYTES), offset);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long reserve(int count) throws IOException {
+        while (true) {
+            long position = tail.get();
+            int offset = (int) (position % segmentSizeBytes);
+            if (offset + count <= segmentSizeBytes) {
+                if (tail.compareAndSet(position, position + count)) {
+                    return position;
+                }
+            } else {
+                long next = position - offset + segmentSizeBytes;
+                if (tail.compareAndSet(position, next)
+                        && segmentSizeBytes - offset >= HEADER_BYTES) {
+                    // tell the consumer to skip to the next segment
+                    byte[] b = new byte[HEADER_BYTES];
+                    putInt(b, 0, PADDING);
+                    segment(position / segmentSizeBytes).write(ByteBuffer.wrap(b), offset);
+                }
+            }
+        }
+    }
+
+    private Segment segment(long index) throws IOException {
+        Segment s = latest;
+        if (s != null && s.index == index) {
+            return s;
+        }
+        synchronized (segmentsLock) {
+            if (unsubscribed) {
+                // don't create files that unsubscribe() won't delete
+                throw new IOException("queue has been unsubscribed");
+            }
+            s = segments.get(index);
+            if (s == null) {
+                s = new Segment(index, fileFactory.call());
+                segments.put(index, s);
+            }
+            if (latest == null || index > latest.index) {
+                latest = s;
+            }
+            return s;
+        }
+    }
+
+    @Override
+    public T poll() {
+        try {
+            while (true) {
+                if (readPosition == tail.get()) {
+                    // nothing reserved yet so don't skip ahead of the tail
+                    return null;
+                }
+                int offset = (int) (readPosition % segmentSizeBytes);
+                if (segmentSizeBytes - offset < HEADER_BYTES) {
+                    nextSegment();
+                    continue;
+                }
+                if (readPosition + HEADER_BYTES > readBufferStart + readBufferLength
+                        && !fillReadBuffer(HEADER_BYTES)) {
+                    return null;
+                }
+                int header = getInt(readBuffer, (int) (readPosition - readBufferStart));
+                if (header == 0) {
+                    // not written yet, read from the file again next time
+                    readBufferLength = 0;
+                    return null;
+                } else if (header == PADDING) {
+                    nextSegment();
+                } else {
+                    int len = header - 1;
+                    if (readPosition + HEADER_BYTES + len > readBufferStart + readBufferLength
+                            && !fillReadBuffer(HEADER_BYTES + len)) {
+                        throw new EOFException("record at " + readPosition + " is incomplete");
+                    }
+                    record.set(readBuffer,
+                            (int) (readPosition - readBufferStart) + HEADER_BYTES, len);
+                    T t = serializer.deserialize(input);
+                    readPosition += HEADER_BYTES + len;
+                    if (readPosition % segmentSizeBytes == 0) {
+                        // the record filled the rest of its segment
+                        closeSegment(readPosition / segmentSizeBytes - 1);
+                    }
+                    if (t == null) {
+                        return NullSentinel.instance();
+                    } else {
+                        return t;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void nextSegment() {
+        long index = readPosition / segmentSizeBytes;
+        readPosition = (index + 1) * segmentSizeBytes;
+        closeSegment(index);
+    }
+
+    private void closeSegment(long index) {
+        readBufferLength = 0;
+        readSegment = null;
+        Segment s;
+        synchronized (segmentsLock) {
+            s = segments.remove(index);
+        }
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    // returns false if fewer than n bytes are in the file at readPosition
+    private boolean fillReadBuffer(int n) throws IOException {
+        if (readSegment == null) {
+            readSegment = segment(readPosition / segmentSizeBytes);
+        }
+        if (readBuffer.length < n) {
+            readBuffer = new byte[Math.max(n, readBuffer.length * 2)];
+        }
+        int offset = (int) (readPosition % segmentSizeBytes);
+        readBufferStart = readPosition;
+        readBufferLength = readSegment.read(readBuffer,
+                Math.min(readBuffer.length, segmentSizeBytes - offset), offset);
+        return readBufferLength >= n;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return readPosition == tail.get();
+    }
+
+    @Override
+    public void unsubscribe() {
+        if (unsubscribed) {
+            return;
+        }
+        unsubscribed = true;
+        synchronized (segmentsLock) {
+            for (Segment s : segments.values()) {
+                s.close();
+            }
+            segments.clear();
+            latest = null;
+        }
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    private static final class Segment {
+
+        final long index;
+        private final File file;
+        private final RandomAccessFile f;
+        // positional reads and writes are safe to call concurrently
+        private final FileChannel channel;
+
+        Segment(long index, File file) {
+            this.index = index;
+            this.file = file;
+            try {
+                this.f = new RandomAccessFile(file, "rw");
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            this.channel = f.getChannel();
+        }
+
+        void write(ByteBuffer bb, long position) throws IOException {
+            while (bb.hasRemaining()) {
+                position += channel.write(bb, position);
+            }
+        }
+
+        // reads up to length bytes into b and returns the number read
+        int read(byte[] b, int length, long position) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(b, 0, length);
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, position);
+                if (n == -1) {
+                    break;
+                }
+                position += n;
+            }
+            return bb.position();
+        }
+
+        void close() {
+            try {
+                f.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            file.delete();
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static final class RecordOutputStream extends ByteArrayOutputStream {
+
+        final DataOutputStream output = new DataOutputStream(this);
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static final class RecordInputStream extends InputStream {
+
+        private byte[] b;
+        private int position;
+        private int limit;
+
+        void set(byte[] b, int offset, int length) {
+            this.b = b;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read() {
+            if (position == limit) {
+                return -1;
+            } else {
+                return b[position++] & 0xFF;
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (position == limit) {
+                return -1;
+            } else {
+                int n = Math.min(len, limit - position);
+                System.arraycopy(b, position, bytes, off, n);
+                position += n;
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public void freeResources() {
+        // segments are in use by producers
+    }
+
+    @Override
+    public long resourcesSize() {
+        return tail.get() - readPosition;
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(T e) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("hiding")
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -9,13 +9,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.github.davidmoten.rx.buffertofile.CompressionCodec;
 import com.github.davidmoten.rx.buffertofile.DataSerializer;
 import com.github.davidmoten.util.Preconditions;
 
+import rx.functions.Func0;
+
 class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 
 	final File file;
@@ -23,10 +28,14 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 	final AtomicLong size;
 	final byte[] writeBuffer;
 	final byte[] readBuffer;
+	private final ByteBuffer writeByteBuffer;
+	private final ByteBuffer readByteBuffer;
 	final Object writeLock = new Object();
 	private final Object accessLock = new Object();
 	private final DataOutputStream output;
 	private final DataInputStream input;
+	// null if blocks are written to the file uncompressed
+	private final CompressedBlocks blocks;
 
 	// mutable state
 
@@ -40,11 +49,22 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 	private volatile boolean unsubscribed = false;
 
 	FileBasedSPSCQueue(int bufferSizeBytes, File file, DataSerializer<T> serializer) {
+		this(bufferSizeBytes, file, serializer, null);
+	}
+
+	/**
+	 * If {@code compression} is not null then each flush of the write buffer
+	 * is compressed as a block before being written to the file.
+	 */
+	FileBasedSPSCQueue(int bufferSizeBytes, File file, DataSerializer<T> serializer,
+			Func0<CompressionCodec> compression) {
 		Preconditions.checkArgument(bufferSizeBytes > 0, "bufferSizeBytes must be greater than zero");
 		Preconditions.checkNotNull(file);
 		Preconditions.checkNotNull(serializer);
 		this.readBuffer = new byte[bufferSizeBytes];
 		this.writeBuffer = new byte[bufferSizeBytes];
+		this.readByteBuffer = ByteBuffer.wrap(readBuffer);
+		this.writeByteBuffer = ByteBuffer.wrap(writeBuffer);
 		try {
 			file.getParentFile().mkdirs();
 			file.createNewFile();
@@ -57,21 +77,47 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 		this.size = new AtomicLong(0);
 		this.output = new DataOutputStream(new QueueWriter());
 		this.input = new DataInputStream(new QueueReader());
+		if (compression == null) {
+			this.blocks = null;
+		} else {
+			this.blocks = new CompressedBlocks(bufferSizeBytes, compression);
+		}
 	}
 
 	private final static class FileAccessor {
 		final RandomAccessFile fWrite;
 		final RandomAccessFile fRead;
+		// positional reads and writes save a seek call each time
+		final FileChannel write;
+		final FileChannel read;
 
 		FileAccessor(File file) {
 			try {
 				this.fWrite = new RandomAccessFile(file, "rw");
 				this.fRead = new RandomAccessFile(file, "r");
+				this.write = fWrite.getChannel();
+				this.read = fRead.getChannel();
 			} catch (FileNotFoundException e) {
 				throw new RuntimeException(e);
 			}
 		}
 
+		void write(ByteBuffer bb, long position) throws IOException {
+			while (bb.hasRemaining()) {
+				position += write.write(bb, position);
+			}
+		}
+
+		void read(ByteBuffer bb, long position) throws IOException {
+			while (bb.hasRemaining()) {
+				int n = read.read(bb, position);
+				if (n == -1) {
+					throw new EOFException();
+				}
+				position += n;
+			}
+		}
+
 		public void close() {
 			try {
 				fWrite.close();
@@ -82,6 +128,114 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 		}
 	}
 
+	/**
+	 * Stores each block (the size of the write buffer) compressed in the file
+	 * as {@code [length][bytes]} where a negative length means the block is
+	 * stored uncompressed because it did not get smaller. Positions passed to
+	 * {@link #read} are positions in the uncompressed stream. Reads must be
+	 * sequential but may skip blocks (those read from the write buffer).
+	 */
+	private static final class CompressedBlocks {
+
+		private static final int HEADER_BYTES = 4;
+
+		private final int blockSize;
+		private final CompressionCodec writeCodec;
+		private final CompressionCodec readCodec;
+		private final byte[] writeBytes;
+		private final byte[] readBytes;
+		// the decompressed block last read
+		private final byte[] block;
+		private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+		// guarded by the queue writeLock, volatile for resourcesSize()
+		private volatile long fileWritePosition;
+
+		// accessed only by the reading thread
+		private long fileReadPosition;
+		// index of the block starting at fileReadPosition
+		private long nextBlockIndex;
+		private long blockIndex = -1;
+
+		CompressedBlocks(int blockSize, Func0<CompressionCodec> compression) {
+			this.blockSize = blockSize;
+			this.writeCodec = compression.call();
+			this.readCodec = compression.call();
+			this.writeBytes = new byte[HEADER_BYTES + writeCodec.maxCompressedLength(blockSize)];
+			this.readBytes = new byte[readCodec.maxCompressedLength(blockSize)];
+			this.block = new byte[blockSize];
+		}
+
+		void close() {
+			writeCodec.close();
+			readCodec.close();
+		}
+
+		void write(FileAccessor accessor, byte[] b, int off, int length) throws IOException {
+			for (int i = off; i < off + length; i += blockSize) {
+				int n = writeCodec.compress(b, i, blockSize, writeBytes, HEADER_BYTES);
+				final int h;
+				if (n < blockSize) {
+					h = n;
+				} else {
+					// store uncompressed
+					System.arraycopy(b, i, writeBytes, HEADER_BYTES, blockSize);
+					n = blockSize;
+					h = -n;
+				}
+				writeBytes[0] = (byte) (h >>> 24);
+				writeBytes[1] = (byte) (h >>> 16);
+				writeBytes[2] = (byte) (h >>> 8);
+				writeBytes[3] = (byte) h;
+				long fwp = fileWritePosition;
+				accessor.write(ByteBuffer.wrap(writeBytes, 0, HEADER_BYTES + n), fwp);
+				fileWritePosition = fwp + HEADER_BYTES + n;
+			}
+		}
+
+		void read(FileAccessor accessor, byte[] dest, int length, long position)
+				throws IOException {
+			int off = 0;
+			while (off < length) {
+				long p = position + off;
+				long index = p / blockSize;
+				if (index != blockIndex) {
+					readBlock(accessor, index);
+				}
+				int start = (int) (p - index * blockSize);
+				int n = Math.min(length - off, blockSize - start);
+				System.arraycopy(block, start, dest, off, n);
+				off += n;
+			}
+		}
+
+		private void readBlock(FileAccessor accessor, long index) throws IOException {
+			while (true) {
+				header.clear();
+				accessor.read(header, fileReadPosition);
+				int h = header.getInt(0);
+				int n = Math.abs(h);
+				if (nextBlockIndex == index) {
+					ByteBuffer bb = ByteBuffer.wrap(h < 0 ? block : readBytes, 0, n);
+					accessor.read(bb, fileReadPosition + HEADER_BYTES);
+					if (h > 0) {
+						readCodec.decompress(readBytes, 0, n, block, 0, blockSize);
+					}
+					blockIndex = index;
+				}
+				fileReadPosition += HEADER_BYTES + n;
+				nextBlockIndex++;
+				if (blockIndex == index) {
+					return;
+				}
+			}
+		}
+
+		long fileSize() {
+			return fileWritePosition;
+		}
+	}
+
 	private final class QueueWriter extends OutputStream {
 
 		@Override
@@ -95,13 +249,58 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 				synchronized (writeLock) {
 					// minimize reads of volatile writePosition
 					long wp = writePosition;
-					accessor.fWrite.seek(wp);
-					accessor.fWrite.write(writeBuffer);
+					writeByteBuffer.clear();
+					writeToFile(writeByteBuffer, wp);
 					writeBuffer[0] = (byte) b;
 					writeBufferPosition = 1;
 					writePosition = wp + writeBuffer.length;
 				}
 		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			// minimize reads of volatile writeBufferPosition
+			int wbp = writeBufferPosition;
+			while (len > 0) {
+				if (wbp == writeBuffer.length) {
+					synchronized (writeLock) {
+						long wp = writePosition;
+						writeByteBuffer.clear();
+						writeToFile(writeByteBuffer, wp);
+						wbp = 0;
+						writeBufferPosition = 0;
+						writePosition = wp + writeBuffer.length;
+					}
+				}
+				if (wbp == 0 && len >= writeBuffer.length) {
+					// write big chunks straight to the file
+					int n = len - len % writeBuffer.length;
+					synchronized (writeLock) {
+						long wp = writePosition;
+						writeToFile(ByteBuffer.wrap(b, off, n), wp);
+						writePosition = wp + n;
+					}
+					off += n;
+					len -= n;
+				} else {
+					int n = Math.min(len, writeBuffer.length - wbp);
+					System.arraycopy(b, off, writeBuffer, wbp, n);
+					wbp += n;
+					writeBufferPosition = wbp;
+					off += n;
+					len -= n;
+				}
+			}
+		}
+	}
+
+	// must hold writeLock, bb holds a whole number of blocks
+	private void writeToFile(ByteBuffer bb, long wp) throws IOException {
+		if (blocks == null) {
+			accessor.write(bb, wp);
+		} else {
+			blocks.write(accessor, bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+		}
 	}
 
 	// create the exception once to avoid building many Exception objects
@@ -137,8 +336,7 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 								if (accessor == null) {
 									accessor = new FileAccessor(file);
 								}
-								accessor.fRead.seek(readPosition);
-								accessor.fRead.read(readBuffer, 0, readBufferLength);
+								fillReadBuffer();
 							}
 							readPosition += readBufferLength;
 							readBufferPosition = 1;
@@ -179,6 +377,78 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 				}
 			}
 		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			} else if (size.get() == 0) {
+				throw EOF;
+			} else if (readBufferPosition < readBufferLength) {
+				int n = Math.min(len, readBufferLength - readBufferPosition);
+				System.arraycopy(readBuffer, readBufferPosition, b, off, n);
+				readBufferPosition += n;
+				return n;
+			} else {
+				while (true) {
+					long wp;
+					int wbp;
+					synchronized (writeLock) {
+						wp = writePosition;
+						wbp = writeBufferPosition;
+					}
+					long over = wp - readPosition;
+					if (over > 0) {
+						// read position is not past the write position
+						readBufferLength = (int) Math.min(readBuffer.length, over);
+						synchronized (accessLock) {
+							if (accessor == null) {
+								accessor = new FileAccessor(file);
+							}
+							fillReadBuffer();
+						}
+						readPosition += readBufferLength;
+						int n = Math.min(len, readBufferLength);
+						System.arraycopy(readBuffer, 0, b, off, n);
+						readBufferPosition = n;
+						return n;
+					} else {
+						// read position is at or past the write position so
+						// copy from the write buffer
+						int index = -(int) over;
+						if (index >= wbp) {
+							throw EOF;
+						} else {
+							int n = Math.min(len, wbp - index);
+							System.arraycopy(writeBuffer, index, b, off, n);
+							final boolean writeBufferUnchanged;
+							synchronized (writeLock) {
+								// the write buffer is only appended to unless it
+								// is flushed to the file (which changes
+								// writePosition) so the copied bytes are valid
+								// if writePosition has not changed
+								writeBufferUnchanged = wp == writePosition;
+							}
+							if (writeBufferUnchanged) {
+								readPosition += n;
+								return n;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// must hold accessLock
+		private void fillReadBuffer() throws IOException {
+			if (blocks == null) {
+				readByteBuffer.clear();
+				readByteBuffer.limit(readBufferLength);
+				accessor.read(readByteBuffer, readPosition);
+			} else {
+				blocks.read(accessor, readBuffer, readBufferLength, readPosition);
+			}
+		}
 	}
 
 	private static int toUnsignedInteger(byte b) {
@@ -199,6 +469,9 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 			}
 			size.set(0);
 		}
+		if (blocks != null) {
+			blocks.close();
+		}
 		if (!file.delete()) {
 			throw new RuntimeException("could not delete file " + file);
 		}
@@ -263,7 +536,11 @@ class FileBasedSPSCQueue<T> implements QueueWithResources<T> {
 
 	@Override
 	public long resourcesSize() {
-		return writePosition;
+		if (blocks == null) {
+			return writePosition;
+		} else {
+			return blocks.fileSize();
+		}
 	}
 
 	@Override
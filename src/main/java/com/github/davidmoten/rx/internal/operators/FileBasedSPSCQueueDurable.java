@@ -0,0 +1,618 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.SyncPolicy;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscription;
+import rx.functions.Action0;
+
+/**
+ * <p>
+ * A file based queue that survives a restart. Items are appended to a data
+ * file as records of {@code [length][crc32][serialized item]}. An index file
+ * holds the acknowledged read position and the synced write position with a
+ * checksum. When opened the queue resumes from the acknowledged read position
+ * and drops any partially written records at the end of the data file.
+ *
+ * <p>
+ * An item is acknowledged when the next item is polled or the queue is found
+ * to be empty so delivery is at-least-once: the last item polled before a stop
+ * is polled again after a restart. The data file is synced and the index
+ * written according to the {@link SyncPolicy}. The reader writes the index at
+ * the same rate but does not sync it because a stale read position only
+ * causes items to be delivered again. Syncs happen in {@code offer()} so
+ * {@link #syncPending()} should be called at least every
+ * {@link SyncPolicy#maxDelayMs()} (see {@link #syncPeriodically}) to sync the
+ * last items written before the producer goes idle.
+ *
+ * <p>
+ * When the reader catches up and the data file is at least
+ * {@code resetSizeBytes} long the data file is truncated so it does not grow
+ * forever. When the queue is closed with every item acknowledged the files are
+ * deleted.
+ *
+ * <p>
+ * Calls to {@code offer()} must be sequential as must calls to {@code poll()}
+ * and {@code isEmpty()}. {@code unsubscribe()} must not be called concurrently
+ * with the other methods (wrap with
+ * {@link QueueWithResourcesNonBlockingUnsubscribe}).
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+final class FileBasedSPSCQueueDurable<T> implements QueueWithResources<T> {
+
+    static final String DATA_FILE_NAME = "queue.data";
+    static final String INDEX_FILE_NAME = "queue.index";
+
+    private static final long DEFAULT_RESET_SIZE_BYTES = 1024 * 1024;
+    // record length and crc
+    private static final int HEADER_BYTES = 8;
+    // read position, write position and crc
+    private static final int INDEX_BYTES = 24;
+    private static final byte[] EMPTY_HEADER = new byte[HEADER_BYTES];
+
+    private final File directory;
+    private final DataSerializer<T> serializer;
+    private final SyncPolicy syncPolicy;
+    private final long resetSizeBytes;
+    private final RandomAccessFile dataFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final FileLock fileLock;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private long writePosition;
+    private long ackedPosition;
+    private long syncedWritePosition;
+    private long writesSinceSync;
+    private long lastSyncTime;
+    private long readsSinceIndexWrite;
+    private long lastIndexWriteTime;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_BYTES);
+    private Subscription syncWorker;
+    private final CRC32 indexCrc = new CRC32();
+
+    // accessed only by the thread calling offer()
+    private final RecordOutputStream bytes = new RecordOutputStream();
+    private final DataOutputStream output = new DataOutputStream(bytes);
+    private final CRC32 writeCrc = new CRC32();
+
+    // accessed only by the thread calling poll() (and by unsubscribe() which
+    // does not run concurrently with poll())
+    private long readPosition;
+    private byte[] readBuffer;
+    private long readBufferStart;
+    private int readBufferLength;
+    private final RecordInputStream record = new RecordInputStream();
+    private final DataInputStream input = new DataInputStream(record);
+
+    private volatile boolean unsubscribed;
+
+    FileBasedSPSCQueueDurable(File directory, int bufferSizeBytes,
+            DataSerializer<T> serializer, SyncPolicy syncPolicy) {
+        this(directory, bufferSizeBytes, serializer, syncPolicy, DEFAULT_RESET_SIZE_BYTES);
+    }
+
+    FileBasedSPSCQueueDurable(File directory, int bufferSizeBytes,
+            DataSerializer<T> serializer, SyncPolicy syncPolicy, long resetSizeBytes) {
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkArgument(bufferSizeBytes > 0,
+                "bufferSizeBytes must be greater than zero");
+        Preconditions.checkNotNull(serializer);
+        Preconditions.checkNotNull(syncPolicy);
+        this.directory = directory;
+        this.serializer = serializer;
+        this.syncPolicy = syncPolicy;
+        this.resetSizeBytes = resetSizeBytes;
+        this.readBuffer = new byte[bufferSizeBytes];
+        directory.mkdirs();
+        RandomAccessFile indexFile = null;
+        RandomAccessFile dataFile = null;
+        try {
+            indexFile = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw");
+            this.fileLock = tryLock(indexFile.getChannel());
+            if (fileLock == null) {
+                throw new IllegalStateException(
+                        "durable queue directory is in use by another queue: " + directory);
+            }
+            dataFile = new RandomAccessFile(new File(directory, DATA_FILE_NAME), "rw");
+            this.indexFile = indexFile;
+            this.index = indexFile.getChannel();
+            this.dataFile = dataFile;
+            this.data = dataFile.getChannel();
+            recover();
+        } catch (IOException e) {
+            closeQuietly(dataFile);
+            closeQuietly(indexFile);
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            closeQuietly(dataFile);
+            closeQuietly(indexFile);
+            throw e;
+        }
+        this.lastSyncTime = System.currentTimeMillis();
+        this.lastIndexWriteTime = lastSyncTime;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // already locked by this JVM
+            return null;
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        long length = data.size();
+        long read = 0;
+        long write = 0;
+        if (index.size() >= INDEX_BYTES) {
+            indexBuffer.clear();
+            read(index, indexBuffer, 0);
+            indexCrc.reset();
+            indexCrc.update(indexBuffer.array(), 0, 16);
+            if (indexBuffer.getLong(16) == indexCrc.getValue()) {
+                read = indexBuffer.getLong(0);
+                write = indexBuffer.getLong(8);
+            }
+        }
+        if (read > length) {
+            // stopped part way through a reset
+            read = 0;
+        }
+        // records before the synced write position were synced before the
+        // index was written so only check the records after it
+        long position = write >= read && write <= length ? write : read;
+        while (position + HEADER_BYTES <= length) {
+            fillReadBuffer(position, HEADER_BYTES, length);
+            int len = getInt(readBuffer, 0);
+            if (len < 0 || position + HEADER_BYTES + len > length) {
+                break;
+            }
+            fillReadBuffer(position, HEADER_BYTES + len, length);
+            writeCrc.reset();
+            writeCrc.update(readBuffer, HEADER_BYTES, len);
+            if (getInt(readBuffer, 4) != (int) writeCrc.getValue()) {
+                break;
+            }
+            position += HEADER_BYTES + len;
+        }
+        if (position < length) {
+            // drop the partially written record
+            data.truncate(position);
+        }
+        readBufferStart = read;
+        readBufferLength = 0;
+        readPosition = read;
+        ackedPosition = read;
+        writePosition = position;
+        syncedWritePosition = position;
+    }
+
+    @Override
+    public boolean offer(T t) {
+        try {
+            bytes.reset();
+            bytes.write(EMPTY_HEADER);
+            serializer.serialize(output, t);
+            byte[] b = bytes.buffer();
+            int count = bytes.size();
+            int len = count - HEADER_BYTES;
+            writeCrc.reset();
+            writeCrc.update(b, HEADER_BYTES, len);
+            putInt(b, 0, len);
+            putInt(b, 4, (int) writeCrc.getValue());
+            synchronized (lock) {
+                long position = writePosition;
+                write(data, ByteBuffer.wrap(b, 0, count), position);
+                writePosition = position + count;
+                writesSinceSync++;
+                if (due(writesSinceSync, lastSyncTime)) {
+                    sync();
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Syncs items written since the last sync. May be called concurrently
+     * with {@code offer()} and {@code poll()} and does nothing once the queue
+     * is unsubscribed.
+     */
+    void syncPending() {
+        synchronized (lock) {
+            if (!unsubscribed && writesSinceSync > 0) {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls {@link #syncPending()} every {@code periodMs} on a worker of
+     * {@code scheduler}. The worker is unsubscribed by {@code unsubscribe()}
+     * only after the final sync and close because unsubscribing a worker can
+     * interrupt its thread and an interrupt during channel IO closes the
+     * channel.
+     */
+    void syncPeriodically(Scheduler scheduler, long periodMs) {
+        Worker worker = scheduler.createWorker();
+        synchronized (lock) {
+            if (unsubscribed) {
+                worker.unsubscribe();
+                return;
+            }
+            syncWorker = worker;
+        }
+        worker.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    syncPending();
+                } catch (RuntimeException e) {
+                    // the next offer will fail and report the error
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public T poll() {
+        long wp;
+        synchronized (lock) {
+            wp = writePosition;
+            // everything before the read position has been emitted
+            ackedPosition = readPosition;
+            if (readPosition == wp) {
+                if (wp >= resetSizeBytes) {
+                    reset();
+                }
+                return null;
+            }
+            readsSinceIndexWrite++;
+            if (due(readsSinceIndexWrite, lastIndexWriteTime)) {
+                writeIndex(false);
+                readsSinceIndexWrite = 0;
+                lastIndexWriteTime = System.currentTimeMillis();
+            }
+        }
+        try {
+            if (readPosition + HEADER_BYTES > readBufferStart + readBufferLength) {
+                fillReadBuffer(readPosition, HEADER_BYTES, wp);
+            }
+            int len = getInt(readBuffer, (int) (readPosition - readBufferStart));
+            if (readPosition + HEADER_BYTES + len > readBufferStart + readBufferLength) {
+                fillReadBuffer(readPosition, HEADER_BYTES + len, wp);
+            }
+            record.set(readBuffer, (int) (readPosition - readBufferStart) + HEADER_BYTES, len);
+            T t = serializer.deserialize(input);
+            readPosition += HEADER_BYTES + len;
+            if (t == null) {
+                return NullSentinel.instance();
+            } else {
+                return t;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        synchronized (lock) {
+            if (readPosition == writePosition) {
+                ackedPosition = readPosition;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        if (unsubscribed) {
+            return;
+        }
+        unsubscribed = true;
+        Subscription worker = null;
+        try {
+            synchronized (lock) {
+                worker = syncWorker;
+                boolean allAcknowledged = ackedPosition == writePosition;
+                if (!allAcknowledged) {
+                    data.force(false);
+                    syncedWritePosition = writePosition;
+                    writeIndex(true);
+                }
+                fileLock.release();
+                indexFile.close();
+                dataFile.close();
+                if (allAcknowledged) {
+                    new File(directory, DATA_FILE_NAME).delete();
+                    new File(directory, INDEX_FILE_NAME).delete();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // only now that the final sync is done
+            if (worker != null) {
+                worker.unsubscribe();
+            }
+        }
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    // must hold lock
+    private boolean due(long count, long lastTime) {
+        if (syncPolicy.everyItems() > 0) {
+            return count >= syncPolicy.everyItems();
+        } else {
+            return System.currentTimeMillis() - lastTime >= syncPolicy.intervalMs();
+        }
+    }
+
+    // must hold lock
+    private void sync() throws IOException {
+        data.force(false);
+        syncedWritePosition = writePosition;
+        writeIndex(true);
+        writesSinceSync = 0;
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    // must hold lock, called only by the thread calling poll()
+    private void reset() {
+        try {
+            // the truncation must reach the disk before the index is
+            // reset otherwise old records could be read again after a restart
+            data.truncate(0);
+            data.force(true);
+            writePosition = 0;
+            syncedWritePosition = 0;
+            readPosition = 0;
+            ackedPosition = 0;
+            readBufferStart = 0;
+            readBufferLength = 0;
+            writeIndex(true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // must hold lock
+    private void writeIndex(boolean force) {
+        try {
+            indexBuffer.clear();
+            indexBuffer.putLong(ackedPosition);
+            indexBuffer.putLong(syncedWritePosition);
+            indexCrc.reset();
+            indexCrc.update(indexBuffer.array(), 0, 16);
+            indexBuffer.putLong(indexCrc.getValue());
+            indexBuffer.flip();
+            write(index, indexBuffer, 0);
+            if (force) {
+                index.force(false);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // reads at least n bytes at position into the start of readBuffer
+    private void fillReadBuffer(long position, int n, long limit) throws IOException {
+        if (readBuffer.length < n) {
+            readBuffer = new byte[Math.max(n, readBuffer.length * 2)];
+        }
+        readBufferStart = position;
+        readBufferLength = (int) Math.min(readBuffer.length, limit - position);
+        read(data, ByteBuffer.wrap(readBuffer, 0, readBufferLength), position);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bb, long position)
+            throws IOException {
+        while (bb.hasRemaining()) {
+            position += channel.write(bb, position);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer bb, long position)
+            throws IOException {
+        while (bb.hasRemaining()) {
+            int n = channel.read(bb, position);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static final class RecordOutputStream extends ByteArrayOutputStream {
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static final class RecordInputStream extends InputStream {
+
+        private byte[] b;
+        private int position;
+        private int limit;
+
+        void set(byte[] b, int offset, int length) {
+            this.b = b;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read() {
+            if (position == limit) {
+                return -1;
+            } else {
+                return b[position++] & 0xFF;
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (position == limit) {
+                return -1;
+            } else {
+                int n = Math.min(len, limit - position);
+                System.arraycopy(b, position, bytes, off, n);
+                position += n;
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public void freeResources() {
+        // the file lock must be held while the queue is open
+    }
+
+    @Override
+    public long resourcesSize() {
+        synchronized (lock) {
+            return writePosition;
+        }
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(T e) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("hiding")
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+}
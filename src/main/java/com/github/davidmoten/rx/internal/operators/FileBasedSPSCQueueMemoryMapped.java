@@ -2,11 +2,12 @@ package com.github.davidmoten.rx.internal.operators;
 
 import java.io.File;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -16,37 +17,111 @@ import com.github.davidmoten.util.Preconditions;
 
 import rx.functions.Func0;
 
-public final class FileBasedSPSCQueueMemoryMapped<T> implements QueueWithSubscription<T> {
+/**
+ * <p>
+ * A file based queue that stores items in a sequence of memory-mapped files
+ * (segments). The writer rolls over to a new segment when the current one is
+ * full or has {@code maxItemsPerSegment} items in it. A segment that has been
+ * fully read is deleted (one fully read segment is kept to be reused by the
+ * writer to save on file creation and mapping).
+ *
+ * <p>
+ * Segments are at most {@code maxSegmentSizeBytes} but when
+ * {@code maxItemsPerSegment} is set a segment is only made big enough for that
+ * many items. If the serializer does not report a constant size the bytes per
+ * item of the last segment written is used to size the next one (and a
+ * segment is made larger if an item does not fit). Mapping a large segment
+ * for a few items is expensive so this keeps frequent rollover cheap.
+ *
+ * <p>
+ * Calls to {@code offer()} must be sequential (a happens-before relationship)
+ * as must calls to {@code poll()} but {@code offer()} and {@code poll()} may
+ * happen concurrently. {@code unsubscribe()} may be called at any time and
+ * releases the segments (unmapped and deleted) once any in-flight
+ * {@code offer()} or {@code poll()} has finished.
+ *
+ * @param <T>
+ *            type of item being queued
+ */
+final class FileBasedSPSCQueueMemoryMapped<T> implements QueueWithSubscription<T> {
 
-    private final Queue<FileBasedSPSCQueueMemoryMappedReaderWriter<T>> inactive = new LinkedList<FileBasedSPSCQueueMemoryMappedReaderWriter<T>>();
     private final Deque<FileBasedSPSCQueueMemoryMappedReaderWriter<T>> toRead = new ArrayDeque<FileBasedSPSCQueueMemoryMappedReaderWriter<T>>();
+    // guarded by lock, holds at most one segment
+    private FileBasedSPSCQueueMemoryMappedReaderWriter<T> inactive;
     private final Object lock = new Object();
     private final Func0<File> factory;
-    private final int size;
+    private final int maxSegmentSizeBytes;
+    private final long maxItemsPerSegment;
+    private final DataSerializer<T> serializer;
     // only needs to be visible to thread calling poll()
     private FileBasedSPSCQueueMemoryMappedReaderWriter<T> reader;
     // only needs to be visible to thread calling offer()
     private FileBasedSPSCQueueMemoryMappedReaderWriter<T> writer;
     private final AtomicInteger wip = new AtomicInteger();
     private volatile boolean unsubscribed = false;
+    private final AtomicBoolean closed = new AtomicBoolean();
     private final AtomicLong count = new AtomicLong();
+    // only need to be visible to thread calling offer(), used to size
+    // segments when the serializer does not report a constant size
+    private long bytesPerItemEstimate = INITIAL_BYTES_PER_ITEM_ESTIMATE;
+    private long bytesInFinishedSegments;
+    private long itemsInFinishedSegments;
 
-    private final DataSerializer<T> serializer;
+    private static final int MIN_SEGMENT_SIZE_BYTES = 4096;
+    private static final long INITIAL_BYTES_PER_ITEM_ESTIMATE = 64;
 
-    public FileBasedSPSCQueueMemoryMapped(Func0<File> factory, int size,
-            DataSerializer<T> serializer) {
+    FileBasedSPSCQueueMemoryMapped(Func0<File> factory, int maxSegmentSizeBytes,
+            long maxItemsPerSegment, DataSerializer<T> serializer) {
         Preconditions.checkNotNull(factory);
         Preconditions.checkNotNull(serializer);
         this.factory = factory;
-        this.size = size;
+        this.maxSegmentSizeBytes = maxSegmentSizeBytes;
+        this.maxItemsPerSegment = maxItemsPerSegment;
         this.serializer = serializer;
-        File file = factory.call();
-        this.writer = new FileBasedSPSCQueueMemoryMappedReaderWriter<T>(file, size, serializer);
-        this.reader = writer.openForWrite().openForRead();
+        this.writer = createSegment(segmentSize(0)).openForWrite();
+        this.reader = writer.openForRead();
         // store store barrier
         wip.lazySet(0);
     }
 
+    private FileBasedSPSCQueueMemoryMappedReaderWriter<T> createSegment(int size) {
+        return new FileBasedSPSCQueueMemoryMappedReaderWriter<T>(factory.call(), size,
+                maxItemsPerSegment, serializer);
+    }
+
+    // returns the size of the next segment which is at least minimumBytes
+    private int segmentSize(int minimumBytes) {
+        final long size;
+        if (maxItemsPerSegment >= maxSegmentSizeBytes) {
+            // every item uses at least one byte for its marker so the
+            // segment will fill up before the item count is reached
+            size = maxSegmentSizeBytes;
+        } else if (serializer.size() > 0) {
+            size = maxItemsPerSegment
+                    * (serializer.size() + FileBasedSPSCQueueMemoryMappedReaderWriter.MARKER_HEADER_SIZE)
+                    + FileBasedSPSCQueueMemoryMappedReaderWriter.MARKER_HEADER_SIZE;
+        } else {
+            // allow a quarter extra for variation in item size
+            long estimate = maxItemsPerSegment * bytesPerItemEstimate;
+            size = Math.max(MIN_SEGMENT_SIZE_BYTES, estimate + estimate / 4);
+        }
+        return (int) Math.max(minimumBytes, Math.min(maxSegmentSizeBytes, size));
+    }
+
+    private void updateEstimate(FileBasedSPSCQueueMemoryMappedReaderWriter<T> segment) {
+        long items = segment.itemsWritten();
+        if (items > 0) {
+            // the average over all segments so that an occasional large item
+            // does not inflate the next segment, includes the marker of each
+            // item but not the last marker
+            bytesInFinishedSegments += segment.bytesWritten()
+                    - FileBasedSPSCQueueMemoryMappedReaderWriter.MARKER_HEADER_SIZE;
+            itemsInFinishedSegments += items;
+            bytesPerItemEstimate = (bytesInFinishedSegments + itemsInFinishedSegments - 1)
+                    / itemsInFinishedSegments;
+        }
+    }
+
     @Override
     public void unsubscribe() {
         wip.incrementAndGet();
@@ -60,33 +135,84 @@ public final class FileBasedSPSCQueueMemoryMapped<T> implements QueueWithSubscri
     }
 
     @Override
-    public synchronized boolean offer(T t) {
+    public boolean offer(T t) {
         // thread safe with poll() and unsubscribe()
+        wip.incrementAndGet();
         try {
-            wip.incrementAndGet();
             if (unsubscribed)
                 return true;
-            if (!writer.offer(t)) {
-                // note that writer will be in a closed state if we follow this
-                // path
+            // a new segment may still be too small for the item in which
+            // case it is rolled over to a segment of the required size
+            while (!writer.offer(t)) {
+                int required = writer.requiredFileSize();
+                if (required > maxSegmentSizeBytes) {
+                    throw new IllegalArgumentException(
+                            "serialized length is larger than can fit in one file");
+                }
+                updateEstimate(writer);
+                int size = segmentSize(required);
                 FileBasedSPSCQueueMemoryMappedReaderWriter<T> nextWriter;
                 synchronized (lock) {
-                    nextWriter = inactive.poll();
-                    if (nextWriter == null) {
-                        nextWriter = new FileBasedSPSCQueueMemoryMappedReaderWriter<T>(
-                                factory.call(), size, serializer);
-                    }
+                    nextWriter = inactive;
+                    inactive = null;
+                }
+                if (nextWriter != null && nextWriter.fileSize() < size) {
+                    // too small to reuse
+                    nextWriter.close();
+                    nextWriter = null;
+                }
+                if (nextWriter == null) {
+                    nextWriter = createSegment(size);
+                }
+                nextWriter.openForWrite();
+                // the next segment must be available to the reader before it
+                // sees the end of file marker on the current segment
+                synchronized (lock) {
                     toRead.offerLast(nextWriter);
-                    nextWriter.openForWrite();
                 }
+                writer.markEndOfFile();
                 writer = nextWriter;
-                return writer.offer(t);
-            } else {
-                return true;
+            }
+            count.incrementAndGet();
+            return true;
+        } finally {
+            checkUnsubscribe();
+        }
+    }
+
+    @Override
+    public T poll() {
+        // thread safe with offer() and unsubscribe()
+        wip.incrementAndGet();
+        try {
+            if (unsubscribed)
+                return null;
+            while (true) {
+                try {
+                    T value = reader.poll();
+                    if (value != null) {
+                        count.decrementAndGet();
+                    }
+                    return value;
+                } catch (EOFRuntimeException e) {
+                    FileBasedSPSCQueueMemoryMappedReaderWriter<T> finished = reader;
+                    synchronized (lock) {
+                        // the writer always adds the next segment before
+                        // marking the end of the current segment
+                        reader = toRead.pollFirst();
+                        if (inactive == null) {
+                            inactive = finished;
+                            finished = null;
+                        }
+                    }
+                    reader.openForRead();
+                    if (finished != null) {
+                        finished.close();
+                    }
+                }
             }
         } finally {
             checkUnsubscribe();
-            count.incrementAndGet();
         }
     }
 
@@ -98,39 +224,30 @@ public final class FileBasedSPSCQueueMemoryMapped<T> implements QueueWithSubscri
     }
 
     private void close() {
-        writer.close();
-        reader.close();
-    }
-
-    @Override
-    public synchronized T poll() {
-        T value = null;
-        // thread safe with offer() and unsubscribe()
-        try {
-            wip.incrementAndGet();
-            if (unsubscribed)
-                return null;
-            value = reader.poll();
-            return value;
-        } catch (EOFRuntimeException e) {
-            FileBasedSPSCQueueMemoryMappedReaderWriter<T> nextReader;
+        if (closed.compareAndSet(false, true)) {
+            List<FileBasedSPSCQueueMemoryMappedReaderWriter<T>> segments = new ArrayList<FileBasedSPSCQueueMemoryMappedReaderWriter<T>>();
             synchronized (lock) {
-                if (toRead.isEmpty()) {
-                    return null;
-                } else {
-                    nextReader = toRead.pollFirst();
+                segments.add(reader);
+                segments.addAll(toRead);
+                if (inactive != null) {
+                    segments.add(inactive);
                 }
-                reader.closeForRead();
-                inactive.offer(reader);
+                toRead.clear();
+                inactive = null;
             }
-            reader = nextReader;
-            reader.openForRead();
-            value = reader.poll();
-            return value;
-        } finally {
-            checkUnsubscribe();
-            if (value != null) {
-                count.decrementAndGet();
+            // the writer segment is either the reader segment or the last
+            // segment in toRead
+            count.set(0);
+            RuntimeException error = null;
+            for (FileBasedSPSCQueueMemoryMappedReaderWriter<T> segment : segments) {
+                try {
+                    segment.close();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
             }
         }
     }
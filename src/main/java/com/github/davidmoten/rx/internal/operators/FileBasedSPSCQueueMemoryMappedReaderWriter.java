@@ -8,198 +8,140 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.davidmoten.rx.buffertofile.DataSerializer;
 import com.github.davidmoten.util.ByteArrayOutputStreamNoCopyUnsynchronized;
 import com.github.davidmoten.util.Preconditions;
 
-public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
+/**
+ * <p>
+ * A single fixed size memory-mapped file used as a segment by
+ * {@link FileBasedSPSCQueueMemoryMapped}. One thread may write to the segment
+ * while another thread reads from it.
+ *
+ * <p>
+ * Every item is preceded by a one byte marker. An item is written after the
+ * current {@code END_OF_QUEUE} marker, a new {@code END_OF_QUEUE} marker is
+ * written after the item and only then is the marker before the item flipped
+ * to {@code ITEM_PRESENT}. As a consequence the reader never sees a partially
+ * written item (for instance if serialization throws half way through) and the
+ * segment is always readable from the start up to the first
+ * {@code END_OF_QUEUE} marker. When the writer moves on to another segment it
+ * replaces its current {@code END_OF_QUEUE} marker with {@code END_OF_FILE}.
+ *
+ * <p>
+ * The file is mapped once on construction and the file descriptor released
+ * straight away (a mapping is valid independently of the channel that created
+ * it). {@link #close()} unmaps the file and deletes it.
+ *
+ * @param <T>
+ *            type of item being stored
+ */
+final class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
+
+	// markers must be powers of 2 so that we can detect
+	// a partial write of the byte (which we will treat as END_OF_QUEUE)
+	static final byte MARKER_END_OF_QUEUE = 0;
+	static final byte MARKER_END_OF_FILE = 1;
+	static final byte MARKER_ITEM_PRESENT = 2;
+	static final int MARKER_HEADER_SIZE = 1;
+	static final int UNKNOWN_LENGTH = 0;
 
-	private volatile RandomAccessFile f;
-	private volatile FileChannel channel;
-	private DataInputStream input;
-	private DataOutputStream output;
-	private MappedByteBuffer read;
-	private MappedByteBuffer write;
-	private final DataSerializer<T> serializer;
 	private final File file;
 	private final int fileSize;
-	private final DataOutput buffer;
-	// TODO can be passed in to constructor for reuse
-	private final ByteArrayOutputStreamNoCopyUnsynchronized bytes;
-	private final AtomicInteger status = new AtomicInteger(WRITTEN_READ);
+	private final long maxItems;
+	private final DataSerializer<T> serializer;
+	private final MappedByteBuffer mapped;
 	private final Object markerLock = new Object();
 
-	static final int WRITTEN_READ = 0;
-	static final int WRITTEN_READ_NOT_STARTED = 1;
-	static final int WRITTEN_READING = 2;
-	static final int WRITING_NOT_READING = 3;
-	static final int WRITING_READING = 4;
-
-	public FileBasedSPSCQueueMemoryMappedReaderWriter(File file, int fileSize, DataSerializer<T> serializer) {
-		Preconditions.checkArgument(serializer.size() == 0 || serializer.size() <= fileSize - 2 * MARKER_HEADER_SIZE,
+	// accessed only by the writing thread
+	private final ByteBuffer write;
+	private final DataOutputStream output;
+	private final ByteArrayOutputStreamNoCopyUnsynchronized bytes;
+	private final DataOutput buffer;
+	private int markerPosition;
+	private long itemsWritten;
+	// size of a segment needed for the last item that did not fit
+	private int requiredFileSize;
+
+	// accessed only by the reading thread
+	private final ByteBuffer read;
+	private final DataInputStream input;
+
+	// only changed when neither reader nor writer are using the segment
+	private boolean closed;
+
+	FileBasedSPSCQueueMemoryMappedReaderWriter(File file, int fileSize, long maxItems,
+			DataSerializer<T> serializer) {
+		Preconditions.checkNotNull(file);
+		Preconditions.checkNotNull(serializer);
+		Preconditions.checkArgument(fileSize > 2 * MARKER_HEADER_SIZE,
+				"fileSize must be greater than " + 2 * MARKER_HEADER_SIZE);
+		Preconditions.checkArgument(maxItems > 0, "maxItems must be greater than zero");
+		Preconditions.checkArgument(
+				serializer.size() == UNKNOWN_LENGTH || serializer.size() <= fileSize - 2 * MARKER_HEADER_SIZE,
 				"serializer.size() must be less than or equal to file based queue size - 2");
 		this.file = file;
-		this.serializer = serializer;
 		this.fileSize = fileSize;
+		this.maxItems = maxItems;
+		this.serializer = serializer;
+		this.mapped = map(file, fileSize);
+		this.write = mapped.duplicate();
+		this.output = new DataOutputStream(new ByteBufferOutputStream(write));
 		this.bytes = new ByteArrayOutputStreamNoCopyUnsynchronized();
 		this.buffer = new DataOutputStream(bytes);
+		this.read = mapped.duplicate();
+		this.input = new DataInputStream(new ByteBufferInputStream(read));
 	}
 
-	public FileBasedSPSCQueueMemoryMappedReaderWriter<T> openForRead() {
-		// System.out.println("openForRead " + file);
-
-		if (!status.compareAndSet(WRITTEN_READ_NOT_STARTED, WRITTEN_READING))
-			status.compareAndSet(WRITING_NOT_READING, WRITING_READING);
-		while (true) {
-			int st = status.get();
-			int newStatus;
-			if (st == WRITTEN_READ_NOT_STARTED)
-				newStatus = WRITTEN_READING;
-			else if (st == WRITING_NOT_READING)
-				newStatus = WRITING_READING;
-			else
-				newStatus = st;
-			if (status.compareAndSet(st, newStatus)) {
-				checkClose(newStatus);
-				break;
-			}
-		}
-		try {
-			if (f == null) {
-				f = new RandomAccessFile(file, "r");
-			}
-			if (channel == null) {
-				channel = f.getChannel();
-			}
-			read = channel.map(MapMode.READ_ONLY, 0, channel.size());
-			input = new DataInputStream(new MappedByteBufferInputStream(read));
-			// System.out.println("opened for read " + file.getName());
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		return this;
-	}
-
-	public void closeForRead() {
-		// System.out.println("closeForRead " + file);
-		while (true) {
-			int st = status.get();
-			int newStatus;
-			if (st == WRITTEN_READING)
-				newStatus = WRITTEN_READ;
-			else
-				newStatus = st;
-			if (status.compareAndSet(st, newStatus)) {
-				checkClose(newStatus);
-				break;
-			}
-		}
-	}
-
-	public FileBasedSPSCQueueMemoryMappedReaderWriter<T> openForWrite() {
-		// System.out.println("openForWrite " + file);
-		while (true) {
-			int st = status.get();
-			int newStatus;
-			if (st == WRITTEN_READ)
-				newStatus = WRITING_NOT_READING;
-			else
-				newStatus = st;
-			if (status.compareAndSet(st, newStatus)) {
-				checkClose(newStatus);
-				break;
-			}
-		}
+	private static MappedByteBuffer map(File file, int fileSize) {
+		RandomAccessFile f = null;
 		try {
-			if (f == null) {
-				f = new RandomAccessFile(file, "rw");
-			}
-			if (channel == null) {
-				channel = f.getChannel();
-			}
-			write = channel.map(MapMode.READ_WRITE, 0, fileSize);
-			output = new DataOutputStream(new MappedByteBufferOutputStream(write));
-			synchronized (markerLock) {
-				output.write(MARKER_END_OF_QUEUE);
-			}
-			// System.out.println("opened for write " + file.getName());
-			return this;
+			file.getParentFile().mkdirs();
+			f = new RandomAccessFile(file, "rw");
+			return f.getChannel().map(MapMode.READ_WRITE, 0, fileSize);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		}
-	}
-
-	public void closeForWrite() {
-		// System.out.println("closeForWrite " + file);
-		while (true) {
-			int st = status.get();
-			int newStatus;
-			if (st == WRITING_READING)
-				newStatus = WRITTEN_READING;
-			else if (st == WRITING_NOT_READING)
-				newStatus = WRITTEN_READ_NOT_STARTED;
-			newStatus = st;
-			if (status.compareAndSet(st, newStatus)) {
-				checkClose(newStatus);
-				break;
-			}
-		}
-
-	}
-
-	private void checkClose(int newStatus) {
-		// System.out.println("close status = " + newStatus + " for " +
-		// file.getName());
-		if (newStatus == WRITTEN_READ) {
-			try {
-				channel.close();
-				channel = null;
-				read = null;
-				input = null;
-				f.close();
-				f = null;
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+		} finally {
+			if (f != null) {
+				try {
+					// closing the file does not affect the mapping
+					f.close();
+				} catch (IOException e) {
+					// ignore
+				}
 			}
 		}
 	}
 
-	private static class MappedByteBufferOutputStream extends OutputStream {
-
-		private final MappedByteBuffer write;
-
-		MappedByteBufferOutputStream(MappedByteBuffer write) {
-			this.write = write;
-		}
-
-		@Override
-		public void write(int b) throws IOException {
-			write.put((byte) b);
-		}
-	}
-
-	private static class MappedByteBufferInputStream extends InputStream {
-
-		private final MappedByteBuffer read;
-
-		MappedByteBufferInputStream(MappedByteBuffer read) {
-			this.read = read;
-		}
-
-		@Override
-		public int read() throws IOException {
-			return toUnsignedInteger(read.get());
+	/**
+	 * Prepares the segment for writing from the start of the file. Must be
+	 * called before the first {@code offer} and whenever the segment is
+	 * reused.
+	 *
+	 * @return this
+	 */
+	FileBasedSPSCQueueMemoryMappedReaderWriter<T> openForWrite() {
+		write.clear();
+		markerPosition = 0;
+		itemsWritten = 0;
+		synchronized (markerLock) {
+			write.put(MARKER_END_OF_QUEUE);
 		}
-
+		return this;
 	}
 
-	private static int toUnsignedInteger(byte b) {
-		return b & 0x000000FF;
+	/**
+	 * Prepares the segment for reading from the start of the file.
+	 *
+	 * @return this
+	 */
+	FileBasedSPSCQueueMemoryMappedReaderWriter<T> openForRead() {
+		read.clear();
+		return this;
 	}
 
 	private static final EOFRuntimeException EOF = new EOFRuntimeException();
@@ -210,26 +152,25 @@ public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
 
 	}
 
-	// markers must be powers of 2 so that we can detect
-	// a partial write of the byte (which we will treat as END_OF_QUEUE)
-	static final byte MARKER_END_OF_QUEUE = 0;
-	static final byte MARKER_END_OF_FILE = 1;
-	static final byte MARKER_ITEM_PRESENT = 2;
-	static final int MARKER_HEADER_SIZE = 1;
-	static final int UNKNOWN_LENGTH = 0;
-
-	public T poll() {
+	/**
+	 * Returns the next item from the segment or null if no more items have been
+	 * written yet. Throws {@link EOFRuntimeException} if the writer has moved
+	 * on to another segment and all items in this segment have been read.
+	 *
+	 * @return next item or null if none available yet
+	 */
+	T poll() {
 		int position = read.position();
 		byte marker;
 		synchronized (markerLock) {
-			marker = read.get();
+			marker = read.get(position);
 		}
 		if (marker == MARKER_END_OF_QUEUE) {
-			read.position(position);
 			return null;
 		} else if (marker == MARKER_END_OF_FILE) {
 			throw EOF;
 		} else if (marker == MARKER_ITEM_PRESENT) {
+			read.position(position + MARKER_HEADER_SIZE);
 			try {
 				T t = serializer.deserialize(input);
 				if (t == null) {
@@ -244,21 +185,54 @@ public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
 				throw new RuntimeException(e);
 			}
 		} else {
-			throw new RuntimeException("unexpected");
+			throw new IllegalStateException(
+					"unexpected marker " + marker + " at position " + position + " in " + file);
 		}
 	}
 
+	int fileSize() {
+		return fileSize;
+	}
+
 	/**
-	 * Returns true if value written to file or false if not enough space
-	 * (writes and end-of-file marker in the fixed-length memory mapped file).
-	 * 
+	 * Returns the number of bytes used in the segment by the writer.
+	 *
+	 * @return bytes written including markers
+	 */
+	int bytesWritten() {
+		return write.position();
+	}
+
+	long itemsWritten() {
+		return itemsWritten;
+	}
+
+	/**
+	 * Returns the smallest file size that would hold the item rejected by the
+	 * last call to {@code offer} that returned false because of a lack of
+	 * space, or zero if the item was rejected because of the item count.
+	 *
+	 * @return file size required by the last rejected item
+	 */
+	int requiredFileSize() {
+		return requiredFileSize;
+	}
+
+	/**
+	 * Returns true if value written to file or false if not enough space or
+	 * the maximum number of items for the segment has been reached. Nothing is
+	 * written if false is returned. An item too large for an empty segment is
+	 * rejected too (see {@link #requiredFileSize()}).
+	 *
 	 * @param t
 	 *            value to write to the serialized queue
-	 * @return true if written, false if not enough space
+	 * @return true if written, false if segment full
 	 */
-	public boolean offer(T t) {
-		// the current position will be just past the length bytes for this
-		// item (length bytes will be 0 at the moment)
+	boolean offer(T t) {
+		requiredFileSize = 0;
+		if (itemsWritten == maxItems) {
+			return false;
+		}
 		int serializedLength = serializer.size();
 		if (serializedLength == UNKNOWN_LENGTH) {
 			return offerUnknownLength(t);
@@ -268,21 +242,26 @@ public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
 	}
 
 	private boolean offerKnownLength(T t, int serializedLength) {
+		if (notEnoughSpace(serializedLength)) {
+			return false;
+		}
+		boolean written = false;
 		try {
-			if (notEnoughSpace(serializedLength)) {
-				markFileAsCompletedAndClose();
-				return false;
-			}
-			int position = write.position();
-			// serialize the object t to the file
+			// serialize the object t directly to the file
 			serializer.serialize(output, t);
-			int length = write.position() - position;
-			checkLength(serializedLength, length);
-			updateMarkers(serializedLength);
-			return true;
+			checkLength(serializedLength, write.position() - markerPosition - MARKER_HEADER_SIZE);
+			written = true;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
+		} finally {
+			if (!written) {
+				// discard the partial write which the reader cannot see
+				// because it is after an END_OF_QUEUE marker
+				write.position(markerPosition + MARKER_HEADER_SIZE);
+			}
 		}
+		publish();
+		return true;
 	}
 
 	private boolean offerUnknownLength(T t) {
@@ -290,18 +269,17 @@ public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
 			bytes.reset();
 			// serialize to an in-memory buffer to calculate length
 			serializer.serialize(buffer, t);
-			int serializedLength = bytes.size();
-			if (notEnoughSpace(serializedLength)) {
-				markFileAsCompletedAndClose();
-				return false;
-			} else {
-				write.put(bytes.toByteArrayNoCopy(), 0, bytes.size());
-				updateMarkers(serializedLength);
-				return true;
-			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		int serializedLength = bytes.size();
+		if (notEnoughSpace(serializedLength)) {
+			return false;
+		} else {
+			write.put(bytes.toByteArrayNoCopy(), 0, serializedLength);
+			publish();
+			return true;
+		}
 	}
 
 	private void checkLength(int serializedLength, int length) {
@@ -311,41 +289,101 @@ public class FileBasedSPSCQueueMemoryMappedReaderWriter<T> {
 		}
 	}
 
-	private void markFileAsCompletedAndClose() {
-		write.position(write.position() - MARKER_HEADER_SIZE);
-		synchronized (markerLock) {
-			write.put(MARKER_END_OF_FILE);
-		}
-		closeForWrite();
-	}
-
 	private boolean notEnoughSpace(int serializedLength) {
-		if (serializedLength > fileSize - 2 * MARKER_HEADER_SIZE)
-			throw new RuntimeException("serialized length is larger than can fit in one file");
-		return serializedLength + MARKER_HEADER_SIZE > write.remaining();
+		// room is needed for the item and the marker that follows it
+		if (serializedLength + MARKER_HEADER_SIZE > write.remaining()) {
+			requiredFileSize = serializedLength + 2 * MARKER_HEADER_SIZE;
+			return true;
+		} else {
+			return false;
+		}
 	}
 
-	private void updateMarkers(int serializedLength) throws IOException {
+	private void publish() {
 		// write the marker for the next item
+		int nextMarkerPosition = write.position();
 		write.put(MARKER_END_OF_QUEUE);
-		// remember the position where the next write starts
-		int newWritePosition = write.position();
-		// rewind and update the length for the current item
-		write.position(write.position() - serializedLength - 2 * MARKER_HEADER_SIZE);
 		// now indicate to the reader that it can read this item
 		synchronized (markerLock) {
-			write.put(MARKER_ITEM_PRESENT);
+			write.put(markerPosition, MARKER_ITEM_PRESENT);
 		}
-		// and update the position to the write position for the
-		// next item
-		write.position(newWritePosition);
+		markerPosition = nextMarkerPosition;
+		itemsWritten++;
 	}
 
-	public void close() {
-		try {
-			f.close();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Indicates to the reader that no more items will be written to this
+	 * segment. The writer must not access the segment after this call until
+	 * {@link #openForWrite()} is called again.
+	 */
+	void markEndOfFile() {
+		synchronized (markerLock) {
+			write.put(markerPosition, MARKER_END_OF_FILE);
+		}
+	}
+
+	/**
+	 * Unmaps and deletes the file. Must only be called when neither the
+	 * reader nor the writer will access the segment again.
+	 */
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		MappedByteBuffers.unmap(mapped);
+		if (!file.delete() && file.exists()) {
+			throw new RuntimeException("could not delete file " + file);
+		}
+	}
+
+	private static final class ByteBufferOutputStream extends OutputStream {
+
+		private final ByteBuffer bb;
+
+		ByteBufferOutputStream(ByteBuffer bb) {
+			this.bb = bb;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			bb.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			bb.put(b, off, len);
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer bb;
+
+		ByteBufferInputStream(ByteBuffer bb) {
+			this.bb = bb;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (bb.hasRemaining()) {
+				return bb.get() & 0xFF;
+			} else {
+				return -1;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int n = Math.min(len, bb.remaining());
+			if (n == 0) {
+				return -1;
+			}
+			bb.get(b, off, n);
+			return n;
 		}
 	}
 
@@ -0,0 +1,71 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Best-effort eager release of the memory mapping behind a
+ * {@link MappedByteBuffer}. Without this the mapping (and the disk blocks of a
+ * deleted file) is only released when the buffer is garbage collected which
+ * for a long running stream may be never.
+ *
+ * <p>
+ * Uses {@code sun.misc.Unsafe.invokeCleaner} on Java 9+ and the buffer's
+ * {@code cleaner()} on earlier versions. If neither is available then release
+ * is left to the garbage collector.
+ *
+ * <p>
+ * The caller must ensure that the buffer (and any duplicates of it) is not
+ * accessed after it has been unmapped otherwise the JVM may crash.
+ */
+final class MappedByteBuffers {
+
+    private MappedByteBuffers() {
+        // prevent instantiation
+    }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> cls = Class.forName("sun.misc.Unsafe");
+            Field field = cls.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            invokeCleaner = cls.getMethod("invokeCleaner", ByteBuffer.class);
+            unsafe = field.get(null);
+        } catch (Throwable e) {
+            // pre Java 9 or not available
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    Method clean = cleaner.getClass().getMethod("clean");
+                    clean.setAccessible(true);
+                    clean.invoke(cleaner);
+                }
+            }
+        } catch (Throwable e) {
+            // leave it to the garbage collector
+        }
+    }
+
+}
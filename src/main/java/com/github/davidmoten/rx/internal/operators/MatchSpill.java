@@ -0,0 +1,482 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Holds the unmatched items of {@link OnSubscribeMatch} that do not fit in
+ * the memory budget, in the style of a grace hash join. Keys are hashed into
+ * a fixed number of partitions. When the number of unmatched items held in
+ * memory exceeds {@code maxItemsInMemory} the partition with the most items
+ * in memory is written to a pair of files (one for each source) and from then
+ * on all items with keys in that partition are appended to those files
+ * without matching.
+ *
+ * <p>
+ * Once both sources have completed the spilled partitions are matched one at
+ * a time by loading the smaller side of a partition into memory and streaming
+ * the other side past it. If the smaller side has more than
+ * {@code maxItemsInMemory} items the partition is first split into
+ * sub-partitions using a different hash (and so on recursively). A partition
+ * that a split doesn't reduce (its items all have keys that hash together,
+ * for example a single key with more items than the budget) is loaded
+ * anyway. For each key the n-th spilled item of {@code a} is matched with the
+ * n-th spilled item of {@code b} which is the same pairing that would have
+ * been made in memory.
+ *
+ * <p>
+ * Methods apart from {@link #close()} must be called sequentially. Items
+ * are passed as stored by {@link OnSubscribeMatch} so {@code nullSentinel}
+ * stands for a null value.
+ *
+ * @param <A>
+ *            type of items from the first source
+ * @param <B>
+ *            type of items from the second source
+ * @param <K>
+ *            type of the key
+ */
+final class MatchSpill<A, B, K> {
+
+    private final DataSerializer<A> aSerializer;
+    private final DataSerializer<B> bSerializer;
+    private final Func1<? super A, ? extends K> aKey;
+    private final Func1<? super B, ? extends K> bKey;
+    private final Func0<File> fileFactory;
+    private final long maxItemsInMemory;
+    private final Object nullSentinel;
+
+    // number of unmatched items in memory for each partition
+    private final long[] inMemory;
+    // non-null once a partition has been spilled
+    private final Partition[] partitions;
+
+    private long totalInMemory;
+    private long spilledA;
+    private long spilledB;
+
+    // merge state, pending is null until merging starts
+    private Deque<Partition> pending;
+    private Partition merging;
+    private Map<K, Queue<Object>> loaded;
+    private boolean loadedIsA;
+    private DataInputStream streamed;
+    private long streamedRemaining;
+    private Object matchA;
+    private Object matchB;
+    private boolean hasMatch;
+
+    // guarded by this
+    private boolean closed;
+
+    MatchSpill(DataSerializer<A> aSerializer, DataSerializer<B> bSerializer,
+            Func1<? super A, ? extends K> aKey, Func1<? super B, ? extends K> bKey,
+            Func0<File> fileFactory, long maxItemsInMemory, int partitions,
+            Object nullSentinel) {
+        Preconditions.checkNotNull(aSerializer);
+        Preconditions.checkNotNull(bSerializer);
+        Preconditions.checkNotNull(fileFactory);
+        Preconditions.checkArgument(maxItemsInMemory >= 0, "maxItemsInMemory cannot be negative");
+        Preconditions.checkArgument(partitions > 0, "partitions must be greater than zero");
+        this.aSerializer = aSerializer;
+        this.bSerializer = bSerializer;
+        this.aKey = aKey;
+        this.bKey = bKey;
+        this.fileFactory = fileFactory;
+        this.maxItemsInMemory = maxItemsInMemory;
+        this.nullSentinel = nullSentinel;
+        this.inMemory = new long[partitions];
+        this.partitions = new Partition[partitions];
+    }
+
+    private int partition(K key) {
+        return partition(key, 0);
+    }
+
+    private int partition(K key, int level) {
+        int h = key == null ? 0 : key.hashCode();
+        // spread the high bits like HashMap does
+        h ^= (h >>> 16);
+        if (level > 0) {
+            // a different hash for each level of splitting so that the keys
+            // of a partition are spread across its sub-partitions
+            h = (h ^ (level * 0x9e3779b9)) * 0x85ebca6b;
+            h ^= (h >>> 13);
+            h *= 0xc2b2ae35;
+            h ^= (h >>> 16);
+        }
+        return (h & 0x7fffffff) % partitions.length;
+    }
+
+    boolean isSpilled(K key) {
+        return partitions[partition(key)] != null;
+    }
+
+    long spilledA() {
+        return spilledA;
+    }
+
+    long spilledB() {
+        return spilledB;
+    }
+
+    /**
+     * Records that an unmatched item with the given key has been added to
+     * memory and spills a partition if the memory budget is exceeded.
+     */
+    void added(K key, Map<K, Queue<A>> as, Map<K, Queue<B>> bs) throws IOException {
+        inMemory[partition(key)]++;
+        totalInMemory++;
+        if (totalInMemory > maxItemsInMemory) {
+            spillLargest(as, bs);
+        }
+    }
+
+    /**
+     * Records that an unmatched item with the given key has been removed from
+     * memory because it was matched.
+     */
+    void removed(K key) {
+        inMemory[partition(key)]--;
+        totalInMemory--;
+    }
+
+    void writeA(K key, Object a) throws IOException {
+        write(partitions[partition(key)].a, a, true);
+        spilledA++;
+    }
+
+    void writeB(K key, Object b) throws IOException {
+        write(partitions[partition(key)].b, b, false);
+        spilledB++;
+    }
+
+    private void spillLargest(Map<K, Queue<A>> as, Map<K, Queue<B>> bs) throws IOException {
+        int p = -1;
+        for (int i = 0; i < inMemory.length; i++) {
+            if (partitions[i] == null && (p == -1 || inMemory[i] > inMemory[p])) {
+                p = i;
+            }
+        }
+        if (p == -1 || inMemory[p] == 0) {
+            return;
+        }
+        Partition partition = new Partition(fileFactory, 0);
+        synchronized (this) {
+            if (closed) {
+                partition.close();
+                return;
+            }
+            partitions[p] = partition;
+        }
+        // only one of as and bs has items for a given key so the order of the
+        // spilled items for each key is preserved
+        spilledA += moveToFile(as, p, partition.a, true);
+        spilledB += moveToFile(bs, p, partition.b, false);
+        totalInMemory -= inMemory[p];
+        inMemory[p] = 0;
+    }
+
+    private <T> long moveToFile(Map<K, Queue<T>> map, int p, Partition.Writer writer, boolean isA)
+            throws IOException {
+        long count = 0;
+        Iterator<Entry<K, Queue<T>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<K, Queue<T>> entry = it.next();
+            if (partition(entry.getKey()) == p) {
+                for (T t : entry.getValue()) {
+                    write(writer, t, isA);
+                    count++;
+                }
+                it.remove();
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void write(Partition.Writer writer, Object value, boolean isA)
+            throws IOException {
+        if (closed) {
+            return;
+        }
+        writer.count++;
+        DataOutputStream out = writer.out;
+        if (value == nullSentinel) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            if (isA) {
+                aSerializer.serialize(out, (A) value);
+            } else {
+                bSerializer.serialize(out, (B) value);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(Object value, boolean isA) {
+        return isA ? aKey.call((A) value) : bKey.call((B) value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object read(DataInputStream in, boolean isA) throws IOException {
+        if (!in.readBoolean()) {
+            return nullSentinel;
+        } else if (isA) {
+            return aSerializer.deserialize(in);
+        } else {
+            return bSerializer.deserialize(in);
+        }
+    }
+
+    /**
+     * Returns true if there is another match between spilled items. Should
+     * only be called after both sources have completed. The match is
+     * available from {@link #matchA()} and {@link #matchB()} and is consumed
+     * by {@link #next()}.
+     */
+    synchronized boolean hasNext() throws IOException {
+        while (!hasMatch && !closed) {
+            if (streamedRemaining == 0) {
+                if (!loadNextPartition()) {
+                    return false;
+                }
+            } else {
+                Object value = read(streamed, !loadedIsA);
+                streamedRemaining--;
+                K key = key(value, !loadedIsA);
+                Queue<Object> q = loaded.get(key);
+                if (q != null) {
+                    Object other = q.poll();
+                    if (q.isEmpty()) {
+                        loaded.remove(key);
+                    }
+                    if (loadedIsA) {
+                        matchA = other;
+                        matchB = value;
+                    } else {
+                        matchA = value;
+                        matchB = other;
+                    }
+                    hasMatch = true;
+                }
+            }
+        }
+        return hasMatch;
+    }
+
+    Object matchA() {
+        return matchA;
+    }
+
+    Object matchB() {
+        return matchB;
+    }
+
+    void next() {
+        hasMatch = false;
+        matchA = null;
+        matchB = null;
+    }
+
+    // must hold lock
+    private boolean loadNextPartition() throws IOException {
+        if (merging != null) {
+            merging.close();
+            merging = null;
+        }
+        loaded = null;
+        streamed = null;
+        if (pending == null) {
+            pending = new ArrayDeque<Partition>();
+            for (int i = 0; i < partitions.length; i++) {
+                if (partitions[i] != null) {
+                    pending.offer(partitions[i]);
+                    partitions[i] = null;
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            Partition partition = pending.poll();
+            merging = partition;
+            partition.a.out.close();
+            partition.b.out.close();
+            if (partition.a.count == 0 || partition.b.count == 0) {
+                // nothing to match
+                partition.close();
+                merging = null;
+                continue;
+            }
+            if (Math.min(partition.a.count, partition.b.count) > maxItemsInMemory
+                    && partition.splittable) {
+                split(partition);
+                merging = null;
+                continue;
+            }
+            // load the smaller side into memory
+            loadedIsA = partition.a.count <= partition.b.count;
+            Partition.Writer load = loadedIsA ? partition.a : partition.b;
+            Partition.Writer stream = loadedIsA ? partition.b : partition.a;
+            loaded = new HashMap<K, Queue<Object>>();
+            DataInputStream in = partition.open(load.file);
+            for (long i = 0; i < load.count; i++) {
+                Object value = read(in, loadedIsA);
+                K key = key(value, loadedIsA);
+                Queue<Object> q = loaded.get(key);
+                if (q == null) {
+                    q = new LinkedList<Object>();
+                    loaded.put(key, q);
+                }
+                q.offer(value);
+            }
+            partition.closeInput();
+            streamed = partition.open(stream.file);
+            streamedRemaining = stream.count;
+            return true;
+        }
+        return false;
+    }
+
+    // must hold lock, splits a partition that is too large to load into
+    // sub-partitions that are merged next
+    private void split(Partition partition) throws IOException {
+        int level = partition.level + 1;
+        Partition[] subs = new Partition[partitions.length];
+        for (int side = 0; side < 2; side++) {
+            boolean isA = side == 0;
+            Partition.Writer from = isA ? partition.a : partition.b;
+            DataInputStream in = partition.open(from.file);
+            for (long i = 0; i < from.count; i++) {
+                Object value = read(in, isA);
+                int p = partition(key(value, isA), level);
+                if (subs[p] == null) {
+                    subs[p] = new Partition(fileFactory, level);
+                    // added straight away so that close() deletes its files
+                    pending.addFirst(subs[p]);
+                }
+                write(isA ? subs[p].a : subs[p].b, value, isA);
+            }
+        }
+        partition.close();
+        for (Partition sub : subs) {
+            if (sub != null && sub.a.count == partition.a.count
+                    && sub.b.count == partition.b.count) {
+                // all keys hashed together again so splitting won't help
+                sub.splittable = false;
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes all files. Can be called from any thread.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            loaded = null;
+            for (Partition partition : partitions) {
+                if (partition != null) {
+                    partition.close();
+                }
+            }
+            if (pending != null) {
+                for (Partition partition : pending) {
+                    partition.close();
+                }
+            }
+            if (merging != null) {
+                merging.close();
+            }
+        }
+    }
+
+    private static final class Partition {
+
+        final Writer a;
+        final Writer b;
+        // number of times the items have been split by a different hash
+        final int level;
+        boolean splittable = true;
+        private DataInputStream in;
+
+        Partition(Func0<File> fileFactory, int level) throws IOException {
+            this.level = level;
+            a = new Writer(fileFactory.call());
+            Writer w;
+            try {
+                w = new Writer(fileFactory.call());
+            } catch (IOException e) {
+                a.close();
+                throw e;
+            }
+            b = w;
+        }
+
+        DataInputStream open(File file) throws IOException {
+            closeInput();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            return in;
+        }
+
+        void closeInput() {
+            closeQuietly(in);
+            in = null;
+        }
+
+        void close() {
+            closeInput();
+            a.close();
+            b.close();
+        }
+
+        static final class Writer {
+            final File file;
+            final DataOutputStream out;
+            long count;
+
+            Writer(File file) throws IOException {
+                this.file = file;
+                this.out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file), 65536));
+            }
+
+            void close() {
+                closeQuietly(out);
+                file.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * <p>
+ * Counts the garbage collections after which a tenured heap pool is still
+ * fuller than a fraction of its maximum size, so that in-memory caches can
+ * tell when to give their memory back without polling the heap.
+ *
+ * <p>
+ * On first use a collection usage threshold of {@link #MODERATE_FRACTION} of
+ * the maximum size is set on each heap pool that supports usage thresholds
+ * (the tenured pools) and hasn't already got a threshold, and a listener is
+ * added to the platform {@code MemoryMXBean}. If the management API is not
+ * available the counts never change.
+ */
+final class MemoryPressure {
+
+    static final double MODERATE_FRACTION = 0.5;
+    static final double HIGH_FRACTION = 0.8;
+
+    private static final AtomicLong moderate = new AtomicLong();
+    private static final AtomicLong high = new AtomicLong();
+
+    static {
+        install();
+    }
+
+    private MemoryPressure() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the number of collections so far after which a tenured pool was
+     * at least {@link #MODERATE_FRACTION} full.
+     */
+    static long moderateCount() {
+        return moderate.get();
+    }
+
+    /**
+     * Returns the number of collections so far after which a tenured pool was
+     * at least {@link #HIGH_FRACTION} full.
+     */
+    static long highCount() {
+        return high.get();
+    }
+
+    // Visible for testing
+    static void record(double fractionUsed) {
+        if (fractionUsed >= MODERATE_FRACTION) {
+            moderate.incrementAndGet();
+        }
+        if (fractionUsed >= HIGH_FRACTION) {
+            high.incrementAndGet();
+        }
+    }
+
+    private static void install() {
+        try {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                long max = pool.getUsage().getMax();
+                if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                        && pool.isCollectionUsageThresholdSupported() && max > 0
+                        && pool.getCollectionUsageThreshold() == 0) {
+                    pool.setCollectionUsageThreshold(Math.round(max * MODERATE_FRACTION));
+                }
+            }
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory
+                    .getMemoryMXBean();
+            emitter.addNotificationListener(new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                            .equals(notification.getType())) {
+                        MemoryUsage usage = MemoryNotificationInfo
+                                .from((CompositeData) notification.getUserData()).getUsage();
+                        if (usage.getMax() > 0) {
+                            record((double) usage.getUsed() / usage.getMax());
+                        }
+                    }
+                }
+            }, null, null);
+        } catch (RuntimeException e) {
+            // management API not available (for example a SecurityException)
+            // so caches only give memory back when full
+        }
+    }
+
+}
@@ -1,25 +1,39 @@
 package com.github.davidmoten.rx.internal.operators;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.github.davidmoten.rx.Actions;
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.util.MatchMetrics;
 import com.github.davidmoten.util.Preconditions;
 
 import rx.Observable;
 import rx.Observable.OnSubscribe;
 import rx.Producer;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
 import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
 import rx.internal.operators.BackpressureUtils;
 import rx.internal.util.unsafe.MpscLinkedQueue;
 import rx.internal.util.unsafe.UnsafeAccess;
+import rx.subscriptions.Subscriptions;
 
 public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
 
@@ -30,23 +44,166 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
     private final Func2<? super A, ? super B, C> combiner;
     private final long requestSize;
 
+    // spill settings, aSerializer is null if unmatched items are only held
+    // in memory
+    private final DataSerializer<A> aSerializer;
+    private final DataSerializer<B> bSerializer;
+    private final long maxItemsInMemory;
+    private final Func0<File> fileFactory;
+    private final int partitions;
+
+    // eviction settings, scheduler is null if there is no time based expiry
+    private final long maxUnmatched;
+    private final long maxAgeNanos;
+    private final Scheduler scheduler;
+    private final Action1<? super A> onEvictedA;
+    private final Action1<? super B> onEvictedB;
+
+    // if true the side with the larger backlog of unmatched items is not
+    // requested from until the other side catches up
+    private final boolean adaptive;
+    // null if metrics are not published
+    private final MatchMetrics metrics;
+
     private static final Object NULL_SENTINEL = new Object();
 
+    // number of ticks in the max age of an unmatched item. Items are evicted
+    // between maxAge and maxAge * (1 + 1 / EXPIRY_TICKS) after they arrive.
+    private static final int EXPIRY_TICKS = 8;
+
+    /**
+     * Default factory for the files of spilled unmatched items which creates
+     * temporary files.
+     */
+    public static final Func0<File> DEFAULT_SPILL_FILE_FACTORY = new Func0<File>() {
+        @Override
+        public File call() {
+            try {
+                return File.createTempFile("matchSpill", "");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    /**
+     * Default number of partitions that spilled unmatched items are split
+     * into.
+     */
+    public static final int DEFAULT_SPILL_PARTITIONS = 16;
+
     public OnSubscribeMatch(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
             Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
             long requestSize) {
+        this(a, b, aKey, bKey, combiner, requestSize, null, null, 0, null, 0);
+    }
+
+    /**
+     * Creates a match that holds at most {@code maxItemsInMemory} unmatched
+     * items in memory. Beyond that unmatched items are written to files
+     * (created by {@code fileFactory}) in {@code partitions} partitions by
+     * key hash. Spilled partitions are matched once both sources have
+     * completed.
+     */
+    public OnSubscribeMatch(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
+            Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
+            long requestSize, DataSerializer<A> aSerializer, DataSerializer<B> bSerializer,
+            long maxItemsInMemory, Func0<File> fileFactory, int partitions) {
+        this(a, b, aKey, bKey, combiner, requestSize, aSerializer, bSerializer, maxItemsInMemory,
+                fileFactory, partitions, Long.MAX_VALUE, 0, TimeUnit.MILLISECONDS, null, null,
+                null, false, null);
+    }
+
+    /**
+     * Creates a match that evicts unmatched items once more than
+     * {@code maxUnmatched} are held (oldest first) or when they have been
+     * unmatched for {@code maxAge} (if {@code maxAge} is greater than zero,
+     * when it must be at least one millisecond). Expiry is checked on ticks of
+     * {@code scheduler} so evictions happen
+     * between {@code maxAge} and {@code 9 * maxAge / 8} after arrival.
+     * Evicted items are passed to {@code onEvictedA} or {@code onEvictedB} (or
+     * discarded if the callback is null).
+     */
+    public OnSubscribeMatch(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
+            Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
+            long requestSize, long maxUnmatched, long maxAge, TimeUnit unit, Scheduler scheduler,
+            Action1<? super A> onEvictedA, Action1<? super B> onEvictedB) {
+        this(a, b, aKey, bKey, combiner, requestSize, null, null, 0, null, 0, maxUnmatched, maxAge,
+                unit, scheduler, onEvictedA, onEvictedB, false, null);
+    }
+
+    /**
+     * Creates a match that sizes requests to each source by the backlog of
+     * unmatched items. A source is not requested from while it holds at least
+     * {@code requestSize} more unmatched items than the other source (unless
+     * the other source has completed). A source that is behind is requested
+     * from as soon as its last request is delivered, with a larger request
+     * (up to {@code 4 * requestSize}) to help it catch up. If {@code metrics}
+     * is not null the backlog and requested counts of each source are
+     * published to it.
+     */
+    public OnSubscribeMatch(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
+            Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
+            long requestSize, MatchMetrics metrics) {
+        this(a, b, aKey, bKey, combiner, requestSize, null, null, 0, null, 0, Long.MAX_VALUE, 0,
+                TimeUnit.MILLISECONDS, null, null, null, true, metrics);
+    }
+
+    private OnSubscribeMatch(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
+            Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
+            long requestSize, DataSerializer<A> aSerializer, DataSerializer<B> bSerializer,
+            long maxItemsInMemory, Func0<File> fileFactory, int partitions, long maxUnmatched,
+            long maxAge, TimeUnit unit, Scheduler scheduler, Action1<? super A> onEvictedA,
+            Action1<? super B> onEvictedB, boolean adaptive, MatchMetrics metrics) {
         Preconditions.checkNotNull(a, "a should not be null");
         Preconditions.checkNotNull(b, "b should not be null");
         Preconditions.checkNotNull(aKey, "aKey cannot be null");
         Preconditions.checkNotNull(bKey, "bKey cannot be null");
         Preconditions.checkNotNull(combiner, "combiner cannot be null");
         Preconditions.checkArgument(requestSize >= 1, "requestSize must be >=1");
+        if (aSerializer != null) {
+            Preconditions.checkNotNull(bSerializer, "bSerializer cannot be null");
+            Preconditions.checkNotNull(fileFactory, "fileFactory cannot be null");
+            Preconditions.checkArgument(maxItemsInMemory >= 0,
+                    "maxItemsInMemory cannot be negative");
+            Preconditions.checkArgument(partitions > 0, "partitions must be greater than zero");
+        }
+        Preconditions.checkNotNull(unit, "unit cannot be null");
+        Preconditions.checkArgument(maxUnmatched >= 0, "maxUnmatched cannot be negative");
+        Preconditions.checkArgument(maxAge >= 0, "maxAge cannot be negative");
+        if (maxAge > 0) {
+            // ticks of maxAge / 8 must not flood the scheduler
+            Preconditions.checkArgument(unit.toMillis(maxAge) > 0,
+                    "maxAge must be zero or at least one millisecond");
+            Preconditions.checkNotNull(scheduler, "scheduler cannot be null");
+        }
         this.a = a;
         this.b = b;
         this.aKey = aKey;
         this.bKey = bKey;
         this.combiner = combiner;
         this.requestSize = requestSize;
+        this.aSerializer = aSerializer;
+        this.bSerializer = bSerializer;
+        this.maxItemsInMemory = maxItemsInMemory;
+        this.fileFactory = fileFactory;
+        this.partitions = partitions;
+        this.maxUnmatched = maxUnmatched;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.scheduler = maxAge > 0 ? scheduler : null;
+        // evicted items are discarded if there is no callback
+        if (onEvictedA == null) {
+            this.onEvictedA = Actions.doNothing1();
+        } else {
+            this.onEvictedA = onEvictedA;
+        }
+        if (onEvictedB == null) {
+            this.onEvictedB = Actions.doNothing1();
+        } else {
+            this.onEvictedB = onEvictedB;
+        }
+        this.adaptive = adaptive;
+        this.metrics = metrics;
     }
 
     @Override
@@ -56,10 +213,44 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
         MySubscriber<B, K> bSub = new MySubscriber<B, K>(Source.B, receiverHolder, requestSize);
         child.add(aSub);
         child.add(bSub);
-        MyProducer<A, B, K, C> producer = new MyProducer<A, B, K, C>(a, b, aKey, bKey, combiner,
-                aSub, bSub, child, requestSize);
+        final MatchSpill<A, B, K> spill;
+        if (aSerializer == null) {
+            spill = null;
+        } else {
+            spill = new MatchSpill<A, B, K>(aSerializer, bSerializer, aKey, bKey, fileFactory,
+                    maxItemsInMemory, partitions, NULL_SENTINEL);
+            child.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    spill.close();
+                }
+            }));
+        }
+        final long tickPeriodNanos;
+        final Worker worker;
+        if (scheduler == null) {
+            tickPeriodNanos = 0;
+            worker = null;
+        } else {
+            tickPeriodNanos = maxAgeNanos / EXPIRY_TICKS;
+            worker = scheduler.createWorker();
+            child.add(worker);
+        }
+        long expiryTicks = tickPeriodNanos == 0 ? 0
+                : (maxAgeNanos + tickPeriodNanos - 1) / tickPeriodNanos;
+        final MyProducer<A, B, K, C> producer = new MyProducer<A, B, K, C>(a, b, aKey, bKey,
+                combiner, aSub, bSub, child, requestSize, spill, maxUnmatched, expiryTicks,
+                onEvictedA, onEvictedB, worker, adaptive, metrics);
         receiverHolder.set(producer);
         child.setProducer(producer);
+        if (worker != null) {
+            worker.schedulePeriodically(new Action0() {
+                @Override
+                public void call() {
+                    producer.tick();
+                }
+            }, tickPeriodNanos, tickPeriodNanos, TimeUnit.NANOSECONDS);
+        }
         a.unsafeSubscribe(aSub);
         b.unsafeSubscribe(bSub);
     }
@@ -79,12 +270,47 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
         private final MySubscriber<A, K> aSub;
         private final MySubscriber<B, K> bSub;
         private final long requestSize;
+        // null if unmatched items are only held in memory
+        private final MatchSpill<A, B, K> spill;
+
+        // unmatched items in arrival order, null if unmatched items are not
+        // evicted. May contain items that have since been matched.
+        private Deque<Unmatched<K>> unmatched;
+        private final long maxUnmatched;
+        // 0 if there is no time based expiry
+        private final long expiryTicks;
+        private final Action1<? super A> onEvictedA;
+        private final Action1<? super B> onEvictedB;
+        // null if there is no time based expiry
+        private final Worker worker;
+        private long unmatchedCount;
+        private long tick;
+        // ticks of the expiry timer not yet applied by drain. Ticks are
+        // counted rather than queued so that they don't pile up while there
+        // is no demand
+        private final AtomicLong ticks = new AtomicLong();
+
+        private final boolean adaptive;
+        // null if metrics are not published
+        private final MatchMetrics metrics;
+        // unmatched items of each source held in memory
+        private long backlogA;
+        private long backlogB;
+        // size of the last request to each source
+        private long batchA;
+        private long batchB;
+        // total requested from each source
+        private long requestedA;
+        private long requestedB;
 
         private final AtomicLong requested = new AtomicLong(0);
 
         // mutable fields, guarded by `this` atomics
         private int requestFromA = 0;
         private int requestFromB = 0;
+        // true once both sources have completed and spilled items are being
+        // matched
+        private boolean merging;
 
         // completion state machine
         private int completed = COMPLETED_NONE;
@@ -97,7 +323,9 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
         MyProducer(Observable<A> a, Observable<B> b, Func1<? super A, ? extends K> aKey,
                 Func1<? super B, ? extends K> bKey, Func2<? super A, ? super B, C> combiner,
                 MySubscriber<A, K> aSub, MySubscriber<B, K> bSub, Subscriber<? super C> child,
-                long requestSize) {
+                long requestSize, MatchSpill<A, B, K> spill, long maxUnmatched, long expiryTicks,
+                Action1<? super A> onEvictedA, Action1<? super B> onEvictedB, Worker worker,
+                boolean adaptive, MatchMetrics metrics) {
             this.aKey = aKey;
             this.bKey = bKey;
             this.combiner = combiner;
@@ -105,6 +333,22 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             this.aSub = aSub;
             this.bSub = bSub;
             this.requestSize = requestSize;
+            this.spill = spill;
+            this.maxUnmatched = maxUnmatched;
+            this.expiryTicks = expiryTicks;
+            this.onEvictedA = onEvictedA;
+            this.onEvictedB = onEvictedB;
+            this.worker = worker;
+            this.adaptive = adaptive;
+            this.metrics = metrics;
+            // the subscribers make the first request
+            this.batchA = requestSize;
+            this.batchB = requestSize;
+            this.requestedA = requestSize;
+            this.requestedB = requestSize;
+            if (maxUnmatched < Long.MAX_VALUE || expiryTicks > 0) {
+                unmatched = new ArrayDeque<Unmatched<K>>();
+            }
             if (UnsafeAccess.isUnsafeAvailable()) {
                 queue = new MpscLinkedQueue<Object>();
             } else {
@@ -120,6 +364,11 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             }
         }
 
+        void tick() {
+            ticks.incrementAndGet();
+            drain();
+        }
+
         void drain() {
             if (getAndIncrement() != 0) {
                 // work already in progress
@@ -134,6 +383,14 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                     if (child.isUnsubscribed()) {
                         return;
                     }
+                    if (merging) {
+                        Emitted em = emitSpilled();
+                        if (em == Emitted.FINISHED) {
+                            return;
+                        }
+                        emitted += 1;
+                        continue;
+                    }
                     // note will not return null
                     Object v = queue.poll();
                     if (v == null) {
@@ -174,6 +431,24 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                     // reduce requested by emitted
                     BackpressureUtils.produced(requested, emitted);
                 }
+                // apply ticks after the items that arrived before them (so
+                // items are never evicted early) whatever the demand
+                long t = ticks.getAndSet(0);
+                if (t > 0 && !merging) {
+                    if (child.isUnsubscribed()) {
+                        return;
+                    }
+                    if (handleTicks(t) == Status.FINISHED) {
+                        return;
+                    }
+                }
+                if (merging && !child.isUnsubscribed() && checkSpilledFinished()) {
+                    // complete without waiting for another request
+                    return;
+                }
+                if (metrics != null) {
+                    metrics.update(backlogA, backlogB, requestedA, requestedB);
+                }
                 missed = this.addAndGet(-missed);
                 if (missed == 0 ) {
                     return;
@@ -199,14 +474,41 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                     child.onError(e);
                     return Emitted.FINISHED;
                 }
-                Queue<B> q = bs.get(key);
+                Queue<B> q;
+                try {
+                    if (spill != null && spill.isSpilled(key)) {
+                        // matched once both sources complete
+                        spill.writeA(key, a);
+                        q = null;
+                    } else {
+                        q = bs.get(key);
+                        if (q == null) {
+                            // cache value
+                            KeyQueue<A> cached = add(as, key, a);
+                            backlogA++;
+                            if (spill != null) {
+                                spill.added(key, as, bs);
+                            } else if (unmatched != null) {
+                                addUnmatched(key, cached, true);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    clear();
+                    child.onError(e);
+                    return Emitted.FINISHED;
+                }
                 if (q == null) {
-                    // cache value
-                    add(as, key, a);
                     result = Emitted.NONE;
                 } else {
                     // emit match
                     B b = poll(bs, q, key);
+                    backlogB--;
+                    if (spill != null) {
+                        spill.removed(key);
+                    } else if (unmatched != null) {
+                        matched();
+                    }
                     C c;
                     try {
                         c = combiner.call(replaceSentinel(a), replaceSentinel(b));
@@ -220,7 +522,7 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                 }
                 // if the other source has completed and there
                 // is nothing to match with then we should stop
-                if (completed == COMPLETED_B && bs.isEmpty()) {
+                if (completed == COMPLETED_B && noUnmatchedB()) {
                     // can finish
                     clear();
                     child.onCompleted();
@@ -240,14 +542,41 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                     child.onError(e);
                     return Emitted.FINISHED;
                 }
-                Queue<A> q = as.get(key);
+                Queue<A> q;
+                try {
+                    if (spill != null && spill.isSpilled(key)) {
+                        // matched once both sources complete
+                        spill.writeB(key, b);
+                        q = null;
+                    } else {
+                        q = as.get(key);
+                        if (q == null) {
+                            // cache value
+                            KeyQueue<B> cached = add(bs, key, b);
+                            backlogB++;
+                            if (spill != null) {
+                                spill.added(key, as, bs);
+                            } else if (unmatched != null) {
+                                addUnmatched(key, cached, false);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    clear();
+                    child.onError(e);
+                    return Emitted.FINISHED;
+                }
                 if (q == null) {
-                    // cache value
-                    add(bs, key, b);
                     result = Emitted.NONE;
                 } else {
                     // emit match
                     A a = poll(as, q, key);
+                    backlogA--;
+                    if (spill != null) {
+                        spill.removed(key);
+                    } else if (unmatched != null) {
+                        matched();
+                    }
                     C c;
                     try {
                         c = combiner.call(replaceSentinel(a), replaceSentinel(b));
@@ -261,7 +590,7 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
                 }
                 // if the other source has completed and there
                 // is nothing to match with then we should stop
-                if (completed == COMPLETED_A && as.isEmpty()) {
+                if (completed == COMPLETED_A && noUnmatchedA()) {
                     // can finish
                     clear();
                     child.onCompleted();
@@ -284,12 +613,19 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             final boolean done;
             if (source == Source.A) {
                 aSub.unsubscribe();
-                done = (completed == COMPLETED_BOTH) || (completed == COMPLETED_A && as.isEmpty());
+                done = (completed == COMPLETED_BOTH) || (completed == COMPLETED_A && noUnmatchedA());
             } else {
                 bSub.unsubscribe();
-                done = (completed == COMPLETED_BOTH) || (completed == COMPLETED_B && bs.isEmpty());
+                done = (completed == COMPLETED_BOTH) || (completed == COMPLETED_B && noUnmatchedB());
             }
-            if (done) {
+            if (done && completed == COMPLETED_BOTH && spill != null && spill.spilledA() > 0
+                    && spill.spilledB() > 0) {
+                // match the spilled items
+                as.clear();
+                bs.clear();
+                merging = true;
+                return Status.KEEP_GOING;
+            } else if (done) {
                 clear();
                 child.onCompleted();
                 return Status.FINISHED;
@@ -303,8 +639,131 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             FINISHED, KEEP_GOING;
         }
 
+        private void addUnmatched(K key, KeyQueue<?> q, boolean isA) {
+            // q.added has already been incremented for the new item
+            unmatched.offer(new Unmatched<K>(key, isA, q, q.added - 1, tick));
+            unmatchedCount++;
+            while (unmatchedCount > maxUnmatched) {
+                evict(unmatched.poll());
+            }
+        }
+
+        private void matched() {
+            unmatchedCount--;
+            // discard matched items from the front
+            while (!unmatched.isEmpty() && !unmatched.peek().isLive()) {
+                unmatched.poll();
+            }
+            // matched items behind a long lived unmatched item are discarded
+            // in bulk so the deque stays proportional to the unmatched count
+            if (unmatched.size() > 2 * unmatchedCount + 64) {
+                Deque<Unmatched<K>> live = new ArrayDeque<Unmatched<K>>();
+                for (Unmatched<K> u : unmatched) {
+                    if (u.isLive()) {
+                        live.offer(u);
+                    }
+                }
+                unmatched = live;
+            }
+        }
+
+        // evicts the item if it is still unmatched
+        @SuppressWarnings("unchecked")
+        private void evict(Unmatched<K> u) {
+            if (!u.isLive()) {
+                return;
+            }
+            unmatchedCount--;
+            if (u.isA) {
+                A a = poll(as, (Queue<A>) u.queue, u.key);
+                backlogA--;
+                onEvictedA.call(replaceSentinel(a));
+            } else {
+                B b = poll(bs, (Queue<B>) u.queue, u.key);
+                backlogB--;
+                onEvictedB.call(replaceSentinel(b));
+            }
+        }
+
+        private Status handleTicks(long n) {
+            tick += n;
+            try {
+                while (!unmatched.isEmpty()) {
+                    Unmatched<K> u = unmatched.peek();
+                    if (u.isLive() && tick - u.tick <= expiryTicks) {
+                        // later items are younger
+                        break;
+                    }
+                    unmatched.poll();
+                    evict(u);
+                }
+            } catch (Throwable e) {
+                clear();
+                child.onError(e);
+                return Status.FINISHED;
+            }
+            // if the other source has completed and everything it could
+            // match has been evicted then we should stop
+            if (completed == COMPLETED_A && noUnmatchedA()
+                    || completed == COMPLETED_B && noUnmatchedB()) {
+                clear();
+                child.onCompleted();
+                return Status.FINISHED;
+            } else {
+                return Status.KEEP_GOING;
+            }
+        }
+
+        private boolean noUnmatchedA() {
+            return as.isEmpty() && (spill == null || spill.spilledA() == 0);
+        }
+
+        private boolean noUnmatchedB() {
+            return bs.isEmpty() && (spill == null || spill.spilledB() == 0);
+        }
+
+        // emits the next match from the spilled items or completes
+        @SuppressWarnings("unchecked")
+        private Emitted emitSpilled() {
+            C c;
+            try {
+                if (!spill.hasNext()) {
+                    clear();
+                    child.onCompleted();
+                    return Emitted.FINISHED;
+                }
+                c = combiner.call(replaceSentinel((A) spill.matchA()),
+                        replaceSentinel((B) spill.matchB()));
+                spill.next();
+            } catch (Throwable e) {
+                clear();
+                child.onError(e);
+                return Emitted.FINISHED;
+            }
+            child.onNext(c);
+            return Emitted.ONE;
+        }
+
+        // returns true if terminated
+        private boolean checkSpilledFinished() {
+            try {
+                if (spill.hasNext()) {
+                    return false;
+                }
+            } catch (Throwable e) {
+                clear();
+                child.onError(e);
+                return true;
+            }
+            clear();
+            child.onCompleted();
+            return true;
+        }
+
         private void checkToRequestMore() {
-            if (requestFromA == requestSize && completed == COMPLETED_B) {
+            if (adaptive) {
+                checkToRequestMoreAdaptive();
+            } else if (requestFromA == requestSize && completed == COMPLETED_B) {
                 requestFromA = 0;
                 aSub.requestMore(requestSize);
             } else if (requestFromB == requestSize && completed == COMPLETED_A) {
@@ -318,6 +777,32 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             }
         }
 
+        private void checkToRequestMoreAdaptive() {
+            // a side is ahead if its items are piling up waiting for the
+            // other side. It is not requested from until the other side has
+            // caught up or completed. As both sides cannot be ahead at once
+            // at least one side is always requested from.
+            if (requestFromA == batchA
+                    && (backlogA - backlogB < requestSize || completed == COMPLETED_B)) {
+                requestFromA = 0;
+                batchA = catchUpRequest(backlogB - backlogA);
+                requestedA += batchA;
+                aSub.requestMore(batchA);
+            }
+            if (requestFromB == batchB
+                    && (backlogB - backlogA < requestSize || completed == COMPLETED_A)) {
+                requestFromB = 0;
+                batchB = catchUpRequest(backlogA - backlogB);
+                requestedB += batchB;
+                bSub.requestMore(batchB);
+            }
+        }
+
+        // request more from a side that is behind so it catches up sooner
+        private long catchUpRequest(long behindBy) {
+            return requestSize + Math.min(3 * requestSize, Math.max(0, behindBy));
+        }
+
         private void completed(Source source) {
             if (source == Source.A) {
                 if (completed == COMPLETED_NONE) {
@@ -340,15 +825,30 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
             queue.clear();
             aSub.unsubscribe();
             bSub.unsubscribe();
+            if (spill != null) {
+                spill.close();
+            }
+            if (worker != null) {
+                worker.unsubscribe();
+            }
+            if (unmatched != null) {
+                unmatched.clear();
+            }
+            backlogA = 0;
+            backlogB = 0;
+            if (metrics != null) {
+                metrics.update(0, 0, requestedA, requestedB);
+            }
         }
 
-        private static <K, T> void add(Map<K, Queue<T>> map, K key, T value) {
-            Queue<T> q = map.get(key);
+        private static <K, T> KeyQueue<T> add(Map<K, Queue<T>> map, K key, T value) {
+            KeyQueue<T> q = (KeyQueue<T>) map.get(key);
             if (q == null) {
-                q = new LinkedList<T>();
+                q = new KeyQueue<T>();
                 map.put(key, q);
             }
             q.offer(value);
+            return q;
         }
 
         private static <K, T> T poll(Map<K, Queue<T>> map, Queue<T> q, K key) {
@@ -375,6 +875,52 @@ public final class OnSubscribeMatch<A, B, K, C> implements OnSubscribe<C> {
 
     }
 
+    /**
+     * Queue of the unmatched items for a key that counts additions and
+     * removals so that an {@link Unmatched} can tell if its item is still
+     * queued.
+     */
+    @SuppressWarnings("serial")
+    static final class KeyQueue<T> extends LinkedList<T> {
+        long added;
+        long removed;
+
+        @Override
+        public boolean offer(T t) {
+            added++;
+            return super.offer(t);
+        }
+
+        @Override
+        public T poll() {
+            removed++;
+            return super.poll();
+        }
+    }
+
+    static final class Unmatched<K> {
+        final K key;
+        final boolean isA;
+        final KeyQueue<?> queue;
+        // position of the item in the queue's additions
+        final long index;
+        final long tick;
+
+        Unmatched(K key, boolean isA, KeyQueue<?> queue, long index, long tick) {
+            this.key = key;
+            this.isA = isA;
+            this.queue = queue;
+            this.index = index;
+            this.tick = tick;
+        }
+
+        boolean isLive() {
+            // items are removed in order so the item is still queued if
+            // fewer items than its index have been removed
+            return index >= queue.removed;
+        }
+    }
+
     interface Receiver {
         void offer(Object item);
     }
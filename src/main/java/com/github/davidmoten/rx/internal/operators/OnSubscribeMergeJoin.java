@@ -0,0 +1,480 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.davidmoten.rx.JoinType;
+import com.github.davidmoten.rx.util.RxRingBuffer;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Producer;
+import rx.Subscriber;
+import rx.exceptions.MissingBackpressureException;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.internal.operators.BackpressureUtils;
+import rx.internal.operators.NotificationLite;
+import rx.plugins.RxJavaHooks;
+
+/**
+ * <p>
+ * Joins two sources that are sorted by key by walking them in step (a sort
+ * merge join). For each key every item of {@code a} with that key is
+ * combined with every item of {@code b} with that key. Unmatched items are
+ * emitted paired with null according to the {@link JoinType}.
+ *
+ * <p>
+ * Only the items of {@code b} with the current key are held (so that they can
+ * be combined with each item of {@code a} with that key) plus a small buffer
+ * for each source. Memory use is independent of the length of the sources.
+ *
+ * <p>
+ * Emits an {@link IllegalArgumentException} if either source is found not to
+ * be sorted by key.
+ *
+ * @param <A>
+ *            type of items from the first source
+ * @param <B>
+ *            type of items from the second source
+ * @param <K>
+ *            type of the key
+ * @param <C>
+ *            type of the combined items
+ */
+public final class OnSubscribeMergeJoin<A, B, K, C> implements OnSubscribe<C> {
+
+    private final Observable<A> a;
+    private final Observable<B> b;
+    private final Func1<? super A, ? extends K> aKey;
+    private final Func1<? super B, ? extends K> bKey;
+    private final Comparator<? super K> comparator;
+    private final JoinType joinType;
+    private final Func2<? super A, ? super B, ? extends C> combiner;
+    private final int bufferSize;
+
+    public OnSubscribeMergeJoin(Observable<A> a, Observable<B> b,
+            Func1<? super A, ? extends K> aKey, Func1<? super B, ? extends K> bKey,
+            Comparator<? super K> comparator, JoinType joinType,
+            Func2<? super A, ? super B, ? extends C> combiner, int bufferSize) {
+        Preconditions.checkNotNull(a, "a cannot be null");
+        Preconditions.checkNotNull(b, "b cannot be null");
+        Preconditions.checkNotNull(aKey, "aKey cannot be null");
+        Preconditions.checkNotNull(bKey, "bKey cannot be null");
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        Preconditions.checkNotNull(joinType, "joinType cannot be null");
+        Preconditions.checkNotNull(combiner, "combiner cannot be null");
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+        this.a = a;
+        this.b = b;
+        this.aKey = aKey;
+        this.bKey = bKey;
+        this.comparator = comparator;
+        this.joinType = joinType;
+        this.combiner = combiner;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void call(Subscriber<? super C> child) {
+        JoinProducer<A, B, K, C> producer = new JoinProducer<A, B, K, C>(aKey, bKey, comparator,
+                joinType, combiner, child, bufferSize);
+        child.add(producer.aSub);
+        child.add(producer.bSub);
+        child.setProducer(producer);
+        a.unsafeSubscribe(producer.aSub);
+        b.unsafeSubscribe(producer.bSub);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class JoinProducer<A, B, K, C> extends AtomicInteger
+            implements Producer {
+        // extends AtomicInteger as a work-in-progress atomic (wip)
+
+        private final Func1<? super A, ? extends K> aKey;
+        private final Func1<? super B, ? extends K> bKey;
+        private final Comparator<? super K> comparator;
+        private final boolean emitUnmatchedA;
+        private final boolean emitUnmatchedB;
+        private final Func2<? super A, ? super B, ? extends C> combiner;
+        private final Subscriber<? super C> child;
+        final SourceSubscriber<A> aSub;
+        final SourceSubscriber<B> bSub;
+        private final AtomicLong requested = new AtomicLong();
+
+        // the following fields are only accessed by the drain loop
+
+        // the current item of a
+        private A headA;
+        private K headAKey;
+        private boolean hasHeadA;
+        private K lastAKey;
+        private boolean hasLastAKey;
+
+        // the next item of b that is not in the group
+        private B headB;
+        private K headBKey;
+        private boolean hasHeadB;
+        private K lastBKey;
+        private boolean hasLastBKey;
+
+        // the items of b with key groupKey, null if there is no group
+        private List<B> group;
+        private K groupKey;
+        // true once the next item of b has a different key or b is done
+        private boolean groupComplete;
+        // true once an item of a has matched the group
+        private boolean groupMatched;
+
+        // index of the next item of the group to pair with headA or -1
+        private int pairIndex = -1;
+        // index of the next unmatched item of the group to emit or -1
+        private int flushIndex = -1;
+
+        JoinProducer(Func1<? super A, ? extends K> aKey, Func1<? super B, ? extends K> bKey,
+                Comparator<? super K> comparator, JoinType joinType,
+                Func2<? super A, ? super B, ? extends C> combiner, Subscriber<? super C> child,
+                int bufferSize) {
+            this.aKey = aKey;
+            this.bKey = bKey;
+            this.comparator = comparator;
+            this.emitUnmatchedA = joinType != JoinType.INNER;
+            this.emitUnmatchedB = joinType == JoinType.FULL_OUTER;
+            this.combiner = combiner;
+            this.child = child;
+            this.aSub = new SourceSubscriber<A>(this, bufferSize);
+            this.bSub = new SourceSubscriber<B>(this, bufferSize);
+        }
+
+        @Override
+        public void request(long n) {
+            if (BackpressureUtils.validate(n)) {
+                BackpressureUtils.getAndAddRequest(requested, n);
+                drain();
+            }
+        }
+
+        void drain() {
+            if (getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                long r = requested.get();
+                long e = 0;
+                while (true) {
+                    if (child.isUnsubscribed()) {
+                        return;
+                    }
+                    Throwable error = aSub.error;
+                    if (error == null) {
+                        error = bSub.error;
+                    }
+                    if (error != null) {
+                        finish();
+                        child.onError(error);
+                        return;
+                    }
+                    int result;
+                    try {
+                        result = step(e != r);
+                    } catch (Throwable ex) {
+                        finish();
+                        child.onError(ex);
+                        return;
+                    }
+                    if (result == EMITTED) {
+                        e++;
+                    } else if (result == FINISHED) {
+                        finish();
+                        child.onCompleted();
+                        return;
+                    } else if (result == WAIT) {
+                        break;
+                    }
+                }
+                if (e > 0) {
+                    BackpressureUtils.produced(requested, e);
+                }
+                missed = addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        // results of step
+        private static final int EMITTED = 0;
+        private static final int PROGRESS = 1;
+        private static final int WAIT = 2;
+        private static final int FINISHED = 3;
+
+        /**
+         * Makes one move of the join. Returns {@code WAIT} without changing
+         * state if an item would be emitted and {@code canEmit} is false or
+         * if more items are needed from a source.
+         */
+        private int step(boolean canEmit) {
+            if (pairIndex >= 0) {
+                // combine headA with every item of the group
+                if (!canEmit) {
+                    return WAIT;
+                }
+                B b = group.get(pairIndex++);
+                if (pairIndex == group.size()) {
+                    pairIndex = -1;
+                    hasHeadA = false;
+                }
+                return emit(headA, b);
+            } else if (flushIndex >= 0) {
+                // the group had no match
+                if (!canEmit) {
+                    return WAIT;
+                }
+                B b = group.get(flushIndex++);
+                if (flushIndex == group.size()) {
+                    flushIndex = -1;
+                    group = null;
+                }
+                return emit(null, b);
+            } else if (group != null && !groupComplete) {
+                // collect the items of b with the group key
+                boolean d = bSub.done;
+                if (fetchB()) {
+                    if (comparator.compare(headBKey, groupKey) == 0) {
+                        group.add(headB);
+                        hasHeadB = false;
+                    } else {
+                        groupComplete = true;
+                    }
+                    return PROGRESS;
+                } else if (d) {
+                    groupComplete = true;
+                    return PROGRESS;
+                } else {
+                    return WAIT;
+                }
+            }
+            if (!hasHeadA) {
+                boolean d = aSub.done;
+                if (fetchA()) {
+                    return PROGRESS;
+                } else if (!d) {
+                    return WAIT;
+                } else if (group != null) {
+                    // a is done so the group will not be matched again
+                    endGroup();
+                    return PROGRESS;
+                } else if (!emitUnmatchedB) {
+                    return FINISHED;
+                } else {
+                    // emit the rest of b
+                    d = bSub.done;
+                    if (fetchB()) {
+                        if (!canEmit) {
+                            return WAIT;
+                        }
+                        hasHeadB = false;
+                        return emit(null, headB);
+                    } else if (d) {
+                        return FINISHED;
+                    } else {
+                        return WAIT;
+                    }
+                }
+            }
+            if (group != null) {
+                int c = comparator.compare(headAKey, groupKey);
+                if (c == 0) {
+                    groupMatched = true;
+                    pairIndex = 0;
+                    return PROGRESS;
+                } else if (c > 0) {
+                    // a has moved past the group
+                    endGroup();
+                    return PROGRESS;
+                } else {
+                    return unmatchedA(canEmit);
+                }
+            }
+            boolean d = bSub.done;
+            if (fetchB()) {
+                int c = comparator.compare(headAKey, headBKey);
+                if (c == 0) {
+                    // start a new group
+                    group = new ArrayList<B>();
+                    group.add(headB);
+                    groupKey = headBKey;
+                    groupComplete = false;
+                    groupMatched = false;
+                    hasHeadB = false;
+                    return PROGRESS;
+                } else if (c < 0) {
+                    return unmatchedA(canEmit);
+                } else if (emitUnmatchedB) {
+                    if (!canEmit) {
+                        return WAIT;
+                    }
+                    hasHeadB = false;
+                    return emit(null, headB);
+                } else {
+                    hasHeadB = false;
+                    return PROGRESS;
+                }
+            } else if (!d) {
+                return WAIT;
+            } else if (!emitUnmatchedA) {
+                // nothing left to match
+                return FINISHED;
+            } else {
+                return unmatchedA(canEmit);
+            }
+        }
+
+        private int unmatchedA(boolean canEmit) {
+            if (emitUnmatchedA) {
+                if (!canEmit) {
+                    return WAIT;
+                }
+                hasHeadA = false;
+                return emit(headA, null);
+            } else {
+                hasHeadA = false;
+                return PROGRESS;
+            }
+        }
+
+        private void endGroup() {
+            if (emitUnmatchedB && !groupMatched) {
+                flushIndex = 0;
+            } else {
+                group = null;
+            }
+        }
+
+        private int emit(A a, B b) {
+            child.onNext(combiner.call(a, b));
+            return EMITTED;
+        }
+
+        private boolean fetchA() {
+            if (hasHeadA) {
+                return true;
+            }
+            Object o = aSub.queue.poll();
+            if (o == null) {
+                return false;
+            }
+            aSub.consumed();
+            headA = NotificationLite.<A> getValue(o);
+            headAKey = aKey.call(headA);
+            if (hasLastAKey && comparator.compare(headAKey, lastAKey) < 0) {
+                throw new IllegalArgumentException("first source is not sorted by key");
+            }
+            lastAKey = headAKey;
+            hasLastAKey = true;
+            hasHeadA = true;
+            return true;
+        }
+
+        private boolean fetchB() {
+            if (hasHeadB) {
+                return true;
+            }
+            Object o = bSub.queue.poll();
+            if (o == null) {
+                return false;
+            }
+            bSub.consumed();
+            headB = NotificationLite.<B> getValue(o);
+            headBKey = bKey.call(headB);
+            if (hasLastBKey && comparator.compare(headBKey, lastBKey) < 0) {
+                throw new IllegalArgumentException("second source is not sorted by key");
+            }
+            lastBKey = headBKey;
+            hasLastBKey = true;
+            hasHeadB = true;
+            return true;
+        }
+
+        private void finish() {
+            aSub.unsubscribe();
+            bSub.unsubscribe();
+            group = null;
+            headA = null;
+            headB = null;
+        }
+    }
+
+    private static final class SourceSubscriber<T> extends Subscriber<T> {
+
+        final RxRingBuffer queue;
+        private final JoinProducer<?, ?, ?, ?> parent;
+        // request more once this many items have been consumed
+        private final int limit;
+        // only accessed by the drain loop
+        private int consumed;
+        volatile boolean done;
+        volatile Throwable error;
+
+        SourceSubscriber(JoinProducer<?, ?, ?, ?> parent, int bufferSize) {
+            this.queue = RxRingBuffer.getSpscInstance(bufferSize);
+            this.parent = parent;
+            int capacity = queue.capacity();
+            this.limit = Math.max(1, capacity - (capacity >> 2));
+        }
+
+        @Override
+        public void onStart() {
+            add(queue);
+            request(queue.capacity());
+        }
+
+        void consumed() {
+            consumed++;
+            if (consumed == limit) {
+                consumed = 0;
+                request(limit);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                return;
+            }
+            try {
+                queue.onNext(NotificationLite.next(t));
+            } catch (MissingBackpressureException e) {
+                unsubscribe();
+                onError(e);
+                return;
+            }
+            parent.drain();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (done) {
+                RxJavaHooks.onError(e);
+                return;
+            }
+            error = e;
+            done = true;
+            parent.drain();
+        }
+
+        @Override
+        public void onCompleted() {
+            if (done) {
+                return;
+            }
+            done = true;
+            parent.drain();
+        }
+    }
+}
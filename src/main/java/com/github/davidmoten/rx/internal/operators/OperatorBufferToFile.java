@@ -5,8 +5,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.github.davidmoten.rx.buffertofile.CacheType;
 import com.github.davidmoten.rx.buffertofile.DataSerializer;
 import com.github.davidmoten.rx.buffertofile.Options;
+import com.github.davidmoten.rx.buffertofile.StorageCounters;
+import com.github.davidmoten.rx.buffertofile.StorageOverflowPolicy;
 import com.github.davidmoten.util.Preconditions;
 
 import rx.Observable;
@@ -19,8 +22,11 @@ import rx.Subscriber;
 import rx.exceptions.Exceptions;
 import rx.functions.Action0;
 import rx.functions.Func0;
+import rx.functions.Func1;
 import rx.internal.operators.BackpressureUtils;
 import rx.observers.Subscribers;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
 
 public final class OperatorBufferToFile<T> implements Operator<T, T> {
 
@@ -28,21 +34,51 @@ public final class OperatorBufferToFile<T> implements Operator<T, T> {
     private final Scheduler scheduler;
     private final Options options;
 
+    // if greater than zero items are buffered in memory and only go to file
+    // when that many are waiting
+    private final int memoryBufferSize;
+
     public OperatorBufferToFile(DataSerializer<T> dataSerializer, Scheduler scheduler,
             Options options) {
+        this(dataSerializer, scheduler, options, 0);
+    }
+
+    public OperatorBufferToFile(DataSerializer<T> dataSerializer, Scheduler scheduler,
+            Options options, int memoryBufferSize) {
         Preconditions.checkNotNull(dataSerializer);
         Preconditions.checkNotNull(scheduler);
         Preconditions.checkNotNull(options);
+        Preconditions.checkArgument(
+                options.cacheSizeBytes() == Long.MAX_VALUE || dataSerializer.size() > 0,
+                "cacheSizeBytes can only be used with a DataSerializer with constant size()");
+        Preconditions.checkArgument(memoryBufferSize >= 0,
+                "memoryBufferSize cannot be negative");
+        Preconditions.checkArgument(
+                memoryBufferSize == 0 || !options.durable(),
+                "a memory buffer cannot be used with durable queues");
+        // a blocked producer would never be released because the consumer
+        // runs on the producer's thread
+        Preconditions.checkArgument(
+                options.storageOverflowPolicy() != StorageOverflowPolicy.BLOCK
+                        || (scheduler != Schedulers.immediate()
+                                && scheduler != Schedulers.trampoline()),
+                "StorageOverflowPolicy.BLOCK cannot be used with Schedulers.immediate() or Schedulers.trampoline()");
         this.scheduler = scheduler;
         this.dataSerializer = dataSerializer;
         this.options = options;
+        this.memoryBufferSize = memoryBufferSize;
     }
 
     @Override
     public Subscriber<? super T> call(Subscriber<? super T> child) {
 
         // create the file based queue
-        final QueueWithSubscription<T> queue = createFileBasedQueue(dataSerializer, options);
+        final QueueWithSubscription<T> queue;
+        if (memoryBufferSize == 0) {
+            queue = createQueue(dataSerializer, options, child);
+        } else {
+            queue = createHybridQueue(dataSerializer, options, memoryBufferSize);
+        }
 
         // hold a reference to the queueProducer which will be set on
         // subscription to `source`
@@ -76,27 +112,94 @@ public final class OperatorBufferToFile<T> implements Operator<T, T> {
         return parentSubscriber;
     }
 
-    private static final boolean MEMORY_MAPPED = "true"
-            .equals(System.getProperty("memory.mappped"));
+    // maximum size of a memory-mapped segment when rolloverSizeBytes is not
+    // set (segments are smaller when rolloverEvery is set)
+    private static final int DEFAULT_MEMORY_MAPPED_SEGMENT_SIZE_BYTES = 20 * 1024 * 1024;
+
+    private static <T> QueueWithSubscription<T> createHybridQueue(
+            final DataSerializer<T> dataSerializer, final Options options, int memoryBufferSize) {
+        // the file based queue is created on overflow and discarded when
+        // drained so its resources are held by the subscriber passed in
+        // rather than by child
+        return new QueueWithMemoryBuffer<T>(memoryBufferSize,
+                new Func1<Subscriber<?>, QueueWithSubscription<T>>() {
+                    @Override
+                    public QueueWithSubscription<T> call(Subscriber<?> resources) {
+                        return createQueue(dataSerializer, options, resources);
+                    }
+                });
+    }
+
+    private static <T> QueueWithSubscription<T> createQueue(DataSerializer<T> dataSerializer,
+            Options options, Subscriber<?> child) {
+        QueueWithSubscription<T> queue = createUncachedQueue(dataSerializer, options, child);
+        if (options.cacheType() == CacheType.NO_CACHE) {
+            return queue;
+        } else {
+            final long maxItems;
+            if (options.cacheSizeBytes() == Long.MAX_VALUE) {
+                maxItems = options.cacheSizeItems();
+            } else {
+                maxItems = Math.min(options.cacheSizeItems(),
+                        Math.max(1, options.cacheSizeBytes() / dataSerializer.size()));
+            }
+            return new QueueWithCache<T>(queue, (int) maxItems, options.cacheType());
+        }
+    }
+
+    private static <T> QueueWithSubscription<T> createUncachedQueue(
+            DataSerializer<T> dataSerializer, Options options, Subscriber<?> child) {
+        if (options.batchSize() == 1) {
+            return createFileBasedQueue(dataSerializer, options, options.rolloverEvery(), child);
+        } else {
+            // each entry in the file based queue is a batch so scale the
+            // rollover count accordingly
+            final long rolloverEvery;
+            if (options.rolloverEvery() == Long.MAX_VALUE) {
+                rolloverEvery = Long.MAX_VALUE;
+            } else {
+                rolloverEvery = Math.max(2, options.rolloverEvery() / options.batchSize());
+            }
+            return new QueueWithBatching<T>(createFileBasedQueue(
+                    new BatchSerializer<T>(dataSerializer), options, rolloverEvery, child),
+                    options.batchSize());
+        }
+    }
 
     private static <T> QueueWithSubscription<T> createFileBasedQueue(
-            final DataSerializer<T> dataSerializer, final Options options) {
-        if (MEMORY_MAPPED) {
-            // warning: still in development!
+            final DataSerializer<T> dataSerializer, final Options options,
+            final long rolloverEvery, Subscriber<?> child) {
+        if (options.durable()) {
+            final FileBasedSPSCQueueDurable<T> durable = new FileBasedSPSCQueueDurable<T>(
+                    options.durableDirectory(), options.bufferSizeBytes(), dataSerializer,
+                    options.syncPolicy());
+            long maxDelayMs = options.syncPolicy().maxDelayMs();
+            if (maxDelayMs > 0) {
+                // syncs only happen on offer so sync periodically to cover
+                // the last items written before the producer goes idle. Not
+                // the drain worker because with a synchronous scheduler a
+                // periodic task would block the subscribing thread. The
+                // queue unsubscribes the worker once it is closed.
+                durable.syncPeriodically(Schedulers.io(), maxDelayMs);
+            }
+            return new QueueWithResourcesNonBlockingUnsubscribe<T>(durable);
+        }
+        if (options.memoryMapped()) {
             final int size;
-            if (options.rolloverSizeBytes() > Integer.MAX_VALUE) {
-                size = 20 * 1024 * 1024;// 20MB
+            if (options.rolloverSizeBytes() == Long.MAX_VALUE) {
+                size = DEFAULT_MEMORY_MAPPED_SEGMENT_SIZE_BYTES;
             } else {
                 size = (int) options.rolloverSizeBytes();
             }
             return new FileBasedSPSCQueueMemoryMapped<T>(options.fileFactory(), size,
-                    dataSerializer);
+                    rolloverEvery, dataSerializer);
         }
-        if (options.rolloverEvery() == Long.MAX_VALUE
-                && options.rolloverSizeBytes() == Long.MAX_VALUE) {
+        if (rolloverEvery == Long.MAX_VALUE && options.rolloverSizeBytes() == Long.MAX_VALUE
+                && !options.storageSizeLimited()) {
             // skip the Rollover version
             return new QueueWithResourcesNonBlockingUnsubscribe<T>(new FileBasedSPSCQueue<T>(
-                    options.bufferSizeBytes(), options.fileFactory().call(), dataSerializer));
+                    options.bufferSizeBytes(), options.fileFactory().call(), dataSerializer,
+                    options.compression()));
         } else {
             final Func0<QueueWithResources<T>> queueFactory = new Func0<QueueWithResources<T>>() {
                 @Override
@@ -107,15 +210,33 @@ public final class OperatorBufferToFile<T> implements Operator<T, T> {
                     File file = options.fileFactory().call();
 
                     return new FileBasedSPSCQueue<T>(options.bufferSizeBytes(), file,
-                            dataSerializer);
+                            dataSerializer, options.compression());
                 }
             };
+            final StorageCounters counters;
+            if (options.storageCounters() == null) {
+                counters = new StorageCounters();
+            } else {
+                counters = options.storageCounters();
+            }
+            final RollingSPSCQueue<T> rolling = new RollingSPSCQueue<T>(queueFactory,
+                    options.rolloverSizeBytes(), rolloverEvery, options.storageSizeLimitBytes(),
+                    options.storageOverflowPolicy(), counters);
+            if (options.storageOverflowPolicy() == StorageOverflowPolicy.BLOCK) {
+                // unblock the producer on cancellation so that the deferred
+                // unsubscribe of the queue can happen
+                child.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        rolling.releaseBlockedOffers();
+                    }
+                }));
+            }
             // the wrapping class ensures that unsubscribe happens in the same
             // thread as the offer or poll which avoids the unsubscribe action
             // not getting a time-slice so that the open file limit is not
             // exceeded (new files are opened in the offer() call).
-            return new QueueWithResourcesNonBlockingUnsubscribe<T>(new RollingSPSCQueue<T>(
-                    queueFactory, options.rolloverSizeBytes(), options.rolloverEvery()));
+            return new QueueWithResourcesNonBlockingUnsubscribe<T>(rolling);
         }
     }
 
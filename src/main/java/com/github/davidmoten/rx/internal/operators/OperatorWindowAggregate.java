@@ -0,0 +1,158 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Observable.Operator;
+import rx.Producer;
+import rx.Scheduler;
+import rx.Subscriber;
+
+/**
+ * Emits an aggregate of the values in a sliding window for each arriving
+ * value. The window is either the last {@code windowSize} values (nothing is
+ * emitted until the window is full) or the values that arrived within the
+ * last {@code duration} according to a {@link Scheduler}'s clock (including
+ * the arriving value). Aggregates are updated incrementally using
+ * {@link RollingWindow}.
+ *
+ * @param <T>
+ *            generic type of stream emissions
+ */
+public final class OperatorWindowAggregate<T extends Number> implements Operator<Double, T> {
+
+    private final int windowSize;
+    private final long durationMs;
+    private final Scheduler scheduler;
+    private final Aggregate aggregate;
+    private final double percentile;
+
+    private OperatorWindowAggregate(int windowSize, long durationMs, Scheduler scheduler,
+            Aggregate aggregate, double percentile) {
+        Preconditions.checkNotNull(aggregate, "aggregate cannot be null");
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+                "percentile must be between 0 and 100");
+        this.windowSize = windowSize;
+        this.durationMs = durationMs;
+        this.scheduler = scheduler;
+        this.aggregate = aggregate;
+        this.percentile = percentile;
+    }
+
+    /**
+     * Returns an operator that aggregates the last {@code windowSize} values.
+     *
+     * @param windowSize
+     *            number of values in the window
+     * @param aggregate
+     *            the aggregate to emit
+     * @param percentile
+     *            percentile (0 to 100) to emit if {@code aggregate} is
+     *            {@link Aggregate#PERCENTILE}
+     * @param <T>
+     *            generic type of stream emissions
+     * @return operator
+     */
+    public static <T extends Number> OperatorWindowAggregate<T> count(int windowSize,
+            Aggregate aggregate, double percentile) {
+        Preconditions.checkArgument(windowSize > 0, "windowSize must be greater than zero");
+        return new OperatorWindowAggregate<T>(windowSize, 0, null, aggregate, percentile);
+    }
+
+    /**
+     * Returns an operator that aggregates the values that arrived in the last
+     * {@code duration}.
+     *
+     * @param duration
+     *            length of the window, at least one millisecond (the
+     *            resolution of {@link Scheduler#now()})
+     * @param unit
+     *            unit of {@code duration}
+     * @param scheduler
+     *            provides the arrival time of values
+     * @param aggregate
+     *            the aggregate to emit
+     * @param percentile
+     *            percentile (0 to 100) to emit if {@code aggregate} is
+     *            {@link Aggregate#PERCENTILE}
+     * @param <T>
+     *            generic type of stream emissions
+     * @return operator
+     */
+    public static <T extends Number> OperatorWindowAggregate<T> time(long duration,
+            TimeUnit unit, Scheduler scheduler, Aggregate aggregate, double percentile) {
+        Preconditions.checkNotNull(unit, "unit cannot be null");
+        Preconditions.checkArgument(unit.toMillis(duration) > 0,
+                "duration must be at least one millisecond");
+        Preconditions.checkNotNull(scheduler, "scheduler cannot be null");
+        return new OperatorWindowAggregate<T>(0, unit.toMillis(duration), scheduler, aggregate,
+                percentile);
+    }
+
+    public enum Aggregate {
+        SUM, MEAN, VARIANCE, PERCENTILE;
+    }
+
+    @Override
+    public Subscriber<? super T> call(final Subscriber<? super Double> child) {
+        final boolean timed = scheduler != null;
+        final RollingWindow window = new RollingWindow(timed ? Integer.MAX_VALUE : windowSize,
+                timed, aggregate == Aggregate.PERCENTILE ? percentile / 100 : -1);
+        return new Subscriber<T>(child) {
+
+            @Override
+            public void onCompleted() {
+                child.onCompleted();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                child.onError(e);
+            }
+
+            @Override
+            public void onNext(T t) {
+                double x = t.doubleValue();
+                if (timed) {
+                    long now = scheduler.now();
+                    while (window.size() > 0 && window.oldestTime() <= now - durationMs) {
+                        window.removeOldest();
+                    }
+                    window.add(x, now);
+                } else {
+                    if (window.size() == windowSize) {
+                        window.removeOldest();
+                    }
+                    window.add(x, 0);
+                    if (window.size() < windowSize) {
+                        return;
+                    }
+                }
+                child.onNext(value());
+            }
+
+            private double value() {
+                if (aggregate == Aggregate.SUM) {
+                    return window.sum();
+                } else if (aggregate == Aggregate.MEAN) {
+                    return window.mean();
+                } else if (aggregate == Aggregate.VARIANCE) {
+                    return window.variance();
+                } else {
+                    return window.percentile();
+                }
+            }
+
+            @Override
+            public void setProducer(final Producer producer) {
+                child.setProducer(producer);
+                if (!timed) {
+                    producer.request(windowSize - 1);
+                }
+            }
+
+        };
+    }
+
+}
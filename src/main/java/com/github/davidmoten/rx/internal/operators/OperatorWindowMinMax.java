@@ -1,10 +1,6 @@
 package com.github.davidmoten.rx.internal.operators;
 
-import java.util.ArrayDeque;
 import java.util.Comparator;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
 
 import com.github.davidmoten.util.Preconditions;
 
@@ -15,13 +11,18 @@ import rx.Subscriber;
 /**
  * Uses a double-ended queue and collapses entries when they are redundant
  * (whenever a value is added to the queue all values at the end of the queue
- * that are greater or equal to that value are removed).
+ * that are greater or equal to that value are removed). The queue is held in
+ * a primitive array of indices and a parallel array of values used as
+ * circular buffers so that no allocation happens per item once the buffers
+ * have grown to fit the window.
  * 
  * @param <T>
  *            generic type of stream emissions
  */
 public final class OperatorWindowMinMax<T> implements Operator<T, T> {
 
+    private static final int INITIAL_CAPACITY = 16;
+
     private final int windowSize;
     private final Comparator<? super T> comparator;
     private final Metric metric;
@@ -45,11 +46,18 @@ public final class OperatorWindowMinMax<T> implements Operator<T, T> {
 
             long count = 0;
 
-            // queue of indices
-            final Deque<Long> q = new ArrayDeque<Long>();
+            // the deque is held in two parallel rings: indices of the values
+            // and the values themselves. It never holds more than windowSize
+            // + 1 entries so once grown to that capacity no more allocation
+            // happens.
+            long[] indices = new long[(int) Math.min(windowSize + 1L, INITIAL_CAPACITY)];
+            Object[] values = new Object[indices.length];
+
+            // position of the first entry in the rings
+            int head = 0;
 
-            // map index to value
-            final Map<Long, T> values = new HashMap<Long, T>();
+            // number of entries in the deque
+            int size = 0;
 
             @Override
             public void onCompleted() {
@@ -70,26 +78,59 @@ public final class OperatorWindowMinMax<T> implements Operator<T, T> {
                     // emit max
 
                     // head of queue is max
-                    Long head = q.peekFirst();
-                    final T value;
-                    if (head == count - windowSize) {
-                        // if window past that index then remove from map
-                        values.remove(q.pollFirst());
-                        value = values.get(q.peekFirst());
-                    } else {
-                        value = values.get(head);
+                    if (indices[head] == count - windowSize) {
+                        // if window past that index then remove it
+                        values[head] = null;
+                        head = next(head);
+                        size--;
                     }
+                    @SuppressWarnings("unchecked")
+                    T value = (T) values[head];
                     child.onNext(value);
                 }
             }
 
+            @SuppressWarnings("unchecked")
             private void addToQueue(T t) {
-                Long v;
-                while ((v = q.peekLast()) != null && compare(t, values.get(v)) <= 0) {
-                    values.remove(q.pollLast());
+                while (size > 0) {
+                    int last = position(size - 1);
+                    if (compare(t, (T) values[last]) <= 0) {
+                        values[last] = null;
+                        size--;
+                    } else {
+                        break;
+                    }
+                }
+                if (size == indices.length) {
+                    grow();
+                }
+                int tail = position(size);
+                indices[tail] = count;
+                values[tail] = t;
+                size++;
+            }
+
+            private int position(int offset) {
+                int i = head + offset;
+                return i >= indices.length ? i - indices.length : i;
+            }
+
+            private int next(int i) {
+                return i + 1 == indices.length ? 0 : i + 1;
+            }
+
+            private void grow() {
+                int capacity = (int) Math.min((long) windowSize + 1, 2L * indices.length);
+                long[] newIndices = new long[capacity];
+                Object[] newValues = new Object[capacity];
+                for (int i = 0; i < size; i++) {
+                    int p = position(i);
+                    newIndices[i] = indices[p];
+                    newValues[i] = values[p];
                 }
-                values.put(count, t);
-                q.offerLast(count);
+                indices = newIndices;
+                values = newValues;
+                head = 0;
             }
 
             @Override
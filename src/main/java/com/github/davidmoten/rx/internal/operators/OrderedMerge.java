@@ -7,7 +7,10 @@ import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.github.davidmoten.rx.DoubleFunc1;
+import com.github.davidmoten.rx.LongFunc1;
 import com.github.davidmoten.rx.util.RxRingBuffer;
+import com.github.davidmoten.util.Preconditions;
 
 import rx.Observable;
 import rx.Observable.OnSubscribe;
@@ -29,8 +32,11 @@ import rx.plugins.RxJavaHooks;
 public final class OrderedMerge<T> implements OnSubscribe<T> {
     final List<Observable<T>> sources;
     final Comparator<? super T> comparator;
+    final LongFunc1<? super T> longKey;
+    final DoubleFunc1<? super T> doubleKey;
     final boolean delayErrors;
     final int bufferSize;
+    final int maxRunLength;
 
     public static <U extends Comparable<? super U>> Observable<U> create(
             Collection<Observable<U>> sources) {
@@ -49,28 +55,133 @@ public final class OrderedMerge<T> implements OnSubscribe<T> {
             public int compare(U o1, U o2) {
                 return o1.compareTo(o2);
             }
-        }, delayErrors, bufferSize));
+        }, null, null, delayErrors, bufferSize, 1));
     }
 
     public static <U> Observable<U> create(Collection<Observable<U>> sources,
             Comparator<? super U> comparator, boolean delayErrors, int bufferSize) {
-        return Observable.unsafeCreate(new OrderedMerge<U>(sources, comparator, delayErrors, bufferSize));
+        return create(sources, comparator, delayErrors, bufferSize, 1);
     }
 
-    private OrderedMerge(Collection<Observable<T>> sources,
-            Comparator<? super T> comparator, boolean delayErrors, int bufferSize) {
+    /**
+     * Returns the ordered merge of {@code sources}. When {@code maxRunLength}
+     * is greater than one the items of the source with the smallest head are
+     * emitted as a run for as long as they are not after the smallest head of
+     * the other sources (up to {@code maxRunLength} items). Items in a run are
+     * compared only against that one head, and errors and the state of the
+     * other sources are checked once per run rather than once per item. Long
+     * sorted runs (for example when sources hold time-clustered data) are
+     * thus emitted more cheaply. An error from a source may be reported up to
+     * {@code maxRunLength} items later than without runs.
+     * 
+     * @param sources
+     *            already ordered observables to merge
+     * @param comparator
+     *            the ordering to use
+     * @param delayErrors
+     *            whether errors are reported immediately or are reported
+     *            after buffered items are emitted
+     * @param bufferSize
+     *            the number of items that are requested from each source at
+     *            the start (and held)
+     * @param maxRunLength
+     *            maximum number of items emitted from one source before the
+     *            sources are checked again (1 disables runs)
+     * @param <U>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <U> Observable<U> create(Collection<Observable<U>> sources,
+            Comparator<? super U> comparator, boolean delayErrors, int bufferSize,
+            int maxRunLength) {
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return Observable.unsafeCreate(new OrderedMerge<U>(sources, comparator, null, null,
+                delayErrors, bufferSize, maxRunLength));
+    }
+
+    /**
+     * Returns the ordered merge of {@code sources} where the order is
+     * ascending order of the {@code long} returned by {@code key} for each
+     * item. The key of the head of each source is extracted once and compared
+     * as a primitive so there is no boxing or {@link Comparator} call per
+     * comparison.
+     * 
+     * @param sources
+     *            observables already ordered by key to merge
+     * @param key
+     *            extracts the key of an item
+     * @param delayErrors
+     *            whether errors are reported immediately or are reported
+     *            after buffered items are emitted
+     * @param bufferSize
+     *            the number of items that are requested from each source at
+     *            the start (and held)
+     * @param maxRunLength
+     *            maximum number of items emitted from one source before the
+     *            sources are checked again (1 disables runs)
+     * @param <U>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <U> Observable<U> createWithLongKey(Collection<Observable<U>> sources,
+            LongFunc1<? super U> key, boolean delayErrors, int bufferSize, int maxRunLength) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return Observable.unsafeCreate(new OrderedMerge<U>(sources, null, key, null, delayErrors,
+                bufferSize, maxRunLength));
+    }
+
+    /**
+     * Returns the ordered merge of {@code sources} where the order is
+     * ascending order of the {@code double} returned by {@code key} for each
+     * item (as defined by {@link Double#compare(double, double)}). The key of
+     * the head of each source is extracted once and compared as a primitive
+     * so there is no boxing or {@link Comparator} call per comparison.
+     * 
+     * @param sources
+     *            observables already ordered by key to merge
+     * @param key
+     *            extracts the key of an item
+     * @param delayErrors
+     *            whether errors are reported immediately or are reported
+     *            after buffered items are emitted
+     * @param bufferSize
+     *            the number of items that are requested from each source at
+     *            the start (and held)
+     * @param maxRunLength
+     *            maximum number of items emitted from one source before the
+     *            sources are checked again (1 disables runs)
+     * @param <U>
+     *            the type of the items
+     * @return merged and ordered observable
+     */
+    public static <U> Observable<U> createWithDoubleKey(Collection<Observable<U>> sources,
+            DoubleFunc1<? super U> key, boolean delayErrors, int bufferSize, int maxRunLength) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkArgument(maxRunLength > 0, "maxRunLength must be greater than zero");
+        return Observable.unsafeCreate(new OrderedMerge<U>(sources, null, null, key, delayErrors,
+                bufferSize, maxRunLength));
+    }
+
+    private OrderedMerge(Collection<Observable<T>> sources, Comparator<? super T> comparator,
+            LongFunc1<? super T> longKey, DoubleFunc1<? super T> doubleKey,
+            boolean delayErrors, int bufferSize, int maxRunLength) {
         this.sources = sources instanceof List ? (List<Observable<T>>) sources
                 : new ArrayList<Observable<T>>(sources);
         this.comparator = comparator;
+        this.longKey = longKey;
+        this.doubleKey = doubleKey;
         this.delayErrors = delayErrors;
         this.bufferSize = bufferSize;
+        this.maxRunLength = maxRunLength;
     }
 
     @Override
     public void call(Subscriber<? super T> child) {
         @SuppressWarnings("unchecked")
         SourceSubscriber<T>[] sources = new SourceSubscriber[this.sources.size()];
-        MergeProducer<T> mp = new MergeProducer<T>(sources, child, comparator, delayErrors, bufferSize);
+        MergeProducer<T> mp = new MergeProducer<T>(sources, child, comparator, longKey,
+                doubleKey, delayErrors, bufferSize, maxRunLength);
         for (int i = 0; i < sources.length; i++) {
             if (child.isUnsubscribed()) {
                 return;
@@ -91,32 +202,83 @@ public final class OrderedMerge<T> implements OnSubscribe<T> {
         }
     }
 
+    /**
+     * Above this many sources the next item is selected with a binary heap of
+     * the source heads (O(log N) per item) rather than by scanning every
+     * source (O(N) per item). The heap also avoids peeking every source queue
+     * per item so it is already faster for 4 sources. The heap is always used
+     * when ordering by a primitive key because it caches the key of each
+     * head.
+     */
+    static final int HEAP_THRESHOLD = 2;
+
     static final class MergeProducer<T> extends AtomicLong implements Producer {
         /** */
         private static final long serialVersionUID = -812969080497027108L;
 
         final boolean delayErrors;
         final Comparator<? super T> comparator;
+        final LongFunc1<? super T> longKey;
+        final DoubleFunc1<? super T> doubleKey;
         @SuppressWarnings("rawtypes")
         final SourceSubscriber[] sources;
         final Subscriber<? super T> child;
         final int bufferSize;
+        final int maxRunLength;
 
         final Queue<Throwable> errors;
 
         boolean emitting;
         boolean missed;
 
+        // the following fields are only used when selecting with a heap and
+        // are only accessed by the emission loop
+
+        // indexes of sources with a head value ordered as a min-heap
+        final int[] heap;
+        int heapSize;
+        // the head value of each source in the heap
+        final Object[] heads;
+        // the key of each head when ordering by a primitive key
+        final long[] longKeys;
+        final double[] doubleKeys;
+        // indexes of sources that are not terminated and not in the heap
+        // because their head value was not available yet
+        final int[] pending;
+        int pendingCount;
 
         @SuppressWarnings("rawtypes")
         public MergeProducer(SourceSubscriber[] sources, Subscriber<? super T> child,
-                Comparator<? super T> comparator, boolean delayErrors, int bufferSize) {
+                Comparator<? super T> comparator, LongFunc1<? super T> longKey,
+                DoubleFunc1<? super T> doubleKey, boolean delayErrors, int bufferSize,
+                int maxRunLength) {
             this.sources = sources;
             this.delayErrors = delayErrors;
             this.errors = new MpscLinkedQueue<Throwable>();
             this.child = child;
             this.comparator = comparator;
+            this.longKey = longKey;
+            this.doubleKey = doubleKey;
             this.bufferSize = bufferSize;
+            this.maxRunLength = maxRunLength;
+            int n = sources.length;
+            this.longKeys = longKey == null ? null : new long[n];
+            this.doubleKeys = doubleKey == null ? null : new double[n];
+            if (n > HEAP_THRESHOLD || longKey != null || doubleKey != null) {
+                this.heap = new int[n];
+                this.heads = new Object[n];
+                this.pending = new int[n];
+                // fill in reverse so that sources are added to the heap in
+                // order
+                for (int i = 0; i < n; i++) {
+                    pending[i] = n - 1 - i;
+                }
+                this.pendingCount = n;
+            } else {
+                this.heap = null;
+                this.heads = null;
+                this.pending = null;
+            }
         }
 
         @Override
@@ -138,6 +300,14 @@ public final class OrderedMerge<T> implements OnSubscribe<T> {
                 }
                 emitting = true;
             }
+            if (heap != null) {
+                drainHeap();
+            } else {
+                drainScan();
+            }
+        }
+
+        private void drainScan() {
             // lift into local variables, just in case
             @SuppressWarnings("unchecked")
             final SourceSubscriber<T>[] sources = this.sources;
@@ -251,7 +421,34 @@ public final class OrderedMerge<T> implements OnSubscribe<T> {
                         return;
                     }
                     // if there was a full row of available values
-                    if (fullRow) {
+                    if (fullRow && maxRunLength > 1) {
+                        SourceSubscriber<T> s = sources[toPoll];
+                        // find the smallest head of the other sources
+                        int next = -1;
+                        T nextHead = null;
+                        int emitted;
+                        try {
+                            for (int i = 0; i < n; i++) {
+                                if (i != toPoll && sources[i] != null) {
+                                    T v = NotificationLite.getValue(sources[i].queue.peek());
+                                    if (next == -1 || comparator.compare(nextHead, v) > 0) {
+                                        next = i;
+                                        nextHead = v;
+                                    }
+                                }
+                            }
+                            emitted = emitRun(s, toPoll, minimum, next, nextHead, r);
+                        } catch (Throwable ex) {
+                            child.onError(ex);
+                            return;
+                        }
+                        // request replenishment
+                        s.requestMore(emitted);
+                        if (r != Long.MAX_VALUE) {
+                            r -= emitted;
+                            e += emitted;
+                        }
+                    } else if (fullRow) {
                         // given the winner
                         if (toPoll >= 0) {
                             SourceSubscriber<T> s = sources[toPoll];
@@ -289,6 +486,273 @@ public final class OrderedMerge<T> implements OnSubscribe<T> {
             }
         }
 
+        private void drainHeap() {
+            @SuppressWarnings("unchecked")
+            final SourceSubscriber<T>[] sources = this.sources;
+            final Subscriber<? super T> child = this.child;
+
+            for (;;) {
+                if (child.isUnsubscribed()) {
+                    return;
+                }
+                // eagerly check for errors
+                if (!delayErrors && !errors.isEmpty()) {
+                    child.onError(errors.poll());
+                    return;
+                }
+                long r = get();
+                long e = 0;
+                for (;;) {
+                    // every active source must be in the heap before the
+                    // smallest can be chosen
+                    boolean fullRow;
+                    try {
+                        fullRow = addPendingToHeap(sources);
+                    } catch (Throwable ex) {
+                        child.onError(ex);
+                        return;
+                    }
+                    if (fullRow && heapSize == 0) {
+                        // all sources completed and emptied
+                        reportErrorOrComplete(child);
+                        return;
+                    }
+                    if (!fullRow || r == 0L) {
+                        break;
+                    }
+                    if (child.isUnsubscribed()) {
+                        return;
+                    }
+                    // eagerly check for errors
+                    if (!delayErrors && !errors.isEmpty()) {
+                        child.onError(errors.poll());
+                        return;
+                    }
+                    int i = heap[0];
+                    T minimum = NotificationLite.getValue(heads[i]);
+                    SourceSubscriber<T> s = sources[i];
+                    int emitted;
+                    if (maxRunLength > 1) {
+                        // the smallest head of the other sources is a child
+                        // of the root
+                        int next = -1;
+                        try {
+                            if (heapSize > 2) {
+                                next = less(heap[1], heap[2]) ? heap[1] : heap[2];
+                            } else if (heapSize == 2) {
+                                next = heap[1];
+                            }
+                            emitted = emitRun(s, i, minimum, next,
+                                    next == -1 ? null : NotificationLite.<T> getValue(heads[next]),
+                                    r);
+                        } catch (Throwable ex) {
+                            child.onError(ex);
+                            return;
+                        }
+                    } else {
+                        // remove the winning value from its queue
+                        s.queue.poll();
+                        // emit the smallest
+                        child.onNext(minimum);
+                        emitted = 1;
+                    }
+                    // request replenishment
+                    s.requestMore(emitted);
+                    // replace the head of the winning source if available
+                    // (a single sift down) otherwise take it out of the heap
+                    // till it has a value or terminates
+                    Object o = s.queue.peek();
+                    try {
+                        if (o != null) {
+                            setHead(i, o);
+                        } else {
+                            heads[i] = null;
+                            pending[pendingCount++] = i;
+                            heapSize--;
+                            heap[0] = heap[heapSize];
+                        }
+                        siftDown(0);
+                    } catch (Throwable ex) {
+                        child.onError(ex);
+                        return;
+                    }
+                    if (r != Long.MAX_VALUE) {
+                        r -= emitted;
+                        e += emitted;
+                    }
+                }
+
+                // if there was emission, adjust the downstream request amount
+                if (e != 0L) {
+                    addAndGet(-e);
+                }
+
+                synchronized (this) {
+                    if (!missed) {
+                        emitting = false;
+                        return;
+                    }
+                    missed = false;
+                }
+            }
+        }
+
+        /**
+         * Emits {@code first}, the head of the source at index {@code index},
+         * and then following items of that source while they are before
+         * {@code nextHead}, the smallest head of the other sources (from the
+         * source at index {@code next} or -1 if there are no other sources).
+         * At most {@code maxRunLength} items and no more than {@code r} items
+         * are emitted. The emitted items are removed from the source queue.
+         * 
+         * @return the number of items emitted
+         */
+        private int emitRun(SourceSubscriber<T> s, int index, T first, int next, T nextHead,
+                long r) {
+            final long limit = Math.min(maxRunLength, r);
+            final Subscriber<? super T> child = this.child;
+            int emitted = 0;
+            T v = first;
+            for (;;) {
+                s.queue.poll();
+                child.onNext(v);
+                emitted++;
+                if (emitted == limit || child.isUnsubscribed()) {
+                    return emitted;
+                }
+                Object o = s.queue.peek();
+                if (o == null) {
+                    return emitted;
+                }
+                v = NotificationLite.getValue(o);
+                if (next != -1) {
+                    int c = compareToHead(v, next, nextHead);
+                    // ties go to the lower index
+                    if (c > 0 || (c == 0 && index > next)) {
+                        return emitted;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Moves sources that now have a head value from pending to the heap
+         * and forgets sources that have terminated and been emptied.
+         * 
+         * @param sources
+         *            the sources
+         * @return true if there are no more pending sources
+         */
+        private boolean addPendingToHeap(SourceSubscriber<T>[] sources) {
+            while (pendingCount > 0) {
+                int i = pending[pendingCount - 1];
+                SourceSubscriber<T> s = sources[i];
+                // read the terminal indicator first
+                boolean d = s.done;
+                Object o = s.queue.peek();
+                if (o == null) {
+                    if (d) {
+                        sources[i] = null;
+                        pendingCount--;
+                    } else {
+                        return false;
+                    }
+                } else {
+                    pendingCount--;
+                    setHead(i, o);
+                    heap[heapSize] = i;
+                    heapSize++;
+                    siftUp(heapSize - 1);
+                }
+            }
+            return true;
+        }
+
+        private void siftUp(int k) {
+            int[] heap = this.heap;
+            int x = heap[k];
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                int p = heap[parent];
+                if (!less(x, p)) {
+                    break;
+                }
+                heap[k] = p;
+                k = parent;
+            }
+            heap[k] = x;
+        }
+
+        private void siftDown(int k) {
+            int[] heap = this.heap;
+            int size = heapSize;
+            if (size == 0) {
+                return;
+            }
+            int x = heap[k];
+            int half = size >>> 1;
+            while (k < half) {
+                int child = 2 * k + 1;
+                int c = heap[child];
+                int right = child + 1;
+                if (right < size && less(heap[right], c)) {
+                    child = right;
+                    c = heap[child];
+                }
+                if (!less(c, x)) {
+                    break;
+                }
+                heap[k] = c;
+                k = child;
+            }
+            heap[k] = x;
+        }
+
+        /**
+         * Returns true if the head of source {@code i} is before the head of
+         * source {@code j}. Ties go to the lower index so that the order of
+         * emissions is the same as when scanning the sources.
+         */
+        private boolean less(int i, int j) {
+            final int c;
+            if (longKeys != null) {
+                c = compare(longKeys[i], longKeys[j]);
+            } else if (doubleKeys != null) {
+                c = Double.compare(doubleKeys[i], doubleKeys[j]);
+            } else {
+                T a = NotificationLite.getValue(heads[i]);
+                T b = NotificationLite.getValue(heads[j]);
+                c = comparator.compare(a, b);
+            }
+            return c < 0 || (c == 0 && i < j);
+        }
+
+        private void setHead(int i, Object o) {
+            heads[i] = o;
+            if (longKeys != null) {
+                longKeys[i] = longKey.call(NotificationLite.<T> getValue(o));
+            } else if (doubleKeys != null) {
+                doubleKeys[i] = doubleKey.call(NotificationLite.<T> getValue(o));
+            }
+        }
+
+        /**
+         * Compares {@code v} to {@code head}, the head of source {@code i}.
+         */
+        private int compareToHead(T v, int i, T head) {
+            if (longKeys != null) {
+                return compare(longKey.call(v), longKeys[i]);
+            } else if (doubleKeys != null) {
+                return Double.compare(doubleKey.call(v), doubleKeys[i]);
+            } else {
+                return comparator.compare(v, head);
+            }
+        }
+
+        private static int compare(long a, long b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+
         void reportErrorOrComplete(Subscriber<? super T> child) {
             if (delayErrors && !errors.isEmpty()) {
                 if (errors.size() == 1) {
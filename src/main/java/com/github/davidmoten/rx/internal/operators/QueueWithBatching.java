@@ -0,0 +1,236 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * Wraps a queue of batches (like a file based queue using a
+ * {@link BatchSerializer}) so that items are offered to the wrapped queue in
+ * batches of up to {@code batchSize} and read from it a batch at a time.
+ *
+ * <p>
+ * Items are held in memory until a batch is full. So that items are never
+ * stranded in memory {@code poll()} takes the partial batch directly if the
+ * wrapped queue is found to be empty (the reader has caught up). In that case
+ * the items are never serialized. The caller of {@code offer()} must arrange
+ * for {@code poll()} to be called after each {@code offer()} as
+ * {@code OperatorBufferToFile} does.
+ *
+ * <p>
+ * Calls to {@code offer()} must be sequential as must calls to {@code poll()}
+ * and {@code isEmpty()}. The wrapped queue must serialize the batch during
+ * {@code offer()} because the batch list is reused.
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+final class QueueWithBatching<T> implements QueueWithSubscription<T> {
+
+    private final QueueWithSubscription<List<T>> queue;
+    private final int batchSize;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private List<T> pending;
+
+    // accessed only by the thread calling poll()
+    private List<T> batch = Collections.emptyList();
+    private int index;
+
+    private volatile boolean unsubscribed;
+
+    QueueWithBatching(QueueWithSubscription<List<T>> queue, int batchSize) {
+        Preconditions.checkNotNull(queue);
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than zero");
+        this.queue = queue;
+        this.batchSize = batchSize;
+        this.pending = new ArrayList<T>(batchSize);
+    }
+
+    @Override
+    public boolean offer(T t) {
+        if (unsubscribed) {
+            return true;
+        }
+        synchronized (lock) {
+            pending.add(t);
+            if (pending.size() >= batchSize) {
+                return flush();
+            } else {
+                return true;
+            }
+        }
+    }
+
+    // must hold lock
+    private boolean flush() {
+        // offers to the wrapped queue happen sequentially because they are
+        // all made while holding the lock
+        boolean result = queue.offer(pending);
+        pending.clear();
+        return result;
+    }
+
+    // must hold lock
+    private List<T> takePending() {
+        List<T> list = pending;
+        if (batch instanceof ArrayList) {
+            // reuse the exhausted batch
+            batch.clear();
+            pending = batch;
+        } else {
+            pending = new ArrayList<T>(batchSize);
+        }
+        return list;
+    }
+
+    @Override
+    public T poll() {
+        if (unsubscribed) {
+            return null;
+        }
+        if (index == batch.size()) {
+            // checking isEmpty first avoids the cost of a failed read
+            List<T> list = queue.isEmpty() ? null : queue.poll();
+            if (list == null) {
+                synchronized (lock) {
+                    // check again now that the producer cannot flush
+                    list = queue.isEmpty() ? null : queue.poll();
+                    if (list == null) {
+                        if (pending.isEmpty()) {
+                            return null;
+                        } else {
+                            // the reader has caught up so take the partial
+                            // batch without serializing it
+                            list = takePending();
+                        }
+                    }
+                }
+            }
+            batch = list;
+            index = 0;
+        }
+        T t = batch.get(index);
+        // allow gc of the item
+        batch.set(index, null);
+        index++;
+        if (t == null) {
+            return NullSentinel.instance();
+        } else {
+            return t;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (unsubscribed) {
+            return true;
+        }
+        if (index < batch.size()) {
+            return false;
+        }
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                return false;
+            }
+        }
+        return queue.isEmpty();
+    }
+
+    @Override
+    public void unsubscribe() {
+        unsubscribed = true;
+        queue.unsubscribe();
+        synchronized (lock) {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("hiding")
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(T e) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+
+import com.github.davidmoten.rx.buffertofile.CacheType;
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * <p>
+ * Wraps a queue (like a file based queue) so that the most recently offered
+ * {@code maxItems} items are held in memory as live objects and only the
+ * oldest items are offered to the wrapped queue. Items read while still in
+ * memory are never serialized.
+ *
+ * <p>
+ * The {@link CacheType} decides how the memory is reclaimed.
+ * {@code HARD_REF} and {@code LEAST_RECENTLY_USED} (items are used once in
+ * order so the least recently used is the oldest) only move items to the
+ * wrapped queue when {@code maxItems} is exceeded. {@code SOFT_REF} and
+ * {@code WEAK_REF} also move all items in memory to the wrapped queue on the
+ * next {@code offer()} after a garbage collection leaves a tenured heap pool
+ * at least 80% ({@code SOFT_REF}) or 50% ({@code WEAK_REF}) full (see
+ * {@link MemoryPressure}) so no items are lost.
+ *
+ * <p>
+ * Calls to {@code offer()} must be sequential as must calls to {@code poll()}
+ * and {@code isEmpty()}.
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+final class QueueWithCache<T> implements QueueWithSubscription<T> {
+
+    private final QueueWithSubscription<T> queue;
+    private final int maxItems;
+    private final CacheType cacheType;
+    private final Object lock = new Object();
+
+    // guarded by lock, items newer than those in queue (nulls are stored as
+    // NullSentinel)
+    private final Deque<T> cache = new ArrayDeque<T>();
+
+    // guarded by lock, the MemoryPressure count when the cache was last
+    // emptied or -1 if the cache doesn't respond to memory pressure
+    private long pressureCount;
+
+    private volatile boolean unsubscribed;
+
+    QueueWithCache(QueueWithSubscription<T> queue, int maxItems, CacheType cacheType) {
+        Preconditions.checkNotNull(queue);
+        Preconditions.checkArgument(maxItems > 0, "maxItems must be greater than zero");
+        Preconditions.checkNotNull(cacheType);
+        Preconditions.checkArgument(cacheType != CacheType.NO_CACHE,
+                "cacheType cannot be NO_CACHE");
+        this.queue = queue;
+        this.maxItems = maxItems;
+        this.cacheType = cacheType;
+        this.pressureCount = pressureCount(cacheType);
+    }
+
+    private static long pressureCount(CacheType cacheType) {
+        if (cacheType == CacheType.SOFT_REF) {
+            return MemoryPressure.highCount();
+        } else if (cacheType == CacheType.WEAK_REF) {
+            return MemoryPressure.moderateCount();
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean offer(T t) {
+        if (unsubscribed) {
+            return true;
+        }
+        synchronized (lock) {
+            long count = pressureCount(cacheType);
+            if (count != pressureCount) {
+                // memory is wanted back
+                while (!cache.isEmpty()) {
+                    if (!spill()) {
+                        return false;
+                    }
+                }
+                pressureCount = count;
+            } else if (cache.size() == maxItems && !spill()) {
+                return false;
+            }
+            if (t == null) {
+                cache.offer(NullSentinel.<T> instance());
+            } else {
+                cache.offer(t);
+            }
+            return true;
+        }
+    }
+
+    // must hold lock, offers to the wrapped queue are sequential because they
+    // are all made while holding the lock
+    private boolean spill() {
+        T t = cache.poll();
+        if (NullSentinel.isNullSentinel(t)) {
+            return queue.offer(null);
+        } else {
+            return queue.offer(t);
+        }
+    }
+
+    @Override
+    public T poll() {
+        if (unsubscribed) {
+            return null;
+        }
+        // checking isEmpty first avoids the cost of a failed read
+        T t = queue.isEmpty() ? null : queue.poll();
+        if (t == null) {
+            synchronized (lock) {
+                // check again now that the producer cannot spill
+                t = queue.isEmpty() ? null : queue.poll();
+                if (t == null) {
+                    // the oldest item is in memory
+                    t = cache.poll();
+                }
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (unsubscribed) {
+            return true;
+        }
+        if (!queue.isEmpty()) {
+            return false;
+        }
+        synchronized (lock) {
+            return cache.isEmpty() && queue.isEmpty();
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        unsubscribed = true;
+        queue.unsubscribe();
+        synchronized (lock) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("hiding")
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(T e) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,261 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.internal.util.atomic.SpscAtomicArrayQueue;
+import rx.internal.util.unsafe.SpscArrayQueue;
+import rx.internal.util.unsafe.UnsafeAccess;
+import rx.observers.Subscribers;
+
+/**
+ * <p>
+ * Wraps a queue (like a file based queue) so that items are held in a bounded
+ * in-memory SPSC queue and are only offered to the wrapped queue once the
+ * in-memory queue is full. From then on every item is offered to the wrapped
+ * queue (to preserve order) until the reader has emptied it, at which point
+ * the wrapped queue is disposed of and items go to memory again.
+ *
+ * <p>
+ * The wrapped queue is created by {@code diskQueueFactory} on the first
+ * overflow so a consumer that keeps up never touches the file system. The
+ * subscriber passed to the factory holds any resources of the wrapped queue
+ * and is unsubscribed when the wrapped queue is disposed of.
+ *
+ * <p>
+ * Calls to {@code offer()} must be sequential as must calls to {@code poll()}
+ * and {@code isEmpty()}.
+ *
+ * @param <T>
+ *            type of item on queue
+ */
+final class QueueWithMemoryBuffer<T> implements QueueWithSubscription<T> {
+
+    private final Queue<T> memory;
+    private final Func1<Subscriber<?>, QueueWithSubscription<T>> diskQueueFactory;
+    private final Object lock = new Object();
+
+    // set by the producer on overflow, cleared by the consumer when the disk
+    // queue is empty. Changes happen while holding lock.
+    private volatile boolean spilling;
+
+    // non-null when spilling (set before spilling is set to true)
+    private final AtomicReference<Disk<T>> disk = new AtomicReference<Disk<T>>();
+
+    private volatile boolean unsubscribed;
+
+    QueueWithMemoryBuffer(int memoryBufferSize,
+            Func1<Subscriber<?>, QueueWithSubscription<T>> diskQueueFactory) {
+        Preconditions.checkArgument(memoryBufferSize > 0,
+                "memoryBufferSize must be greater than zero");
+        Preconditions.checkNotNull(diskQueueFactory);
+        if (UnsafeAccess.isUnsafeAvailable()) {
+            this.memory = new SpscArrayQueue<T>(memoryBufferSize);
+        } else {
+            this.memory = new SpscAtomicArrayQueue<T>(memoryBufferSize);
+        }
+        this.diskQueueFactory = diskQueueFactory;
+    }
+
+    @Override
+    public boolean offer(T t) {
+        if (unsubscribed) {
+            return true;
+        }
+        // the memory queue does not accept nulls
+        if (t == null) {
+            t = NullSentinel.<T> instance();
+        }
+        if (!spilling && memory.offer(t)) {
+            return true;
+        }
+        synchronized (lock) {
+            if (!spilling) {
+                Disk<T> d = new Disk<T>(diskQueueFactory);
+                disk.set(d);
+                if (unsubscribed) {
+                    // unsubscribe may have missed the new disk queue
+                    dispose();
+                    return true;
+                }
+                spilling = true;
+            }
+            Disk<T> d = disk.get();
+            if (d == null) {
+                // unsubscribed
+                return true;
+            } else if (NullSentinel.isNullSentinel(t)) {
+                return d.queue.offer(null);
+            } else {
+                return d.queue.offer(t);
+            }
+        }
+    }
+
+    @Override
+    public T poll() {
+        if (unsubscribed) {
+            return null;
+        }
+        // read spilling before polling memory because once spilling is true
+        // the producer does not add to memory until the consumer clears it.
+        // Thus an empty memory queue means the items on disk are next.
+        boolean s = spilling;
+        T t = memory.poll();
+        if (t != null || !s) {
+            return t;
+        }
+        Disk<T> d = disk.get();
+        if (d == null) {
+            // unsubscribed
+            return null;
+        }
+        t = d.queue.poll();
+        if (t != null) {
+            return t;
+        }
+        synchronized (lock) {
+            // the producer only offers to disk while holding the lock so this
+            // check is definitive
+            t = d.queue.poll();
+            if (t == null) {
+                // backlog has drained, reclaim the disk resources and go back
+                // to memory
+                dispose();
+                spilling = false;
+            }
+            return t;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (unsubscribed) {
+            return true;
+        }
+        boolean s = spilling;
+        if (!memory.isEmpty()) {
+            return false;
+        } else if (!s) {
+            return true;
+        } else {
+            Disk<T> d = disk.get();
+            return d == null || d.queue.isEmpty();
+        }
+    }
+
+    private void dispose() {
+        Disk<T> d = disk.getAndSet(null);
+        if (d != null) {
+            d.resources.unsubscribe();
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        unsubscribed = true;
+        // don't take the lock because the producer may be blocked in an offer
+        // to the disk queue. The memory queue is not cleared because only the
+        // consumer may poll it.
+        dispose();
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    private static final class Disk<T> {
+        final Subscriber<Object> resources;
+        final QueueWithSubscription<T> queue;
+
+        Disk(Func1<Subscriber<?>, QueueWithSubscription<T>> diskQueueFactory) {
+            this.resources = Subscribers.empty();
+            this.queue = diskQueueFactory.call(resources);
+            resources.add(queue);
+        }
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("hiding")
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(T e) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException();
+    }
+
+}
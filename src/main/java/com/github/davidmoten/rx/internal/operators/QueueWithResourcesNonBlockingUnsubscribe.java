@@ -17,7 +17,9 @@ final class QueueWithResourcesNonBlockingUnsubscribe<T> extends AbstractQueueWit
 
     // ensures queue.close() doesn't occur until outstanding peek(),offer(),
     // poll(), isEmpty() calls have finished. When currentCalls is zero a
-    // close request can be actioned.
+    // close request can be actioned. Calls increment currentCalls before
+    // checking unsubscribing so that close() cannot happen between the check
+    // and the call.
     private final AtomicInteger currentCalls = new AtomicInteger(0);
 
     private final AtomicBoolean unsubscribed;
@@ -30,54 +32,45 @@ final class QueueWithResourcesNonBlockingUnsubscribe<T> extends AbstractQueueWit
 
     @Override
     public T poll() {
+        currentCalls.incrementAndGet();
         try {
             if (unsubscribing) {
                 return null;
             } else {
-                try {
-                    currentCalls.incrementAndGet();
-                    return super.poll();
-                } finally {
-                    currentCalls.decrementAndGet();
-                }
+                return super.poll();
             }
         } finally {
+            currentCalls.decrementAndGet();
             checkUnsubscribe();
         }
     }
 
     @Override
     public boolean offer(T t) {
+        currentCalls.incrementAndGet();
         try {
             if (unsubscribing) {
                 return true;
             } else {
-                try {
-                    currentCalls.incrementAndGet();
-                    return super.offer(t);
-                } finally {
-                    currentCalls.decrementAndGet();
-                }
+                return super.offer(t);
             }
         } finally {
+            currentCalls.decrementAndGet();
             checkUnsubscribe();
         }
     }
 
     @Override
     public boolean isEmpty() {
+        currentCalls.incrementAndGet();
         try {
             if (unsubscribing) {
                 return true;
             } else {
-                try {
-                    currentCalls.incrementAndGet();
-                    return super.isEmpty();
-                } finally {
-                    currentCalls.decrementAndGet();
-                }
+                return super.isEmpty();
             }
         } finally {
+            currentCalls.decrementAndGet();
             checkUnsubscribe();
         }
    }
@@ -5,6 +5,9 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import com.github.davidmoten.rx.buffertofile.StorageCounters;
+import com.github.davidmoten.rx.buffertofile.StorageOverflowPolicy;
+import com.github.davidmoten.rx.exceptions.StorageSizeLimitExceededException;
 import com.github.davidmoten.util.Preconditions;
 
 import rx.functions.Func0;
@@ -27,6 +30,11 @@ import rx.plugins.RxJavaHooks;
  * sequential. Calls to {@code offer()}, {@code poll()}, {@code isEmpty()},
  * {@code peek()},{@code close()} may happen concurrently.
  * 
+ * <p>
+ * If {@code maxSizeBytes} is set then before each {@code offer()} the total
+ * {@code resourcesSize()} of the queues is compared with it and the
+ * {@link StorageOverflowPolicy} applied if it has been reached.
+ * 
  * @param <T>
  *            type of item being queued
  */
@@ -36,6 +44,9 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 	private final long maxSizeBytesPerQueue;
 	private final long maxItemsPerQueue;
 	private final Deque<QueueWithResources<T>> queues = new LinkedList<QueueWithResources<T>>();
+	private final long maxSizeBytes;
+	private final StorageOverflowPolicy overflowPolicy;
+	private final StorageCounters counters;
 
 	// counter used to determine when to rollover to another queue
 	// visibility managed by the fact that calls to offer are happens-before
@@ -45,10 +56,28 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 	// guarded by queues
 	private boolean unsubscribed;
 
+	// total resourcesSize() of the queues, guarded by queues
+	private long sizeBytes;
+
+	// set when blocked offers should give up, guarded by queues
+	private boolean released;
+
 	RollingSPSCQueue(Func0<QueueWithResources<T>> queueFactory, long maxSizeBytesPerQueue, long maxItemsPerQueue) {
+		this(queueFactory, maxSizeBytesPerQueue, maxItemsPerQueue, Long.MAX_VALUE, StorageOverflowPolicy.ERROR,
+				new StorageCounters());
+	}
+
+	RollingSPSCQueue(Func0<QueueWithResources<T>> queueFactory, long maxSizeBytesPerQueue, long maxItemsPerQueue,
+			long maxSizeBytes, StorageOverflowPolicy overflowPolicy, StorageCounters counters) {
 		Preconditions.checkNotNull(queueFactory);
 		Preconditions.checkArgument(maxSizeBytesPerQueue > 0, "maxSizeBytesPerQueue must be greater than zero");
 		Preconditions.checkArgument(maxItemsPerQueue > 1, "maxSizeBytesPerQueue must be greater than one");
+		Preconditions.checkArgument(maxSizeBytes > 0, "maxSizeBytes must be greater than zero");
+		Preconditions.checkNotNull(overflowPolicy);
+		Preconditions.checkNotNull(counters);
+		this.maxSizeBytes = maxSizeBytes;
+		this.overflowPolicy = overflowPolicy;
+		this.counters = counters;
 		this.count = 0;
 		this.maxSizeBytesPerQueue = maxSizeBytesPerQueue;
 		this.unsubscribed = false;
@@ -68,7 +97,11 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 					for (QueueWithResources<T> q : queues) {
 						q.unsubscribe();
 					}
+					counters.addSegments(-queues.size());
+					addBytes(-sizeBytes);
 					queues.clear();
+					// wake blocked offers
+					queues.notifyAll();
 				} catch (RuntimeException e) {
 					RxJavaHooks.onError(e);
 					throw e;
@@ -96,6 +129,10 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 		if (unsubscribed) {
 			return true;
 		}
+		if (maxSizeBytes != Long.MAX_VALUE && !checkStorageLimit()) {
+			// item discarded
+			return true;
+		}
 		count++;
 		if (createAnotherQueue()) {
 			count = 1;
@@ -107,7 +144,8 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 						last.freeResources();
 					}
 					queues.offerLast(q);
-					return q.offer(t);
+					counters.addSegments(1);
+					return offer(q, t);
 				} else {
 					return true;
 				}
@@ -117,8 +155,81 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 				if (unsubscribed) {
 					return true;
 				}
-				return queues.peekLast().offer(t);
+				return offer(queues.peekLast(), t);
+			}
+		}
+	}
+
+	// must hold queues lock
+	private boolean offer(QueueWithResources<T> q, T t) {
+		long size = q.resourcesSize();
+		boolean result = q.offer(t);
+		addBytes(q.resourcesSize() - size);
+		return result;
+	}
+
+	// returns false if the item should be discarded
+	private boolean checkStorageLimit() {
+		synchronized (queues) {
+			while (!unsubscribed && !released && sizeBytes >= maxSizeBytes) {
+				if (overflowPolicy == StorageOverflowPolicy.ERROR) {
+					throw new StorageSizeLimitExceededException(
+							"storage size limit of " + maxSizeBytes + " bytes reached");
+				} else if (overflowPolicy == StorageOverflowPolicy.DROP_LATEST) {
+					counters.addDroppedItems(1);
+					return false;
+				} else if (overflowPolicy == StorageOverflowPolicy.DROP_OLDEST) {
+					removeFirst(true);
+				} else if (queues.peekFirst().isEmpty()) {
+					// BLOCK but the oldest queue has been read so can delete
+					// it (even if it is the one being written to)
+					removeFirst(false);
+				} else {
+					try {
+						queues.wait();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
 			}
+			if (queues.isEmpty()) {
+				// every queue was deleted so ensure a new one is created
+				count = 0;
+			}
+			return !released;
+		}
+	}
+
+	/**
+	 * Makes blocked (and later) calls to {@code offer()} discard their items
+	 * and return. Used when the consumer is cancelled because
+	 * {@code unsubscribe()} is deferred by
+	 * {@link QueueWithResourcesNonBlockingUnsubscribe} until the blocked
+	 * {@code offer()} returns.
+	 */
+	void releaseBlockedOffers() {
+		synchronized (queues) {
+			released = true;
+			queues.notifyAll();
+		}
+	}
+
+	// must hold queues lock
+	private void removeFirst(boolean dropped) {
+		QueueWithResources<T> q = queues.pollFirst();
+		if (dropped && !q.isEmpty()) {
+			counters.addDroppedSegments(1);
+		}
+		counters.addSegments(-1);
+		addBytes(-q.resourcesSize());
+		q.unsubscribe();
+	}
+
+	// must hold queues lock
+	private void addBytes(long n) {
+		if (n != 0) {
+			sizeBytes += n;
+			counters.addBytes(n);
 		}
 	}
 
@@ -159,19 +270,30 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 				T value = first.poll();
 				if (value == null) {
 					if (first == queues.peekLast()) {
+						notifyBlockedOffer();
 						return null;
 					} else {
-						QueueWithResources<T> removed = queues.pollFirst();
-						if (removed != null)
-							removed.unsubscribe();
+						removeFirst(false);
+						notifyBlockedOffer();
 					}
 				} else {
+					if (overflowPolicy == StorageOverflowPolicy.BLOCK && first.isEmpty()) {
+						// a blocked offer can delete first now
+						queues.notifyAll();
+					}
 					return value;
 				}
 			}
 		}
 	}
 
+	// must hold queues lock
+	private void notifyBlockedOffer() {
+		if (overflowPolicy == StorageOverflowPolicy.BLOCK) {
+			queues.notifyAll();
+		}
+	}
+
 	@Override
 	public boolean isEmpty() {
 		// thread-safe (will just return true if queue has been closed)
@@ -274,7 +396,9 @@ class RollingSPSCQueue<T> implements QueueWithResources<T> {
 
 	@Override
 	public long resourcesSize() {
-		throw new UnsupportedOperationException();
+		synchronized (queues) {
+			return sizeBytes;
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+package com.github.davidmoten.rx.internal.operators;
+
+/**
+ * <p>
+ * The values of a sliding window held in a primitive circular buffer together
+ * with aggregates that are updated as values enter and leave the window.
+ *
+ * <p>
+ * The sum uses compensated (Neumaier) summation and the mean and variance
+ * use Welford's method extended to removals. Both are O(1) per value. To stop
+ * rounding errors building up over a long stream they are recalculated from
+ * the buffer after every {@code max(size, 1024)} removals which is O(1)
+ * amortized.
+ *
+ * <p>
+ * If percentiles are required the window is also split into two indexed
+ * binary heaps of buffer positions: a max heap holding the smallest
+ * {@code ceil(p * size)} values and a min heap holding the rest. The
+ * percentile (nearest rank) is then the top of the max heap. Adding or
+ * removing a value is O(log n).
+ *
+ * <p>
+ * Buffers grow by doubling up to {@code maxSize} so no allocation happens per
+ * value once the window has reached its largest size. Not thread-safe.
+ */
+final class RollingWindow {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MIN_RECALCULATE_INTERVAL = 1024;
+
+    private final int maxSize;
+    // fraction in [0, 1] or negative if percentiles are not required
+    private final double percentile;
+
+    private double[] values;
+    // null if times are not required
+    private long[] times;
+    private int head;
+    private int size;
+
+    private double sum;
+    private double sumCompensation;
+    private double mean;
+    private double m2;
+    private long removals;
+
+    // max heap of positions in the buffer
+    private int[] low;
+    private int lowSize;
+    // min heap of positions in the buffer
+    private int[] high;
+    private int highSize;
+    // index in its heap of the value at each position in the buffer
+    private int[] heapIndex;
+    // true if the value at each position in the buffer is in low
+    private boolean[] inLow;
+
+    RollingWindow(int maxSize, boolean withTimes, double percentile) {
+        this.maxSize = maxSize;
+        this.percentile = percentile;
+        int capacity = Math.min(maxSize, INITIAL_CAPACITY);
+        this.values = new double[capacity];
+        if (withTimes) {
+            this.times = new long[capacity];
+        }
+        if (percentile >= 0) {
+            this.low = new int[capacity];
+            this.high = new int[capacity];
+            this.heapIndex = new int[capacity];
+            this.inLow = new boolean[capacity];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long oldestTime() {
+        return times[head];
+    }
+
+    void add(double x, long time) {
+        if (size == values.length) {
+            grow();
+        }
+        int p = position(size);
+        values[p] = x;
+        if (times != null) {
+            times[p] = time;
+        }
+        size++;
+        addToSum(x);
+        double d = x - mean;
+        mean += d / size;
+        m2 += d * (x - mean);
+        if (low != null) {
+            if (lowSize > 0 && x > values[low[0]]) {
+                push(false, p);
+            } else {
+                push(true, p);
+            }
+            rebalance();
+        }
+    }
+
+    void removeOldest() {
+        int p = head;
+        double y = values[p];
+        if (low != null) {
+            removeAt(inLow[p], heapIndex[p]);
+        }
+        head = next(head);
+        size--;
+        if (size == 0) {
+            sum = 0;
+            sumCompensation = 0;
+            mean = 0;
+            m2 = 0;
+        } else {
+            addToSum(-y);
+            double previousMean = mean;
+            mean -= (y - previousMean) / size;
+            m2 -= (y - previousMean) * (y - mean);
+            if (m2 < 0) {
+                m2 = 0;
+            }
+        }
+        if (low != null) {
+            rebalance();
+        }
+        removals++;
+        if (removals >= Math.max(size, MIN_RECALCULATE_INTERVAL)) {
+            recalculate();
+        }
+    }
+
+    double sum() {
+        return sum + sumCompensation;
+    }
+
+    double mean() {
+        return size == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Returns the population variance of the values in the window.
+     */
+    double variance() {
+        return size == 0 ? Double.NaN : m2 / size;
+    }
+
+    /**
+     * Returns the nearest rank percentile of the values in the window.
+     */
+    double percentile() {
+        return lowSize == 0 ? Double.NaN : values[low[0]];
+    }
+
+    private void addToSum(double x) {
+        double t = sum + x;
+        if (Math.abs(sum) >= Math.abs(x)) {
+            sumCompensation += (sum - t) + x;
+        } else {
+            sumCompensation += (x - t) + sum;
+        }
+        sum = t;
+    }
+
+    private void recalculate() {
+        removals = 0;
+        sum = 0;
+        sumCompensation = 0;
+        mean = 0;
+        m2 = 0;
+        for (int i = 0; i < size; i++) {
+            double x = values[position(i)];
+            addToSum(x);
+            double d = x - mean;
+            mean += d / (i + 1);
+            m2 += d * (x - mean);
+        }
+    }
+
+    private int position(int offset) {
+        int i = head + offset;
+        return i >= values.length ? i - values.length : i;
+    }
+
+    private int next(int i) {
+        return i + 1 == values.length ? 0 : i + 1;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(maxSize, 2L * values.length);
+        double[] newValues = new double[capacity];
+        long[] newTimes = times == null ? null : new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int p = position(i);
+            newValues[i] = values[p];
+            if (times != null) {
+                newTimes[i] = times[p];
+            }
+        }
+        if (low != null) {
+            // the value at position p moves to position p - head (mod length)
+            int length = values.length;
+            int[] newLow = new int[capacity];
+            int[] newHigh = new int[capacity];
+            int[] newHeapIndex = new int[capacity];
+            boolean[] newInLow = new boolean[capacity];
+            for (int i = 0; i < lowSize; i++) {
+                int p = low[i] - head;
+                newLow[i] = p < 0 ? p + length : p;
+                newHeapIndex[newLow[i]] = i;
+                newInLow[newLow[i]] = true;
+            }
+            for (int i = 0; i < highSize; i++) {
+                int p = high[i] - head;
+                newHigh[i] = p < 0 ? p + length : p;
+                newHeapIndex[newHigh[i]] = i;
+            }
+            low = newLow;
+            high = newHigh;
+            heapIndex = newHeapIndex;
+            inLow = newInLow;
+        }
+        values = newValues;
+        times = newTimes;
+        head = 0;
+    }
+
+    // heaps
+
+    private void rebalance() {
+        int target = (int) Math.ceil(percentile * size);
+        if (target < 1 && size > 0) {
+            target = 1;
+        }
+        while (lowSize > target) {
+            int p = low[0];
+            removeAt(true, 0);
+            push(false, p);
+        }
+        while (lowSize < target) {
+            int p = high[0];
+            removeAt(false, 0);
+            push(true, p);
+        }
+    }
+
+    private void push(boolean isLow, int p) {
+        int i;
+        if (isLow) {
+            i = lowSize++;
+            low[i] = p;
+        } else {
+            i = highSize++;
+            high[i] = p;
+        }
+        inLow[p] = isLow;
+        heapIndex[p] = i;
+        siftUp(isLow, i);
+    }
+
+    private void removeAt(boolean isLow, int i) {
+        int[] heap = isLow ? low : high;
+        int last = isLow ? --lowSize : --highSize;
+        if (i != last) {
+            set(heap, i, heap[last]);
+            siftDown(isLow, i);
+            siftUp(isLow, i);
+        }
+    }
+
+    // returns true if the value at position a belongs above the value at
+    // position b in the heap
+    private boolean above(boolean isLow, int a, int b) {
+        return isLow ? values[a] > values[b] : values[a] < values[b];
+    }
+
+    private void siftUp(boolean isLow, int i) {
+        int[] heap = isLow ? low : high;
+        int p = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (above(isLow, p, heap[parent])) {
+                set(heap, i, heap[parent]);
+                i = parent;
+            } else {
+                break;
+            }
+        }
+        set(heap, i, p);
+    }
+
+    private void siftDown(boolean isLow, int i) {
+        int[] heap = isLow ? low : high;
+        int n = isLow ? lowSize : highSize;
+        int p = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && above(isLow, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (above(isLow, heap[child], p)) {
+                set(heap, i, heap[child]);
+                i = child;
+            } else {
+                break;
+            }
+        }
+        set(heap, i, p);
+    }
+
+    private void set(int[] heap, int i, int p) {
+        heap[i] = p;
+        heapIndex[p] = i;
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import rx.Subscriber;
+
+/**
+ * <p>
+ * Splits a stream of strings by a delimiter pattern. Incoming strings are
+ * appended to a reusable buffer and scanned in place: parts are emitted as
+ * substrings of the buffer and the unterminated tail stays where it is (the
+ * consumed prefix of the buffer is only discarded once it is at least as long
+ * as the tail so each character is moved at most a constant number of times).
+ *
+ * <p>
+ * Delimiters that are literal strings (no regular expression metacharacters
+ * or compiled with {@link Pattern#LITERAL}) are found with a plain character
+ * scan that resumes where the previous scan stopped. Other patterns use a
+ * single {@link Matcher} over the buffer. The parts emitted are the same as
+ * those of {@link Pattern#split(CharSequence, int)} with a negative limit
+ * applied to the concatenation of the strings.
+ *
+ * <p>
+ * Not thread-safe. One instance is used per subscription.
+ */
+final class StringSplitter {
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    // non-null if the delimiter is a literal
+    private final String literal;
+
+    // non-null if the delimiter is a regular expression
+    private final Matcher matcher;
+
+    // start of the part not yet emitted
+    private int start;
+
+    // position to resume scanning for a literal delimiter
+    private int searchFrom;
+
+    private boolean received;
+
+    StringSplitter(String pattern, Pattern compiledPattern) {
+        String literal = literal(pattern, compiledPattern);
+        if (literal != null && literal.length() > 0) {
+            this.literal = literal;
+            this.matcher = null;
+        } else {
+            this.literal = null;
+            Pattern p = compiledPattern != null ? compiledPattern : Pattern.compile(pattern);
+            this.matcher = p.matcher(buffer);
+        }
+    }
+
+    private static String literal(String pattern, Pattern compiledPattern) {
+        if (compiledPattern != null) {
+            if (compiledPattern.flags() == Pattern.LITERAL) {
+                // other flags (CASE_INSENSITIVE for example) change what a
+                // literal matches so are left to the matcher
+                return compiledPattern.pattern();
+            } else if (compiledPattern.flags() == 0) {
+                pattern = compiledPattern.pattern();
+            } else {
+                return null;
+            }
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (METACHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Appends {@code s} and emits the parts it terminates. Returns false if
+     * the observer unsubscribed while emitting.
+     */
+    boolean onNext(String s, Subscriber<String> observer) {
+        received = true;
+        buffer.append(s);
+        boolean result;
+        if (literal != null) {
+            result = splitLiteral(observer);
+        } else {
+            result = splitPattern(observer);
+        }
+        compact();
+        return result;
+    }
+
+    /**
+     * Emits the last part (which may be empty) if any string was received.
+     */
+    void onCompleted(Subscriber<String> observer) {
+        if (received && !observer.isUnsubscribed()) {
+            observer.onNext(buffer.substring(start));
+        }
+        buffer.setLength(0);
+        start = 0;
+    }
+
+    private boolean splitLiteral(Subscriber<String> observer) {
+        int length = literal.length();
+        while (true) {
+            int i = indexOfLiteral(searchFrom);
+            if (i < 0) {
+                // a delimiter may straddle the end of the buffer
+                searchFrom = Math.max(start, buffer.length() - length + 1);
+                return true;
+            }
+            if (observer.isUnsubscribed()) {
+                return false;
+            }
+            observer.onNext(buffer.substring(start, i));
+            start = i + length;
+            searchFrom = start;
+        }
+    }
+
+    private int indexOfLiteral(int from) {
+        if (literal.length() == 1) {
+            char c = literal.charAt(0);
+            int n = buffer.length();
+            for (int i = from; i < n; i++) {
+                if (buffer.charAt(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        } else {
+            return buffer.indexOf(literal, from);
+        }
+    }
+
+    private boolean splitPattern(Subscriber<String> observer) {
+        // the buffer has changed so reset before setting the region to the
+        // unterminated part (which is matched as if it were the whole input)
+        matcher.reset();
+        matcher.region(start, buffer.length());
+        int index = start;
+        while (matcher.find()) {
+            int matchStart = matcher.start();
+            int matchEnd = matcher.end();
+            if (index == start && matchStart == start && matchEnd == matchStart) {
+                // as for Pattern.split a zero-width match at the beginning
+                // does not produce an empty leading part
+                continue;
+            }
+            if (observer.isUnsubscribed()) {
+                return false;
+            }
+            observer.onNext(buffer.substring(index, matchStart));
+            index = matchEnd;
+        }
+        start = index;
+        return true;
+    }
+
+    private void compact() {
+        if (start == buffer.length()) {
+            buffer.setLength(0);
+            searchFrom = 0;
+            start = 0;
+        } else if (start > 0 && start >= buffer.length() - start) {
+            buffer.delete(0, start);
+            searchFrom -= start;
+            start = 0;
+        }
+    }
+
+}
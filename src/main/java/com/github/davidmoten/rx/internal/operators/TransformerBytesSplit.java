@@ -0,0 +1,106 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.github.davidmoten.rx.Transformers;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Observable.Transformer;
+import rx.Subscriber;
+import rx.functions.Func0;
+import rx.functions.Func2;
+import rx.functions.Func3;
+
+public final class TransformerBytesSplit {
+
+    private TransformerBytesSplit() {
+        // prevent instantiation
+    }
+
+    public static Transformer<byte[], byte[]> split(final byte delimiter) {
+        Func0<ByteSplitter<byte[]>> initialState = new Func0<ByteSplitter<byte[]>>() {
+
+            @Override
+            public ByteSplitter<byte[]> call() {
+                return new ByteSplitter<byte[]>(delimiter, true) {
+
+                    @Override
+                    byte[] part(byte[] bytes, int offset, int length) {
+                        return Arrays.copyOfRange(bytes, offset, offset + length);
+                    }
+                };
+            }
+        };
+        return split(initialState);
+    }
+
+    public static Transformer<byte[], String> splitLines(final Charset charset) {
+        Preconditions.checkNotNull(charset, "charset cannot be null");
+        Preconditions.checkArgument(isLineSplittable(charset),
+                "charset must encode '\\n' as a single byte that cannot occur within the encoding of another character");
+        Func0<ByteSplitter<String>> initialState = new Func0<ByteSplitter<String>>() {
+
+            @Override
+            public ByteSplitter<String> call() {
+                return new ByteSplitter<String>((byte) '\n', false) {
+
+                    @Override
+                    String part(byte[] bytes, int offset, int length) {
+                        if (length > 0 && bytes[offset + length - 1] == '\r') {
+                            length--;
+                        }
+                        return new String(bytes, offset, length, charset);
+                    }
+                };
+            }
+        };
+        return split(initialState);
+    }
+
+    /**
+     * Returns true if the lines of text encoded with {@code charset} can be
+     * found by looking for the byte {@code '\n'} and decoded independently.
+     * That is true of UTF-8 and of stateless single byte charsets that are
+     * supersets of ASCII.
+     *
+     * @param charset
+     *            charset
+     * @return true if lines can be split before decoding
+     */
+    public static boolean isLineSplittable(Charset charset) {
+        byte[] newline = "\n".getBytes(charset);
+        if (newline.length != 1 || newline[0] != '\n') {
+            return false;
+        }
+        // in UTF-8 the bytes of multibyte characters are all >= 0x80
+        return charset.name().equals("UTF-8") || charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    private static <T> Transformer<byte[], T> split(Func0<ByteSplitter<T>> initialState) {
+        Func3<ByteSplitter<T>, byte[], Subscriber<T>, ByteSplitter<T>> transition = new Func3<ByteSplitter<T>, byte[], Subscriber<T>, ByteSplitter<T>>() {
+
+            @Override
+            public ByteSplitter<T> call(ByteSplitter<T> splitter, byte[] bytes, Subscriber<T> observer) {
+                if (!splitter.onNext(bytes, observer)) {
+                    // won't be used so can return null
+                    return null;
+                }
+                return splitter;
+            }
+        };
+        Func2<ByteSplitter<T>, Subscriber<T>, Boolean> completion = new Func2<ByteSplitter<T>, Subscriber<T>, Boolean>() {
+
+            @Override
+            public Boolean call(ByteSplitter<T> splitter, Subscriber<T> observer) {
+                if (splitter != null)
+                    splitter.onCompleted(observer);
+                if (!observer.isUnsubscribed())
+                    observer.onCompleted();
+                return true;
+            }
+        };
+        return Transformers.stateMachine(initialState, transition, completion);
+    }
+
+}
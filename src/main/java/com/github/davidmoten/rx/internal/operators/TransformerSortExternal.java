@@ -0,0 +1,422 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.util.RxRingBuffer;
+import com.github.davidmoten.util.Preconditions;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.Observer;
+import rx.Scheduler;
+import rx.exceptions.Exceptions;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Sorts a stream that may not fit in memory. The source is split into runs of
+ * at most {@code maxItemsPerRun} items, each run is sorted on
+ * {@code scheduler} (up to {@code maxConcurrentSorts} at once) and written to
+ * a file using a {@link DataSerializer}. The sorted runs are then combined
+ * with {@link OrderedMerge}. The last run, if it is not full, is kept in
+ * memory. Runs are merged in source order and {@link OrderedMerge} breaks ties
+ * by source order so the sort is stable.
+ *
+ * <p>
+ * At most {@link #MAX_FAN_IN} runs are merged at once so that the number of
+ * open files and read buffers stays bounded. If there are more runs then
+ * consecutive groups of runs are merged to intermediate run files, in passes,
+ * until few enough runs remain.
+ */
+public final class TransformerSortExternal {
+
+    static final int MAX_FAN_IN = 64;
+
+    private TransformerSortExternal() {
+        // prevent instantiation
+    }
+
+    public static <T> Transformer<T, T> create(final DataSerializer<T> serializer,
+            final Comparator<? super T> comparator, final int maxItemsPerRun,
+            final Func0<File> fileFactory, final Scheduler scheduler,
+            final int maxConcurrentSorts) {
+        return create(serializer, comparator, maxItemsPerRun, fileFactory, scheduler,
+                maxConcurrentSorts, MAX_FAN_IN);
+    }
+
+    // Visible for testing
+    static <T> Transformer<T, T> create(final DataSerializer<T> serializer,
+            final Comparator<? super T> comparator, final int maxItemsPerRun,
+            final Func0<File> fileFactory, final Scheduler scheduler,
+            final int maxConcurrentSorts, final int maxFanIn) {
+        Preconditions.checkNotNull(serializer);
+        Preconditions.checkNotNull(comparator);
+        Preconditions.checkArgument(maxItemsPerRun > 0, "maxItemsPerRun must be greater than zero");
+        Preconditions.checkNotNull(fileFactory);
+        Preconditions.checkNotNull(scheduler);
+        Preconditions.checkArgument(maxConcurrentSorts > 0,
+                "maxConcurrentSorts must be greater than zero");
+        Preconditions.checkArgument(maxFanIn > 1, "maxFanIn must be greater than one");
+        return new Transformer<T, T>() {
+            @Override
+            public Observable<T> call(final Observable<T> source) {
+                return Observable.using( //
+                        new Func0<RunFiles>() {
+                            @Override
+                            public RunFiles call() {
+                                return new RunFiles(fileFactory);
+                            }
+                        }, //
+                        new Func1<RunFiles, Observable<T>>() {
+                            @Override
+                            public Observable<T> call(RunFiles files) {
+                                return sort(source, serializer, comparator, maxItemsPerRun,
+                                        files, scheduler, maxConcurrentSorts, maxFanIn);
+                            }
+                        }, //
+                        // delete the files before the terminal event is
+                        // emitted
+                        new Action1<RunFiles>() {
+                            @Override
+                            public void call(RunFiles files) {
+                                files.deleteAll();
+                            }
+                        }, true);
+            }
+        };
+    }
+
+    private static <T> Observable<T> sort(Observable<T> source, final DataSerializer<T> serializer,
+            final Comparator<? super T> comparator, final int maxItemsPerRun,
+            final RunFiles files, final Scheduler scheduler, final int maxConcurrentSorts,
+            final int maxFanIn) {
+        return source //
+                .buffer(maxItemsPerRun) //
+                // sort runs concurrently but keep them in source order for
+                // stability
+                .concatMapEager(new Func1<List<T>, Observable<Run<T>>>() {
+                    @Override
+                    public Observable<Run<T>> call(final List<T> list) {
+                        return Observable.defer(new Func0<Observable<Run<T>>>() {
+                            @Override
+                            public Observable<Run<T>> call() {
+                                Collections.sort(list, comparator);
+                                if (list.size() < maxItemsPerRun) {
+                                    // must be the last run so keep in memory
+                                    return Observable.just(new Run<T>(list, null, list.size()));
+                                }
+                                File file = files.create();
+                                if (file == null) {
+                                    // unsubscribed while sorting
+                                    return Observable.empty();
+                                }
+                                try {
+                                    write(list, file, serializer);
+                                } catch (IOException e) {
+                                    return Observable.error(e);
+                                }
+                                if (files.isDeleted()) {
+                                    // cancelled while writing
+                                    file.delete();
+                                }
+                                return Observable.just(new Run<T>(null, file, list.size()));
+                            }
+                        }).subscribeOn(scheduler);
+                    }
+                }, maxConcurrentSorts, maxConcurrentSorts) //
+                .toList() //
+                .concatMap(new Func1<List<Run<T>>, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(List<Run<T>> runs) {
+                        return merge(runs, serializer, comparator, files, scheduler,
+                                maxConcurrentSorts, maxFanIn);
+                    }
+                });
+    }
+
+    private static <T> Observable<T> merge(List<Run<T>> runs, final DataSerializer<T> serializer,
+            final Comparator<? super T> comparator, final RunFiles files,
+            final Scheduler scheduler, final int maxConcurrentSorts, final int maxFanIn) {
+        if (runs.size() <= maxFanIn) {
+            return mergeRuns(runs, serializer, comparator, files);
+        }
+        // merge consecutive groups (to keep the sort stable) to intermediate
+        // run files and then merge those
+        List<List<Run<T>>> groups = new ArrayList<List<Run<T>>>();
+        for (int i = 0; i < runs.size(); i += maxFanIn) {
+            groups.add(runs.subList(i, Math.min(runs.size(), i + maxFanIn)));
+        }
+        return Observable.from(groups) //
+                .concatMapEager(new Func1<List<Run<T>>, Observable<Run<T>>>() {
+                    @Override
+                    public Observable<Run<T>> call(List<Run<T>> group) {
+                        if (group.size() == 1) {
+                            return Observable.just(group.get(0));
+                        } else {
+                            return mergeToFile(group, serializer, comparator, files)
+                                    .subscribeOn(scheduler);
+                        }
+                    }
+                }, maxConcurrentSorts, maxConcurrentSorts) //
+                .toList() //
+                .concatMap(new Func1<List<Run<T>>, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(List<Run<T>> next) {
+                        return merge(next, serializer, comparator, files, scheduler,
+                                maxConcurrentSorts, maxFanIn);
+                    }
+                });
+    }
+
+    private static <T> Observable<T> mergeRuns(List<Run<T>> runs,
+            DataSerializer<T> serializer, Comparator<? super T> comparator, RunFiles files) {
+        if (runs.isEmpty()) {
+            return Observable.empty();
+        } else if (runs.size() == 1) {
+            return runs.get(0).read(serializer, files);
+        } else {
+            List<Observable<T>> sources = new ArrayList<Observable<T>>(runs.size());
+            for (Run<T> run : runs) {
+                sources.add(run.read(serializer, files));
+            }
+            return OrderedMerge.create(sources, comparator, false, RxRingBuffer.SIZE);
+        }
+    }
+
+    private static <T> Observable<Run<T>> mergeToFile(final List<Run<T>> group,
+            final DataSerializer<T> serializer, final Comparator<? super T> comparator,
+            final RunFiles files) {
+        return Observable.defer(new Func0<Observable<Run<T>>>() {
+            @Override
+            public Observable<Run<T>> call() {
+                final File file = files.create();
+                if (file == null) {
+                    // unsubscribed while merging earlier groups
+                    return Observable.empty();
+                }
+                return Observable.using( //
+                        new Func0<DataOutputStream>() {
+                            @Override
+                            public DataOutputStream call() {
+                                try {
+                                    return new DataOutputStream(new BufferedOutputStream(
+                                            new FileOutputStream(file), 65536));
+                                } catch (IOException e) {
+                                    throw Exceptions.propagate(e);
+                                }
+                            }
+                        }, //
+                        new Func1<DataOutputStream, Observable<Run<T>>>() {
+                            @Override
+                            public Observable<Run<T>> call(final DataOutputStream out) {
+                                return mergeRuns(group, serializer, comparator, files) //
+                                        .doOnNext(new Action1<T>() {
+                                            @Override
+                                            public void call(T t) {
+                                                try {
+                                                    serializer.serialize(out, t);
+                                                } catch (IOException e) {
+                                                    throw Exceptions.propagate(e);
+                                                }
+                                            }
+                                        }) //
+                                        .countLong() //
+                                        .map(new Func1<Long, Run<T>>() {
+                                            @Override
+                                            public Run<T> call(Long count) {
+                                                try {
+                                                    out.close();
+                                                } catch (IOException e) {
+                                                    throw Exceptions.propagate(e);
+                                                }
+                                                if (files.isDeleted()) {
+                                                    // cancelled while writing
+                                                    file.delete();
+                                                }
+                                                return new Run<T>(null, file, count);
+                                            }
+                                        });
+                            }
+                        }, //
+                        new Action1<DataOutputStream>() {
+                            @Override
+                            public void call(DataOutputStream out) {
+                                try {
+                                    out.close();
+                                } catch (IOException e) {
+                                    // ignore
+                                }
+                            }
+                        }, true);
+            }
+        });
+    }
+
+    private static <T> void write(List<T> list, File file, DataSerializer<T> serializer)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            for (T t : list) {
+                serializer.serialize(out, t);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class Run<T> {
+        // exactly one of list and file is non-null
+        final List<T> list;
+        final File file;
+        final long count;
+
+        Run(List<T> list, File file, long count) {
+            this.list = list;
+            this.file = file;
+            this.count = count;
+        }
+
+        Observable<T> read(final DataSerializer<T> serializer, final RunFiles files) {
+            if (list != null) {
+                return Observable.from(list);
+            }
+            return Observable.create(SyncOnSubscribe.createStateful( //
+                    new Func0<Reader>() {
+                        @Override
+                        public Reader call() {
+                            try {
+                                return new Reader(new DataInputStream(new BufferedInputStream(
+                                        new FileInputStream(file), 65536)));
+                            } catch (IOException e) {
+                                throw Exceptions.propagate(e);
+                            }
+                        }
+                    }, //
+                    new Func2<Reader, Observer<? super T>, Reader>() {
+                        @Override
+                        public Reader call(Reader reader, Observer<? super T> observer) {
+                            if (reader.count == count) {
+                                observer.onCompleted();
+                            } else {
+                                try {
+                                    T t = serializer.deserialize(reader.in);
+                                    reader.count++;
+                                    observer.onNext(t);
+                                } catch (IOException e) {
+                                    observer.onError(e);
+                                }
+                            }
+                            return reader;
+                        }
+                    }, //
+                    new Action1<Reader>() {
+                        @Override
+                        public void call(Reader reader) {
+                            try {
+                                reader.in.close();
+                            } catch (IOException e) {
+                                // ignore
+                            }
+                            files.delete(file);
+                        }
+                    }));
+        }
+    }
+
+    private static final class Reader {
+        final DataInputStream in;
+        long count;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+    }
+
+    /**
+     * Tracks the run files of one subscription so that they are deleted on
+     * termination or unsubscription even if they were never read.
+     */
+    private static final class RunFiles {
+
+        private final Func0<File> fileFactory;
+
+        // guarded by this
+        private final List<File> files = new ArrayList<File>();
+        private boolean deleted;
+
+        RunFiles(Func0<File> fileFactory) {
+            this.fileFactory = fileFactory;
+        }
+
+        /**
+         * Returns a new run file or null if the files have already been deleted
+         * (the sort was cancelled).
+         */
+        File create() {
+            File file = fileFactory.call();
+            synchronized (this) {
+                if (!deleted) {
+                    files.add(file);
+                    return file;
+                }
+            }
+            file.delete();
+            return null;
+        }
+
+        synchronized boolean isDeleted() {
+            return deleted;
+        }
+
+        void delete(File file) {
+            // delete before untracking so that deleteAll can't miss it
+            file.delete();
+            synchronized (this) {
+                files.remove(file);
+            }
+        }
+
+        void deleteAll() {
+            List<File> list;
+            synchronized (this) {
+                deleted = true;
+                list = new ArrayList<File>(files);
+                files.clear();
+            }
+            for (File file : list) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Default factory for run files which creates temporary files.
+     */
+    public static final Func0<File> DEFAULT_FILE_FACTORY = new Func0<File>() {
+        @Override
+        public File call() {
+            try {
+                return File.createTempFile("sortRun", "");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+}
@@ -14,45 +14,36 @@ import rx.functions.Func3;
 public final class TransformerStringSplit {
 
     public static <T> Transformer<String, String> split(final String pattern, final Pattern compiledPattern) {
-        Func0<String> initialState = Functions.constant0(null);
-        Func3<String, String, Subscriber<String>, String> transition = new Func3<String, String, Subscriber<String>, String>() {
+        Preconditions.checkArgument(pattern != null ^ compiledPattern != null, "exactly one of pattern and compiledPattern can be set");
+        // fail fast on an invalid pattern
+        new StringSplitter(pattern, compiledPattern);
+        Func0<StringSplitter> initialState = new Func0<StringSplitter>() {
 
             @Override
-            public String call(String leftOver, String s, Subscriber<String> observer) {
-                // prepend leftover to the string before splitting
-                if (leftOver != null) {
-                    s = leftOver + s;
-                }
-                
-                String[] parts;
-                if (compiledPattern != null) {
-                    parts = compiledPattern.split(s, -1);
-                } else {
-                    parts = s.split(pattern, -1);
-                }
-                
-                // can emit all parts except the last part because it hasn't
-                // been terminated by the pattern/end-of-stream yet
-                for (int i = 0; i < parts.length - 1; i++) {
-                    if (observer.isUnsubscribed()) {
-                        // won't be used so can return null
-                        return null;
-                    }
-                    observer.onNext(parts[i]);
+            public StringSplitter call() {
+                return new StringSplitter(pattern, compiledPattern);
+            }
+        };
+        Func3<StringSplitter, String, Subscriber<String>, StringSplitter> transition = new Func3<StringSplitter, String, Subscriber<String>, StringSplitter>() {
+
+            @Override
+            public StringSplitter call(StringSplitter splitter, String s, Subscriber<String> observer) {
+                // the splitter scans s in place after the unterminated part
+                // of earlier strings and emits the parts that s terminates
+                if (!splitter.onNext(s, observer)) {
+                    // won't be used so can return null
+                    return null;
                 }
-                
-                // we have to assign the last part as leftOver because we
-                // don't know if it has been terminated yet
-                return parts[parts.length - 1];
+                return splitter;
             }
         };
 
-        Func2<String, Subscriber<String>, Boolean> completion = new Func2<String, Subscriber<String>, Boolean>() {
+        Func2<StringSplitter, Subscriber<String>, Boolean> completion = new Func2<StringSplitter, Subscriber<String>, Boolean>() {
 
             @Override
-            public Boolean call(String leftOver, Subscriber<String> observer) {
-                if (leftOver != null && !observer.isUnsubscribed())
-                    observer.onNext(leftOver);
+            public Boolean call(StringSplitter splitter, Subscriber<String> observer) {
+                if (splitter != null)
+                    splitter.onCompleted(observer);
                 if (!observer.isUnsubscribed())
                     observer.onCompleted();
                 return true;
@@ -0,0 +1,76 @@
+package com.github.davidmoten.rx.util;
+
+/**
+ * Live metrics of an adaptive {@code Obs.matchAdaptive} subscription. Pass a
+ * new instance to the operator and read it from any thread. Values are
+ * published after each batch of work done by the operator.
+ */
+public final class MatchMetrics {
+
+    private volatile long backlogA;
+    private volatile long backlogB;
+    private volatile long requestedA;
+    private volatile long requestedB;
+
+    /**
+     * Returns the number of items from the first source waiting for a match.
+     *
+     * @return unmatched items from the first source
+     */
+    public long backlogA() {
+        return backlogA;
+    }
+
+    /**
+     * Returns the number of items from the second source waiting for a match.
+     *
+     * @return unmatched items from the second source
+     */
+    public long backlogB() {
+        return backlogB;
+    }
+
+    /**
+     * Returns the total number of items requested from the first source.
+     *
+     * @return items requested from the first source
+     */
+    public long requestedA() {
+        return requestedA;
+    }
+
+    /**
+     * Returns the total number of items requested from the second source.
+     *
+     * @return items requested from the second source
+     */
+    public long requestedB() {
+        return requestedB;
+    }
+
+    /**
+     * Called by the operator to publish new values.
+     *
+     * @param backlogA
+     *            unmatched items from the first source
+     * @param backlogB
+     *            unmatched items from the second source
+     * @param requestedA
+     *            items requested from the first source
+     * @param requestedB
+     *            items requested from the second source
+     */
+    public void update(long backlogA, long backlogB, long requestedA, long requestedB) {
+        this.backlogA = backlogA;
+        this.backlogB = backlogB;
+        this.requestedA = requestedA;
+        this.requestedB = requestedB;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchMetrics [backlogA=" + backlogA + ", backlogB=" + backlogB + ", requestedA="
+                + requestedA + ", requestedB=" + requestedB + "]";
+    }
+
+}
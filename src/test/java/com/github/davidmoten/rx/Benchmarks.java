@@ -1,5 +1,6 @@
 package com.github.davidmoten.rx;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -13,6 +14,7 @@ import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.infra.Blackhole;
 
 import com.github.davidmoten.rx.buffertofile.DataSerializers;
+import com.github.davidmoten.rx.buffertofile.Options;
 import com.github.davidmoten.rx.perf.LatchedObserver;
 
 import rx.Observable;
@@ -22,7 +24,7 @@ import rx.schedulers.Schedulers;
 
 public class Benchmarks {
 
-    // @Benchmark
+    @Benchmark
     public void perfOnBackpressureBufferToFileFor100_000IntegersOnComputation(Blackhole bh)
             throws InterruptedException {
         LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
@@ -32,7 +34,7 @@ public class Benchmarks {
         observer.latch.await(100, TimeUnit.SECONDS);
     }
 
-    // @Benchmark
+    @Benchmark
     public void perfOnBackpressureBufferToFileFor100_000IntegersSychronous(Blackhole bh)
             throws InterruptedException {
         LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
@@ -42,7 +44,7 @@ public class Benchmarks {
         observer.latch.await(100, TimeUnit.SECONDS);
     }
 
-    // @Benchmark
+    @Benchmark
     public void perfOnBackpressureBufferToFileFor3000_1KMessagesOnComputation(Blackhole bh)
             throws InterruptedException {
         LatchedObserver<byte[]> observer = new LatchedObserver<byte[]>(bh);
@@ -52,11 +54,11 @@ public class Benchmarks {
                 return new byte[1000];
             }
         }).compose(Transformers.onBackpressureBufferToFile(DataSerializers.byteArray(),
-                Schedulers.immediate())).subscribe(observer);
+                Schedulers.computation())).subscribe(observer);
         observer.latch.await(100, TimeUnit.SECONDS);
     }
 
-    // @Benchmark
+    @Benchmark
     public void perfOnBackpressureBufferToFileFor3000_1KMessagesOnSynchronous(Blackhole bh)
             throws InterruptedException {
         LatchedObserver<byte[]> observer = new LatchedObserver<byte[]>(bh);
@@ -70,6 +72,53 @@ public class Benchmarks {
         observer.latch.await(100, TimeUnit.SECONDS);
     }
 
+    @Benchmark
+    public void perfOnBackpressureBufferToFileFor100_000IntegersSychronousMemoryMapped(
+            Blackhole bh) throws InterruptedException {
+        LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.immediate(), Options.memoryMapped(true).build()))
+                .subscribe(observer);
+        observer.latch.await(100, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void perfOnBackpressureBufferToFileFor3000_1KMessagesOnSynchronousMemoryMapped(
+            Blackhole bh) throws InterruptedException {
+        LatchedObserver<byte[]> observer = new LatchedObserver<byte[]>(bh);
+        Observable.range(1, 3000).map(new Func1<Integer, byte[]>() {
+            @Override
+            public byte[] call(Integer n) {
+                return new byte[1000];
+            }
+        }).compose(Transformers.onBackpressureBufferToFile(DataSerializers.byteArray(),
+                Schedulers.immediate(), Options.memoryMapped(true).build())).subscribe(observer);
+        observer.latch.await(100, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void perfOnBackpressureBufferToFileFor100_000IntegersOnComputationBatched(
+            Blackhole bh) throws InterruptedException {
+        LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), Options.batchSize(128).build()))
+                .subscribe(observer);
+        observer.latch.await(100, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void perfOnBackpressureBufferToFileFor100_000IntegersSychronousBatched(
+            Blackhole bh) throws InterruptedException {
+        LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.immediate(), Options.batchSize(128).build()))
+                .subscribe(observer);
+        observer.latch.await(100, TimeUnit.SECONDS);
+    }
+
     private static List<String> lines = readLines();
 
     private static List<String> readLines() {
@@ -94,6 +143,20 @@ public class Benchmarks {
                 });
     }
 
+    @Benchmark
+    public void perfStringSplitRegex(final Blackhole bh) {
+        // a pattern that is not a literal so uses the Matcher path
+        Observable //
+                .from(lines) //
+                .compose(Transformers.split("o+")) //
+                .forEach(new Action1<String>() {
+                    @Override
+                    public void call(String x) {
+                        bh.consume(x);
+                    }
+                });
+    }
+
     @Benchmark
     public void perfStringSplitWithLimit(final Blackhole bh) {
         // this should show the allocation overhead of the State object (almost zero effect)
@@ -108,4 +171,39 @@ public class Benchmarks {
                 });
     }
 
+    private static byte[] book = readBook();
+
+    private static byte[] readBook() {
+        try {
+            return Files.readAllBytes(new File("src/test/resources/the-black-gang.txt").toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public void perfSplitLinesDecodeThenSplit(final Blackhole bh) {
+        // the path Strings.splitLines used: decode all bytes then split
+        Strings.decode(Bytes.from(new ByteArrayInputStream(book)), "UTF-8") //
+                .compose(Transformers.split("\n")) //
+                .forEach(new Action1<String>() {
+                    @Override
+                    public void call(String x) {
+                        bh.consume(x);
+                    }
+                });
+    }
+
+    @Benchmark
+    public void perfSplitLinesOnBytes(final Blackhole bh) {
+        Bytes.from(new ByteArrayInputStream(book)) //
+                .compose(Bytes.splitLines()) //
+                .forEach(new Action1<String>() {
+                    @Override
+                    public void call(String x) {
+                        bh.consume(x);
+                    }
+                });
+    }
+
 }
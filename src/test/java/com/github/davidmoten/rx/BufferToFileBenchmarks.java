@@ -0,0 +1,101 @@
+package com.github.davidmoten.rx;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+import com.github.davidmoten.rx.buffertofile.Options;
+import com.github.davidmoten.rx.perf.LatchedObserver;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Parameterized benchmarks of {@code onBackpressureBufferToFile}. Each
+ * operation passes {@link #BYTES_PER_OPERATION} bytes of {@code byte[]} items
+ * through the operator so the ops/s score is MB/s regardless of item size.
+ *
+ * <p>
+ * The queue used depends on {@code memoryMapped} and {@code rolloverEvery}:
+ *
+ * <ul>
+ * <li>{@code memoryMapped=false, rolloverEvery=none}:
+ * {@code FileBasedSPSCQueue}</li>
+ * <li>{@code memoryMapped=false, rolloverEvery=n}: {@code RollingSPSCQueue}
+ * </li>
+ * <li>{@code memoryMapped=true}: {@code FileBasedSPSCQueueMemoryMapped}</li>
+ * </ul>
+ *
+ * <p>
+ * {@code bufferSizeBytes} is not used by the memory-mapped queue. Run with
+ * {@code mvn clean install -Pbenchmark -Djmh.include=BufferToFileBenchmarks}
+ * or pick parameters with the JMH {@code -p} option.
+ */
+@State(Scope.Benchmark)
+public class BufferToFileBenchmarks {
+
+    private static final int BYTES_PER_OPERATION = 1024 * 1024;
+
+    @Param({ "false", "true" })
+    public boolean memoryMapped;
+
+    @Param({ "none", "1000", "100000" })
+    public String rolloverEvery;
+
+    @Param({ "4", "1000" })
+    public int itemSizeBytes;
+
+    @Param({ "1024", "8192" })
+    public int bufferSizeBytes;
+
+    @Param({ "immediate", "computation" })
+    public String scheduler;
+
+    private Observable<byte[]> source;
+    private Options options;
+    private Scheduler sched;
+
+    @Setup
+    public void setup() {
+        // the same item is emitted repeatedly so that allocations measured are
+        // from the operator not the source
+        int count = BYTES_PER_OPERATION / itemSizeBytes;
+        source = Observable.from(Collections.nCopies(count, new byte[itemSizeBytes]));
+        Options.Builder builder = Options.bufferSizeBytes(bufferSizeBytes)
+                .memoryMapped(memoryMapped);
+        if ("none".equals(rolloverEvery)) {
+            builder = builder.disableRollover();
+        } else {
+            builder = builder.rolloverEvery(Long.parseLong(rolloverEvery));
+        }
+        options = builder.build();
+        if ("immediate".equals(scheduler)) {
+            sched = Schedulers.immediate();
+        } else if ("computation".equals(scheduler)) {
+            sched = Schedulers.computation();
+        } else {
+            throw new IllegalArgumentException("unknown scheduler " + scheduler);
+        }
+    }
+
+    @Benchmark
+    public void bufferToFile(Blackhole bh) throws InterruptedException {
+        LatchedObserver<byte[]> observer = new LatchedObserver<byte[]>(bh);
+        source.compose(Transformers.onBackpressureBufferToFile(DataSerializers.byteArray(),
+                sched, options)).subscribe(observer);
+        if (!observer.latch.await(100, TimeUnit.SECONDS)) {
+            throw new RuntimeException("timed out");
+        } else if (observer.error != null) {
+            throw new RuntimeException(observer.error);
+        }
+    }
+
+}
@@ -10,8 +10,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -21,6 +24,7 @@ import com.github.davidmoten.rx.util.ZippedEntry;
 import rx.Observable;
 import rx.functions.Action1;
 import rx.functions.Func1;
+import rx.observers.TestSubscriber;
 
 public class BytesTest {
 
@@ -135,4 +139,137 @@ public class BytesTest {
         assertTrue(Arrays.equals(new byte[] {}, result));
     }
 
+    @Test
+    public void testSplit() {
+        List<String> list = Observable.just(bytes("ab,c"), bytes(",,d"), bytes("e,"))
+                .compose(Bytes.split((byte) ',')).map(ToStringHolder.INSTANCE).toList()
+                .toBlocking().single();
+        assertEquals(Arrays.asList("ab", "c", "", "de", ""), list);
+    }
+
+    @Test
+    public void testSplitEmptySource() {
+        Observable.<byte[]> empty().compose(Bytes.split((byte) ',')).test().assertNoValues()
+                .assertCompleted();
+    }
+
+    @Test
+    public void testSplitEmptyArrayEmitsEmptyPart() {
+        List<String> list = Observable.just(new byte[0]).compose(Bytes.split((byte) ','))
+                .map(ToStringHolder.INSTANCE).toList().toBlocking().single();
+        assertEquals(Arrays.asList(""), list);
+    }
+
+    @Test
+    public void testSplitPartSpanningManyArrays() {
+        List<String> list = Observable.just(bytes("a"), bytes("b"), bytes(""), bytes("c,d"))
+                .compose(Bytes.split((byte) ',')).map(ToStringHolder.INSTANCE).toList()
+                .toBlocking().single();
+        assertEquals(Arrays.asList("abc", "d"), list);
+    }
+
+    @Test
+    public void testSplitLines() {
+        List<String> list = Observable.just(bytes("hello\r\nthe"), bytes("re\n\nyou\r"), bytes("\n"))
+                .compose(Bytes.splitLines()).toList().toBlocking().single();
+        assertEquals(Arrays.asList("hello", "there", "", "you"), list);
+    }
+
+    @Test
+    public void testSplitLinesEmitsUnterminatedLastLine() {
+        List<String> list = Observable.just(bytes("a\nb")).compose(Bytes.splitLines()).toList()
+                .toBlocking().single();
+        assertEquals(Arrays.asList("a", "b"), list);
+    }
+
+    @Test
+    public void testSplitLinesMultibyteCharacterSpanningArrays() {
+        byte[] b = "\u00A1x\n\u20AC".getBytes(Charset.forName("UTF-8"));
+        List<String> list = Observable
+                .just(Arrays.copyOfRange(b, 0, 1), Arrays.copyOfRange(b, 1, 5),
+                        Arrays.copyOfRange(b, 5, b.length))
+                .compose(Bytes.splitLines()).toList().toBlocking().single();
+        assertEquals(Arrays.asList("\u00A1x", "\u20AC"), list);
+    }
+
+    @Test
+    public void testSplitLinesMatchesDecodeThenSplitForRandomChunks() {
+        Random r = new Random(1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            int n = r.nextInt(5);
+            if (n == 0) {
+                text.append('\n');
+            } else if (n == 1) {
+                text.append("\u00E9\u20AC");
+            } else {
+                text.append((char) ('a' + r.nextInt(26)));
+            }
+        }
+        text.append('\n');
+        byte[] b = text.toString().getBytes(Charset.forName("UTF-8"));
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        int i = 0;
+        while (i < b.length) {
+            int end = Math.min(b.length, i + r.nextInt(20));
+            chunks.add(Arrays.copyOfRange(b, i, end));
+            i = end;
+        }
+        List<String> expected = new ArrayList<String>(
+                Arrays.asList(text.toString().split("\n", -1)));
+        // the empty line after the final newline is not emitted
+        expected.remove(expected.size() - 1);
+        List<String> list = Observable.from(chunks).compose(Bytes.splitLines()).toList()
+                .toBlocking().single();
+        assertEquals(expected, list);
+    }
+
+    @Test
+    public void testSplitLinesBackpressure() {
+        TestSubscriber<String> ts = TestSubscriber.create(0);
+        Observable.just(bytes("a\nb\nc"), bytes("\nd")).compose(Bytes.splitLines()).subscribe(ts);
+        ts.assertNoValues();
+        ts.requestMore(1);
+        ts.assertValues("a");
+        ts.requestMore(2);
+        ts.assertValues("a", "b", "c");
+        ts.assertNotCompleted();
+        ts.requestMore(Long.MAX_VALUE);
+        ts.assertValues("a", "b", "c", "d");
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void testSplitLinesUnsubscribeStopsEmission() {
+        List<String> list = Observable.just(bytes("a\nb\nc\nd")).compose(Bytes.splitLines())
+                .take(2).toList().toBlocking().single();
+        assertEquals(Arrays.asList("a", "b"), list);
+    }
+
+    @Test
+    public void testSplitLinesSingleByteCharset() {
+        Charset charset = Charset.forName("ISO-8859-1");
+        List<String> list = Observable.just("\u00E9t\u00E9\nx".getBytes(charset))
+                .compose(Bytes.splitLines(charset)).toList().toBlocking().single();
+        assertEquals(Arrays.asList("\u00E9t\u00E9", "x"), list);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitLinesUtf16NotSupported() {
+        Bytes.splitLines(Charset.forName("UTF-16"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static final class ToStringHolder {
+        static final Func1<byte[], String> INSTANCE = new Func1<byte[], String>() {
+            @Override
+            public String call(byte[] b) {
+                return new String(b, Charset.forName("UTF-8"));
+            }
+        };
+    }
+
 }
@@ -0,0 +1,103 @@
+package com.github.davidmoten.rx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, HyperLogLog.create().estimate());
+    }
+
+    @Test
+    public void testSmallCardinalityIsNearlyExact() {
+        HyperLogLog h = HyperLogLog.create();
+        for (int i = 0; i < 100; i++) {
+            // duplicates are not counted
+            h.add(i).add(i);
+        }
+        assertEquals(100, h.estimate(), 1);
+    }
+
+    @Test
+    public void testLargeCardinalityWithinErrorBound() {
+        HyperLogLog h = HyperLogLog.create();
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            h.add("item" + i);
+        }
+        // three standard errors
+        assertEquals(n, h.estimate(), n * 3 * 1.04 / 128);
+    }
+
+    @Test
+    public void testCombineEqualsUnion() {
+        HyperLogLog a = HyperLogLog.create(12);
+        HyperLogLog b = HyperLogLog.create(12);
+        HyperLogLog all = HyperLogLog.create(12);
+        for (int i = 0; i < 50000; i++) {
+            a.add(i);
+            all.add(i);
+        }
+        for (int i = 25000; i < 100000; i++) {
+            b.add(i);
+            all.add(i);
+        }
+        assertEquals(all.estimate(), a.combine(b).estimate());
+        assertEquals(100000, all.estimate(), 100000 * 3 * 1.04 / 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCombineDifferentPrecisionThrows() {
+        HyperLogLog.create(10).combine(HyperLogLog.create(11));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecisionTooLarge() {
+        HyperLogLog.create(19);
+    }
+
+    @Test
+    public void testCountDistinctApprox() {
+        HyperLogLog h = Observable.range(1, 10000).concatWith(Observable.range(1, 10000))
+                .compose(Transformers.<Integer> countDistinctApprox()).toBlocking().single();
+        assertEquals(10000, h.estimate(), 10000 * 3 * 1.04 / 128);
+    }
+
+    @Test
+    public void testCountDistinctApproxPeriodically() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> subject = PublishSubject.create();
+        TestSubscriber<HyperLogLog> ts = TestSubscriber.create();
+        subject.compose(Transformers.<Integer> countDistinctApprox(10, 1, TimeUnit.MINUTES,
+                scheduler)).subscribe(ts);
+        subject.onNext(1);
+        subject.onNext(2);
+        subject.onNext(1);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        ts.assertValueCount(1);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        ts.assertValueCount(2);
+        subject.onNext(3);
+        subject.onCompleted();
+        ts.assertValueCount(3);
+        ts.assertCompleted();
+        assertEquals(2, ts.getOnNextEvents().get(0).estimate());
+        assertEquals(0, ts.getOnNextEvents().get(1).estimate());
+        assertEquals(1, ts.getOnNextEvents().get(2).estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountDistinctApproxPrecisionTooSmall() {
+        Transformers.<Integer> countDistinctApprox(3);
+    }
+}
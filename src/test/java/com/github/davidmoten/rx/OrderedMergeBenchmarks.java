@@ -0,0 +1,76 @@
+package com.github.davidmoten.rx;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rx.perf.LatchedObserver;
+import com.github.davidmoten.rx.util.RxRingBuffer;
+
+import rx.Observable;
+
+/**
+ * Benchmarks of {@code Obs.orderedMerge} with a varying number of sources.
+ * Each operation merges {@link #ITEMS_PER_OPERATION} integers split evenly
+ * across {@code sourceCount} sorted synchronous sources so that the ops/s
+ * score reflects the cost of selecting the next item. The sources take turns
+ * at being the minimum for {@code clusterSize} consecutive items (1 is fully
+ * interleaved) and {@code maxRunLength} sets the longest run emitted from one
+ * source without checking the others. Run with
+ * {@code mvn clean install -Pbenchmark -Djmh.include=OrderedMergeBenchmarks}.
+ */
+@State(Scope.Benchmark)
+public class OrderedMergeBenchmarks {
+
+    private static final int ITEMS_PER_OPERATION = 1000000;
+
+    @Param({ "2", "4", "16", "64", "512" })
+    public int sourceCount;
+
+    @Param({ "1", "1000" })
+    public int clusterSize;
+
+    @Param({ "1", "256" })
+    public int maxRunLength;
+
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return a.compareTo(b);
+        }
+    };
+
+    private List<Observable<Integer>> sources;
+
+    @Setup
+    public void setup() {
+        int itemsPerSource = ITEMS_PER_OPERATION / sourceCount;
+        sources = new ArrayList<Observable<Integer>>();
+        for (int i = 0; i < sourceCount; i++) {
+            Integer[] values = new Integer[itemsPerSource];
+            for (int j = 0; j < itemsPerSource; j++) {
+                int cluster = j / clusterSize;
+                values[j] = (cluster * sourceCount + i) * clusterSize + j % clusterSize;
+            }
+            sources.add(Observable.from(values));
+        }
+    }
+
+    @Benchmark
+    public void orderedMerge(Blackhole bh) {
+        LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
+        Obs.orderedMerge(sources, COMPARATOR, false, RxRingBuffer.SIZE, maxRunLength)
+                .subscribe(observer);
+        if (observer.error != null) {
+            throw new RuntimeException(observer.error);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.github.davidmoten.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testEmpty() {
+        QuantileSketch s = QuantileSketch.create();
+        assertEquals(0, s.count());
+        assertTrue(Double.isNaN(s.quantile(0.5)));
+        assertTrue(Double.isNaN(s.min()));
+    }
+
+    @Test
+    public void testSingleValue() {
+        QuantileSketch s = QuantileSketch.create().add(7);
+        assertEquals(7, s.quantile(0), 0);
+        assertEquals(7, s.quantile(0.5), 0);
+        assertEquals(7, s.quantile(1), 0);
+    }
+
+    @Test
+    public void testExtremesAreExact() {
+        QuantileSketch s = QuantileSketch.create();
+        double[] values = exponential(new Random(1), 100000);
+        for (double x : values) {
+            s.add(x);
+        }
+        Arrays.sort(values);
+        assertEquals(values[0], s.quantile(0), 0);
+        assertEquals(values[values.length - 1], s.quantile(1), 0);
+    }
+
+    @Test
+    public void testAccuracyOfLatencyLikeDistribution() {
+        double[] values = exponential(new Random(2), 1000000);
+        QuantileSketch s = QuantileSketch.create();
+        for (double x : values) {
+            s.add(x);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, s.count());
+        assertRankError(values, s, 0.5, 0.005);
+        assertRankError(values, s, 0.9, 0.003);
+        assertRankError(values, s, 0.99, 0.0005);
+        assertRankError(values, s, 0.999, 0.0003);
+    }
+
+    @Test
+    public void testMemoryIsBounded() {
+        QuantileSketch s = QuantileSketch.create(50);
+        Random r = new Random(3);
+        for (int i = 0; i < 1000000; i++) {
+            s.add(r.nextDouble());
+        }
+        assertTrue(s.centroids() <= 52);
+    }
+
+    @Test
+    public void testSortedInputIsAccurate() {
+        QuantileSketch s = QuantileSketch.create();
+        int n = 100000;
+        for (int i = 1; i <= n; i++) {
+            s.add(i);
+        }
+        assertEquals(n * 0.5, s.quantile(0.5), n * 0.005);
+        assertEquals(n * 0.999, s.quantile(0.999), n * 0.0001);
+    }
+
+    @Test
+    public void testCombineMatchesSingleSketch() {
+        double[] values = exponential(new Random(4), 200000);
+        QuantileSketch combined = QuantileSketch.create();
+        for (int part = 0; part < 4; part++) {
+            QuantileSketch s = QuantileSketch.create();
+            // leave some values buffered in the last sketches
+            int end = part == 3 ? values.length - 7 : (part + 1) * values.length / 4;
+            for (int i = part * values.length / 4; i < end; i++) {
+                s.add(values[i]);
+            }
+            combined.combine(s);
+        }
+        for (int i = values.length - 7; i < values.length; i++) {
+            combined.add(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, combined.count());
+        assertEquals(values[0], combined.min(), 0);
+        assertEquals(values[values.length - 1], combined.max(), 0);
+        assertRankError(values, combined, 0.5, 0.005);
+        assertRankError(values, combined, 0.99, 0.0005);
+        assertRankError(values, combined, 0.999, 0.0003);
+        assertTrue(combined.centroids() <= 102);
+    }
+
+    @Test
+    public void testCombineDoesNotChangeOther() {
+        QuantileSketch a = QuantileSketch.create().add(1).add(2);
+        QuantileSketch b = QuantileSketch.create().add(3);
+        a.combine(b);
+        assertEquals(1, b.count());
+        assertEquals(3, b.quantile(0.5), 0);
+        assertEquals(3, a.count());
+    }
+
+    @Test
+    public void testCollectQuantilesAtCompletion() {
+        QuantileSketch s = Observable.range(1, 1000)
+                .compose(Transformers.<Integer> collectQuantiles()).toBlocking().single();
+        assertEquals(1000, s.count());
+        assertEquals(500, s.quantile(0.5), 5);
+    }
+
+    @Test
+    public void testCollectQuantilesPeriodically() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> subject = PublishSubject.create();
+        TestSubscriber<QuantileSketch> ts = TestSubscriber.create();
+        subject.compose(Transformers.collectQuantiles(new DoubleFunc1<Integer>() {
+            @Override
+            public double call(Integer n) {
+                return n;
+            }
+        }, 100, 1, TimeUnit.MINUTES, scheduler)).subscribe(ts);
+        subject.onNext(1);
+        subject.onNext(2);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        ts.assertValueCount(1);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        ts.assertValueCount(2);
+        subject.onNext(10);
+        subject.onCompleted();
+        ts.assertValueCount(3);
+        ts.assertCompleted();
+        assertEquals(2, ts.getOnNextEvents().get(0).count());
+        assertEquals(2, ts.getOnNextEvents().get(0).max(), 0);
+        assertEquals(0, ts.getOnNextEvents().get(1).count());
+        assertEquals(10, ts.getOnNextEvents().get(2).quantile(0.5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCollectQuantilesPeriodMustBePositive() {
+        Transformers.<Integer> collectQuantiles(0, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQuantileOutOfRange() {
+        QuantileSketch.create().quantile(1.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompressionTooSmall() {
+        QuantileSketch.create(1);
+    }
+
+    private static double[] exponential(Random r, int n) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = -Math.log(1 - r.nextDouble()) * 100;
+        }
+        return values;
+    }
+
+    private static void assertRankError(double[] sorted, QuantileSketch s, double q,
+            double tolerance) {
+        double estimate = s.quantile(q);
+        int index = Arrays.binarySearch(sorted, estimate);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        double rank = (double) index / sorted.length;
+        assertTrue("q=" + q + ", rank=" + rank, Math.abs(rank - q) <= tolerance);
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.davidmoten.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+public class StatisticsAccumulatorTest {
+
+    private static final double PRECISION = 1e-9;
+
+    @Test
+    public void testEmpty() {
+        StatisticsAccumulator s = StatisticsAccumulator.create();
+        assertEquals(0, s.count());
+        assertTrue(Double.isNaN(s.min()));
+        assertTrue(Double.isNaN(s.max()));
+        assertTrue(Double.isNaN(s.mean()));
+        assertTrue(Double.isNaN(s.variance()));
+        assertTrue(Double.isNaN(s.sd()));
+    }
+
+    @Test
+    public void testSingleValue() {
+        StatisticsAccumulator s = StatisticsAccumulator.create().add(3);
+        assertEquals(1, s.count());
+        assertEquals(3, s.min(), 0);
+        assertEquals(3, s.max(), 0);
+        assertEquals(3, s.mean(), 0);
+        assertEquals(0, s.variance(), 0);
+        assertTrue(Double.isNaN(s.sampleVariance()));
+        assertTrue(Double.isNaN(s.skewness()));
+    }
+
+    @Test
+    public void testMatchesDirectCalculation() {
+        double[] values = randomValues(new Random(1), 1000, 0);
+        StatisticsAccumulator s = StatisticsAccumulator.create();
+        for (double x : values) {
+            s.add(x);
+        }
+        assertMatches(values, s);
+    }
+
+    @Test
+    public void testKnownValues() {
+        StatisticsAccumulator s = StatisticsAccumulator.create();
+        for (double x : new double[] { 2, 4, 4, 4, 5, 5, 7, 9 }) {
+            s.add(x);
+        }
+        assertEquals(2, s.min(), 0);
+        assertEquals(9, s.max(), 0);
+        assertEquals(5, s.mean(), PRECISION);
+        assertEquals(4, s.variance(), PRECISION);
+        assertEquals(32.0 / 7, s.sampleVariance(), PRECISION);
+        assertEquals(2, s.sd(), PRECISION);
+        assertEquals(0.65625, s.skewness(), PRECISION);
+        assertEquals(-0.21875, s.kurtosis(), PRECISION);
+    }
+
+    @Test
+    public void testCombineGivesSameResultAsSequential() {
+        Random r = new Random(2);
+        double[] values = randomValues(r, 1000, 0);
+        StatisticsAccumulator all = StatisticsAccumulator.create();
+        for (double x : values) {
+            all.add(x);
+        }
+        // split into uneven partitions including an empty one
+        int[] boundaries = { 0, 1, 1, 300, 301, 999, 1000 };
+        StatisticsAccumulator combined = StatisticsAccumulator.create();
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            StatisticsAccumulator part = StatisticsAccumulator.create();
+            for (int j = boundaries[i]; j < boundaries[i + 1]; j++) {
+                part.add(values[j]);
+            }
+            combined.combine(part);
+        }
+        assertEquals(all.count(), combined.count());
+        assertEquals(all.min(), combined.min(), 0);
+        assertEquals(all.max(), combined.max(), 0);
+        assertEquals(all.mean(), combined.mean(), PRECISION);
+        assertEquals(all.variance(), combined.variance(), PRECISION);
+        assertEquals(all.skewness(), combined.skewness(), 1e-6);
+        assertEquals(all.kurtosis(), combined.kurtosis(), 1e-6);
+    }
+
+    @Test
+    public void testCombineIntoEmpty() {
+        StatisticsAccumulator s = StatisticsAccumulator.create().add(1).add(2);
+        StatisticsAccumulator empty = StatisticsAccumulator.create();
+        empty.combine(s);
+        assertEquals(2, empty.count());
+        assertEquals(1.5, empty.mean(), 0);
+        assertEquals(0.25, empty.variance(), 0);
+        assertEquals(1, empty.min(), 0);
+    }
+
+    @Test
+    public void testStableForLargeMagnitudes() {
+        StatisticsAccumulator s = StatisticsAccumulator.create();
+        Statistics stats = Statistics.create();
+        for (int i = 0; i < 100000; i++) {
+            double x = 1e9 + (i % 2 == 0 ? 1 : -1);
+            s.add(x);
+            stats = stats.add(x);
+        }
+        assertEquals(1, s.variance(), 1e-6);
+        assertEquals(0, s.skewness(), 1e-6);
+        assertEquals(-2, s.kurtosis(), 1e-6);
+        assertEquals(1, stats.sd(), 1e-6);
+    }
+
+    @Test
+    public void testParallelPartitionsWithTransformer() {
+        final double[] values = randomValues(new Random(3), 10000, 100);
+        StatisticsAccumulator s = Observable.range(0, values.length)
+                .groupBy(new Func1<Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer i) {
+                        return i % 4;
+                    }
+                }).flatMap(new Func1<Observable<Integer>, Observable<StatisticsAccumulator>>() {
+                    @Override
+                    public Observable<StatisticsAccumulator> call(Observable<Integer> g) {
+                        return g.compose(Transformers.statistics(new DoubleFunc1<Integer>() {
+                            @Override
+                            public double call(Integer i) {
+                                return values[i];
+                            }
+                        }));
+                    }
+                }).reduce(new Func2<StatisticsAccumulator, StatisticsAccumulator, StatisticsAccumulator>() {
+                    @Override
+                    public StatisticsAccumulator call(StatisticsAccumulator a,
+                            StatisticsAccumulator b) {
+                        return a.combine(b);
+                    }
+                }).toBlocking().single();
+        assertMatches(values, s);
+    }
+
+    @Test
+    public void testTransformerOnNumbers() {
+        StatisticsAccumulator s = Observable.just(1, 2, 3)
+                .compose(Transformers.<Integer> statistics()).toBlocking().single();
+        assertEquals(3, s.count());
+        assertEquals(2, s.mean(), 0);
+    }
+
+    private static double[] randomValues(Random r, int n, double offset) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            // skewed values
+            double x = r.nextGaussian();
+            values[i] = offset + x * x;
+        }
+        return values;
+    }
+
+    private static void assertMatches(double[] values, StatisticsAccumulator s) {
+        double n = values.length;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double x : values) {
+            sum += x;
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        double mean = sum / n;
+        double m2 = 0;
+        double m3 = 0;
+        double m4 = 0;
+        for (double x : values) {
+            double d = x - mean;
+            m2 += d * d;
+            m3 += d * d * d;
+            m4 += d * d * d * d;
+        }
+        assertEquals(values.length, s.count());
+        assertEquals(min, s.min(), 0);
+        assertEquals(max, s.max(), 0);
+        assertEquals(mean, s.mean(), PRECISION);
+        assertEquals(m2 / n, s.variance(), PRECISION);
+        assertEquals(Math.sqrt(n) * m3 / Math.pow(m2, 1.5), s.skewness(), 1e-6);
+        assertEquals(n * m4 / (m2 * m2) - 3, s.kurtosis(), 1e-6);
+    }
+}
@@ -4,9 +4,12 @@ import static com.github.davidmoten.rx.Strings.decode;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -92,4 +95,19 @@ public class StringsTest {
 			}
 		}).toBlocking().single());
     }
+
+    @Test
+    public void testSplitLines() {
+        String text = "# comment\r\na,b\r\n\n  c,d \ne";
+        for (String charset : Arrays.asList("UTF-8", "UTF-16")) {
+            // UTF-16 lines are split after decoding
+            List<List<String>> list = Strings
+                    .splitLines(new ByteArrayInputStream(text.getBytes(Charset.forName(charset))),
+                            Charset.forName(charset), ",", "#")
+                    .toList().toBlocking().single();
+            assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"),
+                    Arrays.asList("e")), list);
+        }
+    }
+
 }
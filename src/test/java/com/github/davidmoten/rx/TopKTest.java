@@ -0,0 +1,148 @@
+package com.github.davidmoten.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.util.Pair;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+public class TopKTest {
+
+    @Test
+    public void testEmpty() {
+        TopK<String> t = TopK.create(3);
+        assertTrue(t.topK().isEmpty());
+        assertEquals(0, t.estimate("a"));
+    }
+
+    @Test
+    public void testExactForFewItems() {
+        TopK<String> t = TopK.create(2);
+        for (String s : Arrays.asList("a", "b", "a", "c", "a", "b")) {
+            t.add(s);
+        }
+        assertEquals(Arrays.asList(Pair.create("a", 3L), Pair.create("b", 2L)), t.topK());
+        assertEquals(6, t.count());
+    }
+
+    @Test
+    public void testFindsHeavyHittersInSkewedStream() {
+        TopK<Integer> t = TopK.create(5);
+        Random r = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            // items 0 to 4 are heavy, the rest are noise over a large range
+            if (r.nextInt(10) < 3) {
+                t.add(r.nextInt(5));
+            } else {
+                t.add(5 + r.nextInt(100000));
+            }
+        }
+        List<Pair<Integer, Long>> top = t.topK();
+        assertEquals(5, top.size());
+        for (Pair<Integer, Long> p : top) {
+            assertTrue(p.a() < 5);
+            // each heavy item occurs about 12000 times
+            assertEquals(12000, p.b(), 1000);
+        }
+    }
+
+    @Test
+    public void testEstimateNeverUndercounts() {
+        TopK<Integer> t = TopK.create(1, 16, 2);
+        for (int i = 0; i < 1000; i++) {
+            t.add(i % 100);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(t.estimate(i) >= 10);
+        }
+    }
+
+    @Test
+    public void testCombine() {
+        TopK<String> a = TopK.create(2);
+        TopK<String> b = TopK.create(2);
+        for (int i = 0; i < 10; i++) {
+            a.add("x");
+            b.add("y");
+        }
+        for (int i = 0; i < 6; i++) {
+            a.add("z");
+            b.add("z");
+        }
+        // z is only second in each but first overall
+        a.combine(b);
+        List<Pair<String, Long>> top = a.topK();
+        assertEquals("z", top.get(0).a());
+        assertEquals(12L, (long) top.get(0).b());
+        assertEquals(10L, (long) top.get(1).b());
+        assertEquals(32, a.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCombineDifferentDimensionsThrows() {
+        TopK.<String> create(2, 10, 2).combine(TopK.<String> create(2, 11, 2));
+    }
+
+    @Test
+    public void testTopKApprox() {
+        TopK<String> t = Observable.just("a", "b", "a", "c", "a")
+                .compose(Transformers.<String> topKApprox(1)).toBlocking().single();
+        assertEquals("a", t.topK().get(0).a());
+    }
+
+    @Test
+    public void testLargeKKeepsExactCountsOfHeavyItems() {
+        // more candidates than the Integer cache so heap positions are large
+        TopK<Integer> t = TopK.create(300, 1 << 16, 5);
+        for (int n = 1; n <= 300; n++) {
+            for (int i = 0; i < n; i++) {
+                t.add(n);
+            }
+        }
+        for (int n = 1; n <= 300; n++) {
+            t.add(-n);
+        }
+        List<Pair<Integer, Long>> top = t.topK();
+        assertEquals(300, top.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(300 - i, (int) top.get(i).a());
+            assertEquals(300 - i, (long) top.get(i).b());
+        }
+    }
+
+    @Test
+    public void testTopKApproxPeriodically() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<String> subject = PublishSubject.create();
+        TestSubscriber<TopK<String>> ts = TestSubscriber.create();
+        subject.compose(Transformers.<String> topKApprox(1, 16, 2, 1, TimeUnit.MINUTES, scheduler))
+                .subscribe(ts);
+        subject.onNext("a");
+        subject.onNext("a");
+        subject.onNext("b");
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        ts.assertValueCount(1);
+        subject.onNext("b");
+        subject.onCompleted();
+        ts.assertValueCount(2);
+        ts.assertCompleted();
+        assertEquals("a", ts.getOnNextEvents().get(0).topK().get(0).a());
+        assertEquals("b", ts.getOnNextEvents().get(1).topK().get(0).a());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopKApproxPeriodMustBePositive() {
+        Transformers.<String> topKApprox(1, 0, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.davidmoten.rx;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rx.perf.LatchedObserver;
+
+import rx.Observable;
+
+/**
+ * Benchmarks of {@code Transformers.windowMin} over {@link #ITEMS_PER_OPERATION}
+ * pre-boxed random integers so that the {@code gc.alloc.rate.norm} reported by
+ * the gc profiler (enabled in the benchmark profile) reflects allocation by
+ * the operator itself, which should be close to zero per item. Run with
+ * {@code mvn clean install -Pbenchmark -Djmh.include=WindowMinMaxBenchmarks}.
+ */
+@State(Scope.Benchmark)
+public class WindowMinMaxBenchmarks {
+
+    private static final int ITEMS_PER_OPERATION = 1000000;
+
+    @Param({ "10", "1000", "100000" })
+    public int windowSize;
+
+    private Observable<Integer> source;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(1);
+        Integer[] values = new Integer[ITEMS_PER_OPERATION];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = r.nextInt();
+        }
+        source = Observable.from(values);
+    }
+
+    @Benchmark
+    public void windowMin(Blackhole bh) {
+        LatchedObserver<Integer> observer = new LatchedObserver<Integer>(bh);
+        source.compose(Transformers.<Integer> windowMin(windowSize)).subscribe(observer);
+        if (observer.error != null) {
+            throw new RuntimeException(observer.error);
+        }
+    }
+
+}
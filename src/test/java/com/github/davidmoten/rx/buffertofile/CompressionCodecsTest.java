@@ -0,0 +1,113 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rx.functions.Func0;
+
+public class CompressionCodecsTest {
+
+    @Test
+    public void testDeflateRoundTrip() throws IOException {
+        checkRoundTrip(CompressionCodecs.deflate());
+    }
+
+    @Test
+    public void testDeflateLevelRoundTrip() throws IOException {
+        checkRoundTrip(CompressionCodecs.deflate(1));
+    }
+
+    @Test
+    public void testLzRoundTrip() throws IOException {
+        checkRoundTrip(CompressionCodecs.lz());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeflateLevelOutOfRange() {
+        CompressionCodecs.deflate(10);
+    }
+
+    @Test
+    public void testDeflateCompressesText() {
+        checkCompressesText(CompressionCodecs.deflate());
+    }
+
+    @Test
+    public void testLzCompressesText() {
+        checkCompressesText(CompressionCodecs.lz());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLzCorruptBlock() throws IOException {
+        checkCorruptBlock(CompressionCodecs.lz());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDeflateCorruptBlock() throws IOException {
+        checkCorruptBlock(CompressionCodecs.deflate());
+    }
+
+    private static void checkRoundTrip(Func0<CompressionCodec> factory) throws IOException {
+        CompressionCodec codec = factory.call();
+        Random r = new Random(12345);
+        for (int length : new int[] { 0, 1, 3, 4, 5, 15, 16, 300, 4096, 70000 }) {
+            // random bytes, repeated bytes and text
+            byte[] random = new byte[length];
+            r.nextBytes(random);
+            checkRoundTrip(codec, random);
+            checkRoundTrip(codec, new byte[length]);
+            checkRoundTrip(codec, text(length));
+        }
+    }
+
+    private static void checkRoundTrip(CompressionCodec codec, byte[] b) throws IOException {
+        // use non-zero offsets to check they are honoured
+        byte[] input = new byte[b.length + 3];
+        System.arraycopy(b, 0, input, 3, b.length);
+        byte[] compressed = new byte[codec.maxCompressedLength(b.length) + 5];
+        int n = codec.compress(input, 3, b.length, compressed, 5);
+        assertTrue(n <= codec.maxCompressedLength(b.length));
+        byte[] output = new byte[b.length + 7];
+        codec.decompress(compressed, 5, n, output, 7, b.length);
+        byte[] result = new byte[b.length];
+        System.arraycopy(output, 7, result, 0, b.length);
+        assertArrayEquals(b, result);
+    }
+
+    private static void checkCompressesText(Func0<CompressionCodec> factory) {
+        CompressionCodec codec = factory.call();
+        byte[] b = text(65536);
+        byte[] compressed = new byte[codec.maxCompressedLength(b.length)];
+        int n = codec.compress(b, 0, b.length, compressed, 0);
+        System.out.println("compressed 64K of text to " + n + " bytes");
+        assertTrue(n < b.length / 4);
+    }
+
+    private static void checkCorruptBlock(Func0<CompressionCodec> factory) throws IOException {
+        CompressionCodec codec = factory.call();
+        byte[] b = text(1000);
+        byte[] compressed = new byte[codec.maxCompressedLength(b.length)];
+        int n = codec.compress(b, 0, b.length, compressed, 0);
+        // truncate the compressed block
+        codec.decompress(compressed, 0, n / 2, new byte[b.length], 0, b.length);
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder s = new StringBuilder();
+        int i = 0;
+        while (s.length() < length) {
+            s.append("the quick brown fox jumps over the lazy dog ").append(i++).append('\n');
+        }
+        byte[] b = new byte[length];
+        for (int j = 0; j < length; j++) {
+            b[j] = (byte) s.charAt(j);
+        }
+        return b;
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.github.davidmoten.rx.buffertofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import rx.functions.Func0;
+
+public class MultiProducerFileQueueTest {
+
+    @Test
+    public void testConcurrentProducersWithSingleConsumer() throws InterruptedException {
+        final MultiProducerFileQueue<Integer> queue = MultiProducerFileQueue.create(
+                DataSerializers.integer(), fileFactory(new File("target/mpfq1")), 4096, 16);
+        final int producers = 4;
+        final int max = 10000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < max; i++) {
+                        // encode the producer in the item
+                        queue.offer(i * producers + producer);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        // items from each producer must arrive in order
+        int[] next = new int[producers];
+        int count = 0;
+        while (count < producers * max) {
+            Integer item = queue.poll();
+            if (item != null) {
+                assertEquals(next[item % producers]++, item / producers);
+                count++;
+            }
+        }
+        latch.await();
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        queue.unsubscribe();
+    }
+
+    @Test
+    public void testUnsubscribeDeletesFilesAndDiscardsLaterOffers() {
+        File dir = new File("target/mpfq2");
+        dir.mkdirs();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        MultiProducerFileQueue<Integer> queue = MultiProducerFileQueue
+                .create(DataSerializers.integer(), fileFactory(dir), 4096, 16);
+        assertTrue(queue.offer(1));
+        assertEquals(1, dir.listFiles().length);
+        queue.unsubscribe();
+        assertTrue(queue.isUnsubscribed());
+        assertEquals(0, dir.listFiles().length);
+        assertFalse(queue.offer(2));
+    }
+
+    @Test
+    public void testUnsubscribeConcurrentWithOffersLeavesNoFiles() throws InterruptedException {
+        for (int run = 0; run < 200; run++) {
+            File dir = new File("target/mpfq4");
+            dir.mkdirs();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            // small segments so that offers keep creating files
+            final MultiProducerFileQueue<Integer> queue = MultiProducerFileQueue
+                    .create(DataSerializers.integer(), fileFactory(dir), 64, 16);
+            final int producers = 4;
+            final CountDownLatch started = new CountDownLatch(producers);
+            final CountDownLatch finished = new CountDownLatch(producers);
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            for (int p = 0; p < producers; p++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            started.countDown();
+                            int i = 0;
+                            while (queue.offer(i++)) {
+                            }
+                        } catch (Throwable e) {
+                            error.set(e);
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                }).start();
+            }
+            started.await();
+            Thread.sleep(run % 3);
+            queue.unsubscribe();
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            assertNull(error.get());
+            assertEquals(0, dir.listFiles().length);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfferNullThrows() {
+        MultiProducerFileQueue<Integer> queue = MultiProducerFileQueue
+                .create(DataSerializers.integer(), fileFactory(new File("target/mpfq3")), 4096, 16);
+        try {
+            queue.offer(null);
+        } finally {
+            queue.unsubscribe();
+        }
+    }
+
+    private static Func0<File> fileFactory(final File dir) {
+        dir.mkdirs();
+        return new Func0<File>() {
+            int n;
+
+            @Override
+            public File call() {
+                File file = new File(dir, "segment" + ++n);
+                file.delete();
+                return file;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+import rx.functions.Func0;
+
+public class FileBasedMPSCQueueTest {
+
+    @Test
+    public void test() {
+        FileBasedMPSCQueue<Integer> q = createQueue(1000);
+        assertTrue(q.isEmpty());
+        q.offer(1);
+        assertFalse(q.isEmpty());
+        assertEquals(1, (int) q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testNulls() {
+        FileBasedMPSCQueue<Integer> q = new FileBasedMPSCQueue<Integer>(fileFactory(), 1000, 16,
+                DataSerializers.<Integer> javaIO());
+        q.offer(null);
+        q.offer(2);
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertEquals(2, (int) q.poll());
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testSegmentsWithPaddingAndWithoutPadding() {
+        // each record is 8 bytes so 13 byte segments leave 5 bytes (padding
+        // header written) and 10 byte segments leave 2 bytes (no padding
+        // header)
+        for (int segmentSize : new int[] { 13, 10 }) {
+            FileBasedMPSCQueue<Integer> q = createQueue(segmentSize);
+            for (int i = 1; i <= 10; i++) {
+                q.offer(i);
+            }
+            for (int i = 1; i <= 10; i++) {
+                assertEquals(i, (int) q.poll());
+            }
+            assertNull(q.poll());
+            assertTrue(q.isEmpty());
+            for (int i = 11; i <= 20; i++) {
+                q.offer(i);
+                assertEquals(i, (int) q.poll());
+            }
+            q.unsubscribe();
+        }
+    }
+
+    @Test
+    public void testVariableLengthItemsLargerThanReadBuffer() {
+        FileBasedMPSCQueue<String> q = new FileBasedMPSCQueue<String>(fileFactory(), 100, 4,
+                DataSerializers.string());
+        String[] values = new String[] { "", "a", "0123456789012345678901234567890123456789",
+                "bc" };
+        for (String s : values) {
+            q.offer(s);
+        }
+        for (String s : values) {
+            assertEquals(s, q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testItemTooLargeForSegment() {
+        FileBasedMPSCQueue<String> q = new FileBasedMPSCQueue<String>(fileFactory(), 10, 16,
+                DataSerializers.string());
+        try {
+            q.offer("0123456789");
+        } finally {
+            q.unsubscribe();
+        }
+    }
+
+    @Test
+    public void testReadSegmentsAreDeleted() {
+        final File dir = new File("target/mpsc-delete");
+        dir.mkdirs();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        final AtomicInteger n = new AtomicInteger();
+        FileBasedMPSCQueue<Integer> q = new FileBasedMPSCQueue<Integer>(new Func0<File>() {
+            @Override
+            public File call() {
+                return new File(dir, "seg" + n.incrementAndGet());
+            }
+        }, 16, 16, DataSerializers.integer());
+        for (int i = 1; i <= 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(5, dir.listFiles().length);
+        for (int i = 1; i <= 7; i++) {
+            q.poll();
+        }
+        assertEquals(2, dir.listFiles().length);
+        q.unsubscribe();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testOfferAfterUnsubscribeCreatesNoFiles() {
+        final File dir = new File("target/mpsc-closed");
+        dir.mkdirs();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        final AtomicInteger n = new AtomicInteger();
+        FileBasedMPSCQueue<Integer> q = new FileBasedMPSCQueue<Integer>(new Func0<File>() {
+            @Override
+            public File call() {
+                return new File(dir, "seg" + n.incrementAndGet());
+            }
+        }, 16, 16, DataSerializers.integer());
+        q.unsubscribe();
+        try {
+            q.offer(1);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final FileBasedMPSCQueue<Integer> queue = createQueue(64 * 1024);
+        final int producers = 4;
+        final int max = 250000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+        long t = System.currentTimeMillis();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < max; i++) {
+                        // encode the producer in the item
+                        queue.offer(i * producers + producer);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        // items from each producer must arrive in order
+        final int[] next = new int[producers];
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        int count = 0;
+        while (count < producers * max) {
+            Integer item = queue.poll();
+            if (item != null) {
+                int producer = item % producers;
+                if (item / producers != next[producer]) {
+                    failed.set(true);
+                }
+                next[producer]++;
+                count++;
+            }
+        }
+        latch.await();
+        System.out.println(Math.round(producers * max * 1000.0 / (System.currentTimeMillis() - t))
+                + " per second");
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        queue.unsubscribe();
+        assertFalse(failed.get());
+    }
+
+    private static FileBasedMPSCQueue<Integer> createQueue(int segmentSizeBytes) {
+        return new FileBasedMPSCQueue<Integer>(fileFactory(), segmentSizeBytes, 16,
+                DataSerializers.integer());
+    }
+
+    private static Func0<File> fileFactory() {
+        return new Func0<File>() {
+            final AtomicInteger n = new AtomicInteger();
+
+            @Override
+            public File call() {
+                File file = new File("target/mpsc" + n.incrementAndGet());
+                file.delete();
+                return file;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,325 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+import com.github.davidmoten.rx.buffertofile.SyncPolicy;
+
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.schedulers.TestScheduler;
+
+public class FileBasedSPSCQueueDurableTest {
+
+    @Test
+    public void test() {
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(directory("basic"));
+        assertTrue(q.isEmpty());
+        q.offer(1);
+        q.offer(2);
+        assertFalse(q.isEmpty());
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testNulls() {
+        FileBasedSPSCQueueDurable<Integer> q = new FileBasedSPSCQueueDurable<Integer>(
+                directory("nulls"), 16, DataSerializers.<Integer> javaIO(),
+                SyncPolicy.everyItem());
+        q.offer(1);
+        q.offer(null);
+        assertEquals(1, (int) q.poll());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testResumesFromLastAcknowledgedItem() {
+        File dir = directory("resume");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        for (int i = 1; i <= 5; i++) {
+            q.offer(i);
+        }
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        q.unsubscribe();
+        q = createQueue(dir);
+        // 2 was not acknowledged
+        for (int i = 2; i <= 5; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.offer(6);
+        assertEquals(6, (int) q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testFilesDeletedWhenAllAcknowledged() {
+        File dir = directory("deleted");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        q.offer(1);
+        assertEquals(1, (int) q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+        assertFalse(new File(dir, FileBasedSPSCQueueDurable.DATA_FILE_NAME).exists());
+        assertFalse(new File(dir, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).exists());
+    }
+
+    @Test
+    public void testRecoversWithoutClose() throws IOException {
+        File dir = directory("crash");
+        File copy = directory("crash-copy");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        for (int i = 1; i <= 5; i++) {
+            q.offer(i);
+        }
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        // copy the files as they would be if the JVM stopped now
+        copy(dir, copy, FileBasedSPSCQueueDurable.DATA_FILE_NAME);
+        copy(dir, copy, FileBasedSPSCQueueDurable.INDEX_FILE_NAME);
+        q.unsubscribe();
+        FileBasedSPSCQueueDurable<Integer> q2 = createQueue(copy);
+        for (int i = 2; i <= 5; i++) {
+            assertEquals(i, (int) q2.poll());
+        }
+        assertNull(q2.poll());
+        q2.unsubscribe();
+    }
+
+    @Test
+    public void testRecoversItemsWrittenAfterLastSync() throws IOException {
+        File dir = directory("unsynced");
+        File copy = directory("unsynced-copy");
+        FileBasedSPSCQueueDurable<Integer> q = new FileBasedSPSCQueueDurable<Integer>(dir, 16,
+                DataSerializers.integer(), SyncPolicy.everyItems(100));
+        for (int i = 1; i <= 5; i++) {
+            q.offer(i);
+        }
+        copy(dir, copy, FileBasedSPSCQueueDurable.DATA_FILE_NAME);
+        copy(dir, copy, FileBasedSPSCQueueDurable.INDEX_FILE_NAME);
+        q.unsubscribe();
+        FileBasedSPSCQueueDurable<Integer> q2 = createQueue(copy);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, (int) q2.poll());
+        }
+        assertNull(q2.poll());
+        q2.unsubscribe();
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDropped() throws IOException {
+        File dir = directory("torn");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        for (int i = 1; i <= 3; i++) {
+            q.offer(i);
+        }
+        q.unsubscribe();
+        File data = new File(dir, FileBasedSPSCQueueDurable.DATA_FILE_NAME);
+        long length = data.length();
+        FileOutputStream out = new FileOutputStream(data, true);
+        try {
+            // length 4, bad crc and only 2 bytes of the item
+            out.write(new byte[] { 0, 0, 0, 4, 1, 2, 3, 4, 5, 6 });
+        } finally {
+            out.close();
+        }
+        q = createQueue(dir);
+        assertEquals(length, data.length());
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testCorruptIndexReplaysFromStart() throws IOException {
+        File dir = directory("corrupt-index");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        for (int i = 1; i <= 3; i++) {
+            q.offer(i);
+        }
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        q.unsubscribe();
+        RandomAccessFile f = new RandomAccessFile(
+                new File(dir, FileBasedSPSCQueueDurable.INDEX_FILE_NAME), "rw");
+        try {
+            f.seek(20);
+            f.write(f.read() + 1);
+        } finally {
+            f.close();
+        }
+        q = createQueue(dir);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testDataFileResetWhenReaderCatchesUp() {
+        File dir = directory("reset");
+        FileBasedSPSCQueueDurable<Integer> q = new FileBasedSPSCQueueDurable<Integer>(dir, 16,
+                DataSerializers.integer(), SyncPolicy.interval(1, TimeUnit.HOURS), 100);
+        File data = new File(dir, FileBasedSPSCQueueDurable.DATA_FILE_NAME);
+        for (int i = 1; i <= 1000; i++) {
+            q.offer(i);
+            assertEquals(i, (int) q.poll());
+            assertNull(q.poll());
+            assertTrue(data.length() <= 100 + 12);
+        }
+        q.unsubscribe();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDirectoryCannotBeSharedByTwoQueues() {
+        File dir = directory("shared");
+        FileBasedSPSCQueueDurable<Integer> q = createQueue(dir);
+        try {
+            createQueue(dir);
+        } finally {
+            q.unsubscribe();
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final FileBasedSPSCQueueDurable<Integer> queue = new FileBasedSPSCQueueDurable<Integer>(
+                directory("concurrent"), 1024, DataSerializers.integer(),
+                SyncPolicy.interval(100, TimeUnit.MILLISECONDS), 64 * 1024);
+        final int max = 1000000;
+        long t = System.currentTimeMillis();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread t1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 1; i <= max; i++) {
+                    queue.offer(i);
+                }
+            }
+        });
+        Thread t2 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                int i = 1;
+                while (i <= max) {
+                    Integer t = queue.poll();
+                    if (t != null) {
+                        if (i != t) {
+                            failed.set(true);
+                            System.out.println("failed for i = " + i);
+                        }
+                        i++;
+                    }
+                }
+            }
+        });
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+        System.out.println(
+                Math.round(max * 1000.0 / (System.currentTimeMillis() - t)) + " per second");
+        queue.unsubscribe();
+        assertFalse(failed.get());
+    }
+
+    @Test
+    public void testSyncPendingSyncsItemsWrittenSinceLastSync() throws IOException {
+        File dir = directory("sync-pending");
+        FileBasedSPSCQueueDurable<Integer> q = new FileBasedSPSCQueueDurable<Integer>(dir, 16,
+                DataSerializers.integer(), SyncPolicy.everyItems(10));
+        q.offer(1);
+        q.offer(2);
+        assertEquals(0, syncedWritePosition(dir));
+        q.syncPending();
+        // two records of an 8 byte header and a 4 byte integer
+        assertEquals(24, syncedWritePosition(dir));
+        q.unsubscribe();
+        // does nothing once unsubscribed
+        q.syncPending();
+    }
+
+    @Test
+    public void testSyncPeriodicallyWorkerStoppedAfterFinalSync() throws IOException {
+        File dir = directory("sync-periodically");
+        FileBasedSPSCQueueDurable<Integer> q = new FileBasedSPSCQueueDurable<Integer>(dir, 16,
+                DataSerializers.integer(), SyncPolicy.everyItems(10));
+        final TestScheduler scheduler = new TestScheduler();
+        final AtomicReference<Worker> worker = new AtomicReference<Worker>();
+        q.syncPeriodically(new Scheduler() {
+            @Override
+            public Worker createWorker() {
+                worker.set(scheduler.createWorker());
+                return worker.get();
+            }
+        }, 50);
+        q.offer(1);
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        assertEquals(12, syncedWritePosition(dir));
+        q.offer(2);
+        assertFalse(worker.get().isUnsubscribed());
+        q.unsubscribe();
+        assertEquals(24, syncedWritePosition(dir));
+        assertTrue(worker.get().isUnsubscribed());
+    }
+
+    // returns the write position recorded in the index at the last sync
+    static long syncedWritePosition(File dir) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(
+                new File(dir, FileBasedSPSCQueueDurable.INDEX_FILE_NAME), "r");
+        try {
+            if (f.length() < 24) {
+                return 0;
+            }
+            f.seek(8);
+            return f.readLong();
+        } finally {
+            f.close();
+        }
+    }
+
+    private static FileBasedSPSCQueueDurable<Integer> createQueue(File directory) {
+        return new FileBasedSPSCQueueDurable<Integer>(directory, 16, DataSerializers.integer(),
+                SyncPolicy.everyItem());
+    }
+
+    private static File directory(String name) {
+        File dir = new File("target/durable/" + name);
+        new File(dir, FileBasedSPSCQueueDurable.DATA_FILE_NAME).delete();
+        new File(dir, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).delete();
+        return dir;
+    }
+
+    private static void copy(File from, File to, String name) throws IOException {
+        to.mkdirs();
+        Files.copy(new File(from, name).toPath(), new File(to, name).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+import rx.functions.Func0;
+
+public class FileBasedSPSCQueueMemoryMappedTest {
+
+    @Test
+    public void test() {
+        FileBasedSPSCQueueMemoryMapped<Integer> q = createQueue(1000, Long.MAX_VALUE);
+        q.offer(1);
+        assertEquals(1, (int) q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testRolloverOnSize() {
+        // each item is 4 bytes plus a 1 byte marker so 3 per segment
+        FileBasedSPSCQueueMemoryMapped<Integer> q = createQueue(17, Long.MAX_VALUE);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(q.offer(i));
+        }
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testRolloverOnItemCountInterleaved() {
+        FileBasedSPSCQueueMemoryMapped<Integer> q = createQueue(1000, 2);
+        assertNull(q.poll());
+        for (int i = 1; i <= 20; i++) {
+            q.offer(i);
+            q.offer(-i);
+            assertEquals(i, (int) q.poll());
+            assertFalse(q.isEmpty());
+            assertEquals(-i, (int) q.poll());
+            assertNull(q.poll());
+        }
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testUnsubscribeDeletesFiles() {
+        final File dir = new File("target/mmq-delete");
+        dir.mkdirs();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        final AtomicInteger n = new AtomicInteger();
+        FileBasedSPSCQueueMemoryMapped<Integer> q = new FileBasedSPSCQueueMemoryMapped<Integer>(
+                new Func0<File>() {
+                    @Override
+                    public File call() {
+                        return new File(dir, "seg" + n.incrementAndGet());
+                    }
+                }, 17, Long.MAX_VALUE, DataSerializers.integer());
+        for (int i = 1; i <= 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(4, dir.listFiles().length);
+        for (int i = 1; i <= 7; i++) {
+            q.poll();
+        }
+        // two fully read segments, one deleted and one kept for reuse
+        assertEquals(3, dir.listFiles().length);
+        q.unsubscribe();
+        assertTrue(q.isUnsubscribed());
+        assertEquals(0, dir.listFiles().length);
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void testVariableLengthItems() {
+        FileBasedSPSCQueueMemoryMapped<String> q = new FileBasedSPSCQueueMemoryMapped<String>(
+                fileFactory(), 20, Long.MAX_VALUE, DataSerializers.string());
+        String[] values = new String[] { "a", "bcdef", "", "0123456789abcde", "gh" };
+        for (String s : values) {
+            q.offer(s);
+        }
+        for (String s : values) {
+            assertEquals(s, q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testSegmentsSizedFromItemCountForConstantSizeItems() {
+        File dir = emptyDir("target/mmq-sized");
+        FileBasedSPSCQueueMemoryMapped<Integer> q = new FileBasedSPSCQueueMemoryMapped<Integer>(
+                fileFactory(dir), 20 * 1024 * 1024, 10, DataSerializers.integer());
+        // each item is 4 bytes plus a 1 byte marker plus a final marker
+        assertEquals(51, dir.listFiles()[0].length());
+        for (int i = 1; i <= 25; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertEquals(3, dir.listFiles().length);
+        for (File f : dir.listFiles()) {
+            assertEquals(51, f.length());
+        }
+        for (int i = 1; i <= 25; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testSegmentsSizedFromEstimateForVariableSizeItems() {
+        File dir = emptyDir("target/mmq-estimated");
+        int maxSegmentSize = 20 * 1024 * 1024;
+        FileBasedSPSCQueueMemoryMapped<String> q = new FileBasedSPSCQueueMemoryMapped<String>(
+                fileFactory(dir), maxSegmentSize, 1000, DataSerializers.string());
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            big.append('a');
+        }
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            values.add("item" + i);
+        }
+        // larger than the estimated segment size so needs a bigger segment
+        values.add(big.toString());
+        values.add("last");
+        for (String s : values) {
+            assertTrue(q.offer(s));
+        }
+        long total = 0;
+        for (File f : dir.listFiles()) {
+            total += f.length();
+        }
+        assertTrue(total < 1024 * 1024);
+        for (String s : values) {
+            assertEquals(s, q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testItemTooLargeForSegment() {
+        FileBasedSPSCQueueMemoryMapped<String> q = new FileBasedSPSCQueueMemoryMapped<String>(
+                fileFactory(), 10, Long.MAX_VALUE, DataSerializers.string());
+        try {
+            q.offer("0123456789");
+        } finally {
+            q.unsubscribe();
+        }
+    }
+
+    @Test
+    public void testFailedSerializationIsNotVisibleToReader() {
+        DataSerializer<Integer> serializer = new DataSerializer<Integer>() {
+
+            @Override
+            public void serialize(DataOutput output, Integer t) throws IOException {
+                output.writeShort(t);
+                if (t < 0) {
+                    throw new IOException("boo");
+                }
+                output.writeShort(t);
+            }
+
+            @Override
+            public Integer deserialize(DataInput input) throws IOException {
+                input.readShort();
+                return (int) input.readShort();
+            }
+
+            @Override
+            public int size() {
+                return 4;
+            }
+        };
+        FileBasedSPSCQueueMemoryMapped<Integer> q = new FileBasedSPSCQueueMemoryMapped<Integer>(
+                fileFactory(), 100, Long.MAX_VALUE, serializer);
+        q.offer(1);
+        try {
+            q.offer(-1);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        q.offer(2);
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException, ExecutionException {
+        final FileBasedSPSCQueueMemoryMapped<Integer> queue = createQueue(1024 * 1024, 100000);
+        final int max = 10000000;
+        long t = System.currentTimeMillis();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread t1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 1; i <= max; i++) {
+                    queue.offer(i);
+                }
+            }
+        });
+        Thread t2 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                int i = 1;
+                while (i <= max) {
+                    Integer t = queue.poll();
+                    if (t != null) {
+                        if (i != t) {
+                            failed.set(true);
+                            System.out.println("failed for i = " + i);
+                        }
+                        i++;
+                    }
+                }
+            }
+        });
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+        System.out.println(
+                Math.round(max * 1000.0 / (System.currentTimeMillis() - t)) + " per second");
+        queue.unsubscribe();
+        assertFalse(failed.get());
+    }
+
+    private static FileBasedSPSCQueueMemoryMapped<Integer> createQueue(int segmentSizeBytes,
+            long maxItemsPerSegment) {
+        return new FileBasedSPSCQueueMemoryMapped<Integer>(fileFactory(), segmentSizeBytes,
+                maxItemsPerSegment, DataSerializers.integer());
+    }
+
+    private static File emptyDir(String name) {
+        File dir = new File(name);
+        dir.mkdirs();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        return dir;
+    }
+
+    private static Func0<File> fileFactory(final File dir) {
+        return new Func0<File>() {
+            final AtomicInteger n = new AtomicInteger();
+
+            @Override
+            public File call() {
+                return new File(dir, "seg" + n.incrementAndGet());
+            }
+        };
+    }
+
+    private static Func0<File> fileFactory() {
+        return new Func0<File>() {
+            final AtomicInteger n = new AtomicInteger();
+
+            @Override
+            public File call() {
+                File file = new File("target/mmq" + n.incrementAndGet());
+                file.delete();
+                return file;
+            }
+        };
+    }
+
+}
@@ -1,17 +1,24 @@
 package com.github.davidmoten.rx.internal.operators;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
+import com.github.davidmoten.rx.buffertofile.CompressionCodec;
+import com.github.davidmoten.rx.buffertofile.CompressionCodecs;
 import com.github.davidmoten.rx.buffertofile.DataSerializers;
 
+import rx.functions.Func0;
+
 public class FileBasedSPSCQueueTest {
 
 	@Test
@@ -87,6 +94,142 @@ public class FileBasedSPSCQueueTest {
 		assertFalse(failed.get());
 	}
 
+	@Test
+	public void testByteArraysOfManySizes() {
+		File file = new File("target/pq3");
+		file.delete();
+		FileBasedSPSCQueue<byte[]> q = new FileBasedSPSCQueue<byte[]>(16, file, DataSerializers.byteArray());
+		for (int size = 0; size < 100; size++) {
+			q.offer(bytes(size));
+			if (size % 3 == 0) {
+				q.offer(bytes(size + 1));
+				assertArrayEquals(bytes(size), q.poll());
+				assertArrayEquals(bytes(size + 1), q.poll());
+			} else {
+				assertArrayEquals(bytes(size), q.poll());
+			}
+		}
+		assertNull(q.poll());
+		q.unsubscribe();
+	}
+
+	@Test
+	public void testByteArraysConcurrent() throws InterruptedException {
+		File file = new File("target/pq4");
+		file.delete();
+		final FileBasedSPSCQueue<byte[]> queue = new FileBasedSPSCQueue<byte[]>(64, file,
+				DataSerializers.byteArray());
+		final int max = 100000;
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread t1 = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < max; i++) {
+					queue.offer(bytes(i % 300));
+				}
+			}
+		});
+		Thread t2 = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				int i = 0;
+				while (i < max) {
+					byte[] b = queue.poll();
+					if (b != null) {
+						if (!Arrays.equals(bytes(i % 300), b)) {
+							failed.set(true);
+							System.out.println("failed for i = " + i);
+						}
+						i++;
+					}
+				}
+			}
+		});
+		t1.start();
+		t2.start();
+		t1.join();
+		t2.join();
+		queue.unsubscribe();
+		assertFalse(failed.get());
+	}
+
+	@Test
+	public void testByteArraysOfManySizesCompressedDeflate() {
+		checkByteArraysOfManySizesCompressed(CompressionCodecs.deflate());
+	}
+
+	@Test
+	public void testByteArraysOfManySizesCompressedLz() {
+		checkByteArraysOfManySizesCompressed(CompressionCodecs.lz());
+	}
+
+	private static void checkByteArraysOfManySizesCompressed(Func0<CompressionCodec> compression) {
+		File file = new File("target/pq5");
+		file.delete();
+		FileBasedSPSCQueue<byte[]> q = new FileBasedSPSCQueue<byte[]>(16, file, DataSerializers.byteArray(),
+				compression);
+		for (int size = 0; size < 100; size++) {
+			q.offer(bytes(size));
+			if (size % 3 == 0) {
+				q.offer(bytes(size + 1));
+				assertArrayEquals(bytes(size), q.poll());
+				assertArrayEquals(bytes(size + 1), q.poll());
+			} else {
+				assertArrayEquals(bytes(size), q.poll());
+			}
+		}
+		assertNull(q.poll());
+		q.unsubscribe();
+	}
+
+	@Test
+	public void testCompressedConcurrentAndSmallerOnDisk() throws InterruptedException {
+		File file = new File("target/pq6");
+		file.delete();
+		final FileBasedSPSCQueue<byte[]> queue = new FileBasedSPSCQueue<byte[]>(4096, file,
+				DataSerializers.byteArray(), CompressionCodecs.lz());
+		final int max = 100000;
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread t1 = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < max; i++) {
+					queue.offer(bytes(i % 300));
+				}
+			}
+		});
+		t1.start();
+		int i = 0;
+		while (i < max) {
+			byte[] b = queue.poll();
+			if (b != null) {
+				if (!Arrays.equals(bytes(i % 300), b)) {
+					failed.set(true);
+					System.out.println("failed for i = " + i);
+				}
+				i++;
+			}
+		}
+		t1.join();
+		assertFalse(failed.get());
+		// resourcesSize is the compressed size
+		assertEquals(file.length(), queue.resourcesSize());
+		System.out.println("compressed size=" + file.length());
+		assertTrue(file.length() < max * 50L);
+		queue.unsubscribe();
+	}
+
+	private static byte[] bytes(int size) {
+		byte[] b = new byte[size];
+		for (int i = 0; i < size; i++) {
+			b[i] = (byte) (size + i);
+		}
+		return b;
+	}
+
 	private static FileBasedSPSCQueue<Integer> createQueue() {
 		File file = new File("target/pq");
 		file.delete();
@@ -4,11 +4,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -16,14 +22,24 @@ import com.github.davidmoten.rx.Actions;
 import com.github.davidmoten.rx.Functions;
 import com.github.davidmoten.rx.Obs;
 import com.github.davidmoten.rx.Transformers;
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
 import com.github.davidmoten.rx.testing.TestSubscriber2;
 import com.github.davidmoten.rx.testing.TestingHelper;
+import com.github.davidmoten.rx.util.MatchMetrics;
 
 import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
+import rx.observers.TestSubscriber;
 import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
 
 public class OnSubscribeMatchTest {
 
@@ -309,6 +325,572 @@ public class OnSubscribeMatchTest {
         Obs.match(a, b, Functions.identity(), Functions.identity(), COMBINER, -1);
     }
 
+    @Test
+    public void testSpillWithinBudgetDoesNotCreateFiles() {
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.just(1, 2, 3);
+        Observable<Integer> b = Observable.just(3, 2, 1);
+        matchSpilling(a, b, 3, files, 4) //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValues(3, 2, 1) //
+                .assertCompleted();
+        assertEquals(0, files.created.get());
+    }
+
+    @Test
+    public void testSpillReversedMatchesAll() {
+        final int n = 10000;
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, n);
+        Observable<Integer> b = Observable.range(1, n).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return n + 1 - x;
+            }
+        });
+        List<Integer> list = matchSpilling(a, b, 100, files, 8) //
+                .toSortedList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Observable.range(1, n).toList().toBlocking().single(), list);
+        assertTrue(files.created.get() > 0);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillSplitsPartitionsLargerThanBudget() {
+        final int n = 4000;
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, n);
+        Observable<Integer> b = Observable.range(1, n).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return n + 1 - x;
+            }
+        });
+        // each of the 2 spilled partitions holds about 2000 items of each
+        // source so must be split to fit the budget of 50
+        List<Integer> list = matchSpilling(a, b, 50, files, 2) //
+                .toSortedList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Observable.range(1, n).toList().toBlocking().single(), list);
+        assertTrue(files.created.get() > 4);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillLoadsSingleKeyLargerThanBudget() {
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, 1000);
+        Observable<Integer> b = Observable.range(1, 1000);
+        a.compose(Transformers.matchWith(b, Functions.constant(1), Functions.constant(1),
+                COMBINER, 16, DataSerializers.integer(), DataSerializers.integer(), 10, files, 4))
+                .count() //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValue(1000) //
+                .assertCompleted();
+        assertTrue(files.created.get() > 0);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillReversedMatchesAllAsync() {
+        final int n = 10000;
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, n).subscribeOn(Schedulers.computation());
+        Observable<Integer> b = Observable.range(1, n).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return n + 1 - x;
+            }
+        }).subscribeOn(Schedulers.computation());
+        List<Integer> list = matchSpilling(a, b, 100, files, 8) //
+                .toSortedList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Observable.range(1, n).toList().toBlocking().single(), list);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillPairsRepeatedKeysInArrivalOrder() {
+        // key is x / 10 for a and x / 100 for b, matches are emitted as
+        // 1000 * a + b
+        Observable<Integer> a = Observable.just(10, 20, 11, 21, 12, 30);
+        Observable<Integer> b = Observable.just(200, 100, 201, 101, 102, 202);
+        Func1<Integer, Integer> aKey = new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return x / 10;
+            }
+        };
+        Func1<Integer, Integer> bKey = new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return x / 100;
+            }
+        };
+        Func2<Integer, Integer, Integer> combiner = new Func2<Integer, Integer, Integer>() {
+            @Override
+            public Integer call(Integer x, Integer y) {
+                return 1000 * x + y;
+            }
+        };
+        SpillFiles files = new SpillFiles();
+        Obs.match(a, b, aKey, bKey, combiner, 1, DataSerializers.integer(),
+                DataSerializers.integer(), 0, files, 2) //
+                .toSortedList() //
+                .to(TestingHelper.<List<Integer>> test()) //
+                .assertValue(Arrays.asList(10100, 11101, 12102, 20200, 21201)) //
+                .assertCompleted();
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillHandlesNulls() {
+        Observable<Integer> a = Observable.just(null, null, null);
+        Observable<Integer> b = Observable.just(null, null);
+        Obs.match(a, b, Functions.constant(1), Functions.constant(1), COMBINER, 1,
+                DataSerializers.integer(), DataSerializers.integer(), 0, new SpillFiles(), 4)
+                .to(TestingHelper.<Integer> test()) //
+                .assertValues(null, null) //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testSpillBackpressure() {
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, 100);
+        Observable<Integer> b = Observable.range(1, 100).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return 101 - x;
+            }
+        });
+        TestSubscriber2<Integer> ts = matchSpilling(a, b, 10, files, 4) //
+                .to(TestingHelper.<Integer> testWithRequest(0)) //
+                .assertNoValues() //
+                .assertNoTerminalEvent() //
+                .requestMore(1);
+        assertEquals(1, ts.getOnNextEvents().size());
+        ts.assertNoTerminalEvent();
+        ts.requestMore(98);
+        assertEquals(99, ts.getOnNextEvents().size());
+        ts.assertNoTerminalEvent();
+        ts.requestMore(1);
+        assertEquals(100, ts.getOnNextEvents().size());
+        ts.assertCompleted();
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSpillUnsubscribeDeletesFiles() {
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.range(1, 1000);
+        Observable<Integer> b = Observable.range(1, 1000).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return 1001 - x;
+            }
+        });
+        matchSpilling(a, b, 10, files, 4) //
+                .take(1) //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValueCount(1) //
+                .assertCompleted();
+        assertTrue(files.created.get() > 0);
+        files.assertAllDeleted();
+    }
+
+    @Test(timeout = 5000)
+    public void testSpillFinishesWhenOtherSourceHasNoSpilledItemsToMatch() {
+        SpillFiles files = new SpillFiles();
+        Observable<Integer> a = Observable.just(1, 2, 3, 4);
+        // b does not complete but all items of a are matched in memory
+        Observable<Integer> b = Observable.just(5, 6, 7, 8, 4, 3, 2, 1)
+                .concatWith(Observable.<Integer> never());
+        matchSpilling(a, b, 100, files, 4) //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValues(4, 3, 2, 1) //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testSpillSerializerErrorIsEmitted() {
+        Observable<Integer> a = Observable.just(1, 2, 3);
+        Observable<Integer> b = Observable.just(3, 2, 1);
+        DataSerializer<Integer> failing = new DataSerializer<Integer>() {
+
+            @Override
+            public void serialize(DataOutput output, Integer t) throws IOException {
+                throw new IOException("boom");
+            }
+
+            @Override
+            public Integer deserialize(DataInput input) throws IOException {
+                return input.readInt();
+            }
+
+            @Override
+            public int size() {
+                return 4;
+            }
+        };
+        SpillFiles files = new SpillFiles();
+        Obs.match(a, b, Functions.<Integer> identity(), Functions.<Integer> identity(), COMBINER,
+                1, failing, DataSerializers.integer(), 0, files, 4) //
+                .to(TestingHelper.<Integer> test()) //
+                .assertNoValues() //
+                .assertError(IOException.class);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testExpiryEvictsUnmatchedItems() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        TestSubscriber2<Integer> ts = matchEvicting(a, b, Long.MAX_VALUE, 100, scheduler,
+                evictedA, evictedB).to(TestingHelper.<Integer> test());
+        a.onNext(1);
+        b.onNext(2);
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        a.onNext(3);
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        // evicted between 100ms and 112.5ms after arrival
+        assertTrue(evictedA.isEmpty());
+        scheduler.advanceTimeBy(13, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(1), evictedA);
+        assertEquals(Arrays.asList(2), evictedB);
+        b.onNext(1);
+        b.onNext(3);
+        ts.assertValues(3).assertNoTerminalEvent();
+        scheduler.advanceTimeBy(113, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(1), evictedA);
+        assertEquals(Arrays.asList(2, 1), evictedB);
+        ts.assertNoTerminalEvent();
+        ts.unsubscribe();
+        assertFalse(a.hasObservers());
+        assertFalse(b.hasObservers());
+    }
+
+    @Test
+    public void testMaxUnmatchedEvictsOldest() {
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        TestSubscriber2<Integer> ts = matchEvicting(a, b, 2, 0, Schedulers.immediate(),
+                evictedA, evictedB).to(TestingHelper.<Integer> test());
+        a.onNext(1);
+        a.onNext(2);
+        a.onNext(3);
+        assertEquals(Arrays.asList(1), evictedA);
+        b.onNext(3);
+        b.onNext(1);
+        ts.assertValues(3);
+        b.onNext(4);
+        assertEquals(Arrays.asList(1, 2), evictedA);
+        a.onNext(4);
+        a.onNext(1);
+        ts.assertValues(3, 4, 1);
+        b.onNext(5);
+        b.onNext(6);
+        b.onNext(7);
+        assertEquals(Arrays.asList(5), evictedB);
+        a.onCompleted();
+        b.onCompleted();
+        ts.assertValues(3, 4, 1).assertCompleted();
+        assertEquals(Arrays.asList(1, 2), evictedA);
+    }
+
+    @Test
+    public void testEvictionWithoutCallbacksDiscardsEvictedItems() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        TestSubscriber2<Integer> ts = a
+                .compose(Transformers.matchWith(b, Functions.<Integer> identity(),
+                        Functions.<Integer> identity(), COMBINER, 128, 2, 100,
+                        TimeUnit.MILLISECONDS, scheduler, null, null))
+                .to(TestingHelper.<Integer> test());
+        a.onNext(1);
+        a.onNext(2);
+        a.onNext(3);
+        // 1 evicted by maxUnmatched
+        b.onNext(3);
+        b.onNext(1);
+        b.onNext(2);
+        ts.assertValues(3, 2);
+        // 1 from b evicted by expiry
+        scheduler.advanceTimeBy(113, TimeUnit.MILLISECONDS);
+        a.onNext(1);
+        ts.assertValues(3, 2).assertNoErrors();
+        ts.unsubscribe();
+    }
+
+    @Test
+    public void testMaxUnmatchedWithRepeatedKeysEvictsOldestOfKey() {
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        // key is x / 10 and matches are emitted as a
+        Func1<Integer, Integer> key = new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return x / 10;
+            }
+        };
+        TestSubscriber2<Integer> ts = Obs
+                .match(a, b, key, key, COMBINER, 128, 2, 0, TimeUnit.MILLISECONDS,
+                        Schedulers.immediate(), Actions.addTo(evictedA),
+                        Actions.addTo(evictedB)) //
+                .to(TestingHelper.<Integer> test());
+        a.onNext(10);
+        a.onNext(11);
+        b.onNext(10);
+        a.onNext(12);
+        a.onNext(20);
+        assertEquals(Arrays.asList(11), evictedA);
+        b.onNext(10);
+        ts.assertValues(10, 12);
+        a.onNext(30);
+        a.onNext(31);
+        assertEquals(Arrays.asList(11, 20), evictedA);
+        assertTrue(evictedB.isEmpty());
+    }
+
+    @Test
+    public void testManyMatchesWithLongLivedUnmatchedItem() {
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        Observable<Integer> a = Observable.just(0).concatWith(Observable.range(1, 100000));
+        Observable<Integer> b = Observable.range(1, 100000);
+        // matched items behind the unmatched 0 are discarded by compaction
+        matchEvicting(a, b, 1000, 0, Schedulers.immediate(), evictedA, evictedB) //
+                .count() //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValue(100000) //
+                .assertCompleted();
+        assertTrue(evictedA.isEmpty());
+        assertTrue(evictedB.isEmpty());
+    }
+
+    @Test
+    public void testCompletesWhenItemsOfCompletedSourceAreEvicted() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> a = PublishSubject.create();
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        TestSubscriber2<Integer> ts = matchEvicting(a, Observable.just(1, 2), Long.MAX_VALUE, 100,
+                scheduler, evictedA, evictedB).to(TestingHelper.<Integer> test());
+        a.onNext(2);
+        ts.assertValues(2).assertNoTerminalEvent();
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(1), evictedB);
+        ts.assertCompleted();
+        assertFalse(a.hasObservers());
+    }
+
+    @Test
+    public void testExpiryEvictsWhileThereIsNoDemand() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        List<Integer> evictedA = new ArrayList<Integer>();
+        List<Integer> evictedB = new ArrayList<Integer>();
+        TestSubscriber<Integer> ts = TestSubscriber.create(1);
+        matchEvicting(a, b, Long.MAX_VALUE, 100, scheduler, evictedA, evictedB).subscribe(ts);
+        a.onNext(5);
+        a.onNext(1);
+        b.onNext(1);
+        // the single request has been met
+        ts.assertValues(1);
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(5), evictedA);
+        ts.assertValues(1);
+        ts.assertNoTerminalEvent();
+        ts.unsubscribe();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxAgeBelowOneMillisecondThrowsIAE() {
+        Obs.match(Observable.just(1), Observable.just(1), Functions.<Integer> identity(),
+                Functions.<Integer> identity(), COMBINER, 128, Long.MAX_VALUE, 999,
+                TimeUnit.MICROSECONDS, Schedulers.computation(), null, null);
+    }
+
+    @Test
+    public void testEvictionCallbackErrorIsEmitted() {
+        PublishSubject<Integer> a = PublishSubject.create();
+        PublishSubject<Integer> b = PublishSubject.create();
+        TestSubscriber2<Integer> ts = Obs
+                .match(a, b, Functions.<Integer> identity(), Functions.<Integer> identity(),
+                        COMBINER, 128, 1, 0, TimeUnit.MILLISECONDS, Schedulers.immediate(),
+                        new Action1<Integer>() {
+                            @Override
+                            public void call(Integer t) {
+                                throw new Functions.ThrowingException();
+                            }
+                        }, Actions.<Integer> doNothing1()) //
+                .to(TestingHelper.<Integer> test());
+        a.onNext(1);
+        a.onNext(2);
+        ts.assertNoValues().assertError(Functions.ThrowingException.class);
+        assertFalse(a.hasObservers());
+    }
+
+    private static Observable<Integer> matchEvicting(Observable<Integer> a, Observable<Integer> b,
+            long maxUnmatched, long maxAgeMs, Scheduler scheduler, List<Integer> evictedA,
+            List<Integer> evictedB) {
+        return a.compose(Transformers.matchWith(b, Functions.<Integer> identity(),
+                Functions.<Integer> identity(), COMBINER, 128, maxUnmatched, maxAgeMs,
+                TimeUnit.MILLISECONDS, scheduler, Actions.addTo(evictedA),
+                Actions.addTo(evictedB)));
+    }
+
+    @Test
+    public void testAdaptiveDoesNotRequestFromSideThatIsAhead() {
+        List<Long> requestsA = new ArrayList<Long>();
+        Observable<Integer> a = Observable.range(1, 1000).doOnRequest(Actions.addTo(requestsA));
+        PublishSubject<Integer> b = PublishSubject.create();
+        MatchMetrics metrics = new MatchMetrics();
+        TestSubscriber2<Integer> ts = Obs
+                .matchAdaptive(a, b, Functions.<Integer> identity(),
+                        Functions.<Integer> identity(), COMBINER, 10, metrics) //
+                .to(TestingHelper.<Integer> test());
+        // a has delivered its first request and is 10 ahead so is paused
+        assertEquals(Arrays.asList(10L), requestsA);
+        assertEquals(10, metrics.backlogA());
+        assertEquals(0, metrics.backlogB());
+        assertEquals(10, metrics.requestedA());
+        for (int i = 1; i <= 5; i++) {
+            b.onNext(i);
+        }
+        // a was requested from again once b caught up by 1
+        ts.assertValues(1, 2, 3, 4, 5);
+        assertEquals(Arrays.asList(10L, 10L), requestsA);
+        assertEquals(15, metrics.backlogA());
+        assertEquals(20, metrics.requestedA());
+        ts.unsubscribe();
+    }
+
+    @Test
+    public void testAdaptiveRequestsMoreFromSideThatIsBehind() {
+        // a is hot and ignores backpressure
+        final List<Subscriber<? super Integer>> subscribers = //
+                new ArrayList<Subscriber<? super Integer>>();
+        Observable<Integer> a = Observable.unsafeCreate(new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> subscriber) {
+                subscribers.add(subscriber);
+            }
+        });
+        TestScheduler scheduler = new TestScheduler();
+        List<Long> requestsB = new ArrayList<Long>();
+        // b only delivers when the scheduler is triggered
+        Observable<Integer> b = Observable.range(1, 1000).observeOn(scheduler)
+                .doOnRequest(Actions.addTo(requestsB));
+        MatchMetrics metrics = new MatchMetrics();
+        Obs.matchAdaptive(a, b, Functions.<Integer> identity(), Functions.<Integer> identity(),
+                COMBINER, 10, metrics) //
+                .to(TestingHelper.<Integer> test());
+        scheduler.triggerActions();
+        assertEquals(Arrays.asList(10L), requestsB);
+        assertEquals(10, metrics.backlogB());
+        // a gets well ahead with items that b cannot match
+        for (int i = 2000; i < 2100; i++) {
+            subscribers.get(0).onNext(i);
+        }
+        assertEquals(100, metrics.backlogA());
+        scheduler.triggerActions();
+        // b was requested from with up to 4 * requestSize while behind and
+        // stopped once it was requestSize ahead
+        assertEquals(Arrays.asList(10L, 10L, 40L, 40L, 10L), requestsB);
+        assertEquals(110, metrics.backlogB());
+        assertEquals(110, metrics.requestedB());
+        assertEquals(20, metrics.requestedA());
+    }
+
+    @Test
+    public void testAdaptiveMatchesAllWhenReversed() {
+        final int n = 10000;
+        Observable<Integer> a = Observable.range(1, n);
+        Observable<Integer> b = Observable.range(1, n).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer x) {
+                return n + 1 - x;
+            }
+        });
+        MatchMetrics metrics = new MatchMetrics();
+        List<Integer> list = a
+                .compose(Transformers.matchWithAdaptive(b, Functions.<Integer> identity(),
+                        Functions.<Integer> identity(), COMBINER, 16, metrics)) //
+                .toSortedList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Observable.range(1, n).toList().toBlocking().single(), list);
+        assertEquals(0, metrics.backlogA());
+        assertEquals(0, metrics.backlogB());
+    }
+
+    @Test
+    public void testAdaptiveMatchesAllAsync() {
+        Observable<Integer> a = Observable.range(1, 100000).subscribeOn(Schedulers.computation());
+        Observable<Integer> b = Observable.range(1, 100000).subscribeOn(Schedulers.computation());
+        a.compose(Transformers.matchWithAdaptive(b, Functions.<Integer> identity(),
+                Functions.<Integer> identity(), COMBINER)) //
+                .count() //
+                .to(TestingHelper.<Integer> test()) //
+                .awaitTerminalEvent(10, TimeUnit.SECONDS) //
+                .assertValue(100000) //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testAdaptiveKeepsRequestingWhenOtherSideCompleted() {
+        Observable<Integer> a = Observable.just(1);
+        Observable<Integer> b = Observable.just(2).repeat(1000).concatWith(Observable.just(1));
+        Obs.matchAdaptive(a, b, Functions.<Integer> identity(), Functions.<Integer> identity(),
+                COMBINER, 4, null) //
+                .to(TestingHelper.<Integer> test()) //
+                .assertValues(1) //
+                .assertCompleted();
+    }
+
+    private static Observable<Integer> matchSpilling(Observable<Integer> a, Observable<Integer> b,
+            long maxItemsInMemory, SpillFiles files, int partitions) {
+        return a.compose(Transformers.matchWith(b, Functions.<Integer> identity(),
+                Functions.<Integer> identity(), COMBINER, 16, DataSerializers.integer(),
+                DataSerializers.integer(), maxItemsInMemory, files, partitions));
+    }
+
+    private static final class SpillFiles implements Func0<File> {
+
+        final AtomicInteger created = new AtomicInteger();
+        final List<File> files = Collections.synchronizedList(new ArrayList<File>());
+
+        @Override
+        public File call() {
+            File file = new File("target/matchSpill-" + System.identityHashCode(this) + "-"
+                    + created.incrementAndGet());
+            files.add(file);
+            return file;
+        }
+
+        void assertAllDeleted() {
+            synchronized (files) {
+                for (File file : files) {
+                    assertFalse(file + " not deleted", file.exists());
+                }
+            }
+        }
+    }
+
     private void testShifted(int n, boolean async) {
         Observable<Integer> a = Observable.just(0).concatWith(Observable.range(1, n));
         if (async) {
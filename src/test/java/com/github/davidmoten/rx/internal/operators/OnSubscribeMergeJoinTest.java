@@ -0,0 +1,232 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.Functions;
+import com.github.davidmoten.rx.JoinType;
+import com.github.davidmoten.rx.Obs;
+import com.github.davidmoten.rx.Transformers;
+import com.github.davidmoten.rx.testing.TestSubscriber2;
+import com.github.davidmoten.rx.testing.TestingHelper;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+public class OnSubscribeMergeJoinTest {
+
+    @Test
+    public void testInnerJoinOneToOne() {
+        join(Observable.just(10, 20, 30), Observable.just(11, 21, 31), JoinType.INNER) //
+                .assertValues("10-11", "20-21", "30-31") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testInnerJoinSkipsUnmatched() {
+        join(Observable.just(10, 20, 40), Observable.just(21, 31, 41, 51), JoinType.INNER) //
+                .assertValues("20-21", "40-41") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testInnerJoinDuplicateKeysGivesCrossProduct() {
+        join(Observable.just(10, 11, 20), Observable.just(12, 13, 14, 25), JoinType.INNER) //
+                .assertValues("10-12", "10-13", "10-14", "11-12", "11-13", "11-14", "20-25") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testLeftJoin() {
+        join(Observable.just(10, 20, 21, 30), Observable.just(15, 16, 25, 45), JoinType.LEFT) //
+                .assertValues("10-15", "10-16", "20-25", "21-25", "30-null") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testLeftJoinSecondEmpty() {
+        join(Observable.just(10, 20), Observable.<Integer> empty(), JoinType.LEFT) //
+                .assertValues("10-null", "20-null") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testFullOuterJoin() {
+        join(Observable.just(10, 30, 31, 50), Observable.just(20, 21, 35, 60, 61),
+                JoinType.FULL_OUTER) //
+                        .assertValues("10-null", "null-20", "null-21", "30-35", "31-35",
+                                "50-null", "null-60", "null-61") //
+                        .assertCompleted();
+    }
+
+    @Test
+    public void testFullOuterJoinFirstEmpty() {
+        join(Observable.<Integer> empty(), Observable.just(10, 20), JoinType.FULL_OUTER) //
+                .assertValues("null-10", "null-20") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testFullOuterJoinUnmatchedGroupAtEnd() {
+        join(Observable.just(10), Observable.just(20, 21), JoinType.FULL_OUTER) //
+                .assertValues("10-null", "null-20", "null-21") //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testInnerJoinBothEmpty() {
+        join(Observable.<Integer> empty(), Observable.<Integer> empty(), JoinType.INNER) //
+                .assertNoValues() //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testInnerJoinCompletesWithoutWaitingForLongerSource() {
+        TestSubscriber2<String> ts = join(Observable.just(10),
+                Observable.just(11, 20).concatWith(Observable.<Integer> never()),
+                JoinType.INNER);
+        ts.assertValues("10-11");
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void testBackpressure() {
+        TestSubscriber<String> ts = TestSubscriber.create(0);
+        Obs.mergeJoin(Observable.just(10, 11, 20), Observable.just(12, 13, 21), KEY, KEY,
+                JoinType.FULL_OUTER, COMBINER) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.requestMore(1);
+        ts.assertValues("10-12");
+        ts.requestMore(2);
+        ts.assertValues("10-12", "10-13", "11-12");
+        ts.assertNotCompleted();
+        ts.requestMore(2);
+        ts.assertValues("10-12", "10-13", "11-12", "11-13", "20-21");
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void testUnsortedFirstSourceEmitsError() {
+        join(Observable.just(10, 30, 20), Observable.just(10, 20, 30), JoinType.INNER) //
+                .assertValues("10-10", "30-30") //
+                .assertError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testUnsortedSecondSourceEmitsError() {
+        join(Observable.just(10, 20, 30), Observable.just(10, 30, 20), JoinType.INNER) //
+                .assertValues("10-10") //
+                .assertError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSourceErrorIsEmitted() {
+        RuntimeException e = new RuntimeException();
+        join(Observable.just(10).concatWith(Observable.<Integer> error(e)),
+                Observable.just(10, 20), JoinType.INNER) //
+                        // errors are emitted without waiting for buffered items
+                        .assertNoValues() //
+                        .assertError(e);
+    }
+
+    @Test
+    public void testCombinerErrorIsEmitted() {
+        final RuntimeException e = new RuntimeException();
+        TestSubscriber<String> ts = TestSubscriber.create();
+        Obs.mergeJoin(Observable.just(10), Observable.just(10), KEY, KEY, JoinType.INNER,
+                new Func2<Integer, Integer, String>() {
+                    @Override
+                    public String call(Integer a, Integer b) {
+                        throw e;
+                    }
+                }) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.assertError(e);
+    }
+
+    @Test
+    public void testComparatorOverload() {
+        // sorted descending
+        TestSubscriber<String> ts = TestSubscriber.create();
+        Observable.just(30, 20, 10) //
+                .compose(Transformers.mergeJoinWith(Observable.just(31, 11), KEY, KEY,
+                        Collections.<Integer> reverseOrder(), JoinType.LEFT, COMBINER)) //
+                .subscribe(ts);
+        ts.assertValues("30-31", "20-null", "10-11");
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void testLongAsynchronousJoin() {
+        int n = 100000;
+        Observable<Integer> a = Observable.range(0, n).subscribeOn(Schedulers.computation());
+        // every second key of a has a match
+        Observable<Integer> b = Observable.range(0, n / 2).map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer i) {
+                return i * 2;
+            }
+        }).subscribeOn(Schedulers.computation());
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Obs.mergeJoin(a, b, Functions.<Integer> identity(), Functions.<Integer> identity(),
+                JoinType.INNER, new Func2<Integer, Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer x, Integer y) {
+                        return x;
+                    }
+                }) //
+                .subscribe(ts);
+        ts.awaitTerminalEvent(30, TimeUnit.SECONDS);
+        ts.assertCompleted();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < n; i += 2) {
+            expected.add(i);
+        }
+        assertEquals(expected, ts.getOnNextEvents());
+    }
+
+    @Test
+    public void testJoinWithTransformerComparableOverload() {
+        List<String> list = Observable.just(10, 20) //
+                .compose(Transformers.mergeJoinWith(Observable.just(21), KEY, KEY,
+                        JoinType.INNER, COMBINER)) //
+                .toList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Arrays.asList("20-21"), list);
+    }
+
+    private static TestSubscriber2<String> join(Observable<Integer> a, Observable<Integer> b,
+            JoinType joinType) {
+        return Obs.mergeJoin(a, b, KEY, KEY, joinType, COMBINER)
+                .to(TestingHelper.<String> test());
+    }
+
+    // the key of a value is its tens digit
+    private static final Func1<Integer, Integer> KEY = new Func1<Integer, Integer>() {
+        @Override
+        public Integer call(Integer n) {
+            return n / 10;
+        }
+    };
+
+    private static final Func2<Integer, Integer, String> COMBINER = new Func2<Integer, Integer, String>() {
+        @Override
+        public String call(Integer a, Integer b) {
+            return a + "-" + b;
+        }
+    };
+
+}
@@ -34,21 +34,31 @@ import org.junit.runners.MethodSorters;
 
 import com.github.davidmoten.rx.Actions;
 import com.github.davidmoten.rx.Transformers;
+import com.github.davidmoten.rx.buffertofile.CacheType;
+import com.github.davidmoten.rx.buffertofile.CompressionCodec;
+import com.github.davidmoten.rx.buffertofile.CompressionCodecs;
 import com.github.davidmoten.rx.buffertofile.DataSerializer;
 import com.github.davidmoten.rx.buffertofile.DataSerializers;
 import com.github.davidmoten.rx.buffertofile.Options;
+import com.github.davidmoten.rx.buffertofile.StorageCounters;
+import com.github.davidmoten.rx.buffertofile.StorageOverflowPolicy;
+import com.github.davidmoten.rx.buffertofile.SyncPolicy;
+import com.github.davidmoten.rx.exceptions.StorageSizeLimitExceededException;
 import com.github.davidmoten.rx.testing.TestingHelper;
 
 import rx.Observable;
+import rx.Observable.OnSubscribe;
 import rx.Scheduler;
 import rx.Scheduler.Worker;
 import rx.Subscriber;
 import rx.functions.Action0;
 import rx.functions.Action1;
 import rx.functions.Func0;
+import rx.functions.Func1;
 import rx.observers.TestSubscriber;
 import rx.plugins.RxJavaHooks;
 import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public final class OperatorBufferToFileTest {
@@ -332,6 +342,40 @@ public final class OperatorBufferToFileTest {
         checkMultiSecondLoopOfMidStreamUnsubscribeWithOptions(max, options);
     }
 
+    @Test
+    public void handlesMultiSecondLoopOfMidStreamUnsubscribeMemoryMapped() throws Throwable {
+        System.out.println("handlesMultiSecondLoopOfMidStreamUnsubscribeMemoryMapped");
+        int max = 1000;
+        Options options = Options.memoryMapped(true).rolloverSizeBytes(1000).build();
+        checkMultiSecondLoopOfMidStreamUnsubscribeWithOptions(max, options);
+    }
+
+    @Test
+    public void handlesMultiSecondLoopOfMidStreamUnsubscribeCompressed() throws Throwable {
+        System.out.println("handlesMultiSecondLoopOfMidStreamUnsubscribeCompressed");
+        int max = 1000;
+        Options options = Options.rolloverSizeBytes(1000).compression(CompressionCodecs.lz())
+                .build();
+        checkMultiSecondLoopOfMidStreamUnsubscribeWithOptions(max, options);
+    }
+
+    @Test
+    public void handlesMultiSecondLoopOfMidStreamUnsubscribeCached() throws Throwable {
+        System.out.println("handlesMultiSecondLoopOfMidStreamUnsubscribeCached");
+        int max = 1000;
+        Options options = Options.rolloverEvery(max / 10).cacheType(CacheType.HARD_REF)
+                .cacheSizeItems(100).build();
+        checkMultiSecondLoopOfMidStreamUnsubscribeWithOptions(max, options);
+    }
+
+    @Test
+    public void handlesMultiSecondLoopOfMidStreamUnsubscribeBatched() throws Throwable {
+        System.out.println("handlesMultiSecondLoopOfMidStreamUnsubscribeBatched");
+        int max = 1000;
+        Options options = Options.rolloverEvery(max / 10).batchSize(16).build();
+        checkMultiSecondLoopOfMidStreamUnsubscribeWithOptions(max, options);
+    }
+
     @Test
     @Ignore
     public void handlesMultiSecondLoopOfMidStreamUnsubscribeNoRollover() throws Throwable {
@@ -460,6 +504,26 @@ public final class OperatorBufferToFileTest {
         checkRateForSmallMessagesWithOptions(Options.rolloverSizeBytes(Long.MAX_VALUE - 1).build());
     }
 
+    @Test
+    public void checkRateForSmallMessagesMemoryMapped() {
+        System.out.println("checkRateForSmallMessagesMemoryMapped");
+        checkRateForSmallMessagesWithOptions(Options.memoryMapped(true).build());
+    }
+
+    @Test
+    public void checkRateForSmallMessagesCached() {
+        System.out.println("checkRateForSmallMessagesCached");
+        checkRateForSmallMessagesWithOptions(Options.rolloverSizeBytes(Long.MAX_VALUE - 1)
+                .cacheType(CacheType.SOFT_REF).cacheSizeBytes(64 * 1024).build());
+    }
+
+    @Test
+    public void checkRateForSmallMessagesBatched() {
+        System.out.println("checkRateForSmallMessagesBatched");
+        checkRateForSmallMessagesWithOptions(
+                Options.rolloverSizeBytes(Long.MAX_VALUE - 1).batchSize(128).build());
+    }
+
     private static String df(double d) {
         return new DecimalFormat("0.0").format(d);
     }
@@ -485,7 +549,12 @@ public final class OperatorBufferToFileTest {
     }
 
     private static String rolloverStatus(Options options) {
-        return options.rolloverEnabled() ? "rollover" : "no rollover";
+        return (options.rolloverEnabled() ? "rollover" : "no rollover")
+                + (options.memoryMapped() ? ", memory-mapped" : "")
+                + (options.durable() ? ", durable " + options.syncPolicy() : "")
+                + (options.compression() != null ? ", compressed" : "")
+                + (options.cacheType() != CacheType.NO_CACHE ? ", cache " + options.cacheType() : "")
+                + (options.batchSize() > 1 ? ", batchSize=" + options.batchSize() : "");
     }
 
     @Test
@@ -500,6 +569,26 @@ public final class OperatorBufferToFileTest {
         checkRateForOneKMessagesWithOptions(Options.rolloverSizeBytes(Long.MAX_VALUE - 1).build());
     }
 
+    @Test
+    public void checkRateForOneKMessagesCompressedDeflate() {
+        System.out.println("checkRateForOneKMessagesCompressedDeflate");
+        checkRateForOneKMessagesWithOptions(Options.rolloverSizeMB(1).bufferSizeBytes(65536)
+                .compression(CompressionCodecs.deflate()).build());
+    }
+
+    @Test
+    public void checkRateForOneKMessagesCompressedLz() {
+        System.out.println("checkRateForOneKMessagesCompressedLz");
+        checkRateForOneKMessagesWithOptions(Options.rolloverSizeMB(1).bufferSizeBytes(65536)
+                .compression(CompressionCodecs.lz()).build());
+    }
+
+    @Test
+    public void checkRateForOneKMessagesMemoryMapped() {
+        System.out.println("checkRateForOneKMessagesMemoryMapped");
+        checkRateForOneKMessagesWithOptions(Options.memoryMapped(true).build());
+    }
+
     private static void checkRateForOneKMessagesWithOptions(Options options) {
         Scheduler scheduler = createSingleThreadScheduler();
         DataSerializer<Integer> serializer = createSerializer1K();
@@ -634,6 +723,484 @@ public final class OperatorBufferToFileTest {
         }
     }
 
+    @Test
+    public void testCompletionDeletesAllFilesMemoryMapped() {
+        System.out.println("testCompletionDeletesAllFilesMemoryMapped");
+        Scheduler scheduler = createSingleThreadScheduler();
+        DataSerializer<Integer> serializer = DataSerializers.integer();
+        int max = 100000;
+        final Func0<File> defaultFileFactory = Options.defaultInstance().fileFactory();
+        final Queue<File> q = new ConcurrentLinkedQueue<File>();
+        Func0<File> fileFactory = new Func0<File>() {
+            @Override
+            public File call() {
+                File file = defaultFileFactory.call();
+                q.add(file);
+                return file;
+            }
+        };
+        int last = Observable.range(1, max)
+                //
+                .compose(Transformers.onBackpressureBufferToFile(serializer, scheduler,
+                        Options.memoryMapped(true).rolloverSizeBytes(10000)
+                                .fileFactory(fileFactory).build()))
+                .last().toBlocking().single();
+        assertEquals(max, last);
+        waitUntilWorkCompleted(scheduler);
+        assertFalse(q.isEmpty());
+        for (File f : q) {
+            assertFalse("file should not exist " + f, f.exists());
+        }
+    }
+
+    @Test
+    public void rolloverWorksBatched() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            int max = 100;
+            Scheduler scheduler = createSingleThreadScheduler();
+            List<Integer> list = Observable.range(1, max)
+                    //
+                    .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                            scheduler, Options.rolloverEvery(max / 10).batchSize(7).build()))
+                    .toList().toBlocking().single();
+            assertEquals(max, list.size());
+            for (int j = 0; j < max; j++) {
+                assertEquals(j + 1, (int) list.get(j));
+            }
+            waitUntilWorkCompleted(scheduler, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void handlesBackpressureBatched() {
+        Scheduler scheduler = createSingleThreadScheduler();
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 10)
+                //
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        scheduler, Options.batchSize(4).build()))
+                .subscribe(ts);
+        ts.requestMore(3);
+        ts.awaitValueCount(3, 5, TimeUnit.SECONDS);
+        ts.assertValues(1, 2, 3);
+        ts.requestMore(7);
+        ts.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        ts.assertValues(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        ts.assertCompleted();
+        waitUntilWorkCompleted(scheduler);
+    }
+
+    @Test
+    public void handlesErrorBatched() {
+        Scheduler scheduler = createSingleThreadScheduler();
+        TestSubscriber<String> ts = TestSubscriber.create();
+        Observable.just("a", "b").concatWith(Observable.<String> error(new IOException("boo")))
+                //
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.string(),
+                        scheduler, Options.batchSize(10).build()))
+                .subscribe(ts);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertValues("a", "b");
+        ts.assertError(IOException.class);
+        waitUntilWorkCompleted(scheduler);
+    }
+
+    @Test
+    public void testNullsInStreamBatched() {
+        List<Integer> list = Observable.just(1, 2, (Integer) null, 4)
+                .compose(Transformers.<Integer> onBackpressureBufferToFile(
+                        DataSerializers.<Integer> javaIO(), Schedulers.computation(),
+                        Options.batchSize(3).build()))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(1, 2, (Integer) null, 4), list);
+    }
+
+    @Test
+    public void testDurableQueueResumesAfterUnsubscribe() {
+        File directory = new File("target/durable-resume");
+        new File(directory, FileBasedSPSCQueueDurable.DATA_FILE_NAME).delete();
+        new File(directory, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).delete();
+        Options options = Options.durable(directory).build();
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 100)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.immediate(), options))
+                .subscribe(ts);
+        ts.requestMore(10);
+        ts.assertValueCount(10);
+        ts.unsubscribe();
+        assertTrue(new File(directory, FileBasedSPSCQueueDurable.DATA_FILE_NAME).exists());
+        // resume with no new items, the last item emitted was not
+        // acknowledged so is emitted again
+        List<Integer> list = Observable.<Integer> empty()
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.immediate(), options))
+                .toList().toBlocking().single();
+        assertEquals(91, list.size());
+        assertEquals(10, (int) list.get(0));
+        assertEquals(100, (int) list.get(90));
+        // all acknowledged so the files are deleted
+        assertFalse(new File(directory, FileBasedSPSCQueueDurable.DATA_FILE_NAME).exists());
+        assertFalse(new File(directory, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).exists());
+    }
+
+    @Test
+    public void testDurableQueueSyncsWhileProducerIsIdle() throws Exception {
+        File directory = new File("target/durable-idle");
+        new File(directory, FileBasedSPSCQueueDurable.DATA_FILE_NAME).delete();
+        new File(directory, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).delete();
+        Options options = Options.durable(directory)
+                .syncPolicy(SyncPolicy.everyItems(1000, 50, TimeUnit.MILLISECONDS)).build();
+        final TestScheduler io = new TestScheduler();
+        RxJavaHooks.setOnIOScheduler(new Func1<Scheduler, Scheduler>() {
+            @Override
+            public Scheduler call(Scheduler scheduler) {
+                return io;
+            }
+        });
+        try {
+            // nothing is requested so the items stay on the queue
+            TestSubscriber<Integer> ts = TestSubscriber.create(0);
+            Observable.range(1, 5)
+                    .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                            Schedulers.immediate(), options))
+                    .subscribe(ts);
+            assertEquals(0, FileBasedSPSCQueueDurableTest.syncedWritePosition(directory));
+            io.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+            // five records of an 8 byte header and a 4 byte integer
+            assertEquals(60, FileBasedSPSCQueueDurableTest.syncedWritePosition(directory));
+            ts.unsubscribe();
+        } finally {
+            RxJavaHooks.reset();
+        }
+        List<Integer> list = Observable.<Integer> empty()
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.immediate(), options))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), list);
+    }
+
+    @Test
+    public void checkRateForSmallMessagesDurable() {
+        File directory = new File("target/durable-rate");
+        new File(directory, FileBasedSPSCQueueDurable.DATA_FILE_NAME).delete();
+        new File(directory, FileBasedSPSCQueueDurable.INDEX_FILE_NAME).delete();
+        checkRateForSmallMessagesWithOptions(Options.durable(directory)
+                .syncPolicy(SyncPolicy.interval(100, TimeUnit.MILLISECONDS)).build());
+    }
+
+    @Test
+    public void handlesThreeElementsCompressed() {
+        checkHandlesThreeElements(Options.compression(CompressionCodecs.deflate()).build());
+    }
+
+    @Test
+    public void testCompressionCodecsClosedOnRolloverAndUnsubscribe() {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final Func0<CompressionCodec> deflate = CompressionCodecs.deflate();
+        Func0<CompressionCodec> factory = new Func0<CompressionCodec>() {
+            @Override
+            public CompressionCodec call() {
+                created.incrementAndGet();
+                final CompressionCodec codec = deflate.call();
+                return new CompressionCodec() {
+
+                    @Override
+                    public int maxCompressedLength(int length) {
+                        return codec.maxCompressedLength(length);
+                    }
+
+                    @Override
+                    public int compress(byte[] input, int offset, int length, byte[] output,
+                            int outputOffset) {
+                        return codec.compress(input, offset, length, output, outputOffset);
+                    }
+
+                    @Override
+                    public void decompress(byte[] input, int offset, int length, byte[] output,
+                            int outputOffset, int decompressedLength) throws IOException {
+                        codec.decompress(input, offset, length, output, outputOffset,
+                                decompressedLength);
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                        codec.close();
+                    }
+                };
+            }
+        };
+        int count = Observable.range(1, 10000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), Options.rolloverEvery(1000)
+                                .bufferSizeBytes(256).compression(factory).build()))
+                .count().toBlocking().single();
+        assertEquals(10000, count);
+        // a write and a read codec for each rolled over queue
+        assertTrue(created.get() > 2);
+        assertEquals(created.get(), closed.get());
+    }
+
+    @Test
+    public void testCompressedStringsRollover() {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            expected.add("the quick brown fox jumps over the lazy dog " + i);
+        }
+        List<String> list = Observable.from(expected)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.string(),
+                        Schedulers.computation(), Options.rolloverSizeBytes(10000)
+                                .bufferSizeBytes(4096).compression(CompressionCodecs.lz()).build()))
+                .toList().toBlocking().single();
+        assertEquals(expected, list);
+    }
+
+    @Test
+    public void testStorageSizeLimitError() {
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), storageLimited(StorageOverflowPolicy.ERROR)
+                                .delayError(false).build()))
+                .subscribe(ts);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertError(StorageSizeLimitExceededException.class);
+        ts.assertNoValues();
+    }
+
+    @Test
+    public void testStorageSizeLimitDropLatest() {
+        StorageCounters counters = new StorageCounters();
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), storageLimited(StorageOverflowPolicy.DROP_LATEST)
+                                .storageCounters(counters).build()))
+                .subscribe(ts);
+        assertTrue(counters.bytes() >= 4000);
+        ts.requestMore(Long.MAX_VALUE);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertCompleted();
+        List<Integer> list = ts.getOnNextEvents();
+        // the first items are kept
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i + 1, (int) list.get(i));
+        }
+        assertTrue(list.size() < 2000);
+        assertEquals(100000 - list.size(), counters.droppedItems());
+        assertEquals(0, counters.bytes());
+        assertEquals(0, counters.segments());
+    }
+
+    @Test
+    public void testStorageSizeLimitDropOldest() {
+        StorageCounters counters = new StorageCounters();
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 100000)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), storageLimited(StorageOverflowPolicy.DROP_OLDEST)
+                                .storageCounters(counters).build()))
+                .subscribe(ts);
+        assertTrue(counters.segments() <= 4);
+        ts.requestMore(Long.MAX_VALUE);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertCompleted();
+        List<Integer> list = ts.getOnNextEvents();
+        // the last items are kept in order
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(100000 - list.size() + i + 1, (int) list.get(i));
+        }
+        assertTrue(list.size() < 2000);
+        assertTrue(counters.droppedSegments() > 0);
+        assertEquals(0, counters.bytes());
+        assertEquals(0, counters.segments());
+    }
+
+    @Test
+    public void testStorageSizeLimitBlock() {
+        final StorageCounters counters = new StorageCounters();
+        final int max = 100000;
+        List<Integer> list = Observable.range(1, max)
+                .subscribeOn(Schedulers.io())
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), storageLimited(StorageOverflowPolicy.BLOCK)
+                                .storageCounters(counters).build()))
+                .doOnNext(new Action1<Integer>() {
+                    @Override
+                    public void call(Integer n) {
+                        // slow consumer so that the producer blocks
+                        if (n % 1000 == 0) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                        // allow for one buffer and item over the limit
+                        assertTrue(counters.bytes() <= 4000 + 64 + 4);
+                    }
+                }).toList().toBlocking().single();
+        assertEquals(max, list.size());
+        for (int i = 0; i < max; i++) {
+            assertEquals(i + 1, (int) list.get(i));
+        }
+        assertEquals(0, counters.bytes());
+    }
+
+    @Test
+    public void testStorageSizeLimitBlockReleasedOnUnsubscribe() throws InterruptedException {
+        final StorageCounters counters = new StorageCounters();
+        final CountDownLatch finished = new CountDownLatch(1);
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.create(new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> child) {
+                int i = 0;
+                while (!child.isUnsubscribed()) {
+                    child.onNext(i++);
+                }
+                finished.countDown();
+            }
+        }).subscribeOn(Schedulers.io())
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), storageLimited(StorageOverflowPolicy.BLOCK)
+                                .storageCounters(counters).build()))
+                .subscribe(ts);
+        // wait for the producer to block
+        while (counters.bytes() < 4000) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(1, finished.getCount());
+        ts.unsubscribe();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, counters.bytes());
+        assertEquals(0, counters.segments());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStorageSizeLimitBlockWithImmediateSchedulerRejected() {
+        new OperatorBufferToFile<Integer>(DataSerializers.integer(), Schedulers.immediate(),
+                storageLimited(StorageOverflowPolicy.BLOCK).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStorageSizeLimitBlockWithTrampolineSchedulerRejected() {
+        new OperatorBufferToFile<Integer>(DataSerializers.integer(), Schedulers.trampoline(),
+                storageLimited(StorageOverflowPolicy.BLOCK).build());
+    }
+
+    private static Options.Builder storageLimited(StorageOverflowPolicy policy) {
+        return Options.rolloverSizeBytes(1000).bufferSizeBytes(64).storageSizeLimitBytes(4000)
+                .storageOverflowPolicy(policy);
+    }
+
+    @Test
+    public void handlesThreeElementsCached() {
+        checkHandlesThreeElements(Options.cacheType(CacheType.HARD_REF).cacheSizeItems(1).build());
+    }
+
+    @Test
+    public void testCacheWithSlowConsumerSpillsToFileInOrder() {
+        int max = 10000;
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, max)
+                .compose(Transformers.onBackpressureBufferToFile(DataSerializers.integer(),
+                        Schedulers.computation(), Options.rolloverEvery(1000)
+                                .cacheType(CacheType.HARD_REF).cacheSizeItems(100).build()))
+                .subscribe(ts);
+        ts.requestMore(Long.MAX_VALUE);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertCompleted();
+        List<Integer> list = ts.getOnNextEvents();
+        assertEquals(max, list.size());
+        for (int i = 0; i < max; i++) {
+            assertEquals(i + 1, (int) list.get(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheSizeBytesRequiresConstantSizeSerializer() {
+        Transformers.onBackpressureBufferToFile(DataSerializers.string(), Schedulers.computation(),
+                Options.cacheType(CacheType.HARD_REF).cacheSizeBytes(1000).build())
+                .call(Observable.just("a"));
+    }
+
+    @Test
+    public void testHybridWithSlowConsumerSpillsToFileInOrder() {
+        int max = 10000;
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, max)
+                .compose(Transformers.onBackpressureBufferHybrid(DataSerializers.integer(),
+                        Schedulers.computation(), 100, Options.rolloverEvery(1000).build()))
+                .subscribe(ts);
+        ts.requestMore(50);
+        ts.awaitValueCount(50, 10, TimeUnit.SECONDS);
+        ts.requestMore(Long.MAX_VALUE);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertCompleted();
+        List<Integer> list = ts.getOnNextEvents();
+        assertEquals(max, list.size());
+        for (int i = 0; i < max; i++) {
+            assertEquals(i + 1, (int) list.get(i));
+        }
+    }
+
+    @Test
+    public void testNullsInStreamHandledHybrid() {
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.just(1, 2, (Integer) null, 4, null)
+                .compose(Transformers.<Integer> onBackpressureBufferHybrid(
+                        DataSerializers.<Integer> javaIO(), Schedulers.computation(), 2))
+                .subscribe(ts);
+        ts.requestMore(Long.MAX_VALUE);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertValues(1, 2, null, 4, null);
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void checkRateForSmallMessagesHybrid() {
+        System.out.println("checkRateForSmallMessagesHybrid");
+        Scheduler scheduler = createSingleThreadScheduler();
+        int max = Integer.parseInt(System.getProperty("max.small", "3000000"));
+        long t = System.currentTimeMillis();
+        int last = Observable.range(1, max)
+                .compose(Transformers.onBackpressureBufferHybrid(DataSerializers.integer(),
+                        scheduler, 1024, Options.rolloverEvery(100000).build()))
+                .last().toBlocking().single();
+        t = System.currentTimeMillis() - t;
+        assertEquals(max, last);
+        System.out.println("rate = " + df((double) max * 4 / (t) / 1000)
+                + "MB/s (4B messages, rollover, hybrid) duration=" + format(t / 1000.0));
+        waitUntilWorkCompleted(scheduler);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHybridCannotBeDurable() {
+        Transformers.onBackpressureBufferHybrid(DataSerializers.integer(),
+                Schedulers.computation(), 10,
+                Options.durable(new File("target/hybrid-durable")).build())
+                .call(Observable.just(1));
+    }
+
+    @Test
+    public void handlesThreeElementsMemoryMapped() {
+        checkHandlesThreeElements(Options.memoryMapped(true).build());
+    }
+
+    @Test
+    public void testNullsInStreamHandledMemoryMapped() {
+        List<Integer> list = Observable.just(1, 2, (Integer) null, 4)
+                .compose(Transformers.<Integer> onBackpressureBufferToFile(
+                        DataSerializers.<Integer> javaIO(), Schedulers.computation(),
+                        Options.memoryMapped(true).build()))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(1, 2, (Integer) null, 4), list);
+    }
+
     @Test
     public void testForReadMe() {
         System.out.println("testForReadMe");
@@ -0,0 +1,217 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.Transformers;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+public class OperatorWindowAggregateTest {
+
+    private static final double PRECISION = 1e-9;
+
+    @Test
+    public void testSum() {
+        List<Double> list = Observable.just(1, 2, 3, 4, 5)
+                .compose(Transformers.<Integer> windowSum(3)).toList().toBlocking().single();
+        assertEquals(Arrays.asList(6.0, 9.0, 12.0), list);
+    }
+
+    @Test
+    public void testMean() {
+        List<Double> list = Observable.just(1, 2, 3, 4, 5)
+                .compose(Transformers.<Integer> windowMean(2)).toList().toBlocking().single();
+        assertEquals(Arrays.asList(1.5, 2.5, 3.5, 4.5), list);
+    }
+
+    @Test
+    public void testVariance() {
+        List<Double> list = Observable.just(1, 3, 1, 1)
+                .compose(Transformers.<Integer> windowVariance(2)).toList().toBlocking()
+                .single();
+        assertEquals(Arrays.asList(1.0, 1.0, 0.0), list);
+    }
+
+    @Test
+    public void testMedian() {
+        List<Double> list = Observable.just(5, 1, 4, 2, 3)
+                .compose(Transformers.<Integer> windowPercentile(3, 50)).toList().toBlocking()
+                .single();
+        assertEquals(Arrays.asList(4.0, 2.0, 3.0), list);
+    }
+
+    @Test
+    public void testWindowSizeBiggerThanAvailableProducesEmptyList() {
+        List<Double> list = Observable.just(1, 2)
+                .compose(Transformers.<Integer> windowSum(3)).toList().toBlocking().single();
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random r = new Random(42);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 3000; i++) {
+            // small range so that there are many duplicates
+            values.add(r.nextInt(100) - 50);
+        }
+        for (int windowSize : new int[] { 1, 2, 7, 16, 17, 100, 2999 }) {
+            List<Double> sums = aggregate(values, Transformers.<Integer> windowSum(windowSize));
+            List<Double> means = aggregate(values, Transformers.<Integer> windowMean(windowSize));
+            List<Double> variances = aggregate(values,
+                    Transformers.<Integer> windowVariance(windowSize));
+            List<Double> p0 = aggregate(values,
+                    Transformers.<Integer> windowPercentile(windowSize, 0));
+            List<Double> p30 = aggregate(values,
+                    Transformers.<Integer> windowPercentile(windowSize, 30));
+            List<Double> p100 = aggregate(values,
+                    Transformers.<Integer> windowPercentile(windowSize, 100));
+            assertEquals(values.size() - windowSize + 1, sums.size());
+            for (int i = windowSize; i <= values.size(); i++) {
+                List<Integer> window = values.subList(i - windowSize, i);
+                int j = i - windowSize;
+                double sum = 0;
+                for (int x : window) {
+                    sum += x;
+                }
+                double mean = sum / windowSize;
+                double sumSquares = 0;
+                for (int x : window) {
+                    sumSquares += (x - mean) * (x - mean);
+                }
+                assertEquals(sum, sums.get(j), PRECISION);
+                assertEquals(mean, means.get(j), PRECISION);
+                assertEquals(sumSquares / windowSize, variances.get(j), 1e-6);
+                assertEquals(percentile(window, 0), p0.get(j), 0);
+                assertEquals(percentile(window, 30), p30.get(j), 0);
+                assertEquals(percentile(window, 100), p100.get(j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testVarianceIsStableForLargeMagnitudes() {
+        // the naive sumX2 / n - mean^2 formula gives garbage here
+        List<Double> values = new ArrayList<Double>();
+        for (int i = 0; i < 100000; i++) {
+            values.add(1e9 + (i % 2 == 0 ? 1 : -1));
+        }
+        List<Double> variances = Observable.from(values)
+                .compose(Transformers.<Double> windowVariance(10)).toList().toBlocking()
+                .single();
+        for (double v : variances) {
+            assertEquals(1.0, v, 1e-6);
+        }
+    }
+
+    @Test
+    public void testTimeBased() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> subject = PublishSubject.create();
+        TestSubscriber<Double> sums = TestSubscriber.create();
+        TestSubscriber<Double> medians = TestSubscriber.create();
+        subject.compose(Transformers.<Integer> windowSum(10, TimeUnit.SECONDS, scheduler))
+                .subscribe(sums);
+        subject.compose(
+                Transformers.<Integer> windowPercentile(10, TimeUnit.SECONDS, 50, scheduler))
+                .subscribe(medians);
+        subject.onNext(1);
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        subject.onNext(2);
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        subject.onNext(3);
+        // 1 leaves the window
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        subject.onNext(10);
+        // 2 and 3 leave the window
+        scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+        subject.onNext(5);
+        subject.onCompleted();
+        sums.assertValues(1.0, 3.0, 6.0, 15.0, 5.0);
+        medians.assertValues(1.0, 1.0, 2.0, 3.0, 5.0);
+        sums.assertCompleted();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDurationBelowOneMillisecondRejected() {
+        Transformers.<Integer> windowSum(500, TimeUnit.MICROSECONDS, new TestScheduler());
+    }
+
+    @Test
+    public void testTimeBasedMeanAndVariance() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<Integer> subject = PublishSubject.create();
+        TestSubscriber<Double> means = TestSubscriber.create();
+        TestSubscriber<Double> variances = TestSubscriber.create();
+        subject.compose(Transformers.<Integer> windowMean(1, TimeUnit.SECONDS, scheduler))
+                .subscribe(means);
+        subject.compose(Transformers.<Integer> windowVariance(1, TimeUnit.SECONDS, scheduler))
+                .subscribe(variances);
+        subject.onNext(2);
+        subject.onNext(4);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        subject.onNext(6);
+        means.assertValues(2.0, 3.0, 6.0);
+        variances.assertValues(0.0, 1.0, 0.0);
+    }
+
+    @Test
+    public void testBackpressure() {
+        TestSubscriber<Double> ts = TestSubscriber.create(0);
+        Observable.range(1, 10).compose(Transformers.<Integer> windowSum(3)).subscribe(ts);
+        ts.assertNoValues();
+        ts.requestMore(2);
+        ts.assertValues(6.0, 9.0);
+        ts.requestMore(100);
+        assertEquals(8, ts.getOnNextEvents().size());
+        ts.assertCompleted();
+    }
+
+    @Test
+    public void testErrorPropagated() {
+        TestSubscriber<Double> ts = TestSubscriber.create();
+        RuntimeException r = new RuntimeException();
+        Observable.<Integer> error(r).compose(Transformers.<Integer> windowMean(2)).subscribe(ts);
+        ts.assertError(r);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowSizeZeroThrowsIAE() {
+        Transformers.<Integer> windowSum(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDurationZeroThrowsIAE() {
+        Transformers.<Integer> windowSum(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRangeThrowsIAE() {
+        Transformers.<Integer> windowPercentile(10, 101);
+    }
+
+    private static List<Double> aggregate(List<Integer> values,
+            Observable.Transformer<Integer, Double> transformer) {
+        return Observable.from(values).compose(transformer).toList().toBlocking().single();
+    }
+
+    private static double percentile(List<Integer> window, double percentile) {
+        List<Integer> sorted = new ArrayList<Integer>(window);
+        Collections.sort(sorted);
+        int rank = Math.max(1, (int) Math.ceil(percentile / 100 * sorted.size()));
+        return sorted.get(rank - 1);
+    }
+}
@@ -3,8 +3,11 @@ package com.github.davidmoten.rx.internal.operators;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -71,4 +74,49 @@ public class OperatorWindowMinMaxTest {
         ts.assertError(r);
     }
 
+    @Test
+    public void testMatchesBruteForceAcrossBufferGrowthAndWrap() {
+        Random r = new Random(123);
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 2000; i++) {
+            // small range so that there are many duplicates
+            list.add(r.nextInt(50));
+        }
+        for (int windowSize : new int[] { 1, 2, 3, 15, 16, 17, 100, 1999, 2000 }) {
+            List<Integer> min = Observable.from(list)
+                    .compose(Transformers.<Integer> windowMin(windowSize)).toList().toBlocking()
+                    .single();
+            List<Integer> max = Observable.from(list)
+                    .compose(Transformers.<Integer> windowMax(windowSize)).toList().toBlocking()
+                    .single();
+            List<Integer> expectedMin = new ArrayList<Integer>();
+            List<Integer> expectedMax = new ArrayList<Integer>();
+            for (int i = windowSize; i <= list.size(); i++) {
+                List<Integer> window = list.subList(i - windowSize, i);
+                expectedMin.add(Collections.min(window));
+                expectedMax.add(Collections.max(window));
+            }
+            assertEquals(expectedMin, min);
+            assertEquals(expectedMax, max);
+        }
+    }
+
+    @Test
+    public void testIncreasingFillsLargeWindow() {
+        // every value stays in the deque so the buffers grow to the window
+        List<Integer> list = Observable.range(1, 1000)
+                .compose(Transformers.<Integer> windowMin(500)).toList().toBlocking().single();
+        assertEquals(501, list.size());
+        assertEquals(1, (int) list.get(0));
+        assertEquals(501, (int) list.get(500));
+    }
+
+    @Test
+    public void testMaximumWindowSizeDoesNotAllocateWholeWindow() {
+        List<Integer> list = Observable.just(1, 2)
+                .compose(Transformers.<Integer> windowMin(Integer.MAX_VALUE)).toList()
+                .toBlocking().single();
+        assertTrue(list.isEmpty());
+    }
+
 }
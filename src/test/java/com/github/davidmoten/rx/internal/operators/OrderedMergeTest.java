@@ -3,15 +3,21 @@ package com.github.davidmoten.rx.internal.operators;
 import static org.junit.Assert.assertEquals;
 import static rx.Observable.from;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
+import com.github.davidmoten.rx.DoubleFunc1;
+import com.github.davidmoten.rx.LongFunc1;
+import com.github.davidmoten.rx.Obs;
 import com.github.davidmoten.rx.Transformers;
 import com.github.davidmoten.rx.testing.TestingHelper;
 import com.github.davidmoten.rx.util.RxRingBuffer;
@@ -46,6 +52,11 @@ public class OrderedMergeTest {
 		checkAllCombinationsFromPowerSet(Schedulers.immediate());
 	}
 
+	@Test
+	public void testWithAllCombinationsFromPowerSetWithRuns() {
+		checkAllCombinationsFromPowerSet(Schedulers.immediate(), 3);
+	}
+
 	@Test
 	public void testWithAllCombinationsFromPowerSetAsync() {
 		long t = System.currentTimeMillis();
@@ -55,6 +66,10 @@ public class OrderedMergeTest {
 	}
 
 	private void checkAllCombinationsFromPowerSet(Scheduler scheduler) {
+		checkAllCombinationsFromPowerSet(scheduler, 1);
+	}
+
+	private void checkAllCombinationsFromPowerSet(Scheduler scheduler, int maxRunLength) {
 		// this test covers everything!
 		for (int n = 0; n <= 10; n++) {
 			Set<Integer> numbers = Sets.newTreeSet();
@@ -66,8 +81,16 @@ public class OrderedMergeTest {
 				TreeSet<Integer> y = Sets.newTreeSet(Sets.difference(numbers, x));
 				Observable<Integer> o1 = from(x).subscribeOn(scheduler);
 				Observable<Integer> o2 = from(y).subscribeOn(scheduler);
-				List<Integer> list = o1.compose(Transformers.orderedMergeWith(o2, comparator)).toList().toBlocking()
-						.single();
+				final List<Integer> list;
+				if (maxRunLength == 1) {
+					list = o1.compose(Transformers.orderedMergeWith(o2, comparator)).toList().toBlocking()
+							.single();
+				} else {
+					@SuppressWarnings("unchecked")
+					List<Observable<Integer>> others = Arrays.asList(o2);
+					list = o1.compose(Transformers.orderedMergeWith(others, comparator, false,
+							RxRingBuffer.SIZE, maxRunLength)).toList().toBlocking().single();
+				}
 				// System.out.println(x + " " + y);
 				assertEquals(Lists.newArrayList(numbers), list);
 			}
@@ -285,4 +308,278 @@ public class OrderedMergeTest {
           .test() //
           .assertError(ex);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testManySourcesUseHeapAndMergeInOrder() {
+		checkManySources(500, 100, Schedulers.immediate());
+	}
+
+	@Test
+	public void testManySourcesUseHeapAndMergeInOrderAsync() {
+		checkManySources(100, 1000, Schedulers.computation());
+	}
+
+	@Test
+	public void testManySourcesWithRuns() {
+		checkManySources(500, 100, Schedulers.immediate(), 8);
+	}
+
+	@Test
+	public void testManySourcesWithRunsAsync() {
+		checkManySources(100, 1000, Schedulers.computation(), 100);
+	}
+
+	@Test
+	public void testSourceCountAroundHeapThreshold() {
+		for (int n = OrderedMerge.HEAP_THRESHOLD - 1; n <= OrderedMerge.HEAP_THRESHOLD + 2; n++) {
+			checkManySources(n, 50, Schedulers.immediate());
+			checkManySources(n, 50, Schedulers.immediate(), 5);
+		}
+	}
+
+	private static void checkManySources(int numSources, int maxSize, Scheduler scheduler) {
+		checkManySources(numSources, maxSize, scheduler, 1);
+	}
+
+	private static void checkManySources(int numSources, int maxSize, Scheduler scheduler,
+			int maxRunLength) {
+		Random random = new Random(numSources);
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		List<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < numSources; i++) {
+			List<Integer> list = new ArrayList<Integer>();
+			int size = random.nextInt(maxSize + 1);
+			for (int j = 0; j < size; j++) {
+				list.add(random.nextInt(10000));
+			}
+			Collections.sort(list);
+			all.addAll(list);
+			sources.add(Observable.from(list).subscribeOn(scheduler));
+		}
+		Collections.sort(all);
+		List<Integer> list = OrderedMerge.create(sources, comparator, false, 16, maxRunLength).toList()
+				.toBlocking().single();
+		assertEquals(all, list);
+	}
+
+	@Test
+	public void testManySourcesTiesEmittedInSourceOrder() {
+		// compare only on the tens digit so that the units digit identifies
+		// the source
+		Comparator<Integer> tens = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return ((Integer) (a / 10)).compareTo(b / 10);
+			}
+		};
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 10; i++) {
+			sources.add(Observable.just(i, 10 + i, 20 + i));
+		}
+		for (int j = 0; j < 3; j++) {
+			for (int i = 0; i < 10; i++) {
+				expected.add(j * 10 + i);
+			}
+		}
+		List<Integer> list = OrderedMerge.create(sources, tens).toList().toBlocking().single();
+		assertEquals(expected, list);
+		list = OrderedMerge.create(sources, tens, false, 16, 10).toList().toBlocking().single();
+		assertEquals(expected, list);
+	}
+
+	@Test
+	public void testRunsAreEmittedInOrderForClusteredSources() {
+		Observable<Integer> o1 = Observable.range(1, 100).concatWith(Observable.range(201, 100));
+		Observable<Integer> o2 = Observable.range(101, 100);
+		List<Integer> list = OrderedMerge.create(Arrays.asList(o1, o2), comparator, false, 16, 7).toList()
+				.toBlocking().single();
+		assertEquals(Lists.newArrayList(Observable.range(1, 300).toBlocking().toIterable()), list);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRunsRespectBackpressure() {
+		Observable<Integer> o1 = Observable.range(1, 100);
+		Observable<Integer> o2 = Observable.range(101, 100);
+		TestSubscriber<Integer> ts = TestSubscriber.create(0);
+		OrderedMerge.create(Arrays.asList(o1, o2), comparator, false, 16, 50).subscribe(ts);
+		ts.requestMore(3);
+		ts.assertValues(1, 2, 3);
+		ts.requestMore(97);
+		ts.assertValueCount(100);
+		ts.assertNotCompleted();
+		ts.requestMore(100);
+		ts.assertValueCount(200);
+		ts.assertCompleted();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRunsWithComparatorThrowing() {
+		final RuntimeException ex = new RuntimeException("boo");
+		Comparator<Integer> c = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				throw ex;
+			}
+		};
+		OrderedMerge.create(Arrays.asList(Observable.just(1, 3), Observable.just(2, 4)), c, false, 16, 10)
+				.test() //
+				.assertError(ex);
+	}
+
+	@Test
+	public void testManySourcesBackpressure() {
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		for (int i = 0; i < 20; i++) {
+			sources.add(Observable.just(i, 20 + i, 40 + i));
+		}
+		TestSubscriber<Integer> ts = TestSubscriber.create(0);
+		OrderedMerge.create(sources).subscribe(ts);
+		ts.assertNoValues();
+		ts.requestMore(3);
+		ts.assertValues(0, 1, 2);
+		ts.assertNotCompleted();
+		ts.requestMore(57);
+		ts.assertValueCount(60);
+		ts.assertCompleted();
+	}
+
+	@Test
+	public void testManySourcesErrorInMiddle() {
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		for (int i = 0; i < 19; i++) {
+			sources.add(Observable.just(10 + i, 30 + i));
+		}
+		sources.add(Observable.just(1).concatWith(Observable.<Integer> error(new TestException())));
+		TestSubscriber<Integer> ts = TestSubscriber.create();
+		OrderedMerge.create(sources).subscribe(ts);
+		ts.assertError(TestException.class);
+		ts.assertNotCompleted();
+		ts.assertValues(1);
+	}
+
+	@Test
+	public void testManySourcesEmpty() {
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		for (int i = 0; i < 20; i++) {
+			sources.add(Observable.<Integer> empty());
+		}
+		TestSubscriber<Integer> ts = TestSubscriber.create(0);
+		OrderedMerge.create(sources).subscribe(ts);
+		ts.assertNoValues();
+		ts.assertCompleted();
+	}
+
+	private static final LongFunc1<Integer> LONG_KEY = new LongFunc1<Integer>() {
+		@Override
+		public long call(Integer t) {
+			return t;
+		}
+	};
+
+	private static final DoubleFunc1<Integer> DOUBLE_KEY = new DoubleFunc1<Integer>() {
+		@Override
+		public double call(Integer t) {
+			return t / 2.0;
+		}
+	};
+
+	@Test
+	public void testLongKeyManySources() {
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		List<Integer> all = randomSortedSources(100, 100, sources);
+		List<Integer> list = Obs.orderedMergeLongKey(sources, LONG_KEY).toList().toBlocking().single();
+		assertEquals(all, list);
+		list = Obs.orderedMergeLongKey(sources, LONG_KEY, false, 16, 10).toList().toBlocking().single();
+		assertEquals(all, list);
+	}
+
+	@Test
+	public void testDoubleKeyManySources() {
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		List<Integer> all = randomSortedSources(100, 100, sources);
+		List<Integer> list = Obs.orderedMergeDoubleKey(sources, DOUBLE_KEY).toList().toBlocking().single();
+		assertEquals(all, list);
+		list = Obs.orderedMergeDoubleKey(sources, DOUBLE_KEY, false, 16, 10).toList().toBlocking().single();
+		assertEquals(all, list);
+	}
+
+	@Test
+	public void testLongKeyTwoSourcesWithTransformer() {
+		@SuppressWarnings("unchecked")
+		List<Observable<Integer>> others = Arrays.asList(Observable.just(-3, 2, 4, 10));
+		Observable.just(-5, 1, 3, 5) //
+				.compose(Transformers.orderedMergeWithLongKey(others, LONG_KEY)) //
+				.test() //
+				.assertValues(-5, -3, 1, 2, 3, 4, 5, 10) //
+				.assertCompleted();
+	}
+
+	@Test
+	public void testDoubleKeyTwoSourcesWithTransformer() {
+		@SuppressWarnings("unchecked")
+		List<Observable<Integer>> others = Arrays.asList(Observable.just(-3, 2, 4, 10));
+		Observable.just(-5, 1, 3, 5) //
+				.compose(Transformers.orderedMergeWithDoubleKey(others, DOUBLE_KEY)) //
+				.test() //
+				.assertValues(-5, -3, 1, 2, 3, 4, 5, 10) //
+				.assertCompleted();
+	}
+
+	@Test
+	public void testLongKeyTiesEmittedInSourceOrder() {
+		LongFunc1<Integer> tens = new LongFunc1<Integer>() {
+			@Override
+			public long call(Integer t) {
+				return t / 10;
+			}
+		};
+		List<Observable<Integer>> sources = new ArrayList<Observable<Integer>>();
+		for (int i = 0; i < 3; i++) {
+			sources.add(Observable.just(i, 10 + i));
+		}
+		Obs.orderedMergeLongKey(sources, tens) //
+				.test() //
+				.assertValues(0, 1, 2, 10, 11, 12) //
+				.assertCompleted();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLongKeyThrows() {
+		final RuntimeException ex = new RuntimeException("boo");
+		LongFunc1<Integer> key = new LongFunc1<Integer>() {
+			@Override
+			public long call(Integer t) {
+				if (t == 3) {
+					throw ex;
+				}
+				return t;
+			}
+		};
+		Obs.orderedMergeLongKey(Arrays.asList(Observable.just(1, 3), Observable.just(2, 4)), key) //
+				.test() //
+				.assertValues(1) //
+				.assertError(ex);
+	}
+
+	private static List<Integer> randomSortedSources(int numSources, int maxSize,
+			List<Observable<Integer>> sources) {
+		Random random = new Random(numSources);
+		List<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < numSources; i++) {
+			List<Integer> list = new ArrayList<Integer>();
+			int size = random.nextInt(maxSize + 1);
+			for (int j = 0; j < size; j++) {
+				list.add(random.nextInt(10000) - 5000);
+			}
+			Collections.sort(list);
+			all.addAll(list);
+			sources.add(Observable.from(list));
+		}
+		Collections.sort(all);
+		return all;
+	}
+}
@@ -0,0 +1,126 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+public class QueueWithBatchingTest {
+
+    @Test
+    public void testPartialBatchIsReadWhenQueueEmpty() {
+        QueueWithBatching<Integer> q = createQueue(DataSerializers.integer(), 3);
+        assertTrue(q.isEmpty());
+        q.offer(1);
+        assertFalse(q.isEmpty());
+        assertEquals(1, (int) q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testFullAndPartialBatches() {
+        QueueWithBatching<Integer> q = createQueue(DataSerializers.integer(), 3);
+        for (int i = 1; i <= 7; i++) {
+            q.offer(i);
+        }
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        q.offer(8);
+        for (int i = 6; i <= 8; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testNonBatchSerializerWithNulls() {
+        DataSerializer<Integer> serializer = DataSerializers.javaIO();
+        QueueWithBatching<Integer> q = createQueue(serializer, 2);
+        q.offer(1);
+        q.offer(null);
+        q.offer(3);
+        assertEquals(1, (int) q.poll());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertEquals(3, (int) q.poll());
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testIntegerBatchSerializerRoundTrip() throws IOException {
+        QueueWithBatching<Integer> q = createQueue(DataSerializers.integer(), 100);
+        int[] values = new int[] { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 255, 256 };
+        for (int v : values) {
+            q.offer(v);
+        }
+        for (int v : values) {
+            assertEquals(v, (int) q.poll());
+        }
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        QueueWithBatching<Integer> q = createQueue(DataSerializers.integer(), 3);
+        q.offer(1);
+        q.unsubscribe();
+        assertTrue(q.isUnsubscribed());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        assertTrue(q.offer(2));
+    }
+
+    @Test
+    public void testBatchSerializerUsesItemSerializerWhenNotBatch() throws IOException {
+        final int[] calls = new int[1];
+        DataSerializer<Integer> serializer = new DataSerializer<Integer>() {
+
+            @Override
+            public void serialize(DataOutput output, Integer t) throws IOException {
+                calls[0]++;
+                output.writeInt(t);
+            }
+
+            @Override
+            public Integer deserialize(DataInput input) throws IOException {
+                return input.readInt();
+            }
+
+            @Override
+            public int size() {
+                return 4;
+            }
+        };
+        QueueWithBatching<Integer> q = createQueue(serializer, 2);
+        q.offer(1);
+        q.offer(2);
+        assertEquals(2, calls[0]);
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        q.unsubscribe();
+    }
+
+    private static <T> QueueWithBatching<T> createQueue(DataSerializer<T> serializer,
+            int batchSize) {
+        File file = new File("target/batchq");
+        file.delete();
+        return new QueueWithBatching<T>(new FileBasedSPSCQueue<List<T>>(16, file,
+                new BatchSerializer<T>(serializer)), batchSize);
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.CacheType;
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+public class QueueWithCacheTest {
+
+    @Test
+    public void testItemsInCacheAreNotSerialized() {
+        CountingSerializer serializer = new CountingSerializer();
+        QueueWithCache<Integer> q = createQueue(serializer, 3, CacheType.HARD_REF);
+        assertTrue(q.isEmpty());
+        q.offer(1);
+        q.offer(2);
+        assertFalse(q.isEmpty());
+        assertEquals(1, (int) q.poll());
+        assertEquals(2, (int) q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        assertEquals(0, serializer.serialized);
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testOldestItemsSpillToFileInOrder() {
+        CountingSerializer serializer = new CountingSerializer();
+        QueueWithCache<Integer> q = createQueue(serializer, 3, CacheType.LEAST_RECENTLY_USED);
+        for (int i = 1; i <= 7; i++) {
+            q.offer(i);
+        }
+        assertEquals(4, serializer.serialized);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        q.offer(8);
+        for (int i = 6; i <= 8; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        assertEquals(4, serializer.serialized);
+        assertEquals(4, serializer.deserialized);
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testNulls() {
+        QueueWithCache<Integer> q = createQueue(DataSerializers.<Integer> javaIO(), 1,
+                CacheType.HARD_REF);
+        q.offer(null);
+        q.offer(2);
+        q.offer(null);
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertEquals(2, (int) q.poll());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testWeakRefCacheSpillsUnderModerateMemoryPressure() {
+        CountingSerializer serializer = new CountingSerializer();
+        QueueWithCache<Integer> q = createQueue(serializer, 1000, CacheType.WEAK_REF);
+        for (int i = 1; i <= 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(0, serializer.serialized);
+        MemoryPressure.record(0.6);
+        q.offer(11);
+        assertEquals(10, serializer.serialized);
+        for (int i = 1; i <= 11; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testSoftRefCacheSpillsOnlyUnderHighMemoryPressure() {
+        CountingSerializer serializer = new CountingSerializer();
+        QueueWithCache<Integer> q = createQueue(serializer, 1000, CacheType.SOFT_REF);
+        for (int i = 1; i <= 10; i++) {
+            q.offer(i);
+        }
+        MemoryPressure.record(0.6);
+        q.offer(11);
+        assertEquals(0, serializer.serialized);
+        MemoryPressure.record(0.9);
+        q.offer(12);
+        assertEquals(11, serializer.serialized);
+        for (int i = 1; i <= 12; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        QueueWithCache<Integer> q = createQueue(DataSerializers.integer(), 3, CacheType.HARD_REF);
+        q.offer(1);
+        q.unsubscribe();
+        assertTrue(q.isUnsubscribed());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        assertTrue(q.offer(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCacheNotAllowed() {
+        createQueue(DataSerializers.integer(), 3, CacheType.NO_CACHE);
+    }
+
+    private static final class CountingSerializer implements DataSerializer<Integer> {
+
+        long serialized;
+        long deserialized;
+
+        @Override
+        public void serialize(DataOutput output, Integer t) throws IOException {
+            serialized++;
+            output.writeInt(t);
+        }
+
+        @Override
+        public Integer deserialize(DataInput input) throws IOException {
+            deserialized++;
+            return input.readInt();
+        }
+
+        @Override
+        public int size() {
+            return 4;
+        }
+    }
+
+    private static <T> QueueWithCache<T> createQueue(DataSerializer<T> serializer, int maxItems,
+            CacheType cacheType) {
+        File file = new File("target/cacheq");
+        file.delete();
+        return new QueueWithCache<T>(new FileBasedSPSCQueue<T>(16, file, serializer), maxItems,
+                cacheType);
+    }
+}
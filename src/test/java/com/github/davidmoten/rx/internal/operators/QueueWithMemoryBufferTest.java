@@ -0,0 +1,191 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+
+public class QueueWithMemoryBufferTest {
+
+    @Test
+    public void testItemsInMemoryDoNotCreateDiskQueue() {
+        DiskFactory<Integer> factory = new DiskFactory<Integer>(new CountingSerializer());
+        QueueWithMemoryBuffer<Integer> q = new QueueWithMemoryBuffer<Integer>(4, factory);
+        assertTrue(q.isEmpty());
+        for (int i = 1; i <= 4; i++) {
+            q.offer(i);
+        }
+        assertFalse(q.isEmpty());
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        assertEquals(0, factory.created.get());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testOverflowGoesToDiskInOrderThenBackToMemory() {
+        CountingSerializer serializer = new CountingSerializer();
+        DiskFactory<Integer> factory = new DiskFactory<Integer>(serializer);
+        QueueWithMemoryBuffer<Integer> q = new QueueWithMemoryBuffer<Integer>(4, factory);
+        for (int i = 1; i <= 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(1, factory.created.get());
+        assertEquals(6, serializer.serialized);
+        // while the disk queue is not empty new items go to disk
+        assertEquals(1, (int) q.poll());
+        q.offer(11);
+        assertEquals(7, serializer.serialized);
+        for (int i = 2; i <= 11; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        // disk queue is discarded when drained
+        assertTrue(factory.last.isUnsubscribed());
+        assertFalse(factory.file.exists());
+        q.offer(12);
+        assertEquals(7, serializer.serialized);
+        assertEquals(12, (int) q.poll());
+        // another overflow creates a new disk queue
+        for (int i = 13; i <= 20; i++) {
+            q.offer(i);
+        }
+        assertEquals(2, factory.created.get());
+        for (int i = 13; i <= 20; i++) {
+            assertEquals(i, (int) q.poll());
+        }
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testNulls() {
+        DiskFactory<Integer> factory = new DiskFactory<Integer>(
+                DataSerializers.<Integer> javaIO());
+        QueueWithMemoryBuffer<Integer> q = new QueueWithMemoryBuffer<Integer>(2, factory);
+        q.offer(null);
+        q.offer(2);
+        q.offer(null);
+        q.offer(4);
+        q.offer(null);
+        assertEquals(1, factory.created.get());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertEquals(2, (int) q.poll());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertEquals(4, (int) q.poll());
+        assertTrue(NullSentinel.isNullSentinel(q.poll()));
+        assertNull(q.poll());
+        q.unsubscribe();
+    }
+
+    @Test
+    public void testUnsubscribeDisposesDiskQueue() {
+        DiskFactory<Integer> factory = new DiskFactory<Integer>(DataSerializers.integer());
+        QueueWithMemoryBuffer<Integer> q = new QueueWithMemoryBuffer<Integer>(2, factory);
+        for (int i = 1; i <= 5; i++) {
+            q.offer(i);
+        }
+        q.unsubscribe();
+        assertTrue(q.isUnsubscribed());
+        assertTrue(factory.last.isUnsubscribed());
+        assertFalse(factory.file.exists());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        assertTrue(q.offer(6));
+        assertEquals(1, factory.created.get());
+    }
+
+    @Test
+    public void testConcurrentProducerAndConsumerPreserveOrder() throws InterruptedException {
+        DiskFactory<Integer> factory = new DiskFactory<Integer>(DataSerializers.integer());
+        final QueueWithMemoryBuffer<Integer> q = new QueueWithMemoryBuffer<Integer>(16, factory);
+        final int max = 100000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= max; i++) {
+                    q.offer(i);
+                    if (i % 1000 == 0) {
+                        // let the consumer catch up sometimes
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        int expected = 1;
+        long start = System.currentTimeMillis();
+        while (expected <= max && System.currentTimeMillis() - start < 30000) {
+            Integer t = q.poll();
+            if (t != null) {
+                assertEquals(expected, (int) t);
+                expected++;
+            }
+        }
+        producer.join();
+        assertEquals(max + 1, expected);
+        assertTrue(q.isEmpty());
+        q.unsubscribe();
+    }
+
+    private static final class DiskFactory<T>
+            implements Func1<Subscriber<?>, QueueWithSubscription<T>> {
+
+        final AtomicInteger created = new AtomicInteger();
+        final DataSerializer<T> serializer;
+        volatile QueueWithSubscription<T> last;
+        volatile File file;
+
+        DiskFactory(DataSerializer<T> serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public QueueWithSubscription<T> call(Subscriber<?> resources) {
+            file = new File("target/memq" + created.incrementAndGet());
+            file.delete();
+            last = new QueueWithResourcesNonBlockingUnsubscribe<T>(
+                    new FileBasedSPSCQueue<T>(16, file, serializer));
+            return last;
+        }
+    }
+
+    private static final class CountingSerializer implements DataSerializer<Integer> {
+
+        long serialized;
+
+        @Override
+        public void serialize(DataOutput output, Integer t) throws IOException {
+            serialized++;
+            output.writeInt(t);
+        }
+
+        @Override
+        public Integer deserialize(DataInput input) throws IOException {
+            return input.readInt();
+        }
+
+        @Override
+        public int size() {
+            return 4;
+        }
+    }
+}
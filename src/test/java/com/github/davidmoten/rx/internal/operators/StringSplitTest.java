@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
@@ -130,6 +131,100 @@ public class StringSplitTest {
         ts.assertValues("boo", "and", "you");
     }
 
+    @Test
+    public void testLiteralDelimiterStraddlingChunks() {
+        Observable<String> o = Observable.just("boo<", "-", ">and<-", ">you<-");
+        List<String> list = o.compose(Transformers.split("<->")).toList().toBlocking().single();
+        assertEquals(asList("boo", "and", "you<-"), list);
+    }
+
+    @Test
+    public void testMatchesConcatenateAndSplitForRandomChunks() {
+        Random r = new Random(123);
+        String[] patterns = { ":", "ab", "aba", "\\s+", "a|b", "", "(?=a)", "[ab]:?" };
+        for (String pattern : patterns) {
+            for (int n = 0; n < 200; n++) {
+                List<String> chunks = randomChunks(r);
+                assertEquals(pattern + " " + chunks, reference(chunks, Pattern.compile(pattern)),
+                        Observable.from(chunks).compose(Transformers.split(pattern)).toList()
+                                .toBlocking().single());
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralFlagPattern() {
+        Pattern pattern = Pattern.compile("a.", Pattern.LITERAL);
+        List<String> list = Observable.just("xa", ".ya", "bz").compose(Transformers.split(pattern))
+                .toList().toBlocking().single();
+        assertEquals(asList("x", "yabz"), list);
+    }
+
+    @Test
+    public void testLiteralCaseInsensitivePatternUsesRegex() {
+        Pattern pattern = Pattern.compile("ab", Pattern.LITERAL | Pattern.CASE_INSENSITIVE);
+        List<String> list = Observable.just("xA", "By", "a.bz").compose(Transformers.split(pattern))
+                .toList().toBlocking().single();
+        assertEquals(asList("x", "ya.bz"), list);
+    }
+
+    @Test
+    public void testCaseInsensitivePatternUsesRegex() {
+        Pattern pattern = Pattern.compile("a", Pattern.CASE_INSENSITIVE);
+        List<String> list = Observable.just("xAy", "aZ").compose(Transformers.split(pattern))
+                .toList().toBlocking().single();
+        assertEquals(asList("x", "y", "Z"), list);
+    }
+
+    @Test
+    public void testLongLineAcrossManyChunks() {
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            chunks.add("abc");
+            expected.append("abc");
+        }
+        chunks.add(":end");
+        List<String> list = Observable.from(chunks).compose(Transformers.split(":")).toList()
+                .toBlocking().single();
+        assertEquals(asList(expected.toString(), "end"), list);
+    }
+
+    private static List<String> randomChunks(Random r) {
+        String alphabet = "ab: \t";
+        List<String> chunks = new ArrayList<String>();
+        int count = r.nextInt(6);
+        for (int i = 0; i < count; i++) {
+            StringBuilder b = new StringBuilder();
+            int length = r.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                b.append(alphabet.charAt(r.nextInt(alphabet.length())));
+            }
+            chunks.add(b.toString());
+        }
+        return chunks;
+    }
+
+    // the original algorithm: prepend the leftover to each chunk and split
+    private static List<String> reference(List<String> chunks, Pattern pattern) {
+        List<String> list = new ArrayList<String>();
+        String leftOver = null;
+        for (String s : chunks) {
+            if (leftOver != null) {
+                s = leftOver + s;
+            }
+            String[] parts = pattern.split(s, -1);
+            for (int i = 0; i < parts.length - 1; i++) {
+                list.add(parts[i]);
+            }
+            leftOver = parts[parts.length - 1];
+        }
+        if (leftOver != null) {
+            list.add(leftOver);
+        }
+        return list;
+    }
+
     private static void checkWithBackpressure(Observable<String> o, List<String> expected) {
         final List<String> list = new ArrayList<String>();
         o.compose(Transformers.split(":")).subscribe(createBackpressureSubscriber(list));
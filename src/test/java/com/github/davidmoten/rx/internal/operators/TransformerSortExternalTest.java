@@ -0,0 +1,308 @@
+package com.github.davidmoten.rx.internal.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rx.Transformers;
+import com.github.davidmoten.rx.buffertofile.DataSerializer;
+import com.github.davidmoten.rx.buffertofile.DataSerializers;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.Scheduler;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.plugins.RxJavaHooks;
+import rx.schedulers.Schedulers;
+
+public class TransformerSortExternalTest {
+
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return a.compareTo(b);
+        }
+    };
+
+    @Test
+    public void testSortsRandomDataAcrossManyRuns() {
+        Random r = new Random(12345);
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            list.add(r.nextInt(1000));
+        }
+        Files files = new Files();
+        List<Integer> sorted = Observable.from(list) //
+                .compose(sort(files, 333, Schedulers.computation(), 4)) //
+                .toList() //
+                .toBlocking() //
+                .single();
+        List<Integer> expected = new ArrayList<Integer>(list);
+        Collections.sort(expected);
+        assertEquals(expected, sorted);
+        // the last partial run stays in memory
+        assertEquals(30, files.created.get());
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testComparableOverloadUsesTempFiles() {
+        List<Integer> sorted = Observable.just(5, 3, 1, 4, 2, 6) //
+                .compose(Transformers.<Integer> sortExternal(DataSerializers.integer(), 2)) //
+                .toList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), sorted);
+    }
+
+    @Test
+    public void testEmpty() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Observable.<Integer> empty() //
+                .compose(sort(files, 10, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.assertCompleted();
+        assertEquals(0, files.created.get());
+    }
+
+    @Test
+    public void testSinglePartialRunDoesNotUseFiles() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Observable.just(3, 1, 2) //
+                .compose(sort(files, 10, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertValues(1, 2, 3);
+        ts.assertCompleted();
+        assertEquals(0, files.created.get());
+    }
+
+    @Test
+    public void testExactMultipleOfRunSize() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Observable.just(6, 5, 4, 3, 2, 1) //
+                .compose(sort(files, 2, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertValues(1, 2, 3, 4, 5, 6);
+        ts.assertCompleted();
+        assertEquals(3, files.created.get());
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSortIsStable() {
+        // sort by the tens digit only, the units digit records source order
+        Comparator<Integer> byTens = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return COMPARATOR.compare(a / 10, b / 10);
+            }
+        };
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Observable.just(20, 10, 21, 11, 22, 12, 23, 13, 24) //
+                .compose(TransformerSortExternal.create(DataSerializers.integer(), byTens, 2,
+                        files, Schedulers.computation(), 3)) //
+                .subscribe(ts);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertValues(10, 11, 12, 13, 20, 21, 22, 23, 24);
+        ts.assertCompleted();
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testMergesInPassesWhenMoreRunsThanMaxFanIn() {
+        // sort by the units digit only, the rest records source order
+        Comparator<Integer> byUnits = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return COMPARATOR.compare(a % 10, b % 10);
+            }
+        };
+        Random r = new Random(12345);
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i * 10 + r.nextInt(10));
+        }
+        Files files = new Files();
+        List<Integer> sorted = Observable.from(list) //
+                .compose(TransformerSortExternal.create(DataSerializers.integer(), byUnits,
+                        10, files, Schedulers.computation(), 4, 3)) //
+                .toList() //
+                .toBlocking() //
+                .single();
+        List<Integer> expected = new ArrayList<Integer>(list);
+        Collections.sort(expected, byUnits);
+        assertEquals(expected, sorted);
+        // 100 runs need four passes of intermediate files (33 + 11 + 4 + 1,
+        // a group of one run is passed on as is)
+        assertEquals(149, files.created.get());
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testUnsubscribeWhileSortingCompletesQuietly() {
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        RxJavaHooks.setOnError(new Action1<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+                errors.add(e);
+            }
+        });
+        try {
+            final TestSubscriber<Integer> ts = TestSubscriber.create();
+            Files files = new Files() {
+                @Override
+                public File call() {
+                    // unsubscribe after the first run has been sorted
+                    ts.unsubscribe();
+                    return super.call();
+                }
+            };
+            Observable.range(1, 100) //
+                    .compose(sort(files, 10, Schedulers.immediate(), 2)) //
+                    .subscribe(ts);
+            ts.assertNoValues();
+            ts.assertNoErrors();
+            assertTrue(errors.isEmpty());
+            files.assertAllDeleted();
+        } finally {
+            RxJavaHooks.reset();
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create(0);
+        Observable.range(1, 100) //
+                .map(new Func1<Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer n) {
+                        return 101 - n;
+                    }
+                }) //
+                .compose(sort(files, 10, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.requestMore(3);
+        ts.assertValues(1, 2, 3);
+        ts.requestMore(97);
+        assertEquals(100, ts.getOnNextEvents().size());
+        ts.assertCompleted();
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testFilesDeletedOnEarlyUnsubscribe() {
+        Files files = new Files();
+        List<Integer> list = Observable.range(1, 100) //
+                .compose(sort(files, 10, Schedulers.immediate(), 2)) //
+                .take(5) //
+                .toList() //
+                .toBlocking() //
+                .single();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), list);
+        assertEquals(10, files.created.get());
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSerializerErrorIsEmittedAndFilesDeleted() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        Observable.range(1, 10) //
+                .compose(TransformerSortExternal.create(new FailingSerializer(), COMPARATOR, 2,
+                        files, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.assertError(IOException.class);
+        files.assertAllDeleted();
+    }
+
+    @Test
+    public void testSourceErrorIsEmitted() {
+        Files files = new Files();
+        TestSubscriber<Integer> ts = TestSubscriber.create();
+        RuntimeException e = new RuntimeException();
+        Observable.range(1, 10).concatWith(Observable.<Integer> error(e)) //
+                .compose(sort(files, 3, Schedulers.immediate(), 2)) //
+                .subscribe(ts);
+        ts.assertNoValues();
+        ts.assertError(e);
+        files.assertAllDeleted();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxItemsPerRunMustBePositive() {
+        TransformerSortExternal.create(DataSerializers.integer(), COMPARATOR, 0, new Files(),
+                Schedulers.immediate(), 1);
+    }
+
+    private static Transformer<Integer, Integer> sort(Files files,
+            int maxItemsPerRun, Scheduler scheduler, int maxConcurrentSorts) {
+        return Transformers.sortExternal(DataSerializers.integer(), COMPARATOR, maxItemsPerRun,
+                files, scheduler, maxConcurrentSorts);
+    }
+
+    private static class Files implements Func0<File> {
+
+        final AtomicInteger created = new AtomicInteger();
+        final List<File> files = Collections.synchronizedList(new ArrayList<File>());
+
+        @Override
+        public File call() {
+            File file = new File("target/sortRun-" + System.identityHashCode(this) + "-"
+                    + created.incrementAndGet());
+            files.add(file);
+            return file;
+        }
+
+        void assertAllDeleted() {
+            synchronized (files) {
+                for (File file : files) {
+                    assertTrue(file + " not deleted", !file.exists());
+                }
+            }
+        }
+    }
+
+    private static final class FailingSerializer implements DataSerializer<Integer> {
+
+        @Override
+        public void serialize(DataOutput output, Integer t) throws IOException {
+            throw new IOException("boom");
+        }
+
+        @Override
+        public Integer deserialize(DataInput input) throws IOException {
+            return input.readInt();
+        }
+
+        @Override
+        public int size() {
+            return 4;
+        }
+    }
+}
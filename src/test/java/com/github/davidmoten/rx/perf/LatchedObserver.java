@@ -9,6 +9,7 @@ import rx.Observer;
 public class LatchedObserver<T> implements Observer<T> {
 
     public CountDownLatch latch = new CountDownLatch(1);
+    public volatile Throwable error;
     private final Blackhole bh;
 
     public LatchedObserver(Blackhole bh) {
@@ -22,6 +23,7 @@ public class LatchedObserver<T> implements Observer<T> {
 
     @Override
     public void onError(Throwable e) {
+        error = e;
         latch.countDown();
     }
 